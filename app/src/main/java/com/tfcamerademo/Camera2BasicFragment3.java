@@ -15,102 +15,80 @@ limitations under the License.
 
 package com.tfcamerademo;
 
-import android.Manifest;
-import android.annotation.SuppressLint;
 import android.app.Activity;
 import android.app.AlertDialog;
 import android.app.Dialog;
 import android.app.DialogFragment;
-import android.content.Context;
 import android.content.DialogInterface;
-import android.content.pm.PackageInfo;
-import android.content.pm.PackageManager;
-import android.content.res.Configuration;
-import android.graphics.Bitmap;
-import android.graphics.ImageFormat;
-import android.graphics.Matrix;
-import android.graphics.Point;
-import android.graphics.RectF;
-import android.graphics.SurfaceTexture;
-import android.hardware.camera2.CameraAccessException;
-import android.hardware.camera2.CameraCaptureSession;
+import android.content.res.AssetManager;
 import android.hardware.camera2.CameraCharacteristics;
-import android.hardware.camera2.CameraDevice;
-import android.hardware.camera2.CameraManager;
-import android.hardware.camera2.CaptureRequest;
-import android.hardware.camera2.CaptureResult;
 import android.hardware.camera2.TotalCaptureResult;
-import android.hardware.camera2.params.StreamConfigurationMap;
-import android.media.ImageReader;
 import android.os.Build;
 import android.os.Bundle;
-import android.os.Handler;
-import android.os.HandlerThread;
-import android.support.annotation.NonNull;
 import android.support.annotation.RequiresApi;
-import android.support.v4.app.ActivityCompat;
-import android.support.v4.content.ContextCompat;
 import android.util.Log;
-import android.util.Size;
 import android.view.LayoutInflater;
-import android.view.Surface;
-import android.view.TextureView;
 import android.view.View;
 import android.view.ViewGroup;
 import android.widget.ImageView;
 import android.widget.TextView;
 import android.widget.Toast;
 
+import com.tfcamerademo.camera.CameraEngine;
+import com.tfcamerademo.camera.CameraHost;
+import com.tfcamerademo.camera.CaptureConfigurator;
+import com.tfcamerademo.camera.FrameQualityGate;
+import com.tfcamerademo.camera.YuvFrameReader;
+import com.tfcamerademo.model.ModelFuture;
+import com.tfcamerademo.pipeline.FramePipeline;
+import com.tfcamerademo.pipeline.InferenceResult;
+import com.tfcamerademo.pipeline.InferenceScheduler;
+import com.tfcamerademo.pipeline.LatencyTracker;
+import com.tfcamerademo.pipeline.LatestFrameQueue;
+import com.tfcamerademo.preprocess.RegionOfInterest;
 import com.tfcamerademo.model.TensorFlowImageClassifier3;
 import com.tfcamerademo.view.AutoFitTextureView;
 
-import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.Collections;
-import java.util.Comparator;
+import java.io.IOException;
 import java.util.List;
-import java.util.concurrent.Semaphore;
-import java.util.concurrent.TimeUnit;
 
 /**
  *  用来跑道路识别
  */
-public class Camera2BasicFragment3 extends androidx.fragment.app.Fragment
-        implements FragmentCompat.OnRequestPermissionsResultCallback {
+public class Camera2BasicFragment3 extends androidx.fragment.app.Fragment {
 
     /**
      * Tag for the {@link Log}.
      */
     private static final String TAG = "TfLiteCameraDemo";
 
-    private static final String FRAGMENT_DIALOG = "dialog";
+    private static final String PIPELINE_NAME = "Classifier";
 
-    private static final String HANDLE_THREAD_NAME = "CameraBackground";
+    /**
+     * Frames that waited longer than this for the classifier are dropped.
+     */
+    private static final long MAX_FRAME_AGE_MS = 150;
+
+    /**
+     * OpenPose is the most sensitive to motion blur, frames exposed longer than 1/60 s are skipped.
+     */
+    private static final long MAX_EXPOSURE_NS = 16666666L;
 
-    private static final int PERMISSIONS_REQUEST_CODE = 1;
+    private static final int MAX_SENSITIVITY = 3200;
 
-    private final Object lock = new Object();
-    private boolean runClassifier = false;
-    private boolean checkedPermissions = false;
     private TextView textView;
     private ImageView imageView;
     private Classifier classifier;
     private Classifier classifier2;
 
-
-
-    private static float canvasWidth = 100;
-    private static float canvasHeight = 100;
     /**
-     * Max preview width that is guaranteed by Camera2 API
+     * Loads and warms up the model in the background, it is attached to the camera once ready.
      */
-    private static final int MAX_PREVIEW_WIDTH = 1920;
+    private ModelFuture modelFuture;
 
-    /**
-     * Max preview height that is guaranteed by Camera2 API
-     */
-    private static final int MAX_PREVIEW_HEIGHT = 1080;
 
+    private static float canvasWidth = 100;
+    private static float canvasHeight = 100;
 
 
     //ADAS参数
@@ -125,143 +103,64 @@ public class Camera2BasicFragment3 extends androidx.fragment.app.Fragment
     private static final String INPUT_NAME = "image";
     private static final String OUTPUT_NAME = "Openpose/concat_stage7";
     /**
-     * {@link TextureView.SurfaceTextureListener} handles several lifecycle events on a {@link
-     * TextureView}.
-     */
-    private final TextureView.SurfaceTextureListener surfaceTextureListener =
-            new TextureView.SurfaceTextureListener() {
-
-                @RequiresApi(api = Build.VERSION_CODES.LOLLIPOP)
-                @Override
-                public void onSurfaceTextureAvailable(SurfaceTexture texture, int width, int height) {
-                    openCamera(width, height);
-                }
-
-                @RequiresApi(api = Build.VERSION_CODES.LOLLIPOP)
-                @Override
-                public void onSurfaceTextureSizeChanged(SurfaceTexture texture, int width, int height) {
-                    configureTransform(width, height);
-                }
-
-                @Override
-                public boolean onSurfaceTextureDestroyed(SurfaceTexture texture) {
-                    return true;
-                }
-
-                @Override
-                public void onSurfaceTextureUpdated(SurfaceTexture texture) {
-                }
-            };
-
-    /**
-     * ID of the current {@link CameraDevice}.
-     */
-    private String cameraId = "0";
-
-    /**
-     * An {@link AutoFitTextureView} for camera preview.
+     * The host's camera preview, the results are drawn at its size.
      */
     private AutoFitTextureView textureView;
 
     /**
-     * A {@link CameraCaptureSession } for camera preview.
-     */
-    private CameraCaptureSession captureSession;
-
-    /**
-     * A reference to the opened {@link CameraDevice}.
-     */
-    private CameraDevice cameraDevice;
-
-    /**
-     * The {@link Size} of camera preview.
+     * The host's camera, which stays open when the mode changes.
      */
-    private Size previewSize;
-
-    /**
-     * {@link CameraDevice.StateCallback} is called when {@link CameraDevice} changes its state.
-     */
-    private final CameraDevice.StateCallback stateCallback =
-            new CameraDevice.StateCallback() {
-
-                @RequiresApi(api = Build.VERSION_CODES.LOLLIPOP)
-                @Override
-                public void onOpened(@NonNull CameraDevice currentCameraDevice) {
-                    // This method is called when the camera is opened.  We start camera preview here.
-                    cameraOpenCloseLock.release();
-                    cameraDevice = currentCameraDevice;
-                    createCameraPreviewSession();
-                }
-
-                @SuppressLint("NewApi")
-                @Override
-                public void onDisconnected(@NonNull CameraDevice currentCameraDevice) {
-                    cameraOpenCloseLock.release();
-                    currentCameraDevice.close();
-                    cameraDevice = null;
-                }
-
-                @RequiresApi(api = Build.VERSION_CODES.LOLLIPOP)
-                @Override
-                public void onError(@NonNull CameraDevice currentCameraDevice, int error) {
-                    cameraOpenCloseLock.release();
-                    currentCameraDevice.close();
-                    cameraDevice = null;
-                    Activity activity = getActivity();
-                    if (null != activity) {
-                        activity.finish();
-                    }
-                }
-            };
+    private CameraEngine cameraEngine;
 
     /**
-     * An additional thread for running tasks that shouldn't block the UI.
+     * The host's inference scheduler, shared with the other models that run at the same time.
      */
-    private HandlerThread backgroundThread;
+    private InferenceScheduler inferenceScheduler;
 
     /**
-     * A {@link Handler} for running tasks in the background.
+     * Whether the classifier is attached to the camera.
      */
-    private Handler backgroundHandler;
+    private boolean attached;
 
     /**
-     * An {@link ImageReader} that handles image capture.
+     * Hands the newest converted frame from the camera thread to the inference stage.
      */
-    private ImageReader imageReader;
+    private LatestFrameQueue frameQueue;
 
     /**
-     * {@link CaptureRequest.Builder} for the camera preview
+     * Runs inference and postprocessing on the frames taken from {@link #frameQueue}.
      */
-    private CaptureRequest.Builder previewRequestBuilder;
+    private FramePipeline pipeline;
 
     /**
-     * {@link CaptureRequest} generated by {@link #previewRequestBuilder}
+     * Skips frames that are likely blurred or taken while refocusing.
      */
-    private CaptureRequest previewRequest;
+    private FrameQualityGate qualityGate;
 
     /**
-     * A {@link Semaphore} to prevent the app from exiting before closing the camera.
+     * Per stage latencies from the sensor timestamp until the overlay is shown.
      */
-    private Semaphore cameraOpenCloseLock = new Semaphore(1);
+    private final LatencyTracker latencyTracker = new LatencyTracker();
 
     /**
-     * A {@link CameraCaptureSession.CaptureCallback} that handles events related to capture.
+     * Attaches the classifier to the YUV stream and feeds the quality gate, on the camera thread.
      */
-    private CameraCaptureSession.CaptureCallback captureCallback =
-            new CameraCaptureSession.CaptureCallback() {
+    private final CameraEngine.FrameConsumer frameConsumer =
+            new CameraEngine.FrameConsumer() {
 
                 @Override
-                public void onCaptureProgressed(
-                        @NonNull CameraCaptureSession session,
-                        @NonNull CaptureRequest request,
-                        @NonNull CaptureResult partialResult) {
+                public void onFrameReaderReady(YuvFrameReader frameReader) {
+                    if (frameQueue != null) {
+                        frameReader.addTarget(classifier.getInputFormat(), frameQueue);
+                        frameReader.setQualityGate(qualityGate);
+                    }
                 }
 
                 @Override
-                public void onCaptureCompleted(
-                        @NonNull CameraCaptureSession session,
-                        @NonNull CaptureRequest request,
-                        @NonNull TotalCaptureResult result) {
+                public void onCaptureCompleted(TotalCaptureResult result) {
+                    if (qualityGate != null) {
+                        qualityGate.onCaptureCompleted(result);
+                    }
                 }
             };
 
@@ -283,65 +182,6 @@ public class Camera2BasicFragment3 extends androidx.fragment.app.Fragment
         }
     }
 
-    /**
-     * Resizes image.
-     * <p>
-     * Attempting to use too large a preview size could  exceed the camera bus' bandwidth limitation,
-     * resulting in gorgeous previews but the storage of garbage capture data.
-     * <p>
-     * Given {@code choices} of {@code Size}s supported by a camera, choose the smallest one that is
-     * at least as large as the respective texture view size, and that is at most as large as the
-     * respective max size, and whose aspect ratio matches with the specified value. If such size
-     * doesn't exist, choose the largest one that is at most as large as the respective max size, and
-     * whose aspect ratio matches with the specified value.
-     *
-     * @param choices           The list of sizes that the camera supports for the intended output class
-     * @param textureViewWidth  The width of the texture view relative to sensor coordinate
-     * @param textureViewHeight The height of the texture view relative to sensor coordinate
-     * @param maxWidth          The maximum width that can be chosen
-     * @param maxHeight         The maximum height that can be chosen
-     * @param aspectRatio       The aspect ratio
-     * @return The optimal {@code Size}, or an arbitrary one if none were big enough
-     */
-    @RequiresApi(api = Build.VERSION_CODES.LOLLIPOP)
-    private static Size chooseOptimalSize(
-            Size[] choices,
-            int textureViewWidth,
-            int textureViewHeight,
-            int maxWidth,
-            int maxHeight,
-            Size aspectRatio) {
-
-        // Collect the supported resolutions that are at least as big as the preview Surface
-        List<Size> bigEnough = new ArrayList<>();
-        // Collect the supported resolutions that are smaller than the preview Surface
-        List<Size> notBigEnough = new ArrayList<>();
-        int w = aspectRatio.getWidth();
-        int h = aspectRatio.getHeight();
-        for (Size option : choices) {
-            if (option.getWidth() <= maxWidth
-                    && option.getHeight() <= maxHeight
-                    && option.getHeight() == option.getWidth() * h / w) {
-                if (option.getWidth() >= textureViewWidth && option.getHeight() >= textureViewHeight) {
-                    bigEnough.add(option);
-                } else {
-                    notBigEnough.add(option);
-                }
-            }
-        }
-
-        // Pick the smallest of those big enough. If there is no one big enough, pick the
-        // largest of those not big enough.
-        if (bigEnough.size() > 0) {
-            return Collections.min(bigEnough, new CompareSizesByArea());
-        } else if (notBigEnough.size() > 0) {
-            return Collections.max(notBigEnough, new CompareSizesByArea());
-        } else {
-            Log.e(TAG, "Couldn't find any suitable preview size");
-            return choices[0];
-        }
-    }
-
     public static Camera2BasicFragment3 newInstance() {
         return new Camera2BasicFragment3();
     }
@@ -360,7 +200,10 @@ public class Camera2BasicFragment3 extends androidx.fragment.app.Fragment
      */
     @Override
     public void onViewCreated(final View view, Bundle savedInstanceState) {
-        textureView = (AutoFitTextureView) view.findViewById(R.id.texture);
+        CameraHost host = (CameraHost) getActivity();
+        textureView = host.getTextureView();
+        cameraEngine = host.getCameraEngine();
+        inferenceScheduler = host.getInferenceScheduler();
         textView = (TextView) view.findViewById(R.id.text);
         imageView = (ImageView) view.findViewById(R.id.imageView);
     }
@@ -371,13 +214,14 @@ public class Camera2BasicFragment3 extends androidx.fragment.app.Fragment
     @Override
     public void onActivityCreated(Bundle savedInstanceState) {
         super.onActivityCreated(savedInstanceState);
-        // create either a new ImageClassifierQuantizedMobileNet or an ImageClassifierFloatInception
-        classifier =
-//                    TensorFlowObjectDetectionAPIModel.create(
-//                    this.getActivity().getAssets(), TF_OD_API_MODEL_FILE, TF_OD_API_LABELS_FILE, TF_OD_API_INPUT_SIZE);
-                TensorFlowImageClassifier3.create(this.getActivity(),
+        final Activity activity = getActivity();
+        final AssetManager assets = activity.getAssets();
+        modelFuture = ModelFuture.load(PIPELINE_NAME, new ModelFuture.Factory() {
+            @Override
+            public Classifier create() throws IOException {
+                return TensorFlowImageClassifier3.create(activity,
                         imageView,
-                        getActivity().getAssets(),
+                        assets,
                         MODEL_FILE,
                         LABEL_FILE,
                         TF_OD_API_INPUT_SIZE,
@@ -386,283 +230,150 @@ public class Camera2BasicFragment3 extends androidx.fragment.app.Fragment
                         IMAGE_STD,
                         INPUT_NAME,
                         OUTPUT_NAME);
-
-        startBackgroundThread();
+            }
+        }, ModelFuture.DEFAULT_WARM_UP_RUNS);
+        modelFuture.setListener(modelListener);
     }
 
-    @RequiresApi(api = Build.VERSION_CODES.LOLLIPOP)
     @Override
     public void onResume() {
         super.onResume();
-        startBackgroundThread();
-
-        // When the screen is turned off and turned back on, the SurfaceTexture is already
-        // available, and "onSurfaceTextureAvailable" will not be called. In that case, we can open
-        // a camera and start preview from here (otherwise, we wait until the surface is ready in
-        // the SurfaceTextureListener).
-        if (textureView.isAvailable()) {
-            Log.e("ccccccc", textureView.getWidth() + "   " + textureView.getHeight());
-
-            openCamera(textureView.getWidth(), textureView.getHeight());
-            imageView.getLayoutParams().width = textureView.getWidth();
-            imageView.getLayoutParams().height = textureView.getHeight();
-
-        } else {
-            textureView.setSurfaceTextureListener(surfaceTextureListener);
+        if (!isHidden()) {
+            attachToCamera();
         }
     }
 
-    @RequiresApi(api = Build.VERSION_CODES.JELLY_BEAN_MR2)
     @Override
     public void onPause() {
-        closeCamera();
-        stopBackgroundThread();
+        detachFromCamera();
         super.onPause();
     }
 
+    /**
+     * Mode switches hide the fragment instead of removing it, the camera stays open.
+     */
+    @Override
+    public void onHiddenChanged(boolean hidden) {
+        super.onHiddenChanged(hidden);
+        if (!isResumed()) {
+            return;
+        }
+        if (hidden) {
+            detachFromCamera();
+        } else {
+            attachToCamera();
+        }
+    }
+
     @Override
     public void onDestroy() {
-        classifier.close();
+        modelFuture.close();
         super.onDestroy();
     }
 
     /**
-     * Sets up member variables related to camera.
-     *
-     * @param width  The width of available size for camera preview
-     * @param height The height of available size for camera preview
+     * Called on the loader thread, continues on the main thread.
      */
-    @RequiresApi(api = Build.VERSION_CODES.LOLLIPOP)
-    private void setUpCameraOutputs(int width, int height) {
-        Activity activity = getActivity();
-        CameraManager manager = (CameraManager) activity.getSystemService(Context.CAMERA_SERVICE);
-        try {
-            for (String cameraId : manager.getCameraIdList()) {
-                CameraCharacteristics characteristics = manager.getCameraCharacteristics(cameraId);
-
-                // We don't use a front facing camera in this sample.
-                Integer facing = characteristics.get(CameraCharacteristics.LENS_FACING);
-                if (facing != null && facing == CameraCharacteristics.LENS_FACING_FRONT) {
-                    continue;
-                }
-
-                StreamConfigurationMap map =
-                        characteristics.get(CameraCharacteristics.SCALER_STREAM_CONFIGURATION_MAP);
-                if (map == null) {
-                    continue;
-                }
-
-                // // For still image captures, we use the largest available size.
-                Size largest =
-                        Collections.max(
-                                Arrays.asList(map.getOutputSizes(ImageFormat.JPEG)), new CompareSizesByArea());
-                imageReader =
-                        ImageReader.newInstance(
-                                largest.getWidth(), largest.getHeight(), ImageFormat.JPEG, /*maxImages*/ 2);
-
-                // Find out if we need to swap dimension to get the preview size relative to sensor
-                // coordinate.
-                int displayRotation = activity.getWindowManager().getDefaultDisplay().getRotation();
-                // noinspection ConstantConditions
-        /* Orientation of the camera sensor */
-                int sensorOrientation = characteristics.get(CameraCharacteristics.SENSOR_ORIENTATION);
-                boolean swappedDimensions = false;
-                switch (displayRotation) {
-                    case Surface.ROTATION_0:
-                    case Surface.ROTATION_180:
-                        if (sensorOrientation == 90 || sensorOrientation == 270) {
-                            swappedDimensions = true;
-                        }
-                        break;
-                    case Surface.ROTATION_90:
-                    case Surface.ROTATION_270:
-                        if (sensorOrientation == 0 || sensorOrientation == 180) {
-                            swappedDimensions = true;
+    private final ModelFuture.Listener modelListener =
+            new ModelFuture.Listener() {
+                @Override
+                public void onModelReady(final ModelFuture model) {
+                    final Activity activity = getActivity();
+                    if (activity == null) {
+                        return;
+                    }
+                    activity.runOnUiThread(new Runnable() {
+                        @Override
+                        public void run() {
+                            onModelReady(model);
                         }
-                        break;
-                    default:
-                        Log.e(TAG, "Display rotation is invalid: " + displayRotation);
-                }
-
-                Point displaySize = new Point();
-                activity.getWindowManager().getDefaultDisplay().getSize(displaySize);
-                int rotatedPreviewWidth = width;
-                int rotatedPreviewHeight = height;
-                int maxPreviewWidth = displaySize.x;
-                int maxPreviewHeight = displaySize.y;
-
-                if (swappedDimensions) {
-                    rotatedPreviewWidth = height;
-                    rotatedPreviewHeight = width;
-                    maxPreviewWidth = displaySize.y;
-                    maxPreviewHeight = displaySize.x;
-                }
-
-                if (maxPreviewWidth > MAX_PREVIEW_WIDTH) {
-                    maxPreviewWidth = MAX_PREVIEW_WIDTH;
-                }
-
-                if (maxPreviewHeight > MAX_PREVIEW_HEIGHT) {
-                    maxPreviewHeight = MAX_PREVIEW_HEIGHT;
-                }
-
-                previewSize =
-                        chooseOptimalSize(
-                                map.getOutputSizes(SurfaceTexture.class),
-                                rotatedPreviewWidth,
-                                rotatedPreviewHeight,
-                                maxPreviewWidth,
-                                maxPreviewHeight,
-                                largest);
-
-                // We fit the aspect ratio of TextureView to the size of preview we picked.
-                int orientation = getResources().getConfiguration().orientation;
-                if (orientation == Configuration.ORIENTATION_LANDSCAPE) {
-                    textureView.setAspectRatio(previewSize.getWidth(), previewSize.getHeight());
-                } else {
-                    textureView.setAspectRatio(previewSize.getHeight(), previewSize.getWidth());
+                    });
                 }
+            };
 
-                //修改摄像头方向
-                this.cameraId = "0";
-                return;
-            }
-        } catch (CameraAccessException e) {
-            e.printStackTrace();
-        } catch (NullPointerException e) {
-            // Currently an NPE is thrown when the Camera2API is used but not supported on the
-            // device this code runs.
-            ErrorDialog.newInstance(getString(R.string.camera_error))
-                    .show(getChildFragmentManager(), FRAGMENT_DIALOG);
+    /**
+     * Sets the frame path up for the model and starts it if the fragment is attached already.
+     */
+    private void onModelReady(ModelFuture model) {
+        if (model != modelFuture || classifier != null) {
+            return;
         }
-    }
-
-    private String[] getRequiredPermissions() {
-        Activity activity = getActivity();
-        try {
-            PackageInfo info =
-                    activity
-                            .getPackageManager()
-                            .getPackageInfo(activity.getPackageName(), PackageManager.GET_PERMISSIONS);
-            String[] ps = info.requestedPermissions;
-            if (ps != null && ps.length > 0) {
-                return ps;
-            } else {
-                return new String[0];
-            }
-        } catch (Exception e) {
-            return new String[0];
+        classifier = model.getNow();
+        if (classifier == null) {
+            Log.e(TAG, "Failed to initialize an image classifier.", model.getFailure());
+            return;
+        }
+        frameQueue = new LatestFrameQueue(classifier.getInputFormat(), MAX_FRAME_AGE_MS,
+                classifier.getParallelism());
+        qualityGate = new FrameQualityGate(MAX_EXPOSURE_NS, MAX_SENSITIVITY);
+        if (attached) {
+            startModel();
         }
     }
 
     /**
-     * Opens the camera specified by {@link Camera2BasicFragment3#cameraId}.
+     * Attaches the classifier to the camera stream and starts the pipeline.
      */
-    @RequiresApi(api = Build.VERSION_CODES.LOLLIPOP)
-    private void openCamera(int width, int height) {
-
-        Log.e("ccccccc", width + "   " + height);
-        if (!checkedPermissions && !allPermissionsGranted()) {
-            FragmentCompat.requestPermissions(this, getRequiredPermissions(), PERMISSIONS_REQUEST_CODE);
+    private void attachToCamera() {
+        if (attached) {
             return;
-        } else {
-            checkedPermissions = true;
-        }
-        setUpCameraOutputs(width, height);
-        configureTransform(width, height);
-        imageView.getLayoutParams().width = width;
-        imageView.getLayoutParams().height = height;
-        Activity activity = getActivity();
-        CameraManager manager = (CameraManager) activity.getSystemService(Context.CAMERA_SERVICE);
-        try {
-            if (!cameraOpenCloseLock.tryAcquire(2500, TimeUnit.MILLISECONDS)) {
-                throw new RuntimeException("Time out waiting to lock camera opening.");
-            }
-            if (ActivityCompat.checkSelfPermission(this.getActivity(), Manifest.permission.CAMERA) != PackageManager.PERMISSION_GRANTED) {
-                // TODO: Consider calling
-                //    ActivityCompat#requestPermissions
-                // here to request the missing permissions, and then overriding
-                //   public void onRequestPermissionsResult(int requestCode, String[] permissions,
-                //                                          int[] grantResults)
-                // to handle the case where the user grants the permission. See the documentation
-                // for ActivityCompat#requestPermissions for more details.
-                return;
-            }
-            manager.openCamera(cameraId, stateCallback, backgroundHandler);
-        } catch (CameraAccessException e) {
-            e.printStackTrace();
-        } catch (InterruptedException e) {
-            throw new RuntimeException("Interrupted while trying to lock camera opening.", e);
         }
-    }
-
-    private boolean allPermissionsGranted() {
-        for (String permission : getRequiredPermissions()) {
-            if (ContextCompat.checkSelfPermission(getActivity(), permission)
-                    != PackageManager.PERMISSION_GRANTED) {
-                return false;
-            }
+        attached = true;
+        imageView.getLayoutParams().width = textureView.getWidth();
+        imageView.getLayoutParams().height = textureView.getHeight();
+        cameraEngine.setLensFacing(CameraCharacteristics.LENS_FACING_BACK);
+        cameraEngine.setAnalysisSize(
+                RegionOfInterest.FULL_FRAME.getMinimumFrameWidth(TF_OD_API_INPUT_SIZE),
+                RegionOfInterest.FULL_FRAME.getMinimumFrameHeight(TF_OD_API_INPUT_SIZE));
+        if (classifier != null) {
+            startModel();
         }
-        return true;
     }
 
-    @Override
-    public void onRequestPermissionsResult(
-            int requestCode, @NonNull String[] permissions, @NonNull int[] grantResults) {
-        super.onRequestPermissionsResult(requestCode, permissions, grantResults);
+    /**
+     * Starts the pipeline and takes camera frames, once the model is ready.
+     */
+    private void startModel() {
+        startBackgroundThread();
+        cameraEngine.setFrameConsumer(frameConsumer);
     }
 
     /**
-     * Closes the current {@link CameraDevice}.
+     * Detaches the classifier from the camera stream and stops the pipeline.
      */
-    @SuppressLint("NewApi")
-    private void closeCamera() {
-        try {
-            cameraOpenCloseLock.acquire();
-            if (null != captureSession) {
-                captureSession.close();
-                captureSession = null;
-            }
-            if (null != cameraDevice) {
-                cameraDevice.close();
-                cameraDevice = null;
-            }
-            if (null != imageReader) {
-                imageReader.close();
-                imageReader = null;
-            }
-        } catch (InterruptedException e) {
-            throw new RuntimeException("Interrupted while trying to lock camera closing.", e);
-        } finally {
-            cameraOpenCloseLock.release();
+    private void detachFromCamera() {
+        if (!attached) {
+            return;
         }
+        attached = false;
+        cameraEngine.removeFrameConsumer(frameConsumer);
+        stopBackgroundThread();
     }
 
     /**
-     * Starts a background thread and its {@link Handler}.
+     * Starts the pipeline threads.
      */
     private void startBackgroundThread() {
-        backgroundThread = new HandlerThread(HANDLE_THREAD_NAME);
-        backgroundThread.start();
-        backgroundHandler = new Handler(backgroundThread.getLooper());
-        synchronized (lock) {
-            runClassifier = true;
+        if (frameQueue != null) {
+            pipeline = new FramePipeline(PIPELINE_NAME, classifier, frameQueue, resultListener, latencyTracker,
+                    inferenceScheduler, 1);
+            pipeline.start();
+            cameraEngine.setTargetFps(CaptureConfigurator.getConsumableFps(pipeline));
         }
-        backgroundHandler.post(periodicClassify);
     }
 
     /**
-     * Stops the background thread and its {@link Handler}.
+     * Stops the pipeline threads.
      */
     @RequiresApi(api = Build.VERSION_CODES.JELLY_BEAN_MR2)
     private void stopBackgroundThread() {
-        backgroundThread.quitSafely();
         try {
-            backgroundThread.join();
-            backgroundThread = null;
-            backgroundHandler = null;
-            synchronized (lock) {
-                runClassifier = false;
+            if (pipeline != null) {
+                pipeline.quit();
+                Log.i(TAG, "Pipeline: " + pipeline.getStatString());
+                Log.i(TAG, "Quality gate: " + qualityGate.getStatString());
+                Log.i(TAG, "Latency (ms):\n" + latencyTracker.getStatString());
+                pipeline = null;
             }
         } catch (InterruptedException e) {
             e.printStackTrace();
@@ -670,128 +381,36 @@ public class Camera2BasicFragment3 extends androidx.fragment.app.Fragment
     }
 
     /**
-     * Takes photos and classify them periodically.
+     * Draws the decoded results on the postprocess thread.
      */
-    private Runnable periodicClassify =
-            new Runnable() {
+    private final FramePipeline.ResultListener resultListener =
+            new FramePipeline.ResultListener() {
                 @Override
-                public void run() {
-                    synchronized (lock) {
-                        if (runClassifier) {
-                            classifyFrame();
+                public void onResults(InferenceResult result, List<Classifier.Recognition> recognitions) {
+                    modelFuture.markFirstResult();
+                    // Follows the latencies, the request only changes with the fps range.
+                    cameraEngine.setTargetFps(CaptureConfigurator.getConsumableFps(pipeline));
+                    drawResults(recognitions);
+                    final long captureNanos = result.getCaptureNanos();
+                    final long postedNanos = System.nanoTime();
+                    // The model has already posted its overlay to imageView, this runs right after it.
+                    imageView.post(new Runnable() {
+                        @Override
+                        public void run() {
+                            latencyTracker.recordDisplay(captureNanos, postedNanos);
                         }
-                    }
-                    backgroundHandler.post(periodicClassify);
+                    });
                 }
             };
 
     /**
-     * Creates a new {@link CameraCaptureSession} for camera preview.
-     */
-    @RequiresApi(api = Build.VERSION_CODES.LOLLIPOP)
-    private void createCameraPreviewSession() {
-        try {
-            SurfaceTexture texture = textureView.getSurfaceTexture();
-            assert texture != null;
-
-            // We configure the size of default buffer to be the size of camera preview we want.
-            texture.setDefaultBufferSize(previewSize.getWidth(), previewSize.getHeight());
-
-            // This is the output Surface we need to start preview.
-            Surface surface = new Surface(texture);
-
-            // We set up a CaptureRequest.Builder with the output Surface.
-            previewRequestBuilder = cameraDevice.createCaptureRequest(CameraDevice.TEMPLATE_PREVIEW);
-            previewRequestBuilder.addTarget(surface);
-
-            // Here, we create a CameraCaptureSession for camera preview.
-            cameraDevice.createCaptureSession(
-                    Arrays.asList(surface),
-                    new CameraCaptureSession.StateCallback() {
-
-                        @Override
-                        public void onConfigured(@NonNull CameraCaptureSession cameraCaptureSession) {
-                            // The camera is already closed
-                            if (null == cameraDevice) {
-                                return;
-                            }
-
-                            // When the session is ready, we start displaying the preview.
-                            captureSession = cameraCaptureSession;
-                            try {
-                                // Auto focus should be continuous for camera preview.
-                                previewRequestBuilder.set(
-                                        CaptureRequest.CONTROL_AF_MODE,
-                                        CaptureRequest.CONTROL_AF_MODE_CONTINUOUS_PICTURE);
-
-                                // Finally, we start displaying the camera preview.
-                                previewRequest = previewRequestBuilder.build();
-                                captureSession.setRepeatingRequest(
-                                        previewRequest, captureCallback, backgroundHandler);
-                            } catch (CameraAccessException e) {
-                                e.printStackTrace();
-                            }
-                        }
-
-                        @Override
-                        public void onConfigureFailed(@NonNull CameraCaptureSession cameraCaptureSession) {
-                            showToast("Failed");
-                        }
-                    },
-                    null);
-        } catch (CameraAccessException e) {
-            e.printStackTrace();
-        }
-    }
-
-    /**
-     * Configures the necessary {@link Matrix} transformation to `textureView`. This
-     * method should be called after the camera preview size is determined in setUpCameraOutputs and
-     * also the size of `textureView` is fixed.
-     *
-     * @param viewWidth  The width of `textureView`
-     * @param viewHeight The height of `textureView`
-     */
-    @RequiresApi(api = Build.VERSION_CODES.LOLLIPOP)
-    private void configureTransform(int viewWidth, int viewHeight) {
-        Activity activity = getActivity();
-        if (null == textureView || null == previewSize || null == activity) {
-            return;
-        }
-        int rotation = activity.getWindowManager().getDefaultDisplay().getRotation();
-        Matrix matrix = new Matrix();
-        RectF viewRect = new RectF(0, 0, viewWidth, viewHeight);
-        RectF bufferRect = new RectF(0, 0, previewSize.getHeight(), previewSize.getWidth());
-        float centerX = viewRect.centerX();
-        float centerY = viewRect.centerY();
-        if (Surface.ROTATION_90 == rotation || Surface.ROTATION_270 == rotation) {
-            bufferRect.offset(centerX - bufferRect.centerX(), centerY - bufferRect.centerY());
-            matrix.setRectToRect(viewRect, bufferRect, Matrix.ScaleToFit.FILL);
-            float scale =
-                    Math.max(
-                            (float) viewHeight / previewSize.getHeight(),
-                            (float) viewWidth / previewSize.getWidth());
-            matrix.postScale(scale, scale, centerX, centerY);
-            matrix.postRotate(90 * (rotation - 2), centerX, centerY);
-        } else if (Surface.ROTATION_180 == rotation) {
-            matrix.postRotate(180, centerX, centerY);
-        }
-        textureView.setTransform(matrix);
-    }
-
-    /**
-     * Classifies a frame from the preview stream.
+     * Resizes the overlay to the preview, the model draws its own results.
      */
-    private void classifyFrame() {
-        if (classifier == null || getActivity() == null || cameraDevice == null) {
+    private void drawResults(final List<Classifier.Recognition> results) {
+        if (classifier == null || getActivity() == null || !cameraEngine.isOpened()) {
             showToast("Uninitialized Classifier or invalid context.");
             return;
         }
-        Bitmap bitmap = textureView.getBitmap(TF_OD_API_INPUT_SIZE, TF_OD_API_INPUT_SIZE);
-
-        final List<Classifier.Recognition> results = classifier.recognizeImage(
-                bitmap
-        );
 
         canvasWidth = textureView.getWidth();
         canvasHeight = textureView.getHeight();
@@ -801,21 +420,6 @@ public class Camera2BasicFragment3 extends androidx.fragment.app.Fragment
             imageView.getLayoutParams().width = textureView.getWidth();
             imageView.getLayoutParams().height = textureView.getHeight();
         }
-        bitmap.recycle();
-    }
-
-    /**
-     * Compares two {@code Size}s based on their areas.
-     */
-    private static class CompareSizesByArea implements Comparator<Size> {
-
-        @RequiresApi(api = Build.VERSION_CODES.LOLLIPOP)
-        @Override
-        public int compare(Size lhs, Size rhs) {
-            // We cast here to ensure the multiplications won't overflow
-            return Long.signum(
-                    (long) lhs.getWidth() * lhs.getHeight() - (long) rhs.getWidth() * rhs.getHeight());
-        }
     }
 
     /**
@@ -15,67 +15,51 @@ limitations under the License.
 
 package com.tfcamerademo;
 
-import android.Manifest;
-import android.annotation.SuppressLint;
 import android.app.Activity;
 import android.app.AlertDialog;
 import android.app.Dialog;
 import android.app.DialogFragment;
 import android.app.Fragment;
-import android.content.Context;
 import android.content.DialogInterface;
-import android.content.pm.PackageInfo;
-import android.content.pm.PackageManager;
-import android.content.res.Configuration;
+import android.content.res.AssetManager;
 import android.graphics.Bitmap;
 import android.graphics.Canvas;
 import android.graphics.Color;
-import android.graphics.ImageFormat;
-import android.graphics.Matrix;
 import android.graphics.Paint;
-import android.graphics.Point;
-import android.graphics.RectF;
-import android.graphics.SurfaceTexture;
-import android.hardware.camera2.CameraAccessException;
-import android.hardware.camera2.CameraCaptureSession;
 import android.hardware.camera2.CameraCharacteristics;
-import android.hardware.camera2.CameraDevice;
-import android.hardware.camera2.CameraManager;
-import android.hardware.camera2.CaptureRequest;
-import android.hardware.camera2.CaptureResult;
 import android.hardware.camera2.TotalCaptureResult;
-import android.hardware.camera2.params.StreamConfigurationMap;
-import android.media.ImageReader;
 import android.os.Build;
 import android.os.Bundle;
-import android.os.Handler;
-import android.os.HandlerThread;
-import android.support.annotation.NonNull;
 import android.support.annotation.RequiresApi;
-import android.support.v4.app.ActivityCompat;
-import android.support.v4.content.ContextCompat;
 import android.util.Log;
-import android.util.Size;
 import android.view.LayoutInflater;
-import android.view.Surface;
-import android.view.TextureView;
 import android.view.View;
 import android.view.ViewGroup;
 import android.widget.ImageView;
 import android.widget.TextView;
 import android.widget.Toast;
 
+import com.tfcamerademo.camera.CameraEngine;
+import com.tfcamerademo.camera.CameraHost;
+import com.tfcamerademo.camera.CaptureConfigurator;
+import com.tfcamerademo.camera.FrameQualityGate;
+import com.tfcamerademo.camera.YuvFrameReader;
+import com.tfcamerademo.model.ModelFuture;
+import com.tfcamerademo.pipeline.FramePipeline;
+import com.tfcamerademo.pipeline.InferenceResult;
+import com.tfcamerademo.pipeline.InferenceScheduler;
+import com.tfcamerademo.pipeline.LatencyTracker;
+import com.tfcamerademo.pipeline.LatestFrameQueue;
+import com.tfcamerademo.preprocess.MotionGate;
+import com.tfcamerademo.preprocess.RegionOfInterest;
 import com.tfcamerademo.model.TensorFlowObjectDetectionAPIModel;
+import com.tfcamerademo.monitor.CabinMonitor;
+import com.tfcamerademo.monitor.RoadMonitor;
+import com.tfcamerademo.source.CameraFrameSource;
 import com.tfcamerademo.view.AutoFitTextureView;
 
 import java.io.IOException;
-import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.Collections;
-import java.util.Comparator;
 import java.util.List;
-import java.util.concurrent.Semaphore;
-import java.util.concurrent.TimeUnit;
 
 /**
  * 这是一个用检测来识别车道和前车
@@ -85,184 +69,145 @@ import java.util.concurrent.TimeUnit;
  * 如果是检测出前面的车辆中心点在横屏8分之2到8分之6的范围内则判断中心点居上距离大于一定范围则算前车过近
  *          或者如果车的高度大于一定级别则算前车过近
  */
-public class Camera2BasicFragment4 extends Fragment
-        implements Fragment.OnRequestPermissionsResultCallback {
+public class Camera2BasicFragment4 extends Fragment {
 
     /**
      * Tag for the {@link Log}.
      */
     private static final String TAG = "TfLiteCameraDemo";
 
-    private static final String FRAGMENT_DIALOG = "dialog";
+    private static final String PIPELINE_NAME = "Classifier";
 
-    private static final String HANDLE_THREAD_NAME = "CameraBackground";
+    private static final String CABIN_SOURCE_NAME = "Cabin";
 
-    private static final int PERMISSIONS_REQUEST_CODE = 1;
+    private static final String ARG_WITH_CABIN = "withCabin";
 
-    private final Object lock = new Object();
-    private boolean runClassifier = false;
-    private boolean checkedPermissions = false;
-    private TextView textView;
-    private ImageView imageView;
-    private Classifier classifier;
-
-
-    private static final String TF_OD_API_MODEL_FILE = "file:///android_asset/car_and_line.pb";
-    private static final String TF_OD_API_LABELS_FILE = "file:///android_asset/coco_labels_list.txt";
-    private static final int TF_OD_API_INPUT_SIZE = 300;
-    private static final float MINIMUM_CONFIDENCE_TF_OD_API = 0.3f;
+    /**
+     * 前车和车道检测比驾驶员监测更要紧，同时运行时分到两倍的推理时间
+     */
+    private static final int INFERENCE_WEIGHT = 2;
 
-    private static float canvasWidth = 100;
+    private static final int CABIN_INFERENCE_WEIGHT = 1;
 
-    private static float canvasHeight = 100;
     /**
-     * Max preview width that is guaranteed by Camera2 API
+     * Frames that waited longer than this for the classifier are dropped.
      */
-    private static final int MAX_PREVIEW_WIDTH = 1920;
+    private static final long MAX_FRAME_AGE_MS = 150;
 
     /**
-     * Max preview height that is guaranteed by Camera2 API
+     * Frames exposed longer than 1/30 s are likely blurred and skipped.
      */
-    private static final int MAX_PREVIEW_HEIGHT = 1080;
+    private static final long MAX_EXPOSURE_NS = 33333333L;
+
+    private static final int MAX_SENSITIVITY = 3200;
 
     /**
-     * {@link TextureView.SurfaceTextureListener} handles several lifecycle events on a {@link
-     * TextureView}.
+     * Mean luma difference of a block that counts as motion.
      */
-    private final TextureView.SurfaceTextureListener surfaceTextureListener =
-            new TextureView.SurfaceTextureListener() {
-
-                @RequiresApi(api = Build.VERSION_CODES.LOLLIPOP)
-                @Override
-                public void onSurfaceTextureAvailable(SurfaceTexture texture, int width, int height) {
-                    openCamera(width, height);
-                }
+    private static final int MOTION_BLOCK_THRESHOLD = 8;
 
-                @RequiresApi(api = Build.VERSION_CODES.LOLLIPOP)
-                @Override
-                public void onSurfaceTextureSizeChanged(SurfaceTexture texture, int width, int height) {
-                    configureTransform(width, height);
-                }
+    /**
+     * Static scenes are still classified this often.
+     */
+    private static final long MOTION_REFRESH_INTERVAL_MS = 1000;
 
-                @Override
-                public boolean onSurfaceTextureDestroyed(SurfaceTexture texture) {
-                    return true;
-                }
+    private TextView textView;
+    private ImageView imageView;
+    private Classifier classifier;
 
-                @Override
-                public void onSurfaceTextureUpdated(SurfaceTexture texture) {
-                }
-            };
+    /**
+     * 模型在后台加载和预热，就绪后才挂到相机上
+     */
+    private ModelFuture modelFuture;
 
+    private static final String TF_OD_API_MODEL_FILE = "file:///android_asset/car_and_line.pb";
+    private static final String TF_OD_API_LABELS_FILE = "file:///android_asset/coco_labels_list.txt";
+    private static final int TF_OD_API_INPUT_SIZE = 300;
+    private static final float MINIMUM_CONFIDENCE_TF_OD_API = 0.3f;
     /**
-     * ID of the current {@link CameraDevice}.
+     * 车辆和车道检测只看地平线以下的区域
      */
-    private String cameraId = "0";
+    private static final RegionOfInterest DETECTION_REGION = new RegionOfInterest(0f, 0.4f, 1f, 1f);
+
+    private static float canvasWidth = 100;
 
+    private static float canvasHeight = 100;
     /**
-     * An {@link AutoFitTextureView} for camera preview.
+     * 宿主 Activity 的相机预览，识别结果按它的尺寸绘制
      */
     private AutoFitTextureView textureView;
 
     /**
-     * A {@link CameraCaptureSession } for camera preview.
+     * 宿主 Activity 的相机，切换模式时保持打开
      */
-    private CameraCaptureSession captureSession;
+    private CameraEngine cameraEngine;
 
     /**
-     * A reference to the opened {@link CameraDevice}.
+     * 宿主 Activity 的推理调度器，和同时运行的其他模型分 CPU
      */
-    private CameraDevice cameraDevice;
+    private InferenceScheduler inferenceScheduler;
 
     /**
-     * The {@link Size} of camera preview.
+     * 模型是否挂在相机上
      */
-    private Size previewSize;
+    private boolean attached;
 
     /**
-     * {@link CameraDevice.StateCallback} is called when {@link CameraDevice} changes its state.
+     * Hands the newest converted frame from the camera thread to the inference stage.
      */
-    private final CameraDevice.StateCallback stateCallback =
-            new CameraDevice.StateCallback() {
-
-                @RequiresApi(api = Build.VERSION_CODES.LOLLIPOP)
-                @Override
-                public void onOpened(@NonNull CameraDevice currentCameraDevice) {
-                    // This method is called when the camera is opened.  We start camera preview here.
-                    cameraOpenCloseLock.release();
-                    cameraDevice = currentCameraDevice;
-                    createCameraPreviewSession();
-                }
-
-                @SuppressLint("NewApi")
-                @Override
-                public void onDisconnected(@NonNull CameraDevice currentCameraDevice) {
-                    cameraOpenCloseLock.release();
-                    currentCameraDevice.close();
-                    cameraDevice = null;
-                }
-
-                @RequiresApi(api = Build.VERSION_CODES.LOLLIPOP)
-                @Override
-                public void onError(@NonNull CameraDevice currentCameraDevice, int error) {
-                    cameraOpenCloseLock.release();
-                    currentCameraDevice.close();
-                    cameraDevice = null;
-                    Activity activity = getActivity();
-                    if (null != activity) {
-                        activity.finish();
-                    }
-                }
-            };
+    private LatestFrameQueue frameQueue;
 
     /**
-     * An additional thread for running tasks that shouldn't block the UI.
+     * Runs inference and postprocessing on the frames taken from {@link #frameQueue}.
      */
-    private HandlerThread backgroundThread;
+    private FramePipeline pipeline;
 
     /**
-     * A {@link Handler} for running tasks in the background.
+     * Skips frames that are likely blurred or taken while refocusing.
      */
-    private Handler backgroundHandler;
+    private FrameQualityGate qualityGate;
 
     /**
-     * An {@link ImageReader} that handles image capture.
+     * Per stage latencies from the sensor timestamp until the overlay is shown.
      */
-    private ImageReader imageReader;
+    private final LatencyTracker latencyTracker = new LatencyTracker();
 
     /**
-     * {@link CaptureRequest.Builder} for the camera preview
+     * 车辆停止时画面静止时跳过识别，保留上一次的结果
      */
-    private CaptureRequest.Builder previewRequestBuilder;
+    private MotionGate motionGate;
 
     /**
-     * {@link CaptureRequest} generated by {@link #previewRequestBuilder}
+     * 同时用前置摄像头监测驾驶员，没有预览，只在画面上提示
      */
-    private CaptureRequest previewRequest;
+    private CabinMonitor cabinMonitor;
 
     /**
-     * A {@link Semaphore} to prevent the app from exiting before closing the camera.
+     * 驾驶员监测最近一帧的提示，由它的后处理线程写入
      */
-    private Semaphore cameraOpenCloseLock = new Semaphore(1);
+    private volatile String cabinAlert;
 
     /**
-     * A {@link CameraCaptureSession.CaptureCallback} that handles events related to capture.
+     * 相机线程上的回调：把模型输入挂到 YUV 流上，记录每帧拍摄参数
      */
-    private CameraCaptureSession.CaptureCallback captureCallback =
-            new CameraCaptureSession.CaptureCallback() {
+    private final CameraEngine.FrameConsumer frameConsumer =
+            new CameraEngine.FrameConsumer() {
 
                 @Override
-                public void onCaptureProgressed(
-                        @NonNull CameraCaptureSession session,
-                        @NonNull CaptureRequest request,
-                        @NonNull CaptureResult partialResult) {
+                public void onFrameReaderReady(YuvFrameReader frameReader) {
+                    if (frameQueue != null) {
+                        frameReader.addTarget(classifier.getInputFormat(), frameQueue, DETECTION_REGION);
+                        frameReader.setQualityGate(qualityGate);
+                        motionGate.reset();
+                        frameReader.setMotionGate(motionGate);
+                    }
                 }
 
                 @Override
-                public void onCaptureCompleted(
-                        @NonNull CameraCaptureSession session,
-                        @NonNull CaptureRequest request,
-                        @NonNull TotalCaptureResult result) {
+                public void onCaptureCompleted(TotalCaptureResult result) {
+                    if (qualityGate != null) {
+                        qualityGate.onCaptureCompleted(result);
+                    }
                 }
             };
 
@@ -284,69 +229,21 @@ public class Camera2BasicFragment4 extends Fragment
         }
     }
 
-    /**
-     * Resizes image.
-     * <p>
-     * Attempting to use too large a preview size could  exceed the camera bus' bandwidth limitation,
-     * resulting in gorgeous previews but the storage of garbage capture data.
-     * <p>
-     * Given {@code choices} of {@code Size}s supported by a camera, choose the smallest one that is
-     * at least as large as the respective texture view size, and that is at most as large as the
-     * respective max size, and whose aspect ratio matches with the specified value. If such size
-     * doesn't exist, choose the largest one that is at most as large as the respective max size, and
-     * whose aspect ratio matches with the specified value.
-     *
-     * @param choices           The list of sizes that the camera supports for the intended output class
-     * @param textureViewWidth  The width of the texture view relative to sensor coordinate
-     * @param textureViewHeight The height of the texture view relative to sensor coordinate
-     * @param maxWidth          The maximum width that can be chosen
-     * @param maxHeight         The maximum height that can be chosen
-     * @param aspectRatio       The aspect ratio
-     * @return The optimal {@code Size}, or an arbitrary one if none were big enough
-     */
-    @RequiresApi(api = Build.VERSION_CODES.LOLLIPOP)
-    private static Size chooseOptimalSize(
-            Size[] choices,
-            int textureViewWidth,
-            int textureViewHeight,
-            int maxWidth,
-            int maxHeight,
-            Size aspectRatio) {
-
-        // Collect the supported resolutions that are at least as big as the preview Surface
-        List<Size> bigEnough = new ArrayList<>();
-        // Collect the supported resolutions that are smaller than the preview Surface
-        List<Size> notBigEnough = new ArrayList<>();
-        int w = aspectRatio.getWidth();
-        int h = aspectRatio.getHeight();
-        for (Size option : choices) {
-            if (option.getWidth() <= maxWidth
-                    && option.getHeight() <= maxHeight
-                    && option.getHeight() == option.getWidth() * h / w) {
-                if (option.getWidth() >= textureViewWidth && option.getHeight() >= textureViewHeight) {
-                    bigEnough.add(option);
-                } else {
-                    notBigEnough.add(option);
-                }
-            }
-        }
-
-        // Pick the smallest of those big enough. If there is no one big enough, pick the
-        // largest of those not big enough.
-        if (bigEnough.size() > 0) {
-            return Collections.min(bigEnough, new CompareSizesByArea());
-        } else if (notBigEnough.size() > 0) {
-            return Collections.max(notBigEnough, new CompareSizesByArea());
-        } else {
-            Log.e(TAG, "Couldn't find any suitable preview size");
-            return choices[0];
-        }
-    }
-
     public static Camera2BasicFragment4 newInstance() {
         return new Camera2BasicFragment4();
     }
 
+    /**
+     * @param withCabin 是否同时用前置摄像头监测驾驶员
+     */
+    public static Camera2BasicFragment4 newInstance(boolean withCabin) {
+        Camera2BasicFragment4 fragment = new Camera2BasicFragment4();
+        Bundle args = new Bundle();
+        args.putBoolean(ARG_WITH_CABIN, withCabin);
+        fragment.setArguments(args);
+        return fragment;
+    }
+
     /**
      * 渲染xml
      */
@@ -361,7 +258,10 @@ public class Camera2BasicFragment4 extends Fragment
      */
     @Override
     public void onViewCreated(final View view, Bundle savedInstanceState) {
-        textureView = (AutoFitTextureView) view.findViewById(R.id.texture);
+        CameraHost host = (CameraHost) getActivity();
+        textureView = host.getTextureView();
+        cameraEngine = host.getCameraEngine();
+        inferenceScheduler = host.getInferenceScheduler();
         textView = (TextView) view.findViewById(R.id.text);
         imageView = (ImageView) view.findViewById(R.id.imageView);
     }
@@ -372,275 +272,164 @@ public class Camera2BasicFragment4 extends Fragment
     @Override
     public void onActivityCreated(Bundle savedInstanceState) {
         super.onActivityCreated(savedInstanceState);
-        try {
-            // create either a new ImageClassifierQuantizedMobileNet or an ImageClassifierFloatInception
-            classifier = TensorFlowObjectDetectionAPIModel.create(
-                    this.getActivity().getAssets(), TF_OD_API_MODEL_FILE, TF_OD_API_LABELS_FILE, TF_OD_API_INPUT_SIZE);
-        } catch (IOException e) {
-            Log.e(TAG, "Failed to initialize an image classifier.");
+        final AssetManager assets = getActivity().getAssets();
+        modelFuture = ModelFuture.load(PIPELINE_NAME, new ModelFuture.Factory() {
+            @Override
+            public Classifier create() throws IOException {
+                return TensorFlowObjectDetectionAPIModel.create(
+                        assets, TF_OD_API_MODEL_FILE, TF_OD_API_LABELS_FILE, TF_OD_API_INPUT_SIZE);
+            }
+        }, ModelFuture.DEFAULT_WARM_UP_RUNS);
+        modelFuture.setListener(modelListener);
+        if (getArguments() != null && getArguments().getBoolean(ARG_WITH_CABIN)) {
+            CameraFrameSource cabinSource = new CameraFrameSource(getActivity(), CABIN_SOURCE_NAME,
+                    CameraCharacteristics.LENS_FACING_FRONT,
+                    getActivity().getWindowManager().getDefaultDisplay().getRotation(), null);
+            try {
+                cabinMonitor = CabinMonitor.create(getActivity().getAssets(), cabinSource,
+                        inferenceScheduler, CABIN_INFERENCE_WEIGHT, cabinListener);
+            } catch (IOException e) {
+                Log.e(TAG, "Failed to initialize the cabin monitor.");
+            }
         }
-        startBackgroundThread();
     }
 
-    @RequiresApi(api = Build.VERSION_CODES.LOLLIPOP)
     @Override
     public void onResume() {
         super.onResume();
-        startBackgroundThread();
-
-        // When the screen is turned off and turned back on, the SurfaceTexture is already
-        // available, and "onSurfaceTextureAvailable" will not be called. In that case, we can open
-        // a camera and start preview from here (otherwise, we wait until the surface is ready in
-        // the SurfaceTextureListener).
-        if (textureView.isAvailable()) {
-            Log.e("ccccccc", textureView.getWidth() + "   " + textureView.getHeight());
-
-            openCamera(textureView.getWidth(), textureView.getHeight());
-            imageView.getLayoutParams().width = textureView.getWidth();
-            imageView.getLayoutParams().height = textureView.getHeight();
-
-        } else {
-            textureView.setSurfaceTextureListener(surfaceTextureListener);
+        if (!isHidden()) {
+            attachToCamera();
         }
     }
 
-    @RequiresApi(api = Build.VERSION_CODES.JELLY_BEAN_MR2)
     @Override
     public void onPause() {
-        closeCamera();
-        stopBackgroundThread();
+        detachFromCamera();
         super.onPause();
     }
 
+    /**
+     * 切换模式时 Activity 只隐藏 Fragment，相机不关闭，只换挂在上面的模型
+     */
+    @Override
+    public void onHiddenChanged(boolean hidden) {
+        super.onHiddenChanged(hidden);
+        if (!isResumed()) {
+            return;
+        }
+        if (hidden) {
+            detachFromCamera();
+        } else {
+            attachToCamera();
+        }
+    }
+
     @Override
     public void onDestroy() {
-        classifier.close();
+        modelFuture.close();
+        if (cabinMonitor != null) {
+            cabinMonitor.close();
+        }
         super.onDestroy();
     }
 
     /**
-     * 设置相机参数
-     *
-     * @param width  The width of available size for camera preview
-     * @param height The height of available size for camera preview
+     * 加载线程上的回调，转到主线程
      */
-    @RequiresApi(api = Build.VERSION_CODES.LOLLIPOP)
-    private void setUpCameraOutputs(int width, int height) {
-        Activity activity = getActivity();
-        CameraManager manager = (CameraManager) activity.getSystemService(Context.CAMERA_SERVICE);
-        try {
-            for (String cameraId : manager.getCameraIdList()) {
-                CameraCharacteristics characteristics = manager.getCameraCharacteristics(cameraId);
-
-                // We don't use a front facing camera in this sample.
-                Integer facing = characteristics.get(CameraCharacteristics.LENS_FACING);
-                if (facing != null && facing == CameraCharacteristics.LENS_FACING_FRONT) {
-                    continue;
-                }
-
-                StreamConfigurationMap map =
-                        characteristics.get(CameraCharacteristics.SCALER_STREAM_CONFIGURATION_MAP);
-                if (map == null) {
-                    continue;
-                }
-
-                // // For still image captures, we use the largest available size.
-                Size largest =
-                        Collections.max(
-                                Arrays.asList(map.getOutputSizes(ImageFormat.JPEG)), new CompareSizesByArea());
-                imageReader =
-                        ImageReader.newInstance(
-                                largest.getWidth(), largest.getHeight(), ImageFormat.JPEG, /*maxImages*/ 2);
-
-                // Find out if we need to swap dimension to get the preview size relative to sensor
-                // coordinate.
-                int displayRotation = activity.getWindowManager().getDefaultDisplay().getRotation();
-                // noinspection ConstantConditions
-        /* Orientation of the camera sensor */
-                int sensorOrientation = characteristics.get(CameraCharacteristics.SENSOR_ORIENTATION);
-                boolean swappedDimensions = false;
-                switch (displayRotation) {
-                    case Surface.ROTATION_0:
-                    case Surface.ROTATION_180:
-                        if (sensorOrientation == 90 || sensorOrientation == 270) {
-                            swappedDimensions = true;
-                        }
-                        break;
-                    case Surface.ROTATION_90:
-                    case Surface.ROTATION_270:
-                        if (sensorOrientation == 0 || sensorOrientation == 180) {
-                            swappedDimensions = true;
+    private final ModelFuture.Listener modelListener =
+            new ModelFuture.Listener() {
+                @Override
+                public void onModelReady(final ModelFuture model) {
+                    final Activity activity = getActivity();
+                    if (activity == null) {
+                        return;
+                    }
+                    activity.runOnUiThread(new Runnable() {
+                        @Override
+                        public void run() {
+                            onModelReady(model);
                         }
-                        break;
-                    default:
-                        Log.e(TAG, "Display rotation is invalid: " + displayRotation);
-                }
-
-                Point displaySize = new Point();
-                activity.getWindowManager().getDefaultDisplay().getSize(displaySize);
-                int rotatedPreviewWidth = width;
-                int rotatedPreviewHeight = height;
-                int maxPreviewWidth = displaySize.x;
-                int maxPreviewHeight = displaySize.y;
-
-                if (swappedDimensions) {
-                    rotatedPreviewWidth = height;
-                    rotatedPreviewHeight = width;
-                    maxPreviewWidth = displaySize.y;
-                    maxPreviewHeight = displaySize.x;
-                }
-
-                if (maxPreviewWidth > MAX_PREVIEW_WIDTH) {
-                    maxPreviewWidth = MAX_PREVIEW_WIDTH;
-                }
-
-                if (maxPreviewHeight > MAX_PREVIEW_HEIGHT) {
-                    maxPreviewHeight = MAX_PREVIEW_HEIGHT;
-                }
-
-                previewSize =
-                        chooseOptimalSize(
-                                map.getOutputSizes(SurfaceTexture.class),
-                                rotatedPreviewWidth,
-                                rotatedPreviewHeight,
-                                maxPreviewWidth,
-                                maxPreviewHeight,
-                                largest);
-
-                // We fit the aspect ratio of TextureView to the size of preview we picked.
-                int orientation = getResources().getConfiguration().orientation;
-                if (orientation == Configuration.ORIENTATION_LANDSCAPE) {
-                    textureView.setAspectRatio(previewSize.getWidth(), previewSize.getHeight());
-                } else {
-                    textureView.setAspectRatio(previewSize.getHeight(), previewSize.getWidth());
+                    });
                 }
+            };
 
-                //修改摄像头方向  0后置摄像头  1前置摄像头
-                this.cameraId = "0";
-                return;
-            }
-        } catch (CameraAccessException e) {
-            e.printStackTrace();
-        } catch (NullPointerException e) {
-            // Currently an NPE is thrown when the Camera2API is used but not supported on the
-            // device this code runs.
-            ErrorDialog.newInstance(getString(R.string.camera_error))
-                    .show(getChildFragmentManager(), FRAGMENT_DIALOG);
+    /**
+     * 模型就绪：准备帧队列，已经挂在相机上时开始识别
+     */
+    private void onModelReady(ModelFuture model) {
+        if (model != modelFuture || classifier != null) {
+            return;
         }
-    }
-
-    private String[] getRequiredPermissions() {
-        Activity activity = getActivity();
-        try {
-            PackageInfo info =
-                    activity
-                            .getPackageManager()
-                            .getPackageInfo(activity.getPackageName(), PackageManager.GET_PERMISSIONS);
-            String[] ps = info.requestedPermissions;
-            if (ps != null && ps.length > 0) {
-                return ps;
-            } else {
-                return new String[0];
-            }
-        } catch (Exception e) {
-            return new String[0];
+        classifier = model.getNow();
+        if (classifier == null) {
+            Log.e(TAG, "Failed to initialize an image classifier.", model.getFailure());
+            return;
+        }
+        frameQueue = new LatestFrameQueue(classifier.getInputFormat(), MAX_FRAME_AGE_MS,
+                classifier.getParallelism());
+        qualityGate = new FrameQualityGate(MAX_EXPOSURE_NS, MAX_SENSITIVITY);
+        motionGate = new MotionGate(MOTION_BLOCK_THRESHOLD, MOTION_REFRESH_INTERVAL_MS);
+        if (attached) {
+            startModel();
         }
     }
 
     /**
-     * Opens the camera specified by {@link Camera2BasicFragment#cameraId}.
+     * 把模型挂到相机的分析流上
      */
-    @RequiresApi(api = Build.VERSION_CODES.LOLLIPOP)
-    private void openCamera(int width, int height) {
-
-        Log.e("ccccccc", width + "   " + height);
-        if (!checkedPermissions && !allPermissionsGranted()) {
-            requestPermissions(getRequiredPermissions(), PERMISSIONS_REQUEST_CODE);
+    private void attachToCamera() {
+        if (attached) {
             return;
-        } else {
-            checkedPermissions = true;
         }
-        setUpCameraOutputs(width, height);
-        configureTransform(width, height);
-        imageView.getLayoutParams().width = width;
-        imageView.getLayoutParams().height = height;
-        Activity activity = getActivity();
-        CameraManager manager = (CameraManager) activity.getSystemService(Context.CAMERA_SERVICE);
-        try {
-            if (!cameraOpenCloseLock.tryAcquire(2500, TimeUnit.MILLISECONDS)) {
-                throw new RuntimeException("Time out waiting to lock camera opening.");
-            }
-            if (ActivityCompat.checkSelfPermission(this.getActivity(), Manifest.permission.CAMERA) != PackageManager.PERMISSION_GRANTED) {
-                // TODO: Consider calling
-                //    ActivityCompat#requestPermissions
-                // here to request the missing permissions, and then overriding
-                //   public void onRequestPermissionsResult(int requestCode, String[] permissions,
-                //                                          int[] grantResults)
-                // to handle the case where the user grants the permission. See the documentation
-                // for ActivityCompat#requestPermissions for more details.
-                return;
-            }
-            manager.openCamera(cameraId, stateCallback, backgroundHandler);
-        } catch (CameraAccessException e) {
-            e.printStackTrace();
-        } catch (InterruptedException e) {
-            throw new RuntimeException("Interrupted while trying to lock camera opening.", e);
+        attached = true;
+        imageView.getLayoutParams().width = textureView.getWidth();
+        imageView.getLayoutParams().height = textureView.getHeight();
+        cameraEngine.setLensFacing(CameraCharacteristics.LENS_FACING_BACK);
+        cameraEngine.setAnalysisSize(
+                DETECTION_REGION.getMinimumFrameWidth(TF_OD_API_INPUT_SIZE),
+                DETECTION_REGION.getMinimumFrameHeight(TF_OD_API_INPUT_SIZE));
+        if (classifier != null) {
+            startModel();
         }
-    }
-
-    private boolean allPermissionsGranted() {
-        for (String permission : getRequiredPermissions()) {
-            if (ContextCompat.checkSelfPermission(getActivity(), permission)
-                    != PackageManager.PERMISSION_GRANTED) {
-                return false;
-            }
+        if (cabinMonitor != null) {
+            cabinMonitor.start();
         }
-        return true;
     }
 
-    @Override
-    public void onRequestPermissionsResult(
-            int requestCode, @NonNull String[] permissions, @NonNull int[] grantResults) {
-        super.onRequestPermissionsResult(requestCode, permissions, grantResults);
+    /**
+     * 模型就绪后启动流水线并开始接收相机帧
+     */
+    private void startModel() {
+        startBackgroundThread();
+        cameraEngine.setFrameConsumer(frameConsumer);
     }
 
     /**
-     * 关闭当前摄像头
+     * 从相机的分析流上取下模型并停止流水线
      */
-    @SuppressLint("NewApi")
-    private void closeCamera() {
-        try {
-            cameraOpenCloseLock.acquire();
-            if (null != captureSession) {
-                captureSession.close();
-                captureSession = null;
-            }
-            if (null != cameraDevice) {
-                cameraDevice.close();
-                cameraDevice = null;
-            }
-            if (null != imageReader) {
-                imageReader.close();
-                imageReader = null;
-            }
-        } catch (InterruptedException e) {
-            throw new RuntimeException("Interrupted while trying to lock camera closing.", e);
-        } finally {
-            cameraOpenCloseLock.release();
+    private void detachFromCamera() {
+        if (!attached) {
+            return;
+        }
+        attached = false;
+        cameraEngine.removeFrameConsumer(frameConsumer);
+        if (cabinMonitor != null) {
+            cabinMonitor.stop();
+            cabinAlert = null;
         }
+        stopBackgroundThread();
     }
 
     /**
      * 启动后台线程
      */
     private void startBackgroundThread() {
-        backgroundThread = new HandlerThread(HANDLE_THREAD_NAME);
-        backgroundThread.start();
-        backgroundHandler = new Handler(backgroundThread.getLooper());
-        synchronized (lock) {
-            runClassifier = true;
+        if (frameQueue != null) {
+            pipeline = new FramePipeline(PIPELINE_NAME, classifier, frameQueue, resultListener, latencyTracker,
+                    inferenceScheduler, INFERENCE_WEIGHT);
+            pipeline.start();
+            cameraEngine.setTargetFps(CaptureConfigurator.getConsumableFps(pipeline));
         }
-        backgroundHandler.post(periodicClassify);
     }
 
     /**
@@ -648,13 +437,14 @@ public class Camera2BasicFragment4 extends Fragment
      */
     @RequiresApi(api = Build.VERSION_CODES.JELLY_BEAN_MR2)
     private void stopBackgroundThread() {
-        backgroundThread.quitSafely();
         try {
-            backgroundThread.join();
-            backgroundThread = null;
-            backgroundHandler = null;
-            synchronized (lock) {
-                runClassifier = false;
+            if (pipeline != null) {
+                pipeline.quit();
+                Log.i(TAG, "Pipeline: " + pipeline.getStatString());
+                Log.i(TAG, "Quality gate: " + qualityGate.getStatString());
+                Log.i(TAG, "Latency (ms):\n" + latencyTracker.getStatString());
+                Log.i(TAG, "Motion gate: " + motionGate.getStatString());
+                pipeline = null;
             }
         } catch (InterruptedException e) {
             e.printStackTrace();
@@ -662,127 +452,38 @@ public class Camera2BasicFragment4 extends Fragment
     }
 
     /**
-     * 定期拍照并识别
+     * 在后处理线程上绘制识别结果
      */
-    private Runnable periodicClassify =
-            new Runnable() {
+    private final FramePipeline.ResultListener resultListener =
+            new FramePipeline.ResultListener() {
                 @Override
-                public void run() {
-                    synchronized (lock) {
-                        if (runClassifier) {
-                            classifyFrame();
-                        }
-                    }
-                    backgroundHandler.post(periodicClassify);
+                public void onResults(InferenceResult result, List<Classifier.Recognition> recognitions) {
+                    modelFuture.markFirstResult();
+                    // Follows the latencies, the request only changes with the fps range.
+                    cameraEngine.setTargetFps(CaptureConfigurator.getConsumableFps(pipeline));
+                    drawResults(result, recognitions);
                 }
             };
 
     /**
-     * Creates a new {@link CameraCaptureSession} for camera preview.
-     */
-    @RequiresApi(api = Build.VERSION_CODES.LOLLIPOP)
-    private void createCameraPreviewSession() {
-        try {
-            SurfaceTexture texture = textureView.getSurfaceTexture();
-            assert texture != null;
-
-            // We configure the size of default buffer to be the size of camera preview we want.
-            texture.setDefaultBufferSize(previewSize.getWidth(), previewSize.getHeight());
-
-            // This is the output Surface we need to start preview.
-            Surface surface = new Surface(texture);
-
-            // We set up a CaptureRequest.Builder with the output Surface.
-            previewRequestBuilder = cameraDevice.createCaptureRequest(CameraDevice.TEMPLATE_PREVIEW);
-            previewRequestBuilder.addTarget(surface);
-
-            // Here, we create a CameraCaptureSession for camera preview.
-            cameraDevice.createCaptureSession(
-                    Arrays.asList(surface),
-                    new CameraCaptureSession.StateCallback() {
-
-                        @Override
-                        public void onConfigured(@NonNull CameraCaptureSession cameraCaptureSession) {
-                            // The camera is already closed
-                            if (null == cameraDevice) {
-                                return;
-                            }
-
-                            // When the session is ready, we start displaying the preview.
-                            captureSession = cameraCaptureSession;
-                            try {
-                                // Auto focus should be continuous for camera preview.
-                                previewRequestBuilder.set(
-                                        CaptureRequest.CONTROL_AF_MODE,
-                                        CaptureRequest.CONTROL_AF_MODE_CONTINUOUS_PICTURE);
-
-                                // Finally, we start displaying the camera preview.
-                                previewRequest = previewRequestBuilder.build();
-                                captureSession.setRepeatingRequest(
-                                        previewRequest, captureCallback, backgroundHandler);
-                            } catch (CameraAccessException e) {
-                                e.printStackTrace();
-                            }
-                        }
-
-                        @Override
-                        public void onConfigureFailed(@NonNull CameraCaptureSession cameraCaptureSession) {
-                            showToast("Failed");
-                        }
-                    },
-                    null);
-        } catch (CameraAccessException e) {
-            e.printStackTrace();
-        }
-    }
-
-    /**
-     * Configures the necessary {@link Matrix} transformation to `textureView`. This
-     * method should be called after the camera preview size is determined in setUpCameraOutputs and
-     * also the size of `textureView` is fixed.
-     *
-     * @param viewWidth  The width of `textureView`
-     * @param viewHeight The height of `textureView`
+     * 在驾驶员监测的后处理线程上记下提示，随下一次绘制显示
      */
-    @RequiresApi(api = Build.VERSION_CODES.LOLLIPOP)
-    private void configureTransform(int viewWidth, int viewHeight) {
-        Activity activity = getActivity();
-        if (null == textureView || null == previewSize || null == activity) {
-            return;
-        }
-        int rotation = activity.getWindowManager().getDefaultDisplay().getRotation();
-        Matrix matrix = new Matrix();
-        RectF viewRect = new RectF(0, 0, viewWidth, viewHeight);
-        RectF bufferRect = new RectF(0, 0, previewSize.getHeight(), previewSize.getWidth());
-        float centerX = viewRect.centerX();
-        float centerY = viewRect.centerY();
-        if (Surface.ROTATION_90 == rotation || Surface.ROTATION_270 == rotation) {
-            bufferRect.offset(centerX - bufferRect.centerX(), centerY - bufferRect.centerY());
-            matrix.setRectToRect(viewRect, bufferRect, Matrix.ScaleToFit.FILL);
-            float scale =
-                    Math.max(
-                            (float) viewHeight / previewSize.getHeight(),
-                            (float) viewWidth / previewSize.getWidth());
-            matrix.postScale(scale, scale, centerX, centerY);
-            matrix.postRotate(90 * (rotation - 2), centerX, centerY);
-        } else if (Surface.ROTATION_180 == rotation) {
-            matrix.postRotate(180, centerX, centerY);
-        }
-        textureView.setTransform(matrix);
-    }
+    private final CabinMonitor.Listener cabinListener =
+            new CabinMonitor.Listener() {
+                @Override
+                public void onCabinAlert(String alert) {
+                    cabinAlert = alert;
+                }
+            };
 
     /**
-     * tensorFlow识别
+     * 绘制识别结果
      */
-    private void classifyFrame() {
-        if (classifier == null || getActivity() == null || cameraDevice == null) {
+    private void drawResults(InferenceResult frame, final List<Classifier.Recognition> results) {
+        if (classifier == null || getActivity() == null || !cameraEngine.isOpened()) {
             showToast("Uninitialized Classifier or invalid context.");
             return;
         }
-        long oldTime = System.currentTimeMillis();
-        Bitmap bitmap = textureView.getBitmap(TF_OD_API_INPUT_SIZE, TF_OD_API_INPUT_SIZE);
-
-        final List<Classifier.Recognition> results = classifier.recognizeImage(bitmap);
 
         canvasWidth = textureView.getWidth();
         canvasHeight = textureView.getHeight();
@@ -792,15 +493,15 @@ public class Camera2BasicFragment4 extends Fragment
             imageView.getLayoutParams().width = textureView.getWidth();
             imageView.getLayoutParams().height = textureView.getHeight();
         }
-        bitmap.recycle();
 
         Bitmap croppedBitmap = Bitmap.createBitmap((int) canvasWidth, (int) canvasHeight, Bitmap.Config.ARGB_8888);
         final Canvas canvas = new Canvas(croppedBitmap);
 
 
         for (final Classifier.Recognition result : results) {
-            final RectF location = result.getLocation();
+            final Classifier.Box location = result.getLocation();
             if (location != null && result.getConfidence() >= MINIMUM_CONFIDENCE_TF_OD_API) {
+                scaleToInputSize(location, frame);
                 Paint paint = new Paint();
                 Paint paint1 = new Paint();
 
@@ -823,21 +524,20 @@ public class Camera2BasicFragment4 extends Fragment
                             canvasHeight * location.bottom / TF_OD_API_INPUT_SIZE, paint1);
 
 
-                    if ((location.top - location.bottom) / (location.right - location.left) < -2.0f) {
+                    if (RoadMonitor.isLaneDeparture(location)) {
                         Paint paint2 = new Paint();
                         paint2.setColor(Color.RED);
                         paint2.setStyle(Paint.Style.STROKE);
                         paint2.setStrokeWidth(5.0f);
                         paint2.setAntiAlias(true);
                         paint2.setTextSize(60f);
-                        canvas.drawText("车道偏离", 100, 100, paint2);
+                        canvas.drawText(RoadMonitor.ALERT_LANE_DEPARTURE, 100, 100, paint2);
                     }
                 } else if (result.getTitle().equals("closeeyes")) {
                     paint.setColor(Color.RED);
                     paint1.setColor(Color.RED);
                     paint1.setAlpha(125);
-                    float left = (location.right - location.left) / 2f + location.left;
-                    if (left > TF_OD_API_INPUT_SIZE * 2 / 8 && left < TF_OD_API_INPUT_SIZE * 6 / 8) {
+                    if (RoadMonitor.isCarAhead(location)) {
                         canvas.drawRect(canvasWidth * location.left / TF_OD_API_INPUT_SIZE,
                                 canvasHeight * location.top / TF_OD_API_INPUT_SIZE,
                                 canvasWidth * location.right / TF_OD_API_INPUT_SIZE,
@@ -846,18 +546,17 @@ public class Camera2BasicFragment4 extends Fragment
                                 canvasHeight * location.top / TF_OD_API_INPUT_SIZE,
                                 canvasWidth * location.right / TF_OD_API_INPUT_SIZE,
                                 canvasHeight * location.bottom / TF_OD_API_INPUT_SIZE, paint1);
-                        //175距离算前车过近距离
                         Log.e("qiancheguojin", "车总宽" + (location.right - location.left) +
                                 " 车中心距离下面距离：" + ((location.top - location.bottom) / 2 + location.bottom) +
                                 "车身高度："+ (location.bottom - location.top));
-                        if (((location.top - location.bottom) / 2 + location.bottom) > 175f || (location.bottom - location.top) > 60f) {
+                        if (RoadMonitor.isCarTooClose(location)) {
                             Paint paint2 = new Paint();
                             paint2.setColor(Color.RED);
                             paint2.setStyle(Paint.Style.STROKE);
                             paint2.setStrokeWidth(5.0f);
                             paint2.setAntiAlias(true);
                             paint2.setTextSize(60f);
-                            canvas.drawText("前车过近", 100, 200, paint2);
+                            canvas.drawText(RoadMonitor.ALERT_CAR_TOO_CLOSE, 100, 200, paint2);
                         }
 
                     }
@@ -869,27 +568,35 @@ public class Camera2BasicFragment4 extends Fragment
             }
 
         }
-        Log.e("timeShijian",System.currentTimeMillis() - oldTime + "");
+        String alert = cabinAlert;
+        if (alert != null) {
+            Paint paint2 = new Paint();
+            paint2.setColor(Color.RED);
+            paint2.setStyle(Paint.Style.STROKE);
+            paint2.setStrokeWidth(5.0f);
+            paint2.setAntiAlias(true);
+            paint2.setTextSize(60f);
+            canvas.drawText("驾驶员" + alert, 100, 300, paint2);
+        }
+        final long captureNanos = frame.getCaptureNanos();
+        final long postedNanos = System.nanoTime();
         imageView.post(new Runnable() {
             @Override
             public void run() {
                 imageView.setImageBitmap(croppedBitmap);
+                latencyTracker.recordDisplay(captureNanos, postedNanos);
             }
         });
     }
 
     /**
-     * Compares two {@code Size}s based on their areas.
+     * 识别框已映射到整幅画面，换算成 TF_OD_API_INPUT_SIZE 大小的正方形坐标，绘制和阈值判断都按这个尺度
      */
-    private static class CompareSizesByArea implements Comparator<Size> {
-
-        @RequiresApi(api = Build.VERSION_CODES.LOLLIPOP)
-        @Override
-        public int compare(Size lhs, Size rhs) {
-            // We cast here to ensure the multiplications won't overflow
-            return Long.signum(
-                    (long) lhs.getWidth() * lhs.getHeight() - (long) rhs.getWidth() * rhs.getHeight());
-        }
+    private static void scaleToInputSize(Classifier.Box location, InferenceResult frame) {
+        location.set(location.left * TF_OD_API_INPUT_SIZE / frame.getFrameWidth(),
+                location.top * TF_OD_API_INPUT_SIZE / frame.getFrameHeight(),
+                location.right * TF_OD_API_INPUT_SIZE / frame.getFrameWidth(),
+                location.bottom * TF_OD_API_INPUT_SIZE / frame.getFrameHeight());
     }
 
     /**
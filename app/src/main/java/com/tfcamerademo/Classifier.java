@@ -2,14 +2,65 @@ package com.tfcamerademo;
 
 
 import android.graphics.Bitmap;
-import android.graphics.RectF;
 
+import com.tfcamerademo.preprocess.TensorFormat;
+
+import java.nio.ByteBuffer;
 import java.util.List;
 
 /**
  * Generic interface for interacting with different recognition engines.
  */
 public interface Classifier {
+    /**
+     * 识别框，left/top/right/bottom 与 RectF 含义相同
+     * <p>
+     * Plain Java rather than {@code android.graphics.RectF}, so the pipeline, the monitors and the
+     * offline analysis run on a workstation JVM. Views convert it where they draw.
+     */
+    public class Box {
+        public float left;
+        public float top;
+        public float right;
+        public float bottom;
+
+        public Box(float left, float top, float right, float bottom) {
+            set(left, top, right, bottom);
+        }
+
+        public Box(Box box) {
+            this(box.left, box.top, box.right, box.bottom);
+        }
+
+        public void set(float left, float top, float right, float bottom) {
+            this.left = left;
+            this.top = top;
+            this.right = right;
+            this.bottom = bottom;
+        }
+
+        public float width() {
+            return right - left;
+        }
+
+        public float height() {
+            return bottom - top;
+        }
+
+        public float centerX() {
+            return (left + right) * 0.5f;
+        }
+
+        public float centerY() {
+            return (top + bottom) * 0.5f;
+        }
+
+        @Override
+        public String toString() {
+            return "Box(" + left + ", " + top + ", " + right + ", " + bottom + ")";
+        }
+    }
+
     /**
      * An immutable result returned by a Classifier describing what was recognized.
      */
@@ -30,11 +81,15 @@ public interface Classifier {
          */
         private final Float confidence;
 
-        /** Optional location within the source image for the location of the recognized object. */
-        private RectF location;
+        /**
+         * Optional location of the recognized object, in model input pixels as decoded and in
+         * upright camera frame pixels once a {@link com.tfcamerademo.pipeline.FramePipeline} has
+         * mapped it.
+         */
+        private Box location;
 
         public Recognition(
-                final String id, final String title, final Float confidence, final RectF location) {
+                final String id, final String title, final Float confidence, final Box location) {
             this.id = id;
             this.title = title;
             this.confidence = confidence;
@@ -53,11 +108,11 @@ public interface Classifier {
             return confidence;
         }
 
-        public RectF getLocation() {
-            return new RectF(location);
+        public Box getLocation() {
+            return location == null ? null : new Box(location);
         }
 
-        public void setLocation(RectF location) {
+        public void setLocation(Box location) {
             this.location = location;
         }
 
@@ -86,9 +141,46 @@ public interface Classifier {
 
     List<Recognition> recognizeImage(Bitmap bitmap);
 
+    /**
+     * Layout of the model input, for callers that write camera frames straight into a buffer.
+     */
+    TensorFormat getInputFormat();
+
+    /**
+     * Runs recognition on an input buffer that is already laid out as {@link #getInputFormat()}.
+     */
+    List<Recognition> recognizeImage(ByteBuffer input);
+
+    /**
+     * Allocates one set of output tensors for {@link #runInference(ByteBuffer, Object[])}. Keeping
+     * more than one set lets a frame be decoded while the interpreter fills the next set.
+     */
+    Object[] createOutputs();
+
+    /**
+     * Runs the model on {@code input} and writes the raw output tensors into {@code outputs}.
+     */
+    void runInference(ByteBuffer input, Object[] outputs);
+
+    /**
+     * How many {@link #runInference(ByteBuffer, Object[])} calls may run at the same time, each
+     * with an output set of its own.
+     */
+    int getParallelism();
+
+    /**
+     * Turns output tensors filled by {@link #runInference(ByteBuffer, Object[])} into recognitions.
+     * {@code recognizeImage(input)} is the same as both steps run back to back.
+     */
+    List<Recognition> decodeOutputs(Object[] outputs);
+
     void enableStatLogging(final boolean debug);
 
     String getStatString();
 
+    /**
+     * Releases the model. Calls in progress on other threads finish first, the model is released
+     * when the last one returns; this does not wait for them.
+     */
     void close();
 }
\ No newline at end of file
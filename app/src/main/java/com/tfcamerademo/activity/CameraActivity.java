@@ -15,46 +15,388 @@ limitations under the License.
 
 package com.tfcamerademo.activity;
 
+import android.Manifest;
 import android.app.Activity;
+import android.content.Intent;
+import android.content.pm.PackageInfo;
+import android.content.pm.PackageManager;
+import android.content.res.Configuration;
+import android.graphics.Matrix;
+import android.graphics.Point;
+import android.graphics.RectF;
+import android.graphics.SurfaceTexture;
+import android.hardware.camera2.CameraCharacteristics;
+import androidx.annotation.NonNull;
+import androidx.core.app.ActivityCompat;
+import androidx.core.content.ContextCompat;
 import androidx.fragment.app.Fragment;
+import androidx.fragment.app.FragmentManager;
+import androidx.fragment.app.FragmentTransaction;
 import android.os.Bundle;
+import android.util.Size;
+import android.view.Surface;
+import android.view.TextureView;
 
 import com.tfcamerademo.Camera2BasicFragment;
 import com.tfcamerademo.Camera2BasicFragment2;
 import com.tfcamerademo.Camera2BasicFragment3;
 import com.tfcamerademo.Camera2BasicFragment4;
 import com.tfcamerademo.R;
+import com.tfcamerademo.camera.CameraConfig;
+import com.tfcamerademo.camera.CameraEngine;
+import com.tfcamerademo.camera.CameraHost;
+import com.tfcamerademo.model.ModelStore;
+import com.tfcamerademo.pipeline.InferenceScheduler;
+import com.tfcamerademo.service.MonitorService;
+import com.tfcamerademo.view.AutoFitTextureView;
 
 /**
  * Main {@code Activity} class for the Camera app.
+ * <p>
+ * The activity owns the camera and the preview, the mode fragments only attach their model to the
+ * {@link CameraEngine}. Switching modes hides one fragment and shows another, so the models are not
+ * torn down, and neither is the camera session when both modes use the same lens and their models
+ * fit the same analysis stream size; the new mode's frame rate is applied to the running session.
+ * A model that needs another stream size recreates the session. The driver mode uses the front
+ * lens and the other modes the back lens, so switching between the driver mode and the others
+ * still reopens the camera device, without discovery or a model reload. The engine does
+ * not keep a device open per lens: many phones cannot open two cameras at once, and where they can
+ * the cabin and road mode already uses the second camera. All models share one
+ * {@link InferenceScheduler}; in the cabin and road mode the road model owns the preview while the
+ * driver model runs on the front camera at the same time.
  */
-public class CameraActivity extends Activity {
+public class CameraActivity extends Activity implements CameraHost {
+
+    /**
+     * The mode to show, 1 to 5. A new intent with another mode switches to it.
+     */
+    public static final String EXTRA_FLAG = "Flag";
+
+    private static final String STATE_FLAG = "flag";
+
+    private static final String FRAGMENT_TAG_PREFIX = "mode";
+
+    private static final String FRAGMENT_DIALOG = "dialog";
+
+    /**
+     * The road model with the preview, plus the driver model on the front camera.
+     */
+    private static final int MODE_CABIN_AND_ROAD = 5;
+
+    private static final int MODE_COUNT = 5;
+
+    private static final String SCHEDULER_NAME = "Inference";
+
+    /**
+     * One inference at a time, the interpreters use several threads themselves.
+     */
+    private static final int SCHEDULER_WORKERS = 1;
+
+    private static final int PERMISSIONS_REQUEST_CODE = 1;
+
+    private boolean checkedPermissions = false;
+
+    /**
+     * An {@link AutoFitTextureView} for camera preview.
+     */
+    private AutoFitTextureView textureView;
+
+    /**
+     * Opens the camera on its own thread and keeps it open across mode switches.
+     */
+    private CameraEngine cameraEngine;
+
+    /**
+     * Divides the CPU between the models that run at the same time.
+     */
+    private InferenceScheduler inferenceScheduler;
+
+    /**
+     * 后台监测服务让出了摄像头，界面关掉后要恢复
+     */
+    private boolean monitorServicePaused;
+
+    /**
+     * The {@link Size} of camera preview.
+     */
+    private Size previewSize;
+
+    private int flag;
+
+    /**
+     * {@link TextureView.SurfaceTextureListener} handles several lifecycle events on a {@link
+     * TextureView}.
+     */
+    private final TextureView.SurfaceTextureListener surfaceTextureListener =
+            new TextureView.SurfaceTextureListener() {
+
+                @Override
+                public void onSurfaceTextureAvailable(SurfaceTexture texture, int width, int height) {
+                    openCamera(width, height);
+                }
+
+                @Override
+                public void onSurfaceTextureSizeChanged(SurfaceTexture texture, int width, int height) {
+                    configureTransform(width, height);
+                }
+
+                @Override
+                public boolean onSurfaceTextureDestroyed(SurfaceTexture texture) {
+                    return true;
+                }
+
+                @Override
+                public void onSurfaceTextureUpdated(SurfaceTexture texture) {
+                }
+            };
+
+    /**
+     * Fits the preview to the chosen size and reports camera errors, called on the camera thread.
+     */
+    private final CameraEngine.Listener cameraListener =
+            new CameraEngine.Listener() {
+
+                @Override
+                public void onConfigChosen(final CameraConfig config) {
+                    runOnUiThread(
+                            new Runnable() {
+                                @Override
+                                public void run() {
+                                    previewSize = config.getPreviewSize();
+                                    // We fit the aspect ratio of TextureView to the size of preview we picked.
+                                    int orientation = getResources().getConfiguration().orientation;
+                                    if (orientation == Configuration.ORIENTATION_LANDSCAPE) {
+                                        textureView.setAspectRatio(previewSize.getWidth(), previewSize.getHeight());
+                                    } else {
+                                        textureView.setAspectRatio(previewSize.getHeight(), previewSize.getWidth());
+                                    }
+                                    configureTransform(textureView.getWidth(), textureView.getHeight());
+                                }
+                            });
+                }
+
+                @Override
+                public void onError(final String message) {
+                    runOnUiThread(
+                            new Runnable() {
+                                @Override
+                                public void run() {
+                                    if (!isFinishing()) {
+                                        Camera2BasicFragment4.ErrorDialog.newInstance(message)
+                                                .show(getFragmentManager(), FRAGMENT_DIALOG);
+                                    }
+                                }
+                            });
+                }
+            };
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
         setContentView(R.layout.activity_camera);
+        ModelStore.attach(this);
+        textureView = (AutoFitTextureView) findViewById(R.id.texture);
+        cameraEngine = new CameraEngine(this, CameraCharacteristics.LENS_FACING_BACK, cameraListener);
+        inferenceScheduler = new InferenceScheduler(SCHEDULER_NAME, SCHEDULER_WORKERS);
         if (null == savedInstanceState) {
-            int flag = getIntent().getIntExtra("Flag", 1);
-            Fragment fragment = null;
-            switch (flag) {
-                case 1:
-                    fragment = Camera2BasicFragment.newInstance();
-                    break;
-                case 2:
-                    fragment = Camera2BasicFragment2.newInstance();
-                    break;
-                case 3:
-                    fragment = Camera2BasicFragment3.newInstance();
-                    break;
-                case 4:
-                    fragment = Camera2BasicFragment4.newInstance();
-                    break;
+            switchMode(getIntent().getIntExtra(EXTRA_FLAG, 1));
+        } else {
+            // The fragment manager restores the fragments and which of them is shown.
+            flag = savedInstanceState.getInt(STATE_FLAG, 1);
+        }
+    }
+
+    @Override
+    protected void onNewIntent(Intent intent) {
+        super.onNewIntent(intent);
+        setIntent(intent);
+        switchMode(intent.getIntExtra(EXTRA_FLAG, flag));
+    }
+
+    @Override
+    protected void onSaveInstanceState(Bundle outState) {
+        super.onSaveInstanceState(outState);
+        outState.putInt(STATE_FLAG, flag);
+    }
+
+    /**
+     * The camera stays open while the activity is visible, also while a new intent is delivered.
+     */
+    @Override
+    protected void onStart() {
+        super.onStart();
+        // A camera has one client at a time. The service stops its cameras before this returns,
+        // and the open below waits on the camera thread until they are closed.
+        monitorServicePaused = MonitorService.pauseIfRunning();
+        cameraEngine.start();
+        inferenceScheduler.start();
+
+        // When the screen is turned off and turned back on, the SurfaceTexture is already
+        // available, and "onSurfaceTextureAvailable" will not be called. In that case, we can open
+        // a camera and start preview from here (otherwise, we wait until the surface is ready in
+        // the SurfaceTextureListener).
+        if (textureView.isAvailable()) {
+            openCamera(textureView.getWidth(), textureView.getHeight());
+        } else {
+            textureView.setSurfaceTextureListener(surfaceTextureListener);
+        }
+    }
+
+    @Override
+    protected void onStop() {
+        cameraEngine.stop();
+        try {
+            inferenceScheduler.quit();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (monitorServicePaused) {
+            monitorServicePaused = false;
+            MonitorService.resume();
+        }
+        super.onStop();
+    }
+
+    @Override
+    public CameraEngine getCameraEngine() {
+        return cameraEngine;
+    }
+
+    @Override
+    public AutoFitTextureView getTextureView() {
+        return textureView;
+    }
+
+    @Override
+    public InferenceScheduler getInferenceScheduler() {
+        return inferenceScheduler;
+    }
+
+    /**
+     * Shows the fragment of {@code newFlag}, creating it the first time. The other fragments are
+     * only hidden and keep their models loaded. Only a switch to a mode on the other lens reopens
+     * the camera, see {@link CameraEngine#setLensFacing(int)}, and only one to another analysis
+     * stream size recreates the session, see {@link CameraEngine#setAnalysisSize(int, int)}.
+     */
+    public void switchMode(int newFlag) {
+        if (newFlag < 1 || newFlag > MODE_COUNT) {
+            return;
+        }
+        FragmentManager fragmentManager = getSupportFragmentManager();
+        FragmentTransaction transaction = fragmentManager.beginTransaction();
+        for (int mode = 1; mode <= MODE_COUNT; mode++) {
+            Fragment fragment = fragmentManager.findFragmentByTag(FRAGMENT_TAG_PREFIX + mode);
+            if (mode == newFlag) {
+                if (fragment == null) {
+                    transaction.add(R.id.container, newFragment(mode), FRAGMENT_TAG_PREFIX + mode);
+                } else {
+                    transaction.show(fragment);
+                }
+            } else if (fragment != null && !fragment.isHidden()) {
+                transaction.hide(fragment);
+            }
+        }
+        transaction.commit();
+        flag = newFlag;
+    }
+
+    private static Fragment newFragment(int flag) {
+        switch (flag) {
+            case 2:
+                return Camera2BasicFragment2.newInstance();
+            case 3:
+                return Camera2BasicFragment3.newInstance();
+            case 4:
+                return Camera2BasicFragment4.newInstance();
+            case MODE_CABIN_AND_ROAD:
+                return Camera2BasicFragment4.newInstance(true);
+            default:
+                return Camera2BasicFragment.newInstance();
+        }
+    }
+
+    /**
+     * Opens the camera. Discovery, opening and session setup run on the camera thread.
+     */
+    private void openCamera(int width, int height) {
+        if (!checkedPermissions && !allPermissionsGranted()) {
+            ActivityCompat.requestPermissions(this, getRequiredPermissions(), PERMISSIONS_REQUEST_CODE);
+            return;
+        } else {
+            checkedPermissions = true;
+        }
+        if (ActivityCompat.checkSelfPermission(this, Manifest.permission.CAMERA) != PackageManager.PERMISSION_GRANTED) {
+            return;
+        }
+        Point displaySize = new Point();
+        getWindowManager().getDefaultDisplay().getSize(displaySize);
+        cameraEngine.open(textureView.getSurfaceTexture(), width, height,
+                getWindowManager().getDefaultDisplay().getRotation(), displaySize);
+    }
+
+    private String[] getRequiredPermissions() {
+        try {
+            PackageInfo info = getPackageManager().getPackageInfo(getPackageName(), PackageManager.GET_PERMISSIONS);
+            String[] ps = info.requestedPermissions;
+            if (ps != null && ps.length > 0) {
+                return ps;
+            } else {
+                return new String[0];
             }
-            getSupportFragmentManager()
-                    .beginTransaction()
-                    .replace(R.id.container, fragment)
-                    .commit();
+        } catch (Exception e) {
+            return new String[0];
+        }
+    }
+
+    private boolean allPermissionsGranted() {
+        for (String permission : getRequiredPermissions()) {
+            if (ContextCompat.checkSelfPermission(this, permission) != PackageManager.PERMISSION_GRANTED) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public void onRequestPermissionsResult(
+            int requestCode, @NonNull String[] permissions, @NonNull int[] grantResults) {
+        super.onRequestPermissionsResult(requestCode, permissions, grantResults);
+        checkedPermissions = true;
+        if (requestCode == PERMISSIONS_REQUEST_CODE && textureView.isAvailable()) {
+            openCamera(textureView.getWidth(), textureView.getHeight());
+        }
+    }
+
+    /**
+     * Configures the necessary {@link Matrix} transformation to `textureView`. This
+     * method should be called after the camera preview size is determined in {@link #cameraListener}
+     * and also the size of `textureView` is fixed.
+     *
+     * @param viewWidth  The width of `textureView`
+     * @param viewHeight The height of `textureView`
+     */
+    private void configureTransform(int viewWidth, int viewHeight) {
+        if (null == textureView || null == previewSize) {
+            return;
+        }
+        int rotation = getWindowManager().getDefaultDisplay().getRotation();
+        Matrix matrix = new Matrix();
+        RectF viewRect = new RectF(0, 0, viewWidth, viewHeight);
+        RectF bufferRect = new RectF(0, 0, previewSize.getHeight(), previewSize.getWidth());
+        float centerX = viewRect.centerX();
+        float centerY = viewRect.centerY();
+        if (Surface.ROTATION_90 == rotation || Surface.ROTATION_270 == rotation) {
+            bufferRect.offset(centerX - bufferRect.centerX(), centerY - bufferRect.centerY());
+            matrix.setRectToRect(viewRect, bufferRect, Matrix.ScaleToFit.FILL);
+            float scale =
+                    Math.max(
+                            (float) viewHeight / previewSize.getHeight(),
+                            (float) viewWidth / previewSize.getWidth());
+            matrix.postScale(scale, scale, centerX, centerY);
+            matrix.postRotate(90 * (rotation - 2), centerX, centerY);
+        } else if (Surface.ROTATION_180 == rotation) {
+            matrix.postRotate(180, centerX, centerY);
         }
+        textureView.setTransform(matrix);
     }
-}
\ No newline at end of file
+}
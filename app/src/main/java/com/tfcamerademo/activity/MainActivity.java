@@ -1,14 +1,23 @@
 package com.tfcamerademo.activity;
 
+import android.Manifest;
 import android.app.Activity;
 import android.content.Intent;
+import android.content.pm.PackageManager;
 import android.os.Bundle;
 import android.view.View;
+import android.widget.Button;
+
+import androidx.core.app.ActivityCompat;
+import androidx.core.content.ContextCompat;
 
 import com.tfcamerademo.R;
+import com.tfcamerademo.service.MonitorService;
 
 public class MainActivity extends Activity {
 
+    private static final int REQUEST_CAMERA_PERMISSION = 1;
+
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
@@ -21,6 +30,17 @@ public class MainActivity extends Activity {
 
     }
 
+    @Override
+    protected void onResume() {
+        super.onResume();
+        updateMonitorServiceButton(MonitorService.isRunning(this));
+    }
+
+    private void updateMonitorServiceButton(boolean running) {
+        ((Button) findViewById(R.id.monitorServiceBtn))
+                .setText(running ? R.string.monitor_stop : R.string.monitor_start);
+    }
+
     public void onClick(View v) {
         Intent intent = new Intent(MainActivity.this, CameraActivity.class);
         switch (v.getId()) {
@@ -40,6 +60,24 @@ public class MainActivity extends Activity {
                 intent.putExtra("Flag", 4);
                 MainActivity.this.startActivity(intent);
                 break;
+            case R.id.cabinAndRoadBtn:
+                intent.putExtra("Flag", 5);
+                MainActivity.this.startActivity(intent);
+                break;
+            case R.id.monitorServiceBtn:
+                if (MonitorService.isRunning(this)) {
+                    MonitorService.stop(this);
+                    updateMonitorServiceButton(false);
+                } else if (ContextCompat.checkSelfPermission(this, Manifest.permission.CAMERA)
+                        != PackageManager.PERMISSION_GRANTED) {
+                    // 服务没有界面，不能自己申请权限
+                    ActivityCompat.requestPermissions(this, new String[]{Manifest.permission.CAMERA},
+                            REQUEST_CAMERA_PERMISSION);
+                } else {
+                    MonitorService.start(this);
+                    updateMonitorServiceButton(true);
+                }
+                break;
         }
     }
 }
\ No newline at end of file
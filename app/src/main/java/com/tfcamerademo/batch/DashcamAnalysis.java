@@ -0,0 +1,118 @@
+package com.tfcamerademo.batch;
+
+import android.content.res.AssetManager;
+
+import com.tfcamerademo.Classifier;
+import com.tfcamerademo.model.InterpreterConfig;
+import com.tfcamerademo.monitor.CabinMonitor;
+import com.tfcamerademo.monitor.RoadMonitor;
+import com.tfcamerademo.source.ReplayFrameSource;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * 行程结束后用车道/车辆模型和驾驶员行为模型重新分析整段录像
+ * <p>
+ * Sets an {@link OfflineAnalyzer} up with the two models of the live monitors, their regions and
+ * their alert rules, so the events of a re-scored trip are the alerts the driver would have seen.
+ */
+public class DashcamAnalysis {
+
+    public static final String ROAD_MODEL = "road";
+
+    public static final String CABIN_MODEL = "cabin";
+
+    /**
+     * Only detections that could trigger an alert are stored, the road rules start at 0.3.
+     */
+    private static final float STORED_CONFIDENCE = 0.3f;
+
+    /**
+     * Frames of one model instance per batch. Latency does not matter offline, the window only
+     * bounds how long a batch waits for the slowest worker.
+     */
+    private static final int BATCH_SIZE = 4;
+    private static final long BATCH_WINDOW_MS = 50;
+
+    /**
+     * The analyzer runs a worker per core and a model instance per {@value #BATCH_SIZE} workers,
+     * each instance gets as many interpreter threads as it has workers.
+     */
+    private static final InterpreterConfig INTERPRETER_CONFIG = InterpreterConfig.getDefault()
+            .withThreads(BATCH_SIZE)
+            .withBatching(BATCH_SIZE, BATCH_WINDOW_MS);
+
+    private DashcamAnalysis() {
+    }
+
+    /**
+     * Runs both models on {@code recording}.
+     *
+     * @param outputDir Receives {@code <recording>.det} and {@code events.csv}.
+     */
+    public static String analyze(AssetManager assets, ReplayFrameSource recording, File outputDir)
+            throws IOException, InterruptedException {
+        return analyze(assets, recording, recording, outputDir);
+    }
+
+    /**
+     * Runs the road model on {@code roadRecording} and the driver model on {@code cabinRecording},
+     * e.g. the two cameras of one trip. The events of both end up in one timeline.
+     */
+    public static String analyze(AssetManager assets, ReplayFrameSource roadRecording,
+                                 ReplayFrameSource cabinRecording, File outputDir)
+            throws IOException, InterruptedException {
+        OfflineAnalyzer analyzer = new OfflineAnalyzer(0);
+        OfflineAnalyzer.Model road = analyzer.addModel(ROAD_MODEL, roadFactory(assets),
+                RoadMonitor.DETECTION_REGION, STORED_CONFIDENCE, ROAD_RULE);
+        OfflineAnalyzer.Model cabin = analyzer.addModel(CABIN_MODEL, cabinFactory(assets),
+                CabinMonitor.DETECTION_REGION, STORED_CONFIDENCE, CABIN_RULE);
+        if (roadRecording == cabinRecording) {
+            analyzer.addRecording(roadRecording, resultFile(outputDir, roadRecording), road, cabin);
+        } else {
+            analyzer.addRecording(roadRecording, resultFile(outputDir, roadRecording), road);
+            analyzer.addRecording(cabinRecording, resultFile(outputDir, cabinRecording), cabin);
+        }
+        return analyzer.run(new File(outputDir, "events.csv"));
+    }
+
+    private static File resultFile(File outputDir, ReplayFrameSource recording) {
+        return new File(outputDir, recording.getName() + ".det");
+    }
+
+    private static OfflineAnalyzer.ClassifierFactory roadFactory(final AssetManager assets) {
+        return new OfflineAnalyzer.ClassifierFactory() {
+            @Override
+            public Classifier create() throws IOException {
+                return RoadMonitor.createClassifier(assets, INTERPRETER_CONFIG);
+            }
+        };
+    }
+
+    private static OfflineAnalyzer.ClassifierFactory cabinFactory(final AssetManager assets) {
+        return new OfflineAnalyzer.ClassifierFactory() {
+            @Override
+            public Classifier create() throws IOException {
+                return CabinMonitor.createClassifier(assets, INTERPRETER_CONFIG);
+            }
+        };
+    }
+
+    private static final OfflineAnalyzer.EventRule ROAD_RULE =
+            new OfflineAnalyzer.EventRule() {
+                @Override
+                public String getEvent(int frameWidth, int frameHeight, List<Classifier.Recognition> recognitions) {
+                    return RoadMonitor.getAlert(frameWidth, frameHeight, recognitions);
+                }
+            };
+
+    private static final OfflineAnalyzer.EventRule CABIN_RULE =
+            new OfflineAnalyzer.EventRule() {
+                @Override
+                public String getEvent(int frameWidth, int frameHeight, List<Classifier.Recognition> recognitions) {
+                    return CabinMonitor.getAlert(recognitions);
+                }
+            };
+}
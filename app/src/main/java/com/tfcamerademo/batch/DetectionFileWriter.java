@@ -0,0 +1,169 @@
+package com.tfcamerademo.batch;
+
+import com.tfcamerademo.Classifier;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 离线分析结果文件：每帧一条紧凑的二进制记录
+ * <p>
+ * A header names the recording and the models, then every frame is one record with the detections
+ * of each model: a label id, the score in 1/10000 and the box in upright frame pixels, 12 bytes
+ * per detection. A label is defined by a record of its own before its first use, so the file can
+ * be read while it is still being written. {@link #dump(File, PrintStream)} prints it as text.
+ */
+public class DetectionFileWriter implements Closeable {
+
+    private static final int MAGIC = 0x54464341; // "TFCA"
+
+    private static final int VERSION = 1;
+
+    private static final byte TAG_LABEL = 1;
+
+    private static final byte TAG_FRAME = 2;
+
+    private static final int SCORE_SCALE = 10000;
+
+    /**
+     * The most detections stored per model and frame, the count is one byte.
+     */
+    static final int MAX_DETECTIONS = 255;
+
+    private final DataOutputStream out;
+    private final Map<String, Integer> labelIds = new HashMap<>();
+
+    /**
+     * @param frameWidth  Width of the upright frames, the unit of the boxes.
+     * @param frameHeight Height of the upright frames.
+     */
+    public DetectionFileWriter(File file, String recordingName, int frameWidth, int frameHeight,
+                               String[] modelNames) throws IOException {
+        out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeUTF(recordingName);
+        out.writeShort(frameWidth);
+        out.writeShort(frameHeight);
+        out.writeByte(modelNames.length);
+        for (String modelName : modelNames) {
+            out.writeUTF(modelName);
+        }
+    }
+
+    /**
+     * @param detections Per model the recognitions to store, sorted by confidence. Only the first
+     *                   {@link #MAX_DETECTIONS} are written.
+     */
+    public void writeFrame(long index, long timestampUs, List<List<Classifier.Recognition>> detections)
+            throws IOException {
+        for (List<Classifier.Recognition> recognitions : detections) {
+            for (int i = 0; i < Math.min(recognitions.size(), MAX_DETECTIONS); i++) {
+                defineLabel(recognitions.get(i).getTitle());
+            }
+        }
+        out.writeByte(TAG_FRAME);
+        out.writeInt((int) index);
+        out.writeLong(timestampUs);
+        for (List<Classifier.Recognition> recognitions : detections) {
+            int count = Math.min(recognitions.size(), MAX_DETECTIONS);
+            out.writeByte(count);
+            for (int i = 0; i < count; i++) {
+                Classifier.Recognition recognition = recognitions.get(i);
+                out.writeShort(labelIds.get(recognition.getTitle()));
+                out.writeShort(Math.round(recognition.getConfidence() * SCORE_SCALE));
+                Classifier.Box location = recognition.getLocation();
+                out.writeShort(toPixel(location.left));
+                out.writeShort(toPixel(location.top));
+                out.writeShort(toPixel(location.right));
+                out.writeShort(toPixel(location.bottom));
+            }
+        }
+    }
+
+    private void defineLabel(String label) throws IOException {
+        if (labelIds.containsKey(label)) {
+            return;
+        }
+        int id = labelIds.size();
+        labelIds.put(label, id);
+        out.writeByte(TAG_LABEL);
+        out.writeShort(id);
+        out.writeUTF(label);
+    }
+
+    private static int toPixel(float value) {
+        return Math.max(0, Math.min(Short.MAX_VALUE, Math.round(value)));
+    }
+
+    @Override
+    public void close() throws IOException {
+        out.close();
+    }
+
+    /**
+     * Prints a result file as one line per frame.
+     */
+    public static void dump(File file, PrintStream print) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+        try {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                throw new IOException("Not a detection file: " + file);
+            }
+            String recordingName = in.readUTF();
+            int frameWidth = in.readShort();
+            int frameHeight = in.readShort();
+            String[] modelNames = new String[in.readUnsignedByte()];
+            for (int i = 0; i < modelNames.length; i++) {
+                modelNames[i] = in.readUTF();
+            }
+            print.println(recordingName + " " + frameWidth + "x" + frameHeight);
+            List<String> labels = new ArrayList<>();
+            while (true) {
+                int tag;
+                try {
+                    tag = in.readByte();
+                } catch (EOFException e) {
+                    break;
+                }
+                if (tag == TAG_LABEL) {
+                    int id = in.readShort();
+                    while (labels.size() <= id) {
+                        labels.add(null);
+                    }
+                    labels.set(id, in.readUTF());
+                    continue;
+                }
+                StringBuilder line = new StringBuilder();
+                line.append(in.readInt()).append(' ').append(in.readLong()).append("us");
+                for (String modelName : modelNames) {
+                    line.append(" | ").append(modelName).append(':');
+                    int count = in.readUnsignedByte();
+                    for (int i = 0; i < count; i++) {
+                        line.append(' ').append(labels.get(in.readShort()))
+                                .append(String.format(" %.2f", in.readShort() / (float) SCORE_SCALE))
+                                .append(" [").append(in.readShort()).append(',').append(in.readShort())
+                                .append(',').append(in.readShort()).append(',').append(in.readShort())
+                                .append(']');
+                    }
+                }
+                print.println(line);
+            }
+        } finally {
+            in.close();
+        }
+    }
+}
@@ -0,0 +1,611 @@
+package com.tfcamerademo.batch;
+
+import com.tfcamerademo.Classifier;
+import com.tfcamerademo.preprocess.RegionOfInterest;
+import com.tfcamerademo.preprocess.TensorFormat;
+import com.tfcamerademo.preprocess.YuvFrame;
+import com.tfcamerademo.preprocess.YuvToTensorConverter;
+import com.tfcamerademo.source.ReplayFrameSource;
+import com.tfcamerademo.source.YuvDumpFrameSource;
+import com.tfcamerademo.utils.Diagnostics;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 离线批量分析录像：每个线程用自己的模型实例并行推理，结果按帧顺序写入文件
+ * <p>
+ * Every recording is read by a thread of its own, which copies each frame into one of a few
+ * pooled slots and hands it to a pool of one worker per core. A worker converts the frame for
+ * every model of the recording and runs it on an instance of that model it has taken from the
+ * model's pool; there are as many instances as workers, since an interpreter only runs on one
+ * thread at a time. A classifier that takes several frames at once, see
+ * {@link Classifier#getParallelism()}, e.g. one that runs them in batches, is loaded fewer times
+ * and backs that many instances. Nothing is dropped: the reader waits for a free slot.
+ * <p>
+ * Workers finish frames out of order. The detections are put back in frame order before they are
+ * appended to the recording's {@link DetectionFileWriter}, and every change of a model's event,
+ * e.g. a lane departure starting or ending, is recorded. After the run the events of all
+ * recordings are merged in timestamp order into one CSV file.
+ * <p>
+ * Only plain Java besides the classifiers, so a workstation can re-score recordings with
+ * {@link YuvDumpFrameSource}; {@code OfflineAnalyzerTest} runs it with fake detectors on the JVM.
+ */
+public class OfflineAnalyzer {
+
+    private static final String TAG = "OfflineAnalyzer";
+
+    /**
+     * Frames read ahead per worker. Bounds the copied frames and the results waiting for an
+     * earlier frame.
+     */
+    private static final int FRAMES_PER_WORKER = 2;
+
+    /**
+     * For recordings without timestamps.
+     */
+    private static final int DEFAULT_FRAME_RATE = 30;
+
+    public interface ClassifierFactory {
+        /**
+         * Loads one instance of the model, called once per worker, or per
+         * {@link Classifier#getParallelism()} workers.
+         */
+        Classifier create() throws IOException;
+    }
+
+    public interface EventRule {
+        /**
+         * @param recognitions The stored detections of one frame, mapped to the upright frame.
+         * @return The event the frame shows, {@code null} if none.
+         */
+        String getEvent(int frameWidth, int frameHeight, List<Classifier.Recognition> recognitions);
+    }
+
+    /**
+     * A model and the instances the workers share.
+     */
+    public static class Model {
+        final String name;
+        final ClassifierFactory factory;
+        final RegionOfInterest region;
+        final float minConfidence;
+        final EventRule rule;
+        final BlockingQueue<ModelInstance> instances = new LinkedBlockingQueue<>();
+        final List<ModelInstance> allInstances = new ArrayList<>();
+        final List<Classifier> classifiers = new ArrayList<>();
+        final AtomicLong runCount = new AtomicLong();
+        final AtomicLong inferenceNanos = new AtomicLong();
+
+        Model(String name, ClassifierFactory factory, RegionOfInterest region, float minConfidence, EventRule rule) {
+            this.name = name;
+            this.factory = factory;
+            this.region = region;
+            this.minConfidence = minConfidence;
+            this.rule = rule;
+        }
+    }
+
+    /**
+     * A recording and the models that analyze it.
+     */
+    public static class Recording {
+        final ReplayFrameSource source;
+        final File resultFile;
+        final Model[] models;
+        long frameIntervalUs = TimeUnit.SECONDS.toMicros(1) / DEFAULT_FRAME_RATE;
+
+        // Set up by the reader with the first frame.
+        BlockingQueue<FrameSlot> freeSlots;
+        int rotationDegrees;
+        int frameWidth;
+        int frameHeight;
+        int[][] regions;
+        DetectionFileWriter writer;
+
+        // Guarded by this: results waiting for an earlier frame and the events so far.
+        final Map<Long, FrameRecord> pending = new HashMap<>();
+        long nextIndex;
+        long lastTimestampUs;
+        String[] lastEvents;
+        final List<Event> events = new ArrayList<>();
+
+        Recording(ReplayFrameSource source, File resultFile, Model[] models) {
+            this.source = source;
+            this.resultFile = resultFile;
+            this.models = models;
+            lastEvents = new String[models.length];
+        }
+
+        /**
+         * The frame rate of a recording without timestamps, {@value #DEFAULT_FRAME_RATE} by default.
+         */
+        public void setFrameRate(int fps) {
+            frameIntervalUs = TimeUnit.SECONDS.toMicros(1) / fps;
+        }
+    }
+
+    private final int workerCount;
+    private final List<Model> models = new ArrayList<>();
+    private final List<Recording> recordings = new ArrayList<>();
+    private final List<Thread> readers = new ArrayList<>();
+    private volatile Throwable failure;
+
+    /**
+     * @param workerCount The inference threads, 0 for one per core.
+     */
+    public OfflineAnalyzer(int workerCount) {
+        this.workerCount = workerCount > 0 ? workerCount : Runtime.getRuntime().availableProcessors();
+    }
+
+    public int getWorkerCount() {
+        return workerCount;
+    }
+
+    /**
+     * @param region        The part of the upright frame the model sees.
+     * @param minConfidence Detections below are neither stored nor shown to {@code rule}, so it
+     *                      must not be above the rule's own threshold.
+     * @param rule          Finds the model's events, may be {@code null}.
+     */
+    public Model addModel(String name, ClassifierFactory factory, RegionOfInterest region,
+                          float minConfidence, EventRule rule) {
+        Model model = new Model(name, factory, region, minConfidence, rule);
+        models.add(model);
+        return model;
+    }
+
+    /**
+     * @param resultFile Receives the detections of every frame, see {@link DetectionFileWriter}.
+     */
+    public Recording addRecording(ReplayFrameSource source, File resultFile, Model... models) {
+        Recording recording = new Recording(source, resultFile, models);
+        recordings.add(recording);
+        return recording;
+    }
+
+    /**
+     * Analyzes every frame of every recording.
+     *
+     * @param eventFile Receives the events of all recordings in timestamp order.
+     * @return One line of statistics per recording and model.
+     */
+    public String run(File eventFile) throws IOException, InterruptedException {
+        failure = null;
+        long startNanos = System.nanoTime();
+        ExecutorService workers = null;
+        try {
+            loadInstances();
+            long loadedNanos = System.nanoTime();
+            workers = Executors.newFixedThreadPool(workerCount, new ThreadFactory() {
+                private final AtomicInteger count = new AtomicInteger();
+
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    return new Thread(runnable, "Analysis" + count.getAndIncrement());
+                }
+            });
+            readers.clear();
+            for (Recording recording : recordings) {
+                readers.add(createReader(recording, workers));
+            }
+            for (Thread reader : readers) {
+                reader.start();
+            }
+            for (Thread reader : readers) {
+                reader.join();
+            }
+            workers.shutdown();
+            while (!workers.awaitTermination(1, TimeUnit.SECONDS)) {
+                // The last frames are still being analyzed.
+            }
+            if (failure != null) {
+                throw new IOException("Offline analysis failed", failure);
+            }
+            for (Recording recording : recordings) {
+                finish(recording);
+            }
+            writeEvents(eventFile);
+            return getStatString(loadedNanos - startNanos, System.nanoTime() - loadedNanos);
+        } finally {
+            if (workers != null) {
+                workers.shutdownNow();
+            }
+            for (Thread reader : readers) {
+                reader.interrupt();
+            }
+            for (Recording recording : recordings) {
+                if (recording.writer != null) {
+                    recording.writer.close();
+                    recording.writer = null;
+                }
+            }
+            closeInstances();
+        }
+    }
+
+    private void loadInstances() throws IOException {
+        for (Model model : models) {
+            while (model.allInstances.size() < workerCount) {
+                Classifier classifier = model.factory.create();
+                model.classifiers.add(classifier);
+                int parallelism = Math.max(1, classifier.getParallelism());
+                for (int i = 0; i < parallelism && model.allInstances.size() < workerCount; i++) {
+                    ModelInstance instance = new ModelInstance(classifier);
+                    model.allInstances.add(instance);
+                    model.instances.add(instance);
+                }
+            }
+        }
+    }
+
+    private void closeInstances() {
+        for (Model model : models) {
+            for (Classifier classifier : model.classifiers) {
+                classifier.close();
+            }
+            model.classifiers.clear();
+            model.allInstances.clear();
+            model.instances.clear();
+        }
+    }
+
+    private Thread createReader(final Recording recording, final ExecutorService workers) {
+        return new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    recording.source.read(new ReplayFrameSource.FrameCallback() {
+                        @Override
+                        public void onFrame(YuvFrame frame, long index, long timestampUs)
+                                throws InterruptedException {
+                            if (index == 0) {
+                                try {
+                                    prepare(recording, frame);
+                                } catch (IOException e) {
+                                    fail(e);
+                                    throw new InterruptedException();
+                                }
+                            }
+                            submit(recording, frame, index, timestampUs, workers);
+                        }
+                    });
+                } catch (InterruptedException e) {
+                    // Failed or cancelled.
+                } catch (Throwable e) {
+                    fail(e);
+                }
+            }
+        }, recording.source.getName() + "Reader");
+    }
+
+    /**
+     * Sets the recording up for the size of its frames.
+     */
+    private void prepare(Recording recording, YuvFrame frame) throws IOException {
+        recording.rotationDegrees = recording.source.getRotationDegrees();
+        boolean swapped = recording.rotationDegrees == 90 || recording.rotationDegrees == 270;
+        recording.frameWidth = swapped ? frame.getHeight() : frame.getWidth();
+        recording.frameHeight = swapped ? frame.getWidth() : frame.getHeight();
+        recording.regions = new int[recording.models.length][];
+        String[] modelNames = new String[recording.models.length];
+        for (int i = 0; i < recording.models.length; i++) {
+            recording.regions[i] = recording.models[i].region.toPixels(recording.frameWidth, recording.frameHeight);
+            modelNames[i] = recording.models[i].name;
+        }
+        int slotCount = workerCount * FRAMES_PER_WORKER;
+        recording.freeSlots = new ArrayBlockingQueue<>(slotCount);
+        for (int i = 0; i < slotCount; i++) {
+            recording.freeSlots.add(new FrameSlot());
+        }
+        recording.writer = new DetectionFileWriter(recording.resultFile, recording.source.getName(),
+                recording.frameWidth, recording.frameHeight, modelNames);
+    }
+
+    private void submit(final Recording recording, YuvFrame frame, long index, long timestampUs,
+                        ExecutorService workers) throws InterruptedException {
+        if (failure != null) {
+            throw new InterruptedException();
+        }
+        final FrameSlot slot = recording.freeSlots.take();
+        slot.copy(frame);
+        slot.index = index;
+        slot.timestampUs = timestampUs >= 0 ? timestampUs : index * recording.frameIntervalUs;
+        workers.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    analyze(recording, slot);
+                } catch (Throwable e) {
+                    fail(e);
+                }
+            }
+        });
+    }
+
+    private void fail(Throwable e) {
+        if (failure == null) {
+            failure = e;
+            Diagnostics.e(TAG, "Offline analysis failed", e);
+        }
+        for (Thread reader : readers) {
+            reader.interrupt();
+        }
+    }
+
+    /**
+     * Runs every model of the recording on one frame, on a worker.
+     */
+    private void analyze(Recording recording, FrameSlot slot) throws IOException, InterruptedException {
+        Diagnostics.beginSection("analyzeFrame");
+        FrameRecord record = new FrameRecord(slot.index, slot.timestampUs, recording.models.length);
+        for (int i = 0; i < recording.models.length; i++) {
+            Model model = recording.models[i];
+            List<Classifier.Recognition> recognitions;
+            TensorFormat inputFormat;
+            ModelInstance instance = model.instances.take();
+            try {
+                inputFormat = instance.classifier.getInputFormat();
+                instance.getConverter(recording, i).convert(slot.frame, instance.input);
+                instance.input.rewind();
+                long inferenceStart = System.nanoTime();
+                instance.classifier.runInference(instance.input, instance.outputs);
+                model.inferenceNanos.addAndGet(System.nanoTime() - inferenceStart);
+                model.runCount.incrementAndGet();
+                recognitions = instance.classifier.decodeOutputs(instance.outputs);
+            } finally {
+                model.instances.put(instance);
+            }
+            List<Classifier.Recognition> kept = mapToFrame(recognitions, model.minConfidence,
+                    recording.regions[i], inputFormat);
+            record.detections.add(kept);
+            if (model.rule != null) {
+                record.events[i] = model.rule.getEvent(recording.frameWidth, recording.frameHeight, kept);
+            }
+        }
+        recording.freeSlots.put(slot);
+        Diagnostics.endSection();
+        complete(recording, record);
+    }
+
+    /**
+     * The detections above {@code minConfidence}, mapped from model input pixels to the upright frame.
+     */
+    private static List<Classifier.Recognition> mapToFrame(List<Classifier.Recognition> recognitions,
+                                                           float minConfidence, int[] region,
+                                                           TensorFormat inputFormat) {
+        final float scaleX = (float) region[2] / inputFormat.getWidth();
+        final float scaleY = (float) region[3] / inputFormat.getHeight();
+        List<Classifier.Recognition> kept = new ArrayList<>();
+        for (Classifier.Recognition recognition : recognitions) {
+            Classifier.Box location = recognition.getLocation();
+            if (location == null || recognition.getConfidence() < minConfidence) {
+                continue;
+            }
+            location.set(region[0] + location.left * scaleX,
+                    region[1] + location.top * scaleY,
+                    region[0] + location.right * scaleX,
+                    region[1] + location.bottom * scaleY);
+            recognition.setLocation(location);
+            kept.add(recognition);
+        }
+        return kept;
+    }
+
+    /**
+     * Writes the frame and every earlier frame that was waiting for it, in frame order.
+     */
+    private static void complete(Recording recording, FrameRecord record) throws IOException {
+        synchronized (recording) {
+            recording.pending.put(record.index, record);
+            FrameRecord next;
+            while ((next = recording.pending.remove(recording.nextIndex)) != null) {
+                recording.writer.writeFrame(next.index, next.timestampUs, next.detections);
+                for (int i = 0; i < recording.models.length; i++) {
+                    updateEvent(recording, i, next.events[i], next.timestampUs);
+                }
+                recording.lastTimestampUs = next.timestampUs;
+                recording.nextIndex++;
+            }
+        }
+    }
+
+    private static void updateEvent(Recording recording, int model, String event, long timestampUs) {
+        String last = recording.lastEvents[model];
+        if (last == null ? event == null : last.equals(event)) {
+            return;
+        }
+        String recordingName = recording.source.getName();
+        String modelName = recording.models[model].name;
+        if (last != null) {
+            recording.events.add(new Event(timestampUs, recordingName, modelName, false, last));
+        }
+        if (event != null) {
+            recording.events.add(new Event(timestampUs, recordingName, modelName, true, event));
+        }
+        recording.lastEvents[model] = event;
+    }
+
+    /**
+     * Ends the events still running at the last frame.
+     */
+    private static void finish(Recording recording) throws IOException {
+        synchronized (recording) {
+            for (int i = 0; i < recording.models.length; i++) {
+                updateEvent(recording, i, null, recording.lastTimestampUs);
+            }
+            if (recording.writer != null) {
+                recording.writer.close();
+                recording.writer = null;
+            }
+        }
+    }
+
+    /**
+     * Every recording's events are in its frame order already, a stable sort merges them.
+     */
+    private void writeEvents(File eventFile) throws IOException {
+        List<Event> merged = new ArrayList<>();
+        for (Recording recording : recordings) {
+            merged.addAll(recording.events);
+        }
+        Collections.sort(merged, new Comparator<Event>() {
+            @Override
+            public int compare(Event lhs, Event rhs) {
+                return Long.compare(lhs.timestampUs, rhs.timestampUs);
+            }
+        });
+        PrintWriter out = new PrintWriter(eventFile, "UTF-8");
+        try {
+            out.println("timestamp_ms,recording,model,state,event");
+            for (Event event : merged) {
+                out.println(String.format("%.3f", event.timestampUs / 1000.0) + "," + event.recording
+                        + "," + event.model + "," + (event.start ? "start" : "end") + "," + event.event);
+            }
+        } finally {
+            out.close();
+        }
+        if (out.checkError()) {
+            throw new IOException("Failed to write " + eventFile);
+        }
+    }
+
+    private String getStatString(long loadNanos, long analysisNanos) {
+        StringBuilder stats = new StringBuilder();
+        stats.append("workers=").append(workerCount)
+                .append(" cores=").append(Runtime.getRuntime().availableProcessors())
+                .append(" loadMs=").append(TimeUnit.NANOSECONDS.toMillis(loadNanos))
+                .append(" analysisMs=").append(TimeUnit.NANOSECONDS.toMillis(analysisNanos));
+        for (Recording recording : recordings) {
+            stats.append('\n').append(recording.source.getName())
+                    .append(": frames=").append(recording.nextIndex)
+                    .append(" fps=").append(String.format("%.1f", recording.nextIndex * 1e9 / Math.max(1, analysisNanos)))
+                    .append(" events=").append(recording.events.size());
+        }
+        for (Model model : models) {
+            long runs = model.runCount.get();
+            stats.append('\n').append(model.name)
+                    .append(": runs=").append(runs)
+                    .append(" avgInferenceMs=").append(String.format("%.2f",
+                            runs == 0 ? 0 : model.inferenceNanos.get() / 1e6 / runs))
+                    .append(" instances=").append(model.classifiers.size());
+            // The interpreter stats, including the batch efficiency of a batching model.
+            for (Classifier classifier : model.classifiers) {
+                stats.append("\n  ").append(classifier.getStatString());
+            }
+        }
+        return stats.toString();
+    }
+
+    /**
+     * One instance of a model with the buffers for it, used by one worker at a time.
+     */
+    static class ModelInstance {
+        final Classifier classifier;
+        final ByteBuffer input;
+        final Object[] outputs;
+        final Map<Recording, YuvToTensorConverter> converters = new HashMap<>();
+
+        ModelInstance(Classifier classifier) {
+            this.classifier = classifier;
+            input = classifier.getInputFormat().allocate();
+            outputs = classifier.createOutputs();
+        }
+
+        YuvToTensorConverter getConverter(Recording recording, int model) {
+            YuvToTensorConverter converter = converters.get(recording);
+            if (converter == null) {
+                converter = new YuvToTensorConverter(classifier.getInputFormat());
+                converter.setRotation(recording.rotationDegrees);
+                int[] region = recording.regions[model];
+                if (!recording.models[model].region.isFullFrame()) {
+                    converter.setCrop(region[0], region[1], region[2], region[3]);
+                }
+                converters.put(recording, converter);
+            }
+            return converter;
+        }
+    }
+
+    /**
+     * A copy of a frame, the reader reuses the planes of the original.
+     */
+    static class FrameSlot {
+        final YuvFrame frame = new YuvFrame();
+        private ByteBuffer yPlane;
+        private ByteBuffer uPlane;
+        private ByteBuffer vPlane;
+        long index;
+        long timestampUs;
+
+        void copy(YuvFrame source) {
+            yPlane = copy(source.getYBuffer(), yPlane);
+            uPlane = copy(source.getUBuffer(), uPlane);
+            vPlane = copy(source.getVBuffer(), vPlane);
+            frame.set(source.getWidth(), source.getHeight(), yPlane, source.getYRowStride(),
+                    uPlane, vPlane, source.getUvRowStride(), source.getUvPixelStride());
+        }
+
+        private static ByteBuffer copy(ByteBuffer from, ByteBuffer to) {
+            ByteBuffer source = from.duplicate();
+            source.rewind();
+            if (to == null || to.capacity() < source.remaining()) {
+                to = ByteBuffer.allocateDirect(source.remaining());
+            }
+            to.clear();
+            to.put(source);
+            to.flip();
+            return to;
+        }
+    }
+
+    /**
+     * The stored detections and events of one frame.
+     */
+    static class FrameRecord {
+        final long index;
+        final long timestampUs;
+        final List<List<Classifier.Recognition>> detections;
+        final String[] events;
+
+        FrameRecord(long index, long timestampUs, int modelCount) {
+            this.index = index;
+            this.timestampUs = timestampUs;
+            detections = new ArrayList<>(modelCount);
+            events = new String[modelCount];
+        }
+    }
+
+    static class Event {
+        final long timestampUs;
+        final String recording;
+        final String model;
+        final boolean start;
+        final String event;
+
+        Event(long timestampUs, String recording, String model, boolean start, String event) {
+            this.timestampUs = timestampUs;
+            this.recording = recording;
+            this.model = model;
+            this.start = start;
+            this.event = event;
+        }
+    }
+}
@@ -0,0 +1,128 @@
+package com.tfcamerademo.camera;
+
+import android.os.Build;
+import android.util.Range;
+import android.util.Size;
+
+import androidx.annotation.RequiresApi;
+
+/**
+ * 选好的相机配置，缓存下来下次启动时跳过相机枚举和参数查询
+ * <p>
+ * Everything the session setup needs from {@link android.hardware.camera2.CameraCharacteristics},
+ * already reduced to the chosen sizes. It is written as one string so it can be stored in
+ * {@link com.tfcamerademo.utils.SPUtils}.
+ */
+@RequiresApi(api = Build.VERSION_CODES.LOLLIPOP)
+public class CameraConfig {
+
+    private static final String FIELD_SEPARATOR = ";";
+    private static final String RANGE_SEPARATOR = ",";
+    private static final int FIELD_COUNT = 6;
+
+    private final String cameraId;
+    private final int sensorOrientation;
+    private final boolean realtimeTimestamps;
+    private final Size previewSize;
+    private final Size analysisSize;
+    private final Range<Integer>[] fpsRanges;
+
+    public CameraConfig(String cameraId, int sensorOrientation, boolean realtimeTimestamps,
+                        Size previewSize, Size analysisSize, Range<Integer>[] fpsRanges) {
+        this.cameraId = cameraId;
+        this.sensorOrientation = sensorOrientation;
+        this.realtimeTimestamps = realtimeTimestamps;
+        this.previewSize = previewSize;
+        this.analysisSize = analysisSize;
+        this.fpsRanges = fpsRanges;
+    }
+
+    public String getCameraId() {
+        return cameraId;
+    }
+
+    public int getSensorOrientation() {
+        return sensorOrientation;
+    }
+
+    /**
+     * @see YuvFrameReader#hasRealtimeTimestamps(android.hardware.camera2.CameraCharacteristics)
+     */
+    public boolean hasRealtimeTimestamps() {
+        return realtimeTimestamps;
+    }
+
+    public Size getPreviewSize() {
+        return previewSize;
+    }
+
+    /**
+     * The size of the YUV stream the models read.
+     */
+    public Size getAnalysisSize() {
+        return analysisSize;
+    }
+
+    /**
+     * The frame rate ranges the camera's auto exposure supports, may be {@code null}.
+     */
+    public Range<Integer>[] getFpsRanges() {
+        return fpsRanges;
+    }
+
+    public String encode() {
+        StringBuilder ranges = new StringBuilder();
+        if (fpsRanges != null) {
+            for (Range<Integer> range : fpsRanges) {
+                if (ranges.length() > 0) {
+                    ranges.append(RANGE_SEPARATOR);
+                }
+                ranges.append(range.getLower()).append('-').append(range.getUpper());
+            }
+        }
+        return cameraId + FIELD_SEPARATOR
+                + sensorOrientation + FIELD_SEPARATOR
+                + realtimeTimestamps + FIELD_SEPARATOR
+                + previewSize + FIELD_SEPARATOR
+                + analysisSize + FIELD_SEPARATOR
+                + ranges;
+    }
+
+    /**
+     * @return {@code null} if {@code value} was not written by {@link #encode()}.
+     */
+    @SuppressWarnings("unchecked")
+    public static CameraConfig decode(String value) {
+        if (value == null) {
+            return null;
+        }
+        String[] fields = value.split(FIELD_SEPARATOR, -1);
+        if (fields.length != FIELD_COUNT) {
+            return null;
+        }
+        try {
+            Range<Integer>[] fpsRanges = null;
+            if (!fields[5].isEmpty()) {
+                String[] ranges = fields[5].split(RANGE_SEPARATOR);
+                fpsRanges = new Range[ranges.length];
+                for (int i = 0; i < ranges.length; i++) {
+                    String[] bounds = ranges[i].split("-");
+                    fpsRanges[i] = Range.create(Integer.parseInt(bounds[0]), Integer.parseInt(bounds[1]));
+                }
+            }
+            return new CameraConfig(fields[0],
+                    Integer.parseInt(fields[1]),
+                    Boolean.parseBoolean(fields[2]),
+                    Size.parseSize(fields[3]),
+                    Size.parseSize(fields[4]),
+                    fpsRanges);
+        } catch (RuntimeException e) {
+            return null;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "CameraConfig[" + encode() + "]";
+    }
+}
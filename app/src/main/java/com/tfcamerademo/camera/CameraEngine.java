@@ -0,0 +1,806 @@
+package com.tfcamerademo.camera;
+
+import android.annotation.SuppressLint;
+import android.content.Context;
+import android.graphics.ImageFormat;
+import android.graphics.Point;
+import android.graphics.SurfaceTexture;
+import android.hardware.camera2.CameraAccessException;
+import android.hardware.camera2.CameraCaptureSession;
+import android.hardware.camera2.CameraCharacteristics;
+import android.hardware.camera2.CameraDevice;
+import android.hardware.camera2.CameraManager;
+import android.hardware.camera2.CaptureRequest;
+import android.hardware.camera2.TotalCaptureResult;
+import android.hardware.camera2.params.StreamConfigurationMap;
+import android.os.Build;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.util.Log;
+import android.util.Range;
+import android.util.Size;
+import android.view.Surface;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.RequiresApi;
+
+import com.tfcamerademo.utils.SPUtils;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 在后台线程上打开和配置相机，不阻塞 UI 线程；切换模型时相机保持打开
+ * <p>
+ * Camera discovery, the characteristics queries, opening the device and creating the capture
+ * session all run on the camera thread; {@link #open} only posts a task and returns. The chosen
+ * {@link CameraConfig} is cached in shared preferences, so later launches with the same view and
+ * model requirements skip {@link CameraManager#getCameraIdList()} and the characteristics queries
+ * and open the camera straight away. A cached camera that can no longer be opened is forgotten and
+ * discovered again.
+ * <p>
+ * The engine is owned by the activity and outlives the model fragments. A model attaches itself as
+ * the {@link FrameConsumer}, which only swaps the targets of the running {@link YuvFrameReader}.
+ * The session is only recreated when a model needs a larger analysis stream than the current one,
+ * and the device is only reopened when a model needs the other lens.
+ * <p>
+ * An engine opened with {@link #openHeadless(int)} has no preview surface and only streams to the
+ * frame reader, e.g. the second camera of a device that runs the cabin and the road camera at the
+ * same time. Whether two cameras can be open together depends on the device; if not, the second
+ * one reports {@link Listener#onError(String)}.
+ * <p>
+ * A camera has one client at a time, also within the process. An open therefore waits on the
+ * camera thread until every engine of the process that was stopped has closed its camera, e.g. the
+ * monitor service's engines when the camera UI takes the cameras over.
+ */
+@RequiresApi(api = Build.VERSION_CODES.LOLLIPOP)
+public class CameraEngine {
+
+    /**
+     * Receives the camera events of the owner, all on the camera thread.
+     */
+    public interface Listener {
+        /**
+         * The configuration is known and the camera is being opened or reconfigured, e.g. fit the
+         * preview view to {@link CameraConfig#getPreviewSize()}.
+         */
+        void onConfigChosen(CameraConfig config);
+
+        /**
+         * The camera could not be opened or configured, or was lost.
+         */
+        void onError(String message);
+    }
+
+    /**
+     * The model currently reading the analysis stream, called on the camera thread.
+     */
+    public interface FrameConsumer {
+        /**
+         * Adds the targets and gates to a reader that has none. Called when the consumer is
+         * attached and again whenever the session is recreated with a new reader.
+         */
+        void onFrameReaderReady(YuvFrameReader frameReader);
+
+        void onCaptureCompleted(TotalCaptureResult result);
+    }
+
+    private static final String TAG = "CameraEngine";
+
+    private static final String THREAD_NAME = "CameraBackground";
+
+    private static final String CONFIG_CACHE_NAME = "camera_config";
+
+    /**
+     * Max preview width that is guaranteed by Camera2 API
+     */
+    private static final int MAX_PREVIEW_WIDTH = 1920;
+
+    /**
+     * Max preview height that is guaranteed by Camera2 API
+     */
+    private static final int MAX_PREVIEW_HEIGHT = 1080;
+
+    /**
+     * How long {@link #start()} and an open wait for cameras that {@link #stop()} is closing.
+     */
+    private static final long CLOSE_TIMEOUT_MS = 2500;
+
+    /**
+     * How long a consumer change waits for the camera thread.
+     */
+    private static final long CONSUMER_TIMEOUT_MS = 500;
+
+    private static final Object CLOSE_LOCK = new Object();
+
+    /**
+     * Engines of the process that were stopped and are still closing their camera. Guarded by
+     * {@link #CLOSE_LOCK}.
+     */
+    private static int closingEngines;
+
+    private final CameraManager manager;
+    private final SPUtils configCache;
+    private final Listener listener;
+
+    // Requirements, written by the owner and read on the camera thread.
+    private volatile int lensFacing;
+    private volatile int minAnalysisWidth;
+    private volatile int minAnalysisHeight;
+    private volatile int targetFps = CaptureConfigurator.DEFAULT_FPS;
+
+    private HandlerThread thread;
+    private Handler handler;
+    private volatile boolean opened;
+
+    // The thread of the last stop(), until it has closed the camera and quit. Owner only.
+    private HandlerThread closingThread;
+    private Handler closingHandler;
+
+    // Only used on the camera thread, or by the owner while the thread is not running.
+    private FrameConsumer frameConsumer;
+    private boolean openRequested;
+    private SurfaceTexture surfaceTexture;
+    private Surface previewSurface;
+    private int viewWidth;
+    private int viewHeight;
+    private int displayRotation;
+    private Point displaySize;
+    private CameraDevice cameraDevice;
+    private CameraCaptureSession captureSession;
+    private CaptureRequest.Builder repeatingRequest;
+    private Range<Integer> fpsRange;
+    private YuvFrameReader frameReader;
+    private CameraConfig config;
+    private boolean opening;
+    private boolean reconfigurePending;
+    private Runnable pendingClose;
+    private long openStartNanos;
+    private boolean configFromCache;
+    private boolean firstFrameReceived;
+
+    /**
+     * @param lensFacing The lens to open until {@link #setLensFacing(int)} is called, one of the
+     *                   {@link CameraCharacteristics} LENS_FACING_ constants.
+     * @param listener   Receives the camera events.
+     */
+    public CameraEngine(Context context, int lensFacing, Listener listener) {
+        manager = (CameraManager) context.getSystemService(Context.CAMERA_SERVICE);
+        configCache = new SPUtils(context, CONFIG_CACHE_NAME);
+        this.lensFacing = lensFacing;
+        this.listener = listener;
+    }
+
+    /**
+     * Switches to the first camera with {@code lensFacing}. An open camera is reopened, the
+     * preview surface, the cached config and the camera thread are kept. The previous device is
+     * closed first rather than kept open for a switch back, because many phones cannot open two
+     * cameras at once.
+     */
+    public void setLensFacing(int lensFacing) {
+        if (this.lensFacing == lensFacing) {
+            return;
+        }
+        this.lensFacing = lensFacing;
+        postReconfigure();
+    }
+
+    /**
+     * Sets the smallest upright frame the analysis stream delivers to {@code uprightWidth} x
+     * {@code uprightHeight}, see
+     * {@link com.tfcamerademo.preprocess.RegionOfInterest#getMinimumFrameWidth(int)}, replacing the
+     * previous requirement. The stream is the smallest that covers it, so a model with a small input
+     * does not convert large frames. When that picks another stream size, the running session is
+     * recreated, which pauses the preview briefly: a mode switch keeps the session only if both
+     * modes use the same lens and the same stream size.
+     */
+    public void setAnalysisSize(int uprightWidth, int uprightHeight) {
+        if (uprightWidth == minAnalysisWidth && uprightHeight == minAnalysisHeight) {
+            return;
+        }
+        minAnalysisWidth = uprightWidth;
+        minAnalysisHeight = uprightHeight;
+        postReconfigure();
+    }
+
+    /**
+     * The frame rate the auto exposure should reach, see
+     * {@link CaptureConfigurator#getConsumableFps}. A running session gets a new repeating request
+     * when the value picks another fps range, so this can be called whenever the latencies change;
+     * unchanged values cost nothing.
+     */
+    public void setTargetFps(int targetFps) {
+        if (this.targetFps == targetFps) {
+            return;
+        }
+        this.targetFps = targetFps;
+        Handler cameraHandler = handler;
+        if (cameraHandler == null) {
+            return;
+        }
+        cameraHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                applyTargetFps();
+            }
+        });
+    }
+
+    /**
+     * Starts the camera thread. Waits for the camera a previous {@link #stop()} is still closing,
+     * which is usually closed by then.
+     */
+    public void start() {
+        awaitClosed();
+        thread = new HandlerThread(THREAD_NAME);
+        thread.start();
+        handler = new Handler(thread.getLooper());
+    }
+
+    /**
+     * The handler of the camera thread, valid between {@link #start()} and {@link #stop()}.
+     */
+    public Handler getHandler() {
+        return handler;
+    }
+
+    /**
+     * Whether a camera device is open.
+     */
+    public boolean isOpened() {
+        return opened;
+    }
+
+    /**
+     * Hands the analysis stream to {@code consumer}, replacing the previous consumer's targets.
+     * Waits until the camera thread has made the change, so the previous consumer receives no
+     * frames once this returns.
+     */
+    public void setFrameConsumer(final FrameConsumer consumer) {
+        runOnCameraThread(new Runnable() {
+            @Override
+            public void run() {
+                frameConsumer = consumer;
+                if (frameReader != null) {
+                    frameReader.clearTargets();
+                    if (consumer != null) {
+                        consumer.onFrameReaderReady(frameReader);
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * Detaches {@code consumer} if it is still the current consumer.
+     */
+    public void removeFrameConsumer(final FrameConsumer consumer) {
+        runOnCameraThread(new Runnable() {
+            @Override
+            public void run() {
+                if (frameConsumer != consumer) {
+                    return;
+                }
+                frameConsumer = null;
+                if (frameReader != null) {
+                    frameReader.clearTargets();
+                }
+            }
+        });
+    }
+
+    /**
+     * Opens the camera and starts streaming to {@code texture} and the frame reader. Returns
+     * immediately, the work is done on the camera thread, which first waits for cameras that
+     * stopped engines are still closing. The caller must hold the camera permission.
+     *
+     * @param texture         The preview, or {@code null} for no preview.
+     * @param viewWidth       The width of the preview view.
+     * @param viewHeight      The height of the preview view.
+     * @param displayRotation One of the {@link Surface} ROTATION_ constants.
+     * @param displaySize     The size of the display, which caps the preview size.
+     */
+    public void open(final SurfaceTexture texture, final int viewWidth, final int viewHeight,
+                     final int displayRotation, final Point displaySize) {
+        final long startNanos = System.nanoTime();
+        handler.post(new Runnable() {
+            @Override
+            public void run() {
+                awaitEnginesClosed();
+                openStartNanos = startNanos;
+                openRequested = true;
+                surfaceTexture = texture;
+                previewSurface = texture != null ? new Surface(texture) : null;
+                CameraEngine.this.viewWidth = viewWidth;
+                CameraEngine.this.viewHeight = viewHeight;
+                CameraEngine.this.displayRotation = displayRotation;
+                CameraEngine.this.displaySize = displaySize;
+                config = chooseConfig(true);
+                if (config != null) {
+                    openDevice();
+                }
+            }
+        });
+    }
+
+    /**
+     * Opens the camera for the frame reader only, without a preview.
+     *
+     * @param displayRotation One of the {@link Surface} ROTATION_ constants, frames are turned
+     *                        upright for it.
+     * @see #open(SurfaceTexture, int, int, int, Point)
+     */
+    public void openHeadless(int displayRotation) {
+        open(null, 0, 0, displayRotation, new Point());
+    }
+
+    /**
+     * Closes the camera and stops the camera thread. Returns immediately, so the UI thread does not
+     * wait for the device; the thread quits once the camera is closed. A following
+     * {@link #start()} waits for that, because the camera has one client at a time.
+     */
+    public void stop() {
+        if (thread == null) {
+            return;
+        }
+        final HandlerThread cameraThread = thread;
+        synchronized (CLOSE_LOCK) {
+            closingEngines++;
+        }
+        handler.post(new Runnable() {
+            @Override
+            public void run() {
+                closeOnCameraThread(new Runnable() {
+                    @Override
+                    public void run() {
+                        synchronized (CLOSE_LOCK) {
+                            closingEngines--;
+                            CLOSE_LOCK.notifyAll();
+                        }
+                        cameraThread.quitSafely();
+                    }
+                });
+            }
+        });
+        closingThread = cameraThread;
+        closingHandler = handler;
+        thread = null;
+        handler = null;
+    }
+
+    private void awaitClosed() {
+        if (closingThread == null) {
+            return;
+        }
+        try {
+            closingThread.join(CLOSE_TIMEOUT_MS);
+            if (closingThread.isAlive()) {
+                Log.w(TAG, "Time out waiting for the camera to close.");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        closingThread = null;
+        closingHandler = null;
+    }
+
+    /**
+     * Waits on the camera thread until no stopped engine is still closing its camera.
+     */
+    private static void awaitEnginesClosed() {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(CLOSE_TIMEOUT_MS);
+        synchronized (CLOSE_LOCK) {
+            while (closingEngines > 0) {
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0) {
+                    Log.w(TAG, "Time out waiting for " + closingEngines + " camera(s) to close.");
+                    return;
+                }
+                try {
+                    TimeUnit.NANOSECONDS.timedWait(CLOSE_LOCK, remaining);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
+    }
+
+    private void runOnCameraThread(Runnable task) {
+        // Between stop() and the close the change still goes through the closing thread.
+        Handler cameraHandler = handler != null ? handler : closingHandler;
+        final CountDownLatch done = new CountDownLatch(1);
+        final Runnable change = task;
+        if (cameraHandler == null || !cameraHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                change.run();
+                done.countDown();
+            }
+        })) {
+            // No camera thread, nothing can race with the change.
+            task.run();
+            return;
+        }
+        try {
+            if (!done.await(CONSUMER_TIMEOUT_MS, TimeUnit.MILLISECONDS)) {
+                Log.w(TAG, "Time out waiting for the camera thread.");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void postReconfigure() {
+        Handler cameraHandler = handler;
+        if (cameraHandler == null) {
+            return;
+        }
+        cameraHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                reconfigureOnCameraThread();
+            }
+        });
+    }
+
+    /**
+     * Applies changed requirements to an open camera: a new session for a new stream size, a new
+     * device for a new lens.
+     */
+    private void reconfigureOnCameraThread() {
+        if (!openRequested || pendingClose != null) {
+            // Not opened yet, the next open picks the requirements up.
+            return;
+        }
+        if (opening) {
+            reconfigurePending = true;
+            return;
+        }
+        CameraConfig previous = config;
+        CameraConfig next = chooseConfig(true);
+        if (next == null) {
+            return;
+        }
+        config = next;
+        if (cameraDevice != null && previous != null && next.getCameraId().equals(previous.getCameraId())) {
+            if (next.getPreviewSize().equals(previous.getPreviewSize())
+                    && next.getAnalysisSize().equals(previous.getAnalysisSize())) {
+                return;
+            }
+            Log.i(TAG, "Recreating the session for " + next.getAnalysisSize());
+            closeSession();
+            createCaptureSession();
+        } else {
+            Log.i(TAG, "Reopening for camera " + next.getCameraId());
+            closeSession();
+            closeDevice();
+            openStartNanos = System.nanoTime();
+            openDevice();
+        }
+    }
+
+    /**
+     * The cached config for the current requirements, or a newly discovered one. Tells the
+     * listener.
+     */
+    private CameraConfig chooseConfig(boolean useCache) {
+        String cacheKey = getCacheKey();
+        CameraConfig cached = useCache ? CameraConfig.decode(configCache.getString(cacheKey, null)) : null;
+        configFromCache = cached != null;
+        CameraConfig chosen = cached;
+        if (chosen == null) {
+            chosen = discover();
+            if (chosen == null) {
+                listener.onError("No camera available");
+                return null;
+            }
+            configCache.putString(cacheKey, chosen.encode());
+        }
+        Log.i(TAG, (configFromCache ? "Cached " : "Discovered ") + chosen + " in "
+                + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - openStartNanos) + " ms");
+        listener.onConfigChosen(chosen);
+        return chosen;
+    }
+
+    @SuppressLint("MissingPermission")
+    private void openDevice() {
+        try {
+            opening = true;
+            firstFrameReceived = false;
+            manager.openCamera(config.getCameraId(), stateCallback, handler);
+        } catch (CameraAccessException | IllegalArgumentException e) {
+            opening = false;
+            if (configFromCache) {
+                Log.w(TAG, "Cached camera " + config.getCameraId() + " failed to open, discovering again", e);
+                configCache.remove(getCacheKey());
+                config = chooseConfig(false);
+                if (config != null) {
+                    openDevice();
+                }
+            } else {
+                listener.onError("Failed to open camera " + config.getCameraId() + ": " + e.getMessage());
+            }
+        }
+    }
+
+    private CameraConfig discover() {
+        final int facingWanted = lensFacing;
+        try {
+            for (String cameraId : manager.getCameraIdList()) {
+                CameraCharacteristics characteristics = manager.getCameraCharacteristics(cameraId);
+                Integer facing = characteristics.get(CameraCharacteristics.LENS_FACING);
+                if (facing == null || facing != facingWanted) {
+                    continue;
+                }
+                StreamConfigurationMap map =
+                        characteristics.get(CameraCharacteristics.SCALER_STREAM_CONFIGURATION_MAP);
+                Integer sensorOrientation = characteristics.get(CameraCharacteristics.SENSOR_ORIENTATION);
+                if (map == null || sensorOrientation == null) {
+                    continue;
+                }
+
+                // The largest still size only decides the aspect ratio of the streams.
+                Size largest = CaptureConfigurator.chooseLargest(map.getOutputSizes(ImageFormat.JPEG));
+
+                // Find out if we need to swap dimension to get the preview size relative to sensor
+                // coordinate.
+                int rotation = YuvFrameReader.getRotationDegrees(sensorOrientation, displayRotation);
+                boolean swappedDimensions = rotation == 90 || rotation == 270;
+                int rotatedPreviewWidth = swappedDimensions ? viewHeight : viewWidth;
+                int rotatedPreviewHeight = swappedDimensions ? viewWidth : viewHeight;
+                int maxPreviewWidth = Math.min(MAX_PREVIEW_WIDTH, swappedDimensions ? displaySize.y : displaySize.x);
+                int maxPreviewHeight = Math.min(MAX_PREVIEW_HEIGHT, swappedDimensions ? displaySize.x : displaySize.y);
+                Size previewSize = surfaceTexture == null ? null : CaptureConfigurator.choosePreviewSize(
+                        map.getOutputSizes(SurfaceTexture.class),
+                        rotatedPreviewWidth,
+                        rotatedPreviewHeight,
+                        maxPreviewWidth,
+                        maxPreviewHeight,
+                        largest);
+
+                Size analysisSize = CaptureConfigurator.chooseAnalysisSize(
+                        map.getOutputSizes(ImageFormat.YUV_420_888),
+                        largest,
+                        minAnalysisWidth,
+                        minAnalysisHeight,
+                        swappedDimensions);
+                if (analysisSize == null) {
+                    analysisSize = previewSize != null ? previewSize
+                            : CaptureConfigurator.chooseLargest(map.getOutputSizes(ImageFormat.YUV_420_888));
+                }
+                if (previewSize == null) {
+                    // Headless, no preview stream is configured.
+                    previewSize = analysisSize;
+                }
+
+                return new CameraConfig(cameraId,
+                        sensorOrientation,
+                        YuvFrameReader.hasRealtimeTimestamps(characteristics),
+                        previewSize,
+                        analysisSize,
+                        characteristics.get(CameraCharacteristics.CONTROL_AE_AVAILABLE_TARGET_FPS_RANGES));
+            }
+        } catch (CameraAccessException e) {
+            Log.e(TAG, "Failed to query the cameras", e);
+        }
+        return null;
+    }
+
+    private String getCacheKey() {
+        return "facing" + lensFacing
+                + (surfaceTexture == null ? "_headless" : "")
+                + "_view" + viewWidth + "x" + viewHeight
+                + "_rotation" + displayRotation
+                + "_display" + displaySize.x + "x" + displaySize.y
+                + "_analysis" + minAnalysisWidth + "x" + minAnalysisHeight;
+    }
+
+    private void createCaptureSession() {
+        try {
+            final CaptureRequest.Builder requestBuilder =
+                    cameraDevice.createCaptureRequest(CameraDevice.TEMPLATE_PREVIEW);
+            List<Surface> outputs = new ArrayList<>();
+            if (previewSurface != null) {
+                // The preview surface takes the buffer size the session is created with.
+                surfaceTexture.setDefaultBufferSize(
+                        config.getPreviewSize().getWidth(), config.getPreviewSize().getHeight());
+                requestBuilder.addTarget(previewSurface);
+                outputs.add(previewSurface);
+            }
+
+            // Frames for the models come from a YUV stream converted straight into their inputs.
+            // The reader is always part of the session, so models can attach without a new one.
+            frameReader = new YuvFrameReader(
+                    config.getAnalysisSize(),
+                    YuvFrameReader.getRotationDegrees(config.getSensorOrientation(), displayRotation),
+                    handler);
+            frameReader.setRealtimeTimestamps(config.hasRealtimeTimestamps());
+            if (frameConsumer != null) {
+                frameConsumer.onFrameReaderReady(frameReader);
+            }
+            requestBuilder.addTarget(frameReader.getSurface());
+            outputs.add(frameReader.getSurface());
+
+            cameraDevice.createCaptureSession(
+                    outputs,
+                    new CameraCaptureSession.StateCallback() {
+
+                        @Override
+                        public void onConfigured(@NonNull CameraCaptureSession session) {
+                            // The camera is already closed
+                            if (null == cameraDevice) {
+                                return;
+                            }
+                            captureSession = session;
+                            repeatingRequest = requestBuilder;
+                            try {
+                                // Auto focus should be continuous for camera preview.
+                                requestBuilder.set(
+                                        CaptureRequest.CONTROL_AF_MODE,
+                                        CaptureRequest.CONTROL_AF_MODE_CONTINUOUS_PICTURE);
+
+                                // Run the sensor no faster than the pipeline can consume frames.
+                                fpsRange = CaptureConfigurator.chooseFpsRange(config.getFpsRanges(), targetFps);
+                                if (fpsRange != null) {
+                                    requestBuilder.set(CaptureRequest.CONTROL_AE_TARGET_FPS_RANGE, fpsRange);
+                                }
+                                Log.i(TAG, "Analysis stream " + config.getAnalysisSize() + ", AE target fps " + fpsRange);
+
+                                captureSession.setRepeatingRequest(requestBuilder.build(), captureCallback, handler);
+                            } catch (CameraAccessException e) {
+                                listener.onError("Failed to start the preview: " + e.getMessage());
+                            }
+                        }
+
+                        @Override
+                        public void onConfigureFailed(@NonNull CameraCaptureSession session) {
+                            listener.onError("Failed to configure the camera");
+                        }
+                    },
+                    handler);
+        } catch (CameraAccessException e) {
+            listener.onError("Failed to create the capture session: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Re-issues the repeating request of a running session if {@link #targetFps} now picks another
+     * fps range.
+     */
+    private void applyTargetFps() {
+        if (captureSession == null || repeatingRequest == null) {
+            // The next session picks the value up.
+            return;
+        }
+        Range<Integer> range = CaptureConfigurator.chooseFpsRange(config.getFpsRanges(), targetFps);
+        if (range == null || range.equals(fpsRange)) {
+            return;
+        }
+        repeatingRequest.set(CaptureRequest.CONTROL_AE_TARGET_FPS_RANGE, range);
+        try {
+            captureSession.setRepeatingRequest(repeatingRequest.build(), captureCallback, handler);
+            fpsRange = range;
+            Log.i(TAG, "AE target fps " + range);
+        } catch (CameraAccessException | IllegalStateException e) {
+            // The session is closing, the next one picks the value up.
+            Log.w(TAG, "Failed to change the AE target fps to " + range, e);
+        }
+    }
+
+    private void closeSession() {
+        if (null != captureSession) {
+            captureSession.close();
+            captureSession = null;
+        }
+        repeatingRequest = null;
+        fpsRange = null;
+        if (null != frameReader) {
+            frameReader.close();
+            frameReader = null;
+        }
+    }
+
+    private void closeDevice() {
+        if (null != cameraDevice) {
+            cameraDevice.close();
+            cameraDevice = null;
+        }
+        opened = false;
+    }
+
+    private void closeOnCameraThread(Runnable onClosed) {
+        closeSession();
+        closeDevice();
+        if (null != previewSurface) {
+            previewSurface.release();
+            previewSurface = null;
+        }
+        surfaceTexture = null;
+        openRequested = false;
+        reconfigurePending = false;
+        if (opening) {
+            // The device arrives in the state callback and is closed there.
+            pendingClose = onClosed;
+        } else {
+            onClosed.run();
+        }
+    }
+
+    private final CameraCaptureSession.CaptureCallback captureCallback =
+            new CameraCaptureSession.CaptureCallback() {
+                @Override
+                public void onCaptureCompleted(
+                        @NonNull CameraCaptureSession session,
+                        @NonNull CaptureRequest request,
+                        @NonNull TotalCaptureResult result) {
+                    if (!firstFrameReceived) {
+                        firstFrameReceived = true;
+                        Log.i(TAG, "Time to first frame " + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - openStartNanos)
+                                + " ms, " + (configFromCache ? "cached" : "discovered") + " config");
+                    }
+                    if (frameConsumer != null) {
+                        frameConsumer.onCaptureCompleted(result);
+                    }
+                }
+            };
+
+    /**
+     * {@link CameraDevice.StateCallback} is called when {@link CameraDevice} changes its state.
+     */
+    private final CameraDevice.StateCallback stateCallback =
+            new CameraDevice.StateCallback() {
+
+                @Override
+                public void onOpened(@NonNull CameraDevice currentCameraDevice) {
+                    opening = false;
+                    if (pendingClose != null) {
+                        // Closed while opening.
+                        currentCameraDevice.close();
+                        finishClose();
+                        return;
+                    }
+                    cameraDevice = currentCameraDevice;
+                    opened = true;
+                    createCaptureSession();
+                    if (reconfigurePending) {
+                        reconfigurePending = false;
+                        reconfigureOnCameraThread();
+                    }
+                }
+
+                @Override
+                public void onDisconnected(@NonNull CameraDevice currentCameraDevice) {
+                    release(currentCameraDevice);
+                }
+
+                @Override
+                public void onError(@NonNull CameraDevice currentCameraDevice, int error) {
+                    boolean closing = pendingClose != null;
+                    release(currentCameraDevice);
+                    if (!closing) {
+                        listener.onError("Camera error " + error);
+                    }
+                }
+
+                private void release(CameraDevice currentCameraDevice) {
+                    opening = false;
+                    currentCameraDevice.close();
+                    if (cameraDevice == currentCameraDevice) {
+                        cameraDevice = null;
+                        opened = false;
+                    }
+                    if (pendingClose != null) {
+                        finishClose();
+                    }
+                }
+
+                private void finishClose() {
+                    Runnable onClosed = pendingClose;
+                    pendingClose = null;
+                    onClosed.run();
+                }
+            };
+}
@@ -0,0 +1,26 @@
+package com.tfcamerademo.camera;
+
+import com.tfcamerademo.pipeline.InferenceScheduler;
+import com.tfcamerademo.view.AutoFitTextureView;
+
+/**
+ * 持有相机和预览的 Activity，各个模型的 Fragment 切换时相机不关闭
+ * <p>
+ * The model fragments attach to the host's {@link CameraEngine} as a
+ * {@link CameraEngine.FrameConsumer} and draw their overlays over the host's preview. Every model
+ * the host runs shares one {@link InferenceScheduler}.
+ */
+public interface CameraHost {
+
+    CameraEngine getCameraEngine();
+
+    /**
+     * The camera preview, sized to the preview aspect ratio.
+     */
+    AutoFitTextureView getTextureView();
+
+    /**
+     * Runs the inference of every model, started while the host is visible.
+     */
+    InferenceScheduler getInferenceScheduler();
+}
@@ -0,0 +1,206 @@
+package com.tfcamerademo.camera;
+
+import android.os.Build;
+import android.util.Log;
+import android.util.Range;
+import android.util.Size;
+
+import androidx.annotation.RequiresApi;
+
+import com.tfcamerademo.pipeline.FramePipeline;
+import com.tfcamerademo.pipeline.LatencyTracker;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * 根据模型输入尺寸和实测推理速度选择分析流尺寸和帧率范围
+ * <p>
+ * The YUV stream only has to cover the model input, so it is chosen separately from the preview
+ * size: the smallest supported size that still gives every model at least one sensor pixel per
+ * input pixel. The AE frame rate range is chosen to match what the pipeline actually consumes,
+ * measured by the {@link LatencyTracker} of previous sessions.
+ */
+@RequiresApi(api = Build.VERSION_CODES.LOLLIPOP)
+public class CaptureConfigurator {
+
+    private static final String TAG = "CaptureConfigurator";
+
+    /**
+     * Frame rate assumed before anything has been measured.
+     */
+    public static final int DEFAULT_FPS = 15;
+
+    private static final int MAX_FPS = 30;
+
+    private CaptureConfigurator() {
+    }
+
+    /**
+     * Given {@code choices} of {@code Size}s supported by a camera, choose the smallest one that is
+     * at least as large as the respective texture view size, and that is at most as large as the
+     * respective max size, and whose aspect ratio matches with the specified value. If such size
+     * doesn't exist, choose the largest one that is at most as large as the respective max size, and
+     * whose aspect ratio matches with the specified value.
+     * <p>
+     * Attempting to use too large a preview size could  exceed the camera bus' bandwidth limitation,
+     * resulting in gorgeous previews but the storage of garbage capture data.
+     *
+     * @param choices           The list of sizes that the camera supports for the intended output class
+     * @param textureViewWidth  The width of the texture view relative to sensor coordinate
+     * @param textureViewHeight The height of the texture view relative to sensor coordinate
+     * @param maxWidth          The maximum width that can be chosen
+     * @param maxHeight         The maximum height that can be chosen
+     * @param aspectRatio       The aspect ratio
+     * @return The optimal {@code Size}, or an arbitrary one if none were big enough
+     */
+    public static Size choosePreviewSize(Size[] choices, int textureViewWidth, int textureViewHeight,
+                                         int maxWidth, int maxHeight, Size aspectRatio) {
+        // Collect the supported resolutions that are at least as big as the preview Surface
+        List<Size> bigEnough = new ArrayList<>();
+        // Collect the supported resolutions that are smaller than the preview Surface
+        List<Size> notBigEnough = new ArrayList<>();
+        int w = aspectRatio.getWidth();
+        int h = aspectRatio.getHeight();
+        for (Size option : choices) {
+            if (option.getWidth() <= maxWidth
+                    && option.getHeight() <= maxHeight
+                    && option.getHeight() == option.getWidth() * h / w) {
+                if (option.getWidth() >= textureViewWidth && option.getHeight() >= textureViewHeight) {
+                    bigEnough.add(option);
+                } else {
+                    notBigEnough.add(option);
+                }
+            }
+        }
+
+        // Pick the smallest of those big enough. If there is no one big enough, pick the
+        // largest of those not big enough.
+        if (bigEnough.size() > 0) {
+            return Collections.min(bigEnough, BY_AREA);
+        } else if (notBigEnough.size() > 0) {
+            return Collections.max(notBigEnough, BY_AREA);
+        } else {
+            Log.e(TAG, "Couldn't find any suitable preview size");
+            return choices[0];
+        }
+    }
+
+    /**
+     * The largest of {@code choices}, which decides the aspect ratio of the streams.
+     */
+    public static Size chooseLargest(Size[] choices) {
+        return Collections.max(Arrays.asList(choices), BY_AREA);
+    }
+
+    /**
+     * The smallest size with the aspect ratio of {@code aspectRatio} whose upright image is at
+     * least {@code minUprightWidth} x {@code minUprightHeight}, or the largest matching size if
+     * none is large enough.
+     *
+     * @param choices     The YUV_420_888 output sizes, in sensor orientation.
+     * @param aspectRatio The size whose aspect ratio the preview uses, so both streams see the same field of view.
+     * @param swapped     Whether the upright image is the sensor image turned by 90 or 270 degrees.
+     * @return {@code null} if no size has the aspect ratio.
+     */
+    public static Size chooseAnalysisSize(Size[] choices, Size aspectRatio,
+                                          int minUprightWidth, int minUprightHeight, boolean swapped) {
+        int minWidth = swapped ? minUprightHeight : minUprightWidth;
+        int minHeight = swapped ? minUprightWidth : minUprightHeight;
+        Size best = null;
+        Size largest = null;
+        for (Size option : choices) {
+            if ((long) option.getHeight() * aspectRatio.getWidth()
+                    != (long) option.getWidth() * aspectRatio.getHeight()) {
+                continue;
+            }
+            if (largest == null || area(option) > area(largest)) {
+                largest = option;
+            }
+            if (option.getWidth() >= minWidth && option.getHeight() >= minHeight
+                    && (best == null || area(option) < area(best))) {
+                best = option;
+            }
+        }
+        if (best == null && largest != null) {
+            Log.w(TAG, "No stream covers " + minUprightWidth + "x" + minUprightHeight + ", using " + largest);
+        }
+        return best != null ? best : largest;
+    }
+
+    /**
+     * Frames per second {@code pipeline} can consume, see
+     * {@link #getConsumableFps(LatencyTracker, double)}. Cheap enough to call for every result.
+     */
+    public static int getConsumableFps(FramePipeline pipeline) {
+        return getConsumableFps(pipeline.getLatencyTracker(), pipeline.getInferenceWorkers());
+    }
+
+    /**
+     * Frames per second a pipeline can consume. Its stages run on separate threads, so the
+     * slowest stage sets the pace. The inference stage completes {@code inferenceWorkers} frames
+     * per inference latency: more with several interpreters, fewer while other models share the
+     * scheduler.
+     *
+     * @param inferenceWorkers See {@link FramePipeline#getInferenceWorkers()}.
+     */
+    public static int getConsumableFps(LatencyTracker latencyTracker, double inferenceWorkers) {
+        if (latencyTracker.getHistogram(LatencyTracker.Stage.INFERENCE).getCount() == 0) {
+            return DEFAULT_FPS;
+        }
+        double fps = MAX_FPS;
+        for (LatencyTracker.Stage stage : new LatencyTracker.Stage[]{LatencyTracker.Stage.PREPROCESS,
+                LatencyTracker.Stage.INFERENCE, LatencyTracker.Stage.POSTPROCESS}) {
+            double framesPerLatency = stage == LatencyTracker.Stage.INFERENCE ? inferenceWorkers : 1;
+            long latencyMs = Math.max(1, latencyTracker.getHistogram(stage).getPercentileMs(50));
+            fps = Math.min(fps, 1000 * framesPerLatency / latencyMs);
+        }
+        return (int) Math.max(1, fps);
+    }
+
+    /**
+     * The range with the lowest upper bound that still reaches {@code targetFps}; among those, the
+     * one with the highest lower bound, which keeps exposures short. Falls back to the fastest
+     * range if none reaches the target.
+     *
+     * @return {@code null} if there are no ranges.
+     */
+    public static Range<Integer> chooseFpsRange(Range<Integer>[] ranges, int targetFps) {
+        if (ranges == null) {
+            return null;
+        }
+        Range<Integer> best = null;
+        Range<Integer> fastest = null;
+        for (Range<Integer> range : ranges) {
+            if (fastest == null || range.getUpper() > fastest.getUpper()) {
+                fastest = range;
+            }
+            if (range.getUpper() < targetFps) {
+                continue;
+            }
+            if (best == null
+                    || range.getUpper() < best.getUpper()
+                    || (range.getUpper().equals(best.getUpper()) && range.getLower() > best.getLower())) {
+                best = range;
+            }
+        }
+        return best != null ? best : fastest;
+    }
+
+    private static long area(Size size) {
+        return (long) size.getWidth() * size.getHeight();
+    }
+
+    /**
+     * Compares two {@code Size}s based on their areas.
+     */
+    private static final Comparator<Size> BY_AREA = new Comparator<Size>() {
+        @Override
+        public int compare(Size lhs, Size rhs) {
+            return Long.signum(area(lhs) - area(rhs));
+        }
+    };
+}
@@ -0,0 +1,198 @@
+package com.tfcamerademo.camera;
+
+import android.hardware.camera2.CaptureResult;
+import android.os.Build;
+
+import androidx.annotation.RequiresApi;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 根据每帧的拍摄参数跳过可能模糊或正在对焦的帧
+ * <p>
+ * The exposure time, sensor sensitivity, lens state and AF state of every capture are recorded
+ * from {@link CaptureResult}s and looked up by sensor timestamp when the image arrives. Images
+ * usually arrive before their capture result, in which case the newest recorded result is used:
+ * these values change over several frames, not from one frame to the next.
+ * <p>
+ * Like {@link com.tfcamerademo.preprocess.MotionGate}, a frame is let through at least once per
+ * refresh interval whatever its metadata, so a dark scene that keeps the gain up, or autofocus
+ * that keeps hunting, slows the models down instead of starving them.
+ */
+@RequiresApi(api = Build.VERSION_CODES.LOLLIPOP)
+public class FrameQualityGate {
+
+    public enum Reason {
+        /**
+         * Long exposures smear anything that moves.
+         */
+        EXPOSURE_TOO_LONG,
+        /**
+         * Very high gain means a dark scene, noise and usually a long exposure too.
+         */
+        SENSITIVITY_TOO_HIGH,
+        /**
+         * The lens is moving, the image is between two focus positions.
+         */
+        LENS_MOVING,
+        /**
+         * Autofocus is scanning for a new focus position.
+         */
+        FOCUSING
+    }
+
+    /**
+     * How often a frame is processed at least by default, whatever its metadata says.
+     */
+    public static final long DEFAULT_REFRESH_INTERVAL_MS = 500;
+
+    // Capture results that may still be waiting for their image.
+    private static final int HISTORY_SIZE = 8;
+
+    private final long maxExposureNanos;
+    private final int maxSensitivity;
+    private final long refreshIntervalNanos;
+    private long lastPassedNanos;
+    private boolean hasReference;
+
+    private final long[] timestamps = new long[HISTORY_SIZE];
+    private final long[] exposureTimes = new long[HISTORY_SIZE];
+    private final int[] sensitivities = new int[HISTORY_SIZE];
+    private final int[] lensStates = new int[HISTORY_SIZE];
+    private final int[] afStates = new int[HISTORY_SIZE];
+    private int newest = -1;
+    private int recorded;
+
+    // Statistics.
+    private long passedCount;
+    private long estimatedCount;
+    private long unknownCount;
+    private long refreshCount;
+    private final long[] skippedCounts = new long[Reason.values().length];
+
+    /**
+     * @param maxExposureNanos Frames exposed longer than this are skipped.
+     * @param maxSensitivity   Frames with a higher ISO sensitivity are skipped.
+     */
+    public FrameQualityGate(long maxExposureNanos, int maxSensitivity) {
+        this(maxExposureNanos, maxSensitivity, DEFAULT_REFRESH_INTERVAL_MS);
+    }
+
+    /**
+     * @param refreshIntervalMs A frame is processed at least this often, even if it would be skipped.
+     */
+    public FrameQualityGate(long maxExposureNanos, int maxSensitivity, long refreshIntervalMs) {
+        this.maxExposureNanos = maxExposureNanos;
+        this.maxSensitivity = maxSensitivity;
+        refreshIntervalNanos = TimeUnit.MILLISECONDS.toNanos(refreshIntervalMs);
+    }
+
+    /**
+     * Records the metadata of a completed capture. Call from
+     * {@link android.hardware.camera2.CameraCaptureSession.CaptureCallback#onCaptureCompleted}.
+     */
+    public synchronized void onCaptureCompleted(CaptureResult result) {
+        Long timestamp = result.get(CaptureResult.SENSOR_TIMESTAMP);
+        if (timestamp == null) {
+            return;
+        }
+        newest = (newest + 1) % HISTORY_SIZE;
+        recorded = Math.min(recorded + 1, HISTORY_SIZE);
+        timestamps[newest] = timestamp;
+        exposureTimes[newest] = valueOf(result.get(CaptureResult.SENSOR_EXPOSURE_TIME), -1L);
+        sensitivities[newest] = valueOf(result.get(CaptureResult.SENSOR_SENSITIVITY), -1);
+        lensStates[newest] = valueOf(result.get(CaptureResult.LENS_STATE), -1);
+        afStates[newest] = valueOf(result.get(CaptureResult.CONTROL_AF_STATE), -1);
+    }
+
+    /**
+     * @param sensorTimestampNanos {@link android.media.Image#getTimestamp()} of the frame.
+     * @return Whether the frame is good enough to run a model on.
+     */
+    public synchronized boolean shouldProcess(long sensorTimestampNanos) {
+        if (recorded == 0) {
+            unknownCount++;
+            return pass(sensorTimestampNanos);
+        }
+        int index = newest;
+        for (int i = 0; i < recorded; i++) {
+            int candidate = (newest - i + HISTORY_SIZE) % HISTORY_SIZE;
+            if (timestamps[candidate] == sensorTimestampNanos) {
+                index = candidate;
+                break;
+            }
+        }
+        if (timestamps[index] != sensorTimestampNanos) {
+            estimatedCount++;
+        }
+        Reason reason = check(index);
+        if (reason != null) {
+            if (!hasReference) {
+                // Count the interval from the first frame seen.
+                hasReference = true;
+                lastPassedNanos = sensorTimestampNanos;
+            } else if (sensorTimestampNanos - lastPassedNanos >= refreshIntervalNanos) {
+                refreshCount++;
+                return pass(sensorTimestampNanos);
+            }
+            skippedCounts[reason.ordinal()]++;
+            return false;
+        }
+        return pass(sensorTimestampNanos);
+    }
+
+    private boolean pass(long sensorTimestampNanos) {
+        passedCount++;
+        hasReference = true;
+        lastPassedNanos = sensorTimestampNanos;
+        return true;
+    }
+
+    private Reason check(int index) {
+        if (exposureTimes[index] > maxExposureNanos) {
+            return Reason.EXPOSURE_TOO_LONG;
+        }
+        if (sensitivities[index] > maxSensitivity) {
+            return Reason.SENSITIVITY_TOO_HIGH;
+        }
+        if (lensStates[index] == CaptureResult.LENS_STATE_MOVING) {
+            return Reason.LENS_MOVING;
+        }
+        if (afStates[index] == CaptureResult.CONTROL_AF_STATE_PASSIVE_SCAN
+                || afStates[index] == CaptureResult.CONTROL_AF_STATE_ACTIVE_SCAN) {
+            return Reason.FOCUSING;
+        }
+        return null;
+    }
+
+    public synchronized long getSkippedCount(Reason reason) {
+        return skippedCounts[reason.ordinal()];
+    }
+
+    /**
+     * Frames that would have been skipped but were let through by the refresh interval.
+     */
+    public synchronized long getRefreshCount() {
+        return refreshCount;
+    }
+
+    public synchronized String getStatString() {
+        StringBuilder builder = new StringBuilder();
+        builder.append("passed=").append(passedCount)
+                .append(" estimated=").append(estimatedCount)
+                .append(" noMetadata=").append(unknownCount)
+                .append(" refreshed=").append(refreshCount);
+        for (Reason reason : Reason.values()) {
+            builder.append(' ').append(reason).append('=').append(skippedCounts[reason.ordinal()]);
+        }
+        return builder.toString();
+    }
+
+    private static long valueOf(Long value, long missing) {
+        return value == null ? missing : value;
+    }
+
+    private static int valueOf(Integer value, int missing) {
+        return value == null ? missing : value;
+    }
+}
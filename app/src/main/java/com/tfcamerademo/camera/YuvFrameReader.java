@@ -0,0 +1,203 @@
+package com.tfcamerademo.camera;
+
+import android.graphics.ImageFormat;
+import android.hardware.camera2.CameraCharacteristics;
+import android.media.Image;
+import android.media.ImageReader;
+import android.os.Build;
+import android.os.Handler;
+import android.os.SystemClock;
+import android.os.Trace;
+import android.util.Size;
+import android.view.Surface;
+
+import androidx.annotation.RequiresApi;
+
+import com.tfcamerademo.pipeline.LatestFrameQueue;
+import com.tfcamerademo.preprocess.MotionGate;
+import com.tfcamerademo.preprocess.RegionOfInterest;
+import com.tfcamerademo.preprocess.TensorFormat;
+import com.tfcamerademo.preprocess.YuvFrame;
+import com.tfcamerademo.preprocess.YuvToTensorConverter;
+import com.tfcamerademo.source.FrameTargets;
+
+/**
+ * 从相机的 YUV_420_888 输出流直接读取帧，代替 TextureView.getBitmap 的 GPU 回读
+ * <p>
+ * Frames are cropped, scaled and rotated straight into a model input buffer by a
+ * {@link YuvToTensorConverter} and published to a {@link LatestFrameQueue} through the reader's
+ * {@link FrameTargets}, the same way a recorded {@link com.tfcamerademo.source.FrameSource}
+ * publishes its frames.
+ */
+@RequiresApi(api = Build.VERSION_CODES.LOLLIPOP)
+public class YuvFrameReader implements ImageReader.OnImageAvailableListener {
+
+    // One image being converted plus one queued by the camera.
+    private static final int MAX_IMAGES = 2;
+
+    private final ImageReader imageReader;
+    private final FrameTargets targets;
+    private MotionGate motionGate;
+    private FrameQualityGate qualityGate;
+    private boolean realtimeTimestamps;
+
+    // Pre-allocated buffers.
+    private final YuvFrame yuvFrame = new YuvFrame();
+
+    /**
+     * @param streamSize      The size of the YUV stream requested from the camera.
+     * @param rotationDegrees Clockwise rotation (0, 90, 180 or 270) that makes the sensor image upright.
+     * @param handler         The handler the conversion runs on.
+     */
+    public YuvFrameReader(Size streamSize, int rotationDegrees, Handler handler) {
+        targets = new FrameTargets(streamSize.getWidth(), streamSize.getHeight(), rotationDegrees);
+        imageReader = ImageReader.newInstance(
+                streamSize.getWidth(), streamSize.getHeight(), ImageFormat.YUV_420_888, MAX_IMAGES);
+        imageReader.setOnImageAvailableListener(this, handler);
+    }
+
+    /**
+     * Clockwise rotation that turns the sensor image upright for the current display rotation.
+     *
+     * @param sensorOrientation {@link android.hardware.camera2.CameraCharacteristics#SENSOR_ORIENTATION}
+     * @param displayRotation   One of the {@link Surface} ROTATION_ constants.
+     */
+    public static int getRotationDegrees(int sensorOrientation, int displayRotation) {
+        int displayDegrees;
+        switch (displayRotation) {
+            case Surface.ROTATION_90:
+                displayDegrees = 90;
+                break;
+            case Surface.ROTATION_180:
+                displayDegrees = 180;
+                break;
+            case Surface.ROTATION_270:
+                displayDegrees = 270;
+                break;
+            default:
+                displayDegrees = 0;
+        }
+        return (sensorOrientation - displayDegrees + 360) % 360;
+    }
+
+    /**
+     * Whether the camera's sensor timestamps use {@link SystemClock#elapsedRealtimeNanos()} rather
+     * than the {@link System#nanoTime()} time base.
+     */
+    public static boolean hasRealtimeTimestamps(CameraCharacteristics characteristics) {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.M) {
+            return false;
+        }
+        Integer source = characteristics.get(CameraCharacteristics.SENSOR_INFO_TIMESTAMP_SOURCE);
+        return source != null && source == CameraCharacteristics.SENSOR_INFO_TIMESTAMP_SOURCE_REALTIME;
+    }
+
+    /**
+     * Lets frames carry their sensor timestamp in the {@link System#nanoTime()} time base.
+     *
+     * @see #hasRealtimeTimestamps(CameraCharacteristics)
+     */
+    public void setRealtimeTimestamps(boolean realtimeTimestamps) {
+        this.realtimeTimestamps = realtimeTimestamps;
+    }
+
+    /**
+     * Converts every whole frame into {@code inputFormat} and publishes it to {@code frameQueue}.
+     *
+     * @see #addTarget(TensorFormat, LatestFrameQueue, RegionOfInterest)
+     */
+    public YuvToTensorConverter addTarget(TensorFormat inputFormat, LatestFrameQueue frameQueue) {
+        return addTarget(inputFormat, frameQueue, RegionOfInterest.FULL_FRAME);
+    }
+
+    /**
+     * Converts the {@code region} of every frame into {@code inputFormat} and publishes it to
+     * {@code frameQueue}. Once the reader's surface is used by a capture session, targets may only
+     * be changed on the reader's handler thread.
+     *
+     * @return The converter for this target, e.g. to change the scale mode.
+     */
+    public YuvToTensorConverter addTarget(TensorFormat inputFormat, LatestFrameQueue frameQueue,
+                                          RegionOfInterest region) {
+        YuvToTensorConverter converter = targets.add(inputFormat, frameQueue, region);
+        if (motionGate != null) {
+            motionGate.setRegions(targets.getRotationDegrees(), targets.getRegions());
+        }
+        return converter;
+    }
+
+    /**
+     * Skips frames in which nothing moved inside any target's region, so the models keep their
+     * previous results. Like the targets, only changed on the reader's handler thread once the
+     * session runs.
+     */
+    public void setMotionGate(MotionGate motionGate) {
+        this.motionGate = motionGate;
+        if (motionGate != null) {
+            motionGate.setRegions(targets.getRotationDegrees(), targets.getRegions());
+        }
+    }
+
+    /**
+     * Skips frames whose capture metadata suggests blur or refocusing. Like the targets, only
+     * changed on the reader's handler thread once the session runs.
+     */
+    public void setQualityGate(FrameQualityGate qualityGate) {
+        this.qualityGate = qualityGate;
+    }
+
+    /**
+     * Removes every target and both gates, e.g. when another model takes over the stream. Frames
+     * that arrive without targets are dropped right away.
+     */
+    public void clearTargets() {
+        targets.clear();
+        motionGate = null;
+        qualityGate = null;
+    }
+
+    /**
+     * The {@link Surface} to add to the capture session and the repeating request.
+     */
+    public Surface getSurface() {
+        return imageReader.getSurface();
+    }
+
+    public void close() {
+        imageReader.close();
+    }
+
+    @Override
+    public void onImageAvailable(ImageReader reader) {
+        // Older queued frames are dropped, we only ever want the newest one.
+        Image image = reader.acquireLatestImage();
+        if (image == null) {
+            return;
+        }
+        if (targets.isEmpty()) {
+            image.close();
+            return;
+        }
+        final long arrivalNanos = System.nanoTime();
+        final long sensorClockNanos = realtimeTimestamps ? SystemClock.elapsedRealtimeNanos() : arrivalNanos;
+        final long captureNanos = image.getTimestamp() - (sensorClockNanos - arrivalNanos);
+        Trace.beginSection("convertYuvFrame");
+        try {
+            if (qualityGate != null && !qualityGate.shouldProcess(image.getTimestamp())) {
+                return;
+            }
+            Image.Plane[] planes = image.getPlanes();
+            yuvFrame.set(image.getWidth(), image.getHeight(),
+                    planes[0].getBuffer(), planes[0].getRowStride(),
+                    planes[1].getBuffer(), planes[2].getBuffer(),
+                    planes[1].getRowStride(), planes[1].getPixelStride());
+            if (motionGate != null && !motionGate.shouldProcess(yuvFrame, image.getTimestamp())) {
+                return;
+            }
+            targets.publish(yuvFrame, captureNanos, arrivalNanos);
+        } finally {
+            image.close();
+            Trace.endSection();
+        }
+    }
+}
@@ -0,0 +1,483 @@
+package com.tfcamerademo.model;
+
+import android.content.res.AssetManager;
+
+import com.tfcamerademo.utils.Diagnostics;
+
+import org.tensorflow.lite.Interpreter;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 把几路同时到达的帧拼成一个 batch，调用一次 Interpreter，再把输出拆回每一帧
+ * <p>
+ * Callers run frames as usual, each with its own output set, and block until their frame is done.
+ * A dispatcher thread takes the first waiting frame, waits up to the batch window for more, and
+ * runs up to the max batch of them as one invocation: the frames are copied one after the other
+ * into the batch input, and every frame's slice of the batch outputs is copied into its output
+ * set, laid out as for a batch of one. Decoders see no difference.
+ * <p>
+ * The input keeps the max batch, so a partial batch costs as much as a full one: the slots after
+ * its frames still hold frames of an earlier batch, which run again and are dropped. This is a
+ * deliberate trade-off, resizing the input and allocating the tensors again for every batch size
+ * would cost more than the padded slots. The fill in {@link #getStatString()} shows the share of
+ * slots that carried a frame; if it stays low, a smaller max batch or a longer window pays off.
+ * <p>
+ * Frames only batch when several callers have one in flight, e.g. the workers of an offline
+ * analysis sharing the model, or the pipelines of two cameras that share it on a scheduler with
+ * more than one worker, so {@link #getParallelism()} is the max batch. A live pipeline of its own
+ * gains nothing: its frames arrive one frame interval apart.
+ * <p>
+ * Whether a model can batch is probed when it is opened: every bound output must grow by the max
+ * batch, so it can be split into the frames' slices. An output that keeps its size, like the count
+ * of a detection postprocess op, describes the whole batch and no single frame. A model with such
+ * an output, whose input batch dimension is not 1 or that cannot be allocated for the max batch
+ * runs on an {@link InterpreterPool} of max batch interpreters that split the threads instead.
+ * Detectors exported with the postprocess op of the Object Detection API therefore fall back;
+ * detectors that end in raw box and score tensors batch.
+ */
+public class BatchingEngine implements InferenceEngine {
+
+    private static final String TAG = "BatchingEngine";
+
+    /**
+     * Runs one batch of the max batch, on the dispatcher thread.
+     */
+    interface BatchRunner {
+        void run(ByteBuffer batchInput, ByteBuffer[] batchOutputs);
+
+        void close();
+    }
+
+    // Batch mode.
+    private final Interpreter interpreter;
+    private final InterpreterConfig config;
+    private final BatchRunner runner;
+    private final int frameInputBytes;
+    private final int[] frameOutputBytes;
+    private final ByteBuffer batchInput;
+    private final ByteBuffer[] batchOutputs;
+    private final Thread dispatcher;
+
+    // Fallback mode.
+    private final InterpreterPool fallback;
+
+    private final int maxBatch;
+    private final long windowNanos;
+
+    // Guarded by this.
+    private final ArrayDeque<Request> pending = new ArrayDeque<Request>();
+    private final ArrayDeque<Request> freeRequests = new ArrayDeque<Request>();
+    private boolean closed;
+    private long batchCount;
+    private long frameCount;
+    private long batchNanos;
+    private long windowWaitNanos;
+
+    /**
+     * @param session Resized to {@code maxBatch}, see {@link #resizeForBatch}.
+     */
+    private BatchingEngine(InferenceSession session, int maxBatch, long windowMs) {
+        this(session.getInterpreter(), session.getConfig(), createRunner(session), maxBatch, windowMs,
+                session.getInterpreter().getInputTensor(session.getInputIndex()).numBytes() / maxBatch,
+                getFrameOutputBytes(session, maxBatch));
+    }
+
+    /**
+     * Batches frames for {@code runner}, e.g. a fake one on a workstation.
+     *
+     * @param frameInputBytes  The input bytes of one frame.
+     * @param frameOutputBytes Per output the bytes of one frame.
+     */
+    BatchingEngine(BatchRunner runner, int maxBatch, long windowMs, int frameInputBytes, int[] frameOutputBytes) {
+        this(null, null, runner, maxBatch, windowMs, frameInputBytes, frameOutputBytes);
+    }
+
+    private BatchingEngine(Interpreter interpreter, InterpreterConfig config, BatchRunner runner, int maxBatch,
+                           long windowMs, int frameInputBytes, int[] frameOutputBytes) {
+        this.interpreter = interpreter;
+        this.config = config;
+        this.runner = runner;
+        this.maxBatch = maxBatch;
+        windowNanos = TimeUnit.MILLISECONDS.toNanos(windowMs);
+        this.frameInputBytes = frameInputBytes;
+        this.frameOutputBytes = frameOutputBytes;
+        batchInput = ByteBuffer.allocateDirect(frameInputBytes * maxBatch).order(ByteOrder.nativeOrder());
+        batchOutputs = new ByteBuffer[frameOutputBytes.length];
+        for (int i = 0; i < batchOutputs.length; i++) {
+            batchOutputs[i] = ByteBuffer.allocateDirect(frameOutputBytes[i] * maxBatch).order(ByteOrder.nativeOrder());
+        }
+        fallback = null;
+        dispatcher = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                dispatch();
+            }
+        }, "BatchDispatcher");
+        // A model that is never closed must not keep a workstation run alive.
+        dispatcher.setDaemon(true);
+        dispatcher.start();
+    }
+
+    private BatchingEngine(InterpreterPool fallback, int maxBatch) {
+        interpreter = null;
+        config = null;
+        runner = null;
+        frameInputBytes = 0;
+        frameOutputBytes = null;
+        batchInput = null;
+        batchOutputs = null;
+        dispatcher = null;
+        this.fallback = fallback;
+        this.maxBatch = maxBatch;
+        windowNanos = 0;
+    }
+
+    /**
+     * Opens {@code modelFilename} for batches of up to {@link InterpreterConfig#getMaxBatch()}
+     * frames, or a pool of that many interpreters if the model cannot batch.
+     */
+    public static BatchingEngine open(InterpreterConfig config, AssetManager assets, String modelFilename,
+                                      String inputName, String... outputNames) throws IOException {
+        int maxBatch = config.getMaxBatch();
+        InferenceSession session = config.open(assets, modelFilename)
+                .bindInput(inputName)
+                .bindOutputs(outputNames);
+        if (resizeForBatch(session, maxBatch)) {
+            return new BatchingEngine(session, maxBatch, config.getBatchWindowMs());
+        }
+        session.close();
+        Diagnostics.w(TAG, modelFilename + " cannot batch, using " + maxBatch + " interpreters");
+        InterpreterConfig poolConfig = config
+                .withThreads(Math.max(1, config.getNumThreads() / maxBatch))
+                .withPoolSize(maxBatch)
+                .withBatching(1, 0);
+        return new BatchingEngine(InterpreterPool.open(poolConfig, assets, modelFilename, inputName, outputNames),
+                maxBatch);
+    }
+
+    /**
+     * Resizes the input of {@code session} to {@code maxBatch} frames.
+     *
+     * @return Whether the model can batch.
+     */
+    private static boolean resizeForBatch(InferenceSession session, int maxBatch) {
+        Interpreter interpreter = session.getInterpreter();
+        int[] shape = interpreter.getInputTensor(session.getInputIndex()).shape();
+        if (maxBatch < 2 || shape.length == 0 || shape[0] != 1) {
+            return false;
+        }
+        int[] outputIndices = session.getOutputIndices();
+        int[] frameOutputBytes = new int[outputIndices.length];
+        for (int i = 0; i < outputIndices.length; i++) {
+            frameOutputBytes[i] = interpreter.getOutputTensor(outputIndices[i]).numBytes();
+        }
+        try {
+            int[] batchShape = shape.clone();
+            batchShape[0] = maxBatch;
+            interpreter.resizeInput(session.getInputIndex(), batchShape);
+            interpreter.allocateTensors();
+        } catch (IllegalArgumentException | IllegalStateException e) {
+            return false;
+        }
+        int[] batchOutputBytes = new int[outputIndices.length];
+        for (int i = 0; i < outputIndices.length; i++) {
+            batchOutputBytes[i] = interpreter.getOutputTensor(outputIndices[i]).numBytes();
+        }
+        return probeOutputs(frameOutputBytes, batchOutputBytes, maxBatch);
+    }
+
+    /**
+     * Whether every output grows by {@code maxBatch}, from their bytes for one frame and for
+     * {@code maxBatch}.
+     */
+    static boolean probeOutputs(int[] frameBytes, int[] batchBytes, int maxBatch) {
+        for (int i = 0; i < frameBytes.length; i++) {
+            if (batchBytes[i] != frameBytes[i] * maxBatch) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int[] getFrameOutputBytes(InferenceSession session, int maxBatch) {
+        int[] outputIndices = session.getOutputIndices();
+        int[] frameOutputBytes = new int[outputIndices.length];
+        for (int i = 0; i < outputIndices.length; i++) {
+            frameOutputBytes[i] = session.getInterpreter().getOutputTensor(outputIndices[i]).numBytes() / maxBatch;
+        }
+        return frameOutputBytes;
+    }
+
+    /**
+     * Runs the interpreter of {@code session}, whose outputs are bound to the batch outputs.
+     */
+    private static BatchRunner createRunner(InferenceSession session) {
+        final Interpreter interpreter = session.getInterpreter();
+        final int inputIndex = session.getInputIndex();
+        final int[] outputIndices = session.getOutputIndices();
+        final Object[] inputs = new Object[interpreter.getInputTensorCount()];
+        final Map<Integer, Object> binding = new HashMap<Integer, Object>();
+        return new BatchRunner() {
+            @Override
+            public void run(ByteBuffer batchInput, ByteBuffer[] batchOutputs) {
+                for (int i = 0; i < outputIndices.length; i++) {
+                    binding.put(outputIndices[i], batchOutputs[i]);
+                }
+                inputs[inputIndex] = batchInput;
+                try {
+                    interpreter.runForMultipleInputsOutputs(inputs, binding);
+                } finally {
+                    inputs[inputIndex] = null;
+                }
+            }
+
+            @Override
+            public void close() {
+                interpreter.close();
+            }
+        };
+    }
+
+    /**
+     * Copies the slice of frame {@code frame} of a batch output into {@code output}.
+     */
+    static void copyFrameOutput(ByteBuffer batchOutput, int frameBytes, int frame, ByteBuffer output) {
+        ByteBuffer slice = batchOutput.duplicate();
+        int start = frame * frameBytes;
+        slice.limit(start + frameBytes).position(start);
+        output.clear();
+        output.put(slice);
+        output.rewind();
+    }
+
+    /**
+     * The interpreter, to read the tensor types. Its input has the max batch.
+     */
+    public Interpreter getInterpreter() {
+        return fallback != null ? fallback.getInterpreter() : interpreter;
+    }
+
+    /**
+     * Whether frames really run in batches, {@code false} on the fallback pool.
+     */
+    public boolean isBatching() {
+        return fallback == null;
+    }
+
+    @Override
+    public int getParallelism() {
+        return maxBatch;
+    }
+
+    /**
+     * One buffer per bound output, sized for one frame.
+     */
+    @Override
+    public Object[] createOutputs() {
+        if (fallback != null) {
+            return fallback.createOutputs();
+        }
+        Object[] outputs = new Object[frameOutputBytes.length];
+        for (int i = 0; i < outputs.length; i++) {
+            outputs[i] = ByteBuffer.allocateDirect(frameOutputBytes[i]).order(ByteOrder.nativeOrder());
+        }
+        return outputs;
+    }
+
+    /**
+     * Runs {@code input}, a {@link ByteBuffer} in the model's input format, in the next batch and
+     * waits for it. Interrupts are kept for after the frame is done, the batch writes into
+     * {@code outputs} until then.
+     */
+    @Override
+    public void run(Object input, Object[] outputs) {
+        if (fallback != null) {
+            fallback.run(input, outputs);
+            return;
+        }
+        Throwable failure;
+        synchronized (this) {
+            if (closed) {
+                throw new IllegalStateException("Batching engine is closed");
+            }
+            Request request = freeRequests.poll();
+            if (request == null) {
+                request = new Request();
+            }
+            request.input = (ByteBuffer) input;
+            request.outputs = outputs;
+            request.enqueuedNanos = System.nanoTime();
+            pending.add(request);
+            notifyAll();
+            boolean interrupted = false;
+            while (!request.done) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+            failure = request.failure;
+            request.clear();
+            freeRequests.add(request);
+        }
+        if (failure instanceof RuntimeException) {
+            throw (RuntimeException) failure;
+        } else if (failure != null) {
+            throw new IllegalStateException("Batch failed", failure);
+        }
+    }
+
+    private void dispatch() {
+        Request[] batch = new Request[maxBatch];
+        while (true) {
+            int count = 0;
+            synchronized (this) {
+                while (pending.isEmpty() && !closed) {
+                    waitUninterruptibly(0);
+                }
+                if (pending.isEmpty()) {
+                    break;
+                }
+                // The first frame waits out the window unless the batch fills up before.
+                long firstNanos = pending.peek().enqueuedNanos;
+                long deadline = firstNanos + windowNanos;
+                long remaining;
+                while (pending.size() < maxBatch && !closed && (remaining = deadline - System.nanoTime()) > 0) {
+                    waitUninterruptibly(remaining);
+                }
+                windowWaitNanos += System.nanoTime() - firstNanos;
+                while (count < maxBatch && !pending.isEmpty()) {
+                    batch[count++] = pending.poll();
+                }
+            }
+            Throwable failure = null;
+            long start = System.nanoTime();
+            try {
+                runBatch(batch, count);
+            } catch (RuntimeException e) {
+                failure = e;
+            }
+            long end = System.nanoTime();
+            synchronized (this) {
+                for (int i = 0; i < count; i++) {
+                    batch[i].failure = failure;
+                    batch[i].done = true;
+                    batch[i] = null;
+                }
+                if (failure == null) {
+                    batchCount++;
+                    frameCount += count;
+                    batchNanos += end - start;
+                }
+                notifyAll();
+            }
+        }
+        runner.close();
+    }
+
+    private void waitUninterruptibly(long nanos) {
+        try {
+            if (nanos > 0) {
+                TimeUnit.NANOSECONDS.timedWait(this, nanos);
+            } else {
+                wait();
+            }
+        } catch (InterruptedException e) {
+            // Only close() stops the dispatcher, after the waiting frames.
+        }
+    }
+
+    /**
+     * Runs {@code count} frames as a batch of the max batch; the slots after them keep the frames
+     * of an earlier batch, which are run again and ignored.
+     */
+    private void runBatch(Request[] batch, int count) {
+        batchInput.clear();
+        for (int i = 0; i < count; i++) {
+            ByteBuffer input = batch[i].input.duplicate();
+            input.rewind();
+            if (input.remaining() != frameInputBytes) {
+                throw new IllegalArgumentException(input.remaining() + " input bytes, " + frameInputBytes + " expected");
+            }
+            batchInput.put(input);
+        }
+        batchInput.rewind();
+        for (ByteBuffer output : batchOutputs) {
+            output.clear();
+        }
+        runner.run(batchInput, batchOutputs);
+        for (int o = 0; o < batchOutputs.length; o++) {
+            for (int i = 0; i < count; i++) {
+                copyFrameOutput(batchOutputs[o], frameOutputBytes[o], i, (ByteBuffer) batch[i].outputs[o]);
+            }
+        }
+    }
+
+    /**
+     * Batch efficiency: the average batch against the max batch, and what a frame costs in a batch.
+     */
+    @Override
+    public String getStatString() {
+        if (fallback != null) {
+            return "batch=unsupported " + fallback.getStatString();
+        }
+        String batches;
+        synchronized (this) {
+            batches = "batch=" + maxBatch
+                    + " batches=" + batchCount
+                    + " frames=" + frameCount
+                    + " avgBatch=" + String.format("%.2f", batchCount == 0 ? 0 : (double) frameCount / batchCount)
+                    + " fill=" + (batchCount == 0 ? 0 : frameCount * 100 / (batchCount * maxBatch)) + "%"
+                    + " avgBatchMs=" + average(batchNanos, batchCount)
+                    + " avgFrameMs=" + average(batchNanos, frameCount)
+                    + " avgWindowMs=" + average(windowWaitNanos, batchCount);
+        }
+        return interpreter == null ? batches
+                : batches + " " + InferenceSession.lastInferenceString(interpreter) + " " + config;
+    }
+
+    private static String average(long totalNanos, long count) {
+        return String.format("%.2f", count == 0 ? 0 : totalNanos / 1e6 / count);
+    }
+
+    /**
+     * Closes the interpreter after the frames already waiting have run.
+     */
+    @Override
+    public void close() {
+        if (fallback != null) {
+            fallback.close();
+            return;
+        }
+        synchronized (this) {
+            closed = true;
+            notifyAll();
+        }
+    }
+
+    private static class Request {
+        ByteBuffer input;
+        Object[] outputs;
+        long enqueuedNanos;
+        boolean done;
+        Throwable failure;
+
+        void clear() {
+            input = null;
+            outputs = null;
+            done = false;
+            failure = null;
+        }
+    }
+}
@@ -0,0 +1,54 @@
+package com.tfcamerademo.model;
+
+import android.graphics.Bitmap;
+
+import com.tfcamerademo.preprocess.ArgbToTensorConverter;
+import com.tfcamerademo.preprocess.TensorFormat;
+import com.tfcamerademo.preprocess.TilePool;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Bitmap 转换为模型输入张量
+ * <p>
+ * Reads the pixels of a bitmap that already has the input size and converts them with an
+ * {@link ArgbToTensorConverter}. Kept out of the preprocess package, which is plain Java.
+ */
+public class BitmapToTensorConverter {
+
+    private final ArgbToTensorConverter converter;
+
+    // Pre-allocated buffers.
+    private final int[] pixels;
+
+    public BitmapToTensorConverter(TensorFormat format) {
+        converter = new ArgbToTensorConverter(format);
+        pixels = new int[format.getWidth() * format.getHeight()];
+    }
+
+    public TensorFormat getFormat() {
+        return converter.getFormat();
+    }
+
+    /**
+     * @see ArgbToTensorConverter#setTilePool(TilePool)
+     */
+    public void setTilePool(TilePool tilePool) {
+        converter.setTilePool(tilePool);
+    }
+
+    /**
+     * @see ArgbToTensorConverter#convert(int[], ByteBuffer)
+     */
+    public void convert(Bitmap bitmap, ByteBuffer out) {
+        final TensorFormat format = converter.getFormat();
+        final int width = format.getWidth();
+        final int height = format.getHeight();
+        if (bitmap.getWidth() != width || bitmap.getHeight() != height) {
+            throw new IllegalArgumentException("Bitmap is " + bitmap.getWidth() + "x" + bitmap.getHeight()
+                    + ", the input " + width + "x" + height);
+        }
+        bitmap.getPixels(pixels, 0, width, 0, 0, width, height);
+        converter.convert(pixels, out);
+    }
+}
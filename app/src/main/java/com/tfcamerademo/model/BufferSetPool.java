@@ -0,0 +1,57 @@
+package com.tfcamerademo.model;
+
+import com.tfcamerademo.preprocess.TensorFormat;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+
+/**
+ * recognizeImage 每次调用借一组输入输出缓冲区，多个线程可以同时识别
+ * <p>
+ * A set is an input in the classifier's format and an output set of its engine. Sets are created
+ * when every set is checked out and are kept for reuse, so there are only as many as calls were in
+ * progress at the same time, usually the engine's parallelism.
+ */
+class BufferSetPool {
+
+    static class BufferSet {
+        final ByteBuffer input;
+        final Object[] outputs;
+
+        BufferSet(ByteBuffer input, Object[] outputs) {
+            this.input = input;
+            this.outputs = outputs;
+        }
+    }
+
+    private final TensorFormat inputFormat;
+    private final InferenceEngine engine;
+
+    // Guarded by this.
+    private final ArrayDeque<BufferSet> idle = new ArrayDeque<BufferSet>();
+
+    BufferSetPool(TensorFormat inputFormat, InferenceEngine engine) {
+        this.inputFormat = inputFormat;
+        this.engine = engine;
+    }
+
+    /**
+     * A set no other call uses, until it is handed back with {@link #release(BufferSet)}.
+     */
+    BufferSet checkout() {
+        synchronized (this) {
+            BufferSet set = idle.poll();
+            if (set != null) {
+                return set;
+            }
+        }
+        return new BufferSet(inputFormat.allocate(), engine.createOutputs());
+    }
+
+    void release(BufferSet set) {
+        set.input.rewind();
+        synchronized (this) {
+            idle.push(set);
+        }
+    }
+}
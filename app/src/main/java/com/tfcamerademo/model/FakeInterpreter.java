@@ -0,0 +1,158 @@
+package com.tfcamerademo.model;
+
+import com.tfcamerademo.Classifier;
+
+import java.lang.reflect.Array;
+import java.util.Arrays;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 返回固定输出、按设定耗时的假推理，用来在没有设备的机器上测流水线吞吐
+ * <p>
+ * Every run copies the same canned output tensors and takes the configured latency, so a
+ * benchmark measures only the code around the interpreter: results are deterministic and the
+ * frame rate is bounded by a known inference time. By default the latency is spent spinning on
+ * the calling thread, like a real interpreter would occupy a core.
+ */
+public class FakeInterpreter implements InferenceEngine {
+
+    private static final int SSD_MAX_RESULTS = 100;
+
+    private static final int SSD_INPUT_SIZE = 300;
+
+    private final Object[] cannedOutputs;
+    private final long latencyNanos;
+    private boolean busyWait = true;
+    private long runCount;
+
+    /**
+     * @param cannedOutputs The tensors every run returns, laid out like the model's outputs.
+     * @param latencyMs     How long every run takes.
+     */
+    public FakeInterpreter(Object[] cannedOutputs, long latencyMs) {
+        this.cannedOutputs = cannedOutputs;
+        latencyNanos = TimeUnit.MILLISECONDS.toNanos(latencyMs);
+    }
+
+    /**
+     * Sleeps instead of spinning, for runs that should leave the core to other threads.
+     */
+    public void setBusyWait(boolean busyWait) {
+        this.busyWait = busyWait;
+    }
+
+    /**
+     * Direct buffers like the ones of an {@link InferenceSession}, for canned {@code float[]} and
+     * {@code byte[]} outputs.
+     */
+    @Override
+    public Object[] createOutputs() {
+        Object[] outputs = new Object[cannedOutputs.length];
+        for (int i = 0; i < outputs.length; i++) {
+            int size;
+            if (cannedOutputs[i] instanceof float[]) {
+                size = ((float[]) cannedOutputs[i]).length * 4;
+            } else if (cannedOutputs[i] instanceof byte[]) {
+                size = ((byte[]) cannedOutputs[i]).length;
+            } else {
+                throw new IllegalArgumentException("Unsupported canned output " + cannedOutputs[i].getClass());
+            }
+            outputs[i] = ByteBuffer.allocateDirect(size).order(ByteOrder.nativeOrder());
+        }
+        return outputs;
+    }
+
+    @Override
+    public void run(Object input, Object[] outputs) {
+        long end = System.nanoTime() + latencyNanos;
+        for (int i = 0; i < cannedOutputs.length; i++) {
+            copy(cannedOutputs[i], outputs[i]);
+        }
+        if (busyWait) {
+            while (System.nanoTime() < end) {
+                // Occupy the core for the whole latency.
+            }
+        } else {
+            long remaining = end - System.nanoTime();
+            if (remaining > 0) {
+                try {
+                    TimeUnit.NANOSECONDS.sleep(remaining);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+        runCount++;
+    }
+
+    /**
+     * Copies a primitive array into a buffer or an array of the same shape, or every element of a
+     * nested array.
+     */
+    private static void copy(Object from, Object to) {
+        if (to instanceof ByteBuffer) {
+            ByteBuffer buffer = (ByteBuffer) to;
+            if (from instanceof float[]) {
+                buffer.asFloatBuffer().put((float[]) from);
+            } else {
+                buffer.duplicate().put((byte[]) from);
+            }
+            return;
+        }
+        if (from.getClass().getComponentType().isPrimitive()) {
+            System.arraycopy(from, 0, to, 0, Array.getLength(from));
+            return;
+        }
+        for (int i = 0; i < Array.getLength(from); i++) {
+            copy(Array.get(from, i), Array.get(to, i));
+        }
+    }
+
+    /**
+     * Canned outputs of an SSD detector as read by {@link TensorFlowObjectDetectionAPIModel}: the
+     * given detections first, every other slot empty.
+     *
+     * @param maxResults The number of detection slots of the model.
+     * @param boxes      Per detection {top, left, bottom, right}, normalized to the input.
+     * @param scores     Per detection confidence.
+     * @param classes    Per detection label index.
+     */
+    public static Object[] ssdOutputs(int maxResults, float[][] boxes, float[] scores, int[] classes) {
+        float[] outputLocations = new float[maxResults * 4];
+        float[] outputScores = new float[maxResults];
+        float[] outputClasses = new float[maxResults];
+        for (int i = 0; i < scores.length; i++) {
+            System.arraycopy(boxes[i], 0, outputLocations, i * 4, 4);
+            outputScores[i] = scores[i];
+            outputClasses[i] = classes[i];
+        }
+        return new Object[]{outputLocations, outputScores, outputClasses, new float[]{scores.length}};
+    }
+
+    /**
+     * An SSD detector whose interpreter returns one fixed detection, the middle quarter of the
+     * input, after {@code latencyMs}.
+     */
+    public static Classifier createSsdDetector(long latencyMs) {
+        Object[] outputs = ssdOutputs(SSD_MAX_RESULTS,
+                new float[][]{{0.25f, 0.25f, 0.75f, 0.75f}}, new float[]{0.9f}, new int[]{1});
+        return TensorFlowObjectDetectionAPIModel.create(Arrays.asList("background", "object"),
+                SSD_INPUT_SIZE, new FakeInterpreter(outputs, latencyMs));
+    }
+
+    @Override
+    public int getParallelism() {
+        return 1;
+    }
+
+    @Override
+    public String getStatString() {
+        return "fake runs=" + runCount + " latencyMs=" + TimeUnit.NANOSECONDS.toMillis(latencyNanos);
+    }
+
+    @Override
+    public void close() {
+    }
+}
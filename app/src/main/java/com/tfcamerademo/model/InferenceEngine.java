@@ -0,0 +1,33 @@
+package com.tfcamerademo.model;
+
+/**
+ * 模型推理的最小接口：真实的 Interpreter，或测试机上返回固定输出的 {@link FakeInterpreter}
+ * <p>
+ * The models hold one of these instead of an {@code Interpreter}, so everything around the
+ * interpreter, preprocessing and decoding included, can run without the native library.
+ */
+public interface InferenceEngine {
+
+    /**
+     * Allocates one set of output buffers for {@link #run}, laid out like the model's outputs.
+     * Every frame in flight needs its own set.
+     */
+    Object[] createOutputs();
+
+    /**
+     * Runs the model on {@code input} and writes every output tensor into {@code outputs}.
+     */
+    void run(Object input, Object[] outputs);
+
+    /**
+     * How many {@link #run} calls may be in progress at the same time, each with its own outputs.
+     */
+    int getParallelism();
+
+    String getStatString();
+
+    /**
+     * Releases the interpreters now, or after the runs in progress without waiting for them.
+     */
+    void close();
+}
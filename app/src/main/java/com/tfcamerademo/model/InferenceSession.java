@@ -0,0 +1,198 @@
+package com.tfcamerademo.model;
+
+import org.tensorflow.lite.Interpreter;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/**
+ * 输入输出按名字或序号绑定到预分配的缓冲区，每帧只调用一次 Interpreter
+ * <p>
+ * The input is bound to one input tensor and the outputs to a list of output tensors, by name
+ * with the tensor index as fallback, once when the model is created. An output set from
+ * {@link #createOutputs()} holds one direct, native order {@link ByteBuffer} per bound output in
+ * binding order, sized from the tensor, which the interpreter fills in place of Java arrays. Its
+ * index map is built once, so a frame is a single {@code runForMultipleInputsOutputs} that
+ * allocates nothing. Decoders read the outputs through {@link #floats(Object)} or
+ * {@link #bytes(Object)} views, without copying them.
+ * <p>
+ * Like the interpreter, a session runs one frame at a time.
+ */
+public class InferenceSession implements InferenceEngine {
+
+    private final Interpreter interpreter;
+    private final InterpreterConfig config;
+    private final Object[] inputs;
+    private int inputIndex;
+    private int[] outputIndices = {0};
+
+    // Index maps of the output sets created by this session, by identity.
+    private final Map<Object[], Map<Integer, Object>> bindings = new IdentityHashMap<Object[], Map<Integer, Object>>();
+
+    /**
+     * @param config The options {@code interpreter} was built with, for the stats.
+     */
+    public InferenceSession(Interpreter interpreter, InterpreterConfig config) {
+        this.interpreter = interpreter;
+        this.config = config;
+        inputs = new Object[interpreter.getInputTensorCount()];
+    }
+
+    public Interpreter getInterpreter() {
+        return interpreter;
+    }
+
+    public InterpreterConfig getConfig() {
+        return config;
+    }
+
+    int getInputIndex() {
+        return inputIndex;
+    }
+
+    synchronized int[] getOutputIndices() {
+        return outputIndices.clone();
+    }
+
+    /**
+     * Feeds the frame to the input tensor {@code name}, or the first input if the model has no
+     * input of that name.
+     */
+    public InferenceSession bindInput(String name) {
+        try {
+            inputIndex = interpreter.getInputIndex(name);
+        } catch (IllegalArgumentException e) {
+            inputIndex = 0;
+        }
+        return this;
+    }
+
+    /**
+     * Binds the outputs to the output tensors {@code names}. A name the model does not have falls
+     * back to the tensor at its position in {@code names}.
+     */
+    public InferenceSession bindOutputs(String... names) {
+        int[] indices = new int[names.length];
+        for (int i = 0; i < names.length; i++) {
+            try {
+                indices[i] = interpreter.getOutputIndex(names[i]);
+            } catch (IllegalArgumentException e) {
+                indices[i] = i;
+            }
+        }
+        return bindOutputs(indices);
+    }
+
+    /**
+     * Binds the outputs to the output tensors at {@code indices}.
+     */
+    public synchronized InferenceSession bindOutputs(int... indices) {
+        outputIndices = indices.clone();
+        bindings.clear();
+        return this;
+    }
+
+    /**
+     * One buffer per bound output, in binding order.
+     */
+    @Override
+    public synchronized Object[] createOutputs() {
+        Object[] outputs = new Object[outputIndices.length];
+        for (int i = 0; i < outputs.length; i++) {
+            outputs[i] = ByteBuffer.allocateDirect(interpreter.getOutputTensor(outputIndices[i]).numBytes())
+                    .order(ByteOrder.nativeOrder());
+        }
+        bindOutputSet(outputs);
+        return outputs;
+    }
+
+    /**
+     * Builds the index map of an output set created by another session of the same model.
+     */
+    synchronized void bindOutputSet(Object[] outputs) {
+        bindings.put(outputs, bind(outputs));
+    }
+
+    private Map<Integer, Object> bind(Object[] outputs) {
+        if (outputs.length != outputIndices.length) {
+            throw new IllegalArgumentException(outputs.length + " outputs, " + outputIndices.length + " bound");
+        }
+        Map<Integer, Object> binding = new HashMap<Integer, Object>();
+        for (int i = 0; i < outputs.length; i++) {
+            binding.put(outputIndices[i], outputs[i]);
+        }
+        return binding;
+    }
+
+    /**
+     * Runs the model once. {@code input} is read from its start, {@code outputs} should come from
+     * {@link #createOutputs()}, other sets are bound again on every run.
+     */
+    @Override
+    public void run(Object input, Object[] outputs) {
+        Map<Integer, Object> binding;
+        synchronized (this) {
+            binding = bindings.get(outputs);
+        }
+        if (binding == null) {
+            binding = bind(outputs);
+        }
+        if (input instanceof ByteBuffer) {
+            ((ByteBuffer) input).rewind();
+        }
+        for (Object output : outputs) {
+            if (output instanceof ByteBuffer) {
+                ((ByteBuffer) output).clear();
+            }
+        }
+        inputs[inputIndex] = input;
+        try {
+            interpreter.runForMultipleInputsOutputs(inputs, binding);
+        } finally {
+            inputs[inputIndex] = null;
+        }
+    }
+
+    @Override
+    public int getParallelism() {
+        return 1;
+    }
+
+    /**
+     * The float view of an output buffer, from its first element.
+     */
+    public static FloatBuffer floats(Object output) {
+        return bytes(output).asFloatBuffer();
+    }
+
+    /**
+     * The byte view of an output buffer, e.g. of a quantized output, from its first byte.
+     */
+    public static ByteBuffer bytes(Object output) {
+        ByteBuffer view = ((ByteBuffer) output).duplicate();
+        view.clear();
+        return view.order(ByteOrder.nativeOrder());
+    }
+
+    @Override
+    public String getStatString() {
+        return lastInferenceString(interpreter) + " " + config;
+    }
+
+    /**
+     * The native time of the last run, as the interpreter measured it.
+     */
+    static String lastInferenceString(Interpreter interpreter) {
+        Long nanos = interpreter.getLastNativeInferenceDurationNanoseconds();
+        return "lastInferenceUs=" + (nanos == null ? -1 : nanos / 1000);
+    }
+
+    @Override
+    public void close() {
+        interpreter.close();
+    }
+}
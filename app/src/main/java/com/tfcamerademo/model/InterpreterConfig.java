@@ -0,0 +1,156 @@
+package com.tfcamerademo.model;
+
+import android.content.res.AssetManager;
+
+import org.tensorflow.lite.Interpreter;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * 每个模型自己的 Interpreter 配置：线程数、XNNPACK、FP16 精度放宽
+ * <p>
+ * Immutable, the {@code with} methods return a copy. The default gives a model half the cores, up
+ * to {@value #MAX_DEFAULT_THREADS}, because the live monitors run two models side by side, and
+ * turns XNNPACK on. FP16 relaxation is off by default: it changes the numbers of float models, so
+ * a model opts in where its outputs tolerate it. Quantized models are not affected by it.
+ * <p>
+ * The pool size is how many interpreters {@link InterpreterPool#open} builds for the model, i.e.
+ * how many frames it can have in inference at once. {@link #getThroughput()} splits the default
+ * threads over two interpreters on devices with {@value #MIN_THROUGHPUT_CORES} cores or more: two
+ * frames in flight keep the cores busy through the serial parts of a model that one interpreter
+ * with twice the threads leaves idle.
+ * <p>
+ * A max batch above 1 makes the model a {@link BatchingEngine}: frames that arrive within the
+ * batch window of each other are run as one batch of up to that many frames.
+ */
+public class InterpreterConfig {
+
+    private static final int MAX_DEFAULT_THREADS = 4;
+    private static final int MIN_THROUGHPUT_CORES = 4;
+
+    private final int numThreads;
+    private final boolean useXnnpack;
+    private final boolean allowFp16;
+    private final int poolSize;
+    private final int maxBatch;
+    private final long batchWindowMs;
+
+    public InterpreterConfig(int numThreads, boolean useXnnpack, boolean allowFp16) {
+        this(numThreads, useXnnpack, allowFp16, 1);
+    }
+
+    public InterpreterConfig(int numThreads, boolean useXnnpack, boolean allowFp16, int poolSize) {
+        this(numThreads, useXnnpack, allowFp16, poolSize, 1, 0);
+    }
+
+    public InterpreterConfig(int numThreads, boolean useXnnpack, boolean allowFp16, int poolSize,
+                             int maxBatch, long batchWindowMs) {
+        if (numThreads < 1) {
+            throw new IllegalArgumentException("numThreads " + numThreads);
+        }
+        if (poolSize < 1) {
+            throw new IllegalArgumentException("poolSize " + poolSize);
+        }
+        if (maxBatch < 1 || batchWindowMs < 0) {
+            throw new IllegalArgumentException("maxBatch " + maxBatch + " batchWindowMs " + batchWindowMs);
+        }
+        this.numThreads = numThreads;
+        this.useXnnpack = useXnnpack;
+        this.allowFp16 = allowFp16;
+        this.poolSize = poolSize;
+        this.maxBatch = maxBatch;
+        this.batchWindowMs = batchWindowMs;
+    }
+
+    public static InterpreterConfig getDefault() {
+        int threads = Math.min(MAX_DEFAULT_THREADS, Runtime.getRuntime().availableProcessors() / 2);
+        return new InterpreterConfig(Math.max(1, threads), true, false);
+    }
+
+    /**
+     * The default threads split over two interpreters on devices with enough cores, otherwise the
+     * default.
+     */
+    public static InterpreterConfig getThroughput() {
+        InterpreterConfig config = getDefault();
+        if (Runtime.getRuntime().availableProcessors() < MIN_THROUGHPUT_CORES) {
+            return config;
+        }
+        return config.withThreads(Math.max(1, config.numThreads / 2)).withPoolSize(2);
+    }
+
+    public int getNumThreads() {
+        return numThreads;
+    }
+
+    public boolean isUseXnnpack() {
+        return useXnnpack;
+    }
+
+    public boolean isAllowFp16() {
+        return allowFp16;
+    }
+
+    public int getPoolSize() {
+        return poolSize;
+    }
+
+    public int getMaxBatch() {
+        return maxBatch;
+    }
+
+    public long getBatchWindowMs() {
+        return batchWindowMs;
+    }
+
+    public InterpreterConfig withThreads(int numThreads) {
+        return new InterpreterConfig(numThreads, useXnnpack, allowFp16, poolSize, maxBatch, batchWindowMs);
+    }
+
+    public InterpreterConfig withXnnpack(boolean useXnnpack) {
+        return new InterpreterConfig(numThreads, useXnnpack, allowFp16, poolSize, maxBatch, batchWindowMs);
+    }
+
+    public InterpreterConfig withFp16(boolean allowFp16) {
+        return new InterpreterConfig(numThreads, useXnnpack, allowFp16, poolSize, maxBatch, batchWindowMs);
+    }
+
+    public InterpreterConfig withPoolSize(int poolSize) {
+        return new InterpreterConfig(numThreads, useXnnpack, allowFp16, poolSize, maxBatch, batchWindowMs);
+    }
+
+    /**
+     * @param maxBatch The most frames in one invocation, 1 turns batching off.
+     * @param windowMs How long the first frame of a batch waits for the others.
+     */
+    public InterpreterConfig withBatching(int maxBatch, long windowMs) {
+        return new InterpreterConfig(numThreads, useXnnpack, allowFp16, poolSize, maxBatch, windowMs);
+    }
+
+    public Interpreter.Options toOptions() {
+        Interpreter.Options options = new Interpreter.Options()
+                .setNumThreads(numThreads)
+                .setUseXNNPACK(useXnnpack);
+        // Deprecated, but TFLite 2.4 has no other fp16 switch for the CPU kernels.
+        @SuppressWarnings("deprecation")
+        Interpreter.Options fp16Options = options.setAllowFp16PrecisionForFp32(allowFp16);
+        return fp16Options;
+    }
+
+    /**
+     * Opens {@code modelFilename} from the assets in a session with these options. The model is
+     * mapped once by the {@link ModelStore} and shared with the other sessions of the model.
+     */
+    public InferenceSession open(AssetManager assets, String modelFilename) throws IOException {
+        ByteBuffer model = ModelStore.getInstance().get(assets, modelFilename);
+        return new InferenceSession(new Interpreter(model, toOptions()), this);
+    }
+
+    @Override
+    public String toString() {
+        return "threads=" + numThreads + " xnnpack=" + (useXnnpack ? "on" : "off")
+                + " fp16=" + (allowFp16 ? "on" : "off") + " pool=" + poolSize
+                + (maxBatch == 1 ? "" : " batch=" + maxBatch + "/" + batchWindowMs + "ms");
+    }
+}
@@ -0,0 +1,177 @@
+package com.tfcamerademo.model;
+
+import android.content.res.AssetManager;
+
+import org.tensorflow.lite.Interpreter;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+
+/**
+ * 同一个模型的一组 Interpreter：借出、归还，引用计数关闭
+ * <p>
+ * Every session has an interpreter of its own over the model buffer shared through the
+ * {@link ModelStore}, so up to {@link #getParallelism()} frames can be in inference at once. A run
+ * checks a session out, waiting while all of them are busy, and returns it when done. Output sets
+ * from {@link #createOutputs()} are bound to every session.
+ * <p>
+ * The owner and every checked out session hold a reference. {@link #close()} drops the owner's,
+ * and the interpreters are closed when the last run in flight returns its session, so closing on
+ * the main thread while a worker is still inside {@link #run} is safe. Runs started after close
+ * fail with an {@link IllegalStateException}.
+ */
+public class InterpreterPool implements InferenceEngine {
+
+    private final InferenceSession[] sessions;
+
+    // Guarded by this.
+    private final ArrayDeque<InferenceSession> idle;
+    private int references = 1;
+    private boolean closed;
+    private long runCount;
+    private long waitCount;
+    private int maxInFlight;
+
+    public InterpreterPool(InferenceSession... sessions) {
+        if (sessions.length == 0) {
+            throw new IllegalArgumentException("No sessions");
+        }
+        this.sessions = sessions.clone();
+        idle = new ArrayDeque<InferenceSession>(sessions.length);
+        for (InferenceSession session : sessions) {
+            idle.add(session);
+        }
+    }
+
+    /**
+     * Opens {@link InterpreterConfig#getPoolSize()} sessions of {@code modelFilename}, each bound to
+     * the input {@code inputName} and the outputs {@code outputNames}.
+     */
+    public static InterpreterPool open(InterpreterConfig config, AssetManager assets, String modelFilename,
+                                       String inputName, String... outputNames) throws IOException {
+        InferenceSession[] sessions = new InferenceSession[config.getPoolSize()];
+        try {
+            for (int i = 0; i < sessions.length; i++) {
+                sessions[i] = config.open(assets, modelFilename)
+                        .bindInput(inputName)
+                        .bindOutputs(outputNames);
+            }
+        } catch (IOException | RuntimeException e) {
+            for (InferenceSession session : sessions) {
+                if (session != null) {
+                    session.close();
+                }
+            }
+            throw e;
+        }
+        return new InterpreterPool(sessions);
+    }
+
+    /**
+     * The interpreter of the first session, to read the tensor shapes and types.
+     */
+    public Interpreter getInterpreter() {
+        return sessions[0].getInterpreter();
+    }
+
+    @Override
+    public int getParallelism() {
+        return sessions.length;
+    }
+
+    @Override
+    public Object[] createOutputs() {
+        Object[] outputs = sessions[0].createOutputs();
+        for (int i = 1; i < sessions.length; i++) {
+            sessions[i].bindOutputSet(outputs);
+        }
+        return outputs;
+    }
+
+    @Override
+    public void run(Object input, Object[] outputs) {
+        InferenceSession session = checkout();
+        try {
+            session.run(input, outputs);
+        } finally {
+            release(session);
+        }
+    }
+
+    /**
+     * Takes a free session, waiting for one while all are busy. It must be handed back with
+     * {@link #release(InferenceSession)}.
+     */
+    public InferenceSession checkout() {
+        synchronized (this) {
+            boolean waited = false;
+            while (!closed && idle.isEmpty()) {
+                waited = true;
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IllegalStateException("Interrupted waiting for an interpreter", e);
+                }
+            }
+            if (closed) {
+                throw new IllegalStateException("Interpreter pool is closed");
+            }
+            references++;
+            runCount++;
+            if (waited) {
+                waitCount++;
+            }
+            InferenceSession session = idle.poll();
+            maxInFlight = Math.max(maxInFlight, sessions.length - idle.size());
+            return session;
+        }
+    }
+
+    public void release(InferenceSession session) {
+        boolean last;
+        synchronized (this) {
+            idle.add(session);
+            notifyAll();
+            last = --references == 0;
+        }
+        if (last) {
+            closeSessions();
+        }
+    }
+
+    /**
+     * Closes the interpreters now, or after the runs in flight.
+     */
+    @Override
+    public void close() {
+        boolean last;
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            notifyAll();
+            last = --references == 0;
+        }
+        if (last) {
+            closeSessions();
+        }
+    }
+
+    private void closeSessions() {
+        for (InferenceSession session : sessions) {
+            session.close();
+        }
+    }
+
+    @Override
+    public String getStatString() {
+        String pool;
+        synchronized (this) {
+            pool = "pool=" + sessions.length + " runs=" + runCount + " waits=" + waitCount
+                    + " maxInFlight=" + maxInFlight;
+        }
+        return pool + " " + sessions[0].getStatString();
+    }
+}
@@ -0,0 +1,255 @@
+package com.tfcamerademo.model;
+
+import com.tfcamerademo.Classifier;
+import com.tfcamerademo.utils.Diagnostics;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * 在后台线程上加载模型并预热，完成前界面不开始识别
+ * <p>
+ * The model is built on a thread of its own and then run a few times on a blank input in its own
+ * format, so the interpreter's first-invoke allocation and delegate setup happen before the first
+ * camera frame instead of on it. The camera opens meanwhile. The future is done, and the listener
+ * called, once the model is ready for frames or has failed.
+ * <p>
+ * The timings from {@link #load} on are kept: load, warm-up, ready, and the first result a caller
+ * reports with {@link #markFirstResult()}, which is the cold start the user sees.
+ */
+public class ModelFuture implements Future<Classifier> {
+
+    private static final String TAG = "ModelFuture";
+
+    public static final int DEFAULT_WARM_UP_RUNS = 2;
+
+    public interface Factory {
+        Classifier create() throws IOException;
+    }
+
+    public interface Listener {
+        /**
+         * Called once on the loader thread when the model is ready or has failed, see
+         * {@link #getNow()} and {@link #getFailure()}. A listener set later is called right away on
+         * the caller's thread.
+         */
+        void onModelReady(ModelFuture model);
+    }
+
+    private final String name;
+    private final long startNanos = System.nanoTime();
+    private final FutureTask<Classifier> task;
+
+    private volatile long loadNanos;
+    private volatile long warmUpNanos;
+    private volatile long readyNanos;
+    private volatile long firstResultNanos;
+    private final int warmUpRuns;
+
+    // Guarded by this.
+    private Listener listener;
+    private boolean closed;
+    private boolean released;
+
+    private ModelFuture(String name, final Factory factory, int warmUpRuns) {
+        this.name = name;
+        this.warmUpRuns = warmUpRuns;
+        task = new FutureTask<Classifier>(new Callable<Classifier>() {
+            @Override
+            public Classifier call() throws Exception {
+                return createAndWarmUp(factory);
+            }
+        }) {
+            @Override
+            protected void done() {
+                onDone();
+            }
+        };
+    }
+
+    /**
+     * Starts loading the model on a new thread.
+     *
+     * @param warmUpRuns Inferences on a blank input before the model counts as ready.
+     */
+    public static ModelFuture load(String name, Factory factory, int warmUpRuns) {
+        ModelFuture model = new ModelFuture(name, factory, warmUpRuns);
+        new Thread(model.task, "ModelLoader" + name).start();
+        return model;
+    }
+
+    private Classifier createAndWarmUp(Factory factory) throws IOException {
+        long start = System.nanoTime();
+        Classifier classifier = factory.create();
+        long loaded = System.nanoTime();
+        loadNanos = loaded - start;
+        ByteBuffer input = classifier.getInputFormat().allocate();
+        Object[] outputs = classifier.createOutputs();
+        for (int i = 0; i < warmUpRuns; i++) {
+            classifier.runInference(input, outputs);
+        }
+        warmUpNanos = System.nanoTime() - loaded;
+        return classifier;
+    }
+
+    private void onDone() {
+        readyNanos = System.nanoTime() - startNanos;
+        Throwable failure = getFailure();
+        if (failure == null) {
+            Diagnostics.i(TAG, name + " ready: " + getStatString());
+        } else {
+            Diagnostics.e(TAG, name + " failed to load", failure);
+        }
+        Listener listener;
+        synchronized (this) {
+            listener = this.listener;
+        }
+        releaseIfClosed();
+        if (listener != null) {
+            listener.onModelReady(this);
+        }
+    }
+
+    public void setListener(Listener listener) {
+        synchronized (this) {
+            this.listener = listener;
+            if (!task.isDone()) {
+                return;
+            }
+        }
+        listener.onModelReady(this);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * The model if it is ready, otherwise {@code null}.
+     */
+    public Classifier getNow() {
+        if (!task.isDone()) {
+            return null;
+        }
+        try {
+            return task.get();
+        } catch (ExecutionException e) {
+            return null;
+        } catch (CancellationException e) {
+            return null;
+        } catch (InterruptedException e) {
+            // Not reached, the task is done.
+            Thread.currentThread().interrupt();
+            return null;
+        }
+    }
+
+    /**
+     * Why loading failed, or {@code null}.
+     */
+    public Throwable getFailure() {
+        if (!task.isDone() || task.isCancelled()) {
+            return null;
+        }
+        try {
+            task.get();
+            return null;
+        } catch (ExecutionException e) {
+            return e.getCause();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        }
+    }
+
+    /**
+     * Records the first result of the model, the end of its cold start. Later calls do nothing.
+     */
+    public void markFirstResult() {
+        if (firstResultNanos != 0) {
+            return;
+        }
+        synchronized (this) {
+            if (firstResultNanos != 0) {
+                return;
+            }
+            firstResultNanos = Math.max(1, System.nanoTime() - startNanos);
+        }
+        Diagnostics.i(TAG, name + " first result: " + getStatString());
+    }
+
+    /**
+     * From {@link #load} to the first result, or -1 before it.
+     */
+    public long getColdStartMs() {
+        long nanos = firstResultNanos;
+        return nanos == 0 ? -1 : TimeUnit.NANOSECONDS.toMillis(nanos);
+    }
+
+    public String getStatString() {
+        return "load=" + TimeUnit.NANOSECONDS.toMillis(loadNanos) + "ms"
+                + " warmUp=" + TimeUnit.NANOSECONDS.toMillis(warmUpNanos) + "ms/" + warmUpRuns
+                + " ready=" + TimeUnit.NANOSECONDS.toMillis(readyNanos) + "ms"
+                + " firstResult=" + getColdStartMs() + "ms";
+    }
+
+    /**
+     * Closes the model, now or as soon as it is loaded.
+     */
+    public void close() {
+        synchronized (this) {
+            closed = true;
+            listener = null;
+        }
+        releaseIfClosed();
+    }
+
+    private void releaseIfClosed() {
+        synchronized (this) {
+            if (!closed || released || !task.isDone()) {
+                return;
+            }
+            released = true;
+        }
+        Classifier classifier = getNow();
+        if (classifier != null) {
+            classifier.close();
+        }
+    }
+
+    /**
+     * Loading can not be interrupted, use {@link #close()}.
+     */
+    @Override
+    public boolean cancel(boolean mayInterruptIfRunning) {
+        return false;
+    }
+
+    @Override
+    public boolean isCancelled() {
+        return false;
+    }
+
+    @Override
+    public boolean isDone() {
+        return task.isDone();
+    }
+
+    @Override
+    public Classifier get() throws InterruptedException, ExecutionException {
+        return task.get();
+    }
+
+    @Override
+    public Classifier get(long timeout, TimeUnit unit)
+            throws InterruptedException, ExecutionException, TimeoutException {
+        return task.get(timeout, unit);
+    }
+}
@@ -0,0 +1,343 @@
+package com.tfcamerademo.model;
+
+import android.content.ComponentCallbacks2;
+import android.content.Context;
+import android.content.pm.PackageManager;
+import android.content.res.AssetFileDescriptor;
+import android.content.res.AssetManager;
+import android.content.res.Configuration;
+
+import com.tfcamerademo.utils.Diagnostics;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+/**
+ * 进程内共享的模型缓存：模型文件内存映射一次，所有 Interpreter 共用，按 LRU 淘汰
+ * <p>
+ * A model asset is mapped read only straight from its asset file descriptor, which needs the
+ * asset stored uncompressed ({@code aaptOptions.noCompress}). A compressed asset is extracted once
+ * per install or update of the app into the cache directory and the file is mapped instead; the
+ * files of an earlier version are deleted then. Every interpreter of a model gets the
+ * same buffer, which is never written or repositioned, so switching modes or opening another
+ * instance of a model reads nothing from the APK again.
+ * <p>
+ * The recently used models are kept up to {@link #setMaxBytes(long)}. Under memory pressure the
+ * store lets go of half of its budget or of everything, see {@link #onTrimMemory(int)}. Evicting
+ * a model only drops the store's reference, interpreters that use it keep their buffer.
+ * <p>
+ * A model is loaded outside the store's lock, so loading one model does not hold up the others. A
+ * caller asking for a model that another thread is loading waits for that load.
+ */
+public class ModelStore implements ComponentCallbacks2 {
+
+    private static final String TAG = "ModelStore";
+
+    private static final String ASSET_PREFIX = "file:///android_asset/";
+
+    private static final String EXTRACT_DIR_NAME = "models";
+
+    public static final long DEFAULT_MAX_BYTES = 96L * 1024 * 1024;
+
+    private static ModelStore instance;
+
+    // Access ordered, the eldest entry is the least recently used model.
+    private final LinkedHashMap<String, ByteBuffer> models = new LinkedHashMap<String, ByteBuffer>(8, 0.75f, true);
+    // The loads in progress, run by the first caller of each model.
+    private final Map<String, FutureTask<ByteBuffer>> loading = new HashMap<String, FutureTask<ByteBuffer>>();
+    private long maxBytes = DEFAULT_MAX_BYTES;
+    private long cachedBytes;
+    private File extractDir;
+
+    private long hitCount;
+    private long missCount;
+    private long evictionCount;
+
+    private ModelStore() {
+    }
+
+    public static synchronized ModelStore getInstance() {
+        if (instance == null) {
+            instance = new ModelStore();
+        }
+        return instance;
+    }
+
+    /**
+     * Lets the store extract compressed models into the cache directory of {@code context} and
+     * follow the memory pressure of the process. Repeated calls do nothing.
+     */
+    public static void attach(Context context) {
+        ModelStore store = getInstance();
+        synchronized (store) {
+            if (store.extractDir != null) {
+                return;
+            }
+            // The assets change with an update of the app, the extracted files are kept per version.
+            long lastUpdateTime = 0;
+            try {
+                lastUpdateTime = context.getPackageManager()
+                        .getPackageInfo(context.getPackageName(), 0).lastUpdateTime;
+            } catch (PackageManager.NameNotFoundException e) {
+                Diagnostics.w(TAG, "Own package not found, extracted models are not versioned.");
+            }
+            store.extractDir = new File(new File(context.getCacheDir(), EXTRACT_DIR_NAME),
+                    String.valueOf(lastUpdateTime));
+        }
+        context.getApplicationContext().registerComponentCallbacks(store);
+    }
+
+    /**
+     * The model {@code modelFilename}, with or without the {@code file:///android_asset/} prefix.
+     * The buffer is shared: read it, never write or reposition it.
+     */
+    public ByteBuffer get(final AssetManager assets, String modelFilename) throws IOException {
+        final String name = modelFilename.startsWith(ASSET_PREFIX)
+                ? modelFilename.substring(ASSET_PREFIX.length()) : modelFilename;
+        FutureTask<ByteBuffer> task;
+        boolean loader = false;
+        synchronized (this) {
+            ByteBuffer model = models.get(name);
+            if (model != null) {
+                hitCount++;
+                return model;
+            }
+            task = loading.get(name);
+            if (task == null) {
+                missCount++;
+                final File dir = extractDir;
+                task = new FutureTask<ByteBuffer>(new Callable<ByteBuffer>() {
+                    @Override
+                    public ByteBuffer call() throws IOException {
+                        return load(assets, name, dir);
+                    }
+                });
+                loading.put(name, task);
+                loader = true;
+            } else {
+                // Loaded by another thread, this one only waits.
+                hitCount++;
+            }
+        }
+        if (loader) {
+            task.run();
+        }
+        ByteBuffer model = null;
+        try {
+            model = getLoaded(task);
+            return model;
+        } finally {
+            if (loader) {
+                synchronized (this) {
+                    loading.remove(name);
+                    if (model != null) {
+                        models.put(name, model);
+                        cachedBytes += model.capacity();
+                        trimToSize(maxBytes);
+                    }
+                }
+            }
+        }
+    }
+
+    private static ByteBuffer getLoaded(FutureTask<ByteBuffer> task) throws IOException {
+        try {
+            return task.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted waiting for the model");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IOException(cause);
+        }
+    }
+
+    private static ByteBuffer load(AssetManager assets, String name, File extractDir) throws IOException {
+        AssetFileDescriptor fd;
+        try {
+            fd = assets.openFd(name);
+        } catch (FileNotFoundException e) {
+            // Compressed in the APK.
+            return extract(assets, name, extractDir);
+        }
+        try {
+            FileInputStream in = new FileInputStream(fd.getFileDescriptor());
+            try {
+                return in.getChannel().map(FileChannel.MapMode.READ_ONLY, fd.getStartOffset(), fd.getDeclaredLength());
+            } finally {
+                in.close();
+            }
+        } finally {
+            fd.close();
+        }
+    }
+
+    private static ByteBuffer extract(AssetManager assets, String name, File extractDir) throws IOException {
+        if (extractDir == null) {
+            // Not attached, keep the model on the native heap.
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            copyAsset(assets, name, out);
+            byte[] bytes = out.toByteArray();
+            ByteBuffer model = ByteBuffer.allocateDirect(bytes.length).order(ByteOrder.nativeOrder());
+            model.put(bytes);
+            model.rewind();
+            return model;
+        }
+        File file = new File(extractDir, name);
+        if (!file.isFile()) {
+            deleteOtherVersions(extractDir);
+            File parent = file.getParentFile();
+            if (!parent.isDirectory() && !parent.mkdirs()) {
+                throw new IOException("Cannot create " + parent);
+            }
+            // Written next to the target and renamed, a partly written model is never mapped.
+            File partial = new File(parent, file.getName() + ".part");
+            OutputStream out = new FileOutputStream(partial);
+            try {
+                copyAsset(assets, name, out);
+            } finally {
+                out.close();
+            }
+            if (!partial.renameTo(file)) {
+                throw new IOException("Cannot rename " + partial);
+            }
+        }
+        RandomAccessFile in = new RandomAccessFile(file, "r");
+        try {
+            return in.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, in.length());
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Deletes the models extracted for an earlier version of the app.
+     */
+    private static void deleteOtherVersions(File extractDir) {
+        File[] versions = extractDir.getParentFile().listFiles();
+        if (versions == null) {
+            return;
+        }
+        for (File version : versions) {
+            if (!version.equals(extractDir)) {
+                delete(version);
+            }
+        }
+    }
+
+    private static void delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        if (!file.delete()) {
+            Diagnostics.w(TAG, "Cannot delete " + file);
+        }
+    }
+
+    private static void copyAsset(AssetManager assets, String name, OutputStream out) throws IOException {
+        InputStream in = assets.open(name);
+        try {
+            byte[] chunk = new byte[64 * 1024];
+            int read;
+            while ((read = in.read(chunk)) != -1) {
+                out.write(chunk, 0, read);
+            }
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * The bytes of recently used models to keep.
+     */
+    public synchronized void setMaxBytes(long maxBytes) {
+        this.maxBytes = maxBytes;
+        trimToSize(maxBytes);
+    }
+
+    /**
+     * Evicts the least recently used models until at most {@code bytes} are cached.
+     */
+    public synchronized void trimToSize(long bytes) {
+        Iterator<Map.Entry<String, ByteBuffer>> eldest = models.entrySet().iterator();
+        while (cachedBytes > bytes && eldest.hasNext()) {
+            cachedBytes -= eldest.next().getValue().capacity();
+            eldest.remove();
+            evictionCount++;
+        }
+    }
+
+    public synchronized void evictAll() {
+        trimToSize(-1);
+    }
+
+    public synchronized long getHitCount() {
+        return hitCount;
+    }
+
+    public synchronized long getMissCount() {
+        return missCount;
+    }
+
+    public synchronized String getStatString() {
+        return "models=" + models.size() + " bytes=" + cachedBytes + "/" + maxBytes
+                + " hits=" + hitCount + " misses=" + missCount + " evictions=" + evictionCount;
+    }
+
+    /**
+     * Running low halves the cache, a critical level or the process in the background empties
+     * it: a model that is mapped again costs a page-in, a killed process costs everything.
+     */
+    @Override
+    public void onTrimMemory(int level) {
+        if (level >= TRIM_MEMORY_BACKGROUND || level == TRIM_MEMORY_RUNNING_CRITICAL) {
+            evictAll();
+        } else if (level >= TRIM_MEMORY_RUNNING_LOW) {
+            synchronized (this) {
+                trimToSize(maxBytes / 2);
+            }
+        } else {
+            return;
+        }
+        Diagnostics.i(TAG, "onTrimMemory " + level + ": " + getStatString());
+    }
+
+    @Override
+    public void onLowMemory() {
+        evictAll();
+    }
+
+    @Override
+    public void onConfigurationChanged(Configuration newConfig) {
+    }
+}
@@ -24,17 +24,16 @@ import android.util.Log;
 import android.widget.ImageView;
 
 import com.tfcamerademo.Classifier;
-
-import org.tensorflow.lite.Interpreter;
+import com.tfcamerademo.preprocess.TensorFormat;
 
 import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStreamReader;
 import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
 import java.util.ArrayList;
 import java.util.Comparator;
 import java.util.List;
-import java.util.Map;
 import java.util.PriorityQueue;
 import java.util.Vector;
 
@@ -48,6 +47,11 @@ public class TensorFlowImageClassifier2 implements Classifier {
     private static final int MAX_RESULTS = 3;
     private static final float THRESHOLD = 0.1f;
 
+    /**
+     * The road mask is thresholded at 0.1, FP16 is well within that.
+     */
+    public static final InterpreterConfig DEFAULT_CONFIG = InterpreterConfig.getDefault().withFp16(true);
+
     // Config values.
     private String inputName;
     private String outputName;
@@ -55,19 +59,19 @@ public class TensorFlowImageClassifier2 implements Classifier {
     private int inputSize_H;
     private int imageMean;
     private float imageStd;
+    private TensorFormat inputFormat;
 
     private static Context context1;
     // Pre-allocated buffers.
     private Vector<String> labels = new Vector<String>();
-    private int[] intValues;
-    private float[] floatValues;
-    private float[] outputs;
-    private String[] outputNames;
+    private BitmapToTensorConverter bitmapConverter;
+    // A set per recognizeImage call in progress.
+    private BufferSetPool bufferSets;
 
     private static ImageView iv12;
     private boolean logStats = false;
 
-    private Interpreter interpreter;
+    private InterpreterPool session;
 
     private TensorFlowImageClassifier2() {
     }
@@ -97,6 +101,26 @@ public class TensorFlowImageClassifier2 implements Classifier {
             float imageStd,
             String inputName,
             String outputName) {
+        return create(context, iv1, assetManager, modelFilename, labelFilename, inputSize_W, inputSize_H,
+                imageMean, imageStd, inputName, outputName, DEFAULT_CONFIG);
+    }
+
+    /**
+     * @param config The interpreter options of the model.
+     */
+    public static Classifier create(
+            Context context,
+            ImageView iv1,
+            AssetManager assetManager,
+            String modelFilename,
+            String labelFilename,
+            int inputSize_W,
+            int inputSize_H,
+            int imageMean,
+            float imageStd,
+            String inputName,
+            String outputName,
+            InterpreterConfig config) {
         TensorFlowImageClassifier2 c = new TensorFlowImageClassifier2();
         c.inputName = inputName;
         c.outputName = outputName;
@@ -118,10 +142,14 @@ public class TensorFlowImageClassifier2 implements Classifier {
             throw new RuntimeException("Problem reading label file!", e);
         }
 
-        c.interpreter = new Interpreter(assetManager.openFd(modelFilename));
+        try {
+            c.session = InterpreterPool.open(config, assetManager, modelFilename, inputName, outputName);
+        } catch (IOException e) {
+            throw new RuntimeException("Problem loading model!", e);
+        }
 
         // The shape of the output is [N, NUM_CLASSES], where N is the batch size.
-        final int numClasses = c.interpreter.getOutputTensor(0).shape()[1];
+        final int numClasses = c.session.getInterpreter().getOutputTensor(0).shape()[1];
 
         Log.i(TAG, "Read " + c.labels.size() + " labels, output layer size is " + numClasses);
 
@@ -129,12 +157,12 @@ public class TensorFlowImageClassifier2 implements Classifier {
         c.inputSize_H = inputSize_H;
         c.imageMean = imageMean;
         c.imageStd = imageStd;
+        c.inputFormat = TensorFormat.float32(inputSize_W, inputSize_H, TensorFormat.ChannelOrder.RGB, imageMean, imageStd);
 
         // Pre-allocate buffers.
-        c.outputNames = new String[]{outputName};
-        c.intValues = new int[inputSize_W * inputSize_H];
-        c.floatValues = new float[inputSize_W * inputSize_H * 3];
-        c.outputs = new float[numClasses];
+        c.bitmapConverter = new BitmapToTensorConverter(c.inputFormat);
+        c.bufferSets = new BufferSetPool(c.inputFormat, c.session);
+        c.bufferSets.release(c.bufferSets.checkout());
 
         return c;
     }
@@ -144,29 +172,71 @@ public class TensorFlowImageClassifier2 implements Classifier {
     public List<Recognition> recognizeImage(final Bitmap bitmap) {
         // Log this method so that it can be analyzed with systrace.
         Trace.beginSection("recognizeImage");
+        final BufferSetPool.BufferSet buffers = bufferSets.checkout();
+        try {
+            Trace.beginSection("preprocessBitmap");
+            bitmapConverter.convert(bitmap, buffers.input);
+            buffers.input.rewind();
+            Trace.endSection();
+
+            invoke(buffers.input, buffers.outputs);
+            return decodeOutputs(buffers.outputs);
+        } finally {
+            bufferSets.release(buffers);
+            Trace.endSection(); // "recognizeImage"
+        }
+    }
 
-        Trace.beginSection("preprocessBitmap");
-        bitmap.getPixels(intValues, 0, bitmap.getWidth(), 0, 0, bitmap.getWidth(), bitmap.getHeight());
-        for (int i = 0; i < intValues.length; ++i) {
-            final int val = intValues[i];
-            floatValues[i * 3 + 0] = (byte)(val >> 16); //R
-            floatValues[i * 3 + 1] = (byte)(val >> 8) ;  //G
-            floatValues[i * 3 + 2] = (byte)val ;         //B
+    @Override
+    public TensorFormat getInputFormat() {
+        return inputFormat;
+    }
+
+    @Override
+    public List<Recognition> recognizeImage(final ByteBuffer input) {
+        Trace.beginSection("recognizeImage");
+        final BufferSetPool.BufferSet buffers = bufferSets.checkout();
+        try {
+            invoke(input, buffers.outputs);
+            return decodeOutputs(buffers.outputs);
+        } finally {
+            bufferSets.release(buffers);
+            Trace.endSection(); // "recognizeImage"
         }
+    }
 
-        Trace.endSection();
+    /**
+     * The class scores, one per pixel of the road mask.
+     */
+    @Override
+    public Object[] createOutputs() {
+        return session.createOutputs();
+    }
 
-        Trace.beginSection("feed");
-        interpreter.run(floatValues, outputs);
+    @Override
+    public void runInference(final ByteBuffer input, final Object[] outputs) {
+        invoke(input, outputs);
+    }
+
+    /**
+     * One run per frame, the class scores land directly in the bound output buffer.
+     */
+    private void invoke(final ByteBuffer input, final Object[] outputs) {
+        Trace.beginSection("runInference");
+        session.run(input, outputs);
         Trace.endSection();
+    }
 
-        Trace.beginSection("fetch");
-        interpreter.runForMultipleInputsOutputs(new Object[]{floatValues}, new Map<Integer, Object>(){{put(0, outputs);}});
+    @SuppressLint("LongLogTag")
+    @Override
+    public List<Recognition> decodeOutputs(final Object[] outputTensors) {
+        final FloatBuffer outputs = InferenceSession.floats(outputTensors[0]);
+        Trace.beginSection("decode");
 
         int[] b = new int[inputSize_W * inputSize_H];
 
-        for (int j = 0; j < outputs.length; j++) {
-            int c = (int) (outputs[j] * 255);
+        for (int j = 0; j < outputs.capacity(); j++) {
+            int c = (int) (outputs.get(j) * 255);
             b[j] = c<<24 | (0 << 16) | (c << 8);
         }
 
@@ -180,8 +250,8 @@ public class TensorFlowImageClassifier2 implements Classifier {
             });
         }
 
-        int res_len = outputs.length;
-        Log.i(TAG, "inferenceInterface.fetch(outputName, outputs); " + " " + outputs[res_len - 4] + " " + outputs[res_len - 3] + " " + outputs[res_len - 2] + " " + outputs[res_len - 1]);
+        int res_len = outputs.capacity();
+        Log.i(TAG, "inferenceInterface.fetch(outputName, outputs); " + " " + outputs.get(res_len - 4) + " " + outputs.get(res_len - 3) + " " + outputs.get(res_len - 2) + " " + outputs.get(res_len - 1));
 
         Trace.endSection();
 
@@ -194,11 +264,11 @@ public class TensorFlowImageClassifier2 implements Classifier {
                                 return Float.compare(rhs.getConfidence(), lhs.getConfidence());
                             }
                         });
-        for (int i = 0; i < outputs.length; ++i) {
-            if (outputs[i] > THRESHOLD) {
+        for (int i = 0; i < outputs.capacity(); ++i) {
+            if (outputs.get(i) > THRESHOLD) {
                 pq.add(
                         new Recognition(
-                                "" + i, labels.size() > i ? labels.get(i) : "unknown", outputs[i], null));
+                                "" + i, labels.size() > i ? labels.get(i) : "unknown", outputs.get(i), null));
             }
         }
         final ArrayList<Recognition> recognitions = new ArrayList<Recognition>();
@@ -206,7 +276,6 @@ public class TensorFlowImageClassifier2 implements Classifier {
         for (int i = 0; i < recognitionsSize; ++i) {
             recognitions.add(pq.poll());
         }
-        Trace.endSection(); // "recognizeImage"
         return recognitions;
     }
 
@@ -215,13 +284,21 @@ public class TensorFlowImageClassifier2 implements Classifier {
         this.logStats = logStats;
     }
 
+    @Override
+    public int getParallelism() {
+        return session.getParallelism();
+    }
+
     @Override
     public String getStatString() {
-        return interpreter.getStatString();
+        return session.getStatString();
     }
 
+    /**
+     * Closes the interpreters once the calls in progress have returned, without waiting for them.
+     */
     @Override
     public void close() {
-        interpreter.close();
+        session.close();
     }
 }
\ No newline at end of file
@@ -18,17 +18,21 @@ package com.tfcamerademo.model;
 import android.annotation.SuppressLint;
 import android.content.res.AssetManager;
 import android.graphics.Bitmap;
-import android.graphics.RectF;
-import android.os.Trace;
 
 import com.tfcamerademo.Classifier;
+import com.tfcamerademo.preprocess.TensorFormat;
+import com.tfcamerademo.utils.Diagnostics;
 
+import org.tensorflow.lite.DataType;
 import org.tensorflow.lite.Interpreter;
+import org.tensorflow.lite.Tensor;
 
 import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
 import java.util.ArrayList;
 import java.util.Comparator;
 import java.util.List;
@@ -45,23 +49,28 @@ public class TensorFlowObjectDetectionAPIModel implements Classifier {
     // Only return this many results.
     private static final int MAX_RESULTS = 100;
 
+    // The SSD feature extractors expect pixels scaled to [-1, 1].
+    private static final float IMAGE_MEAN = 127.5f;
+    private static final float IMAGE_STD = 127.5f;
+
+    private static final String INPUT_NAME = "image_tensor";
+    // Read in this order by decodeOutputs().
+    private static final String[] OUTPUT_NAMES = {
+            "detection_boxes", "detection_scores", "detection_classes", "num_detections"};
+
     // Config values.
     private String inputName;
     private int inputSize;
+    private TensorFormat inputFormat;
 
-    // Pre-allocated buffers.
+    // Pre-allocated buffers, a set per recognizeImage call in progress.
     private Vector<String> labels = new Vector<String>();
-    private int[] intValues;
-    private byte[] byteValues;
-    private float[] outputLocations;
-    private float[] outputScores;
-    private float[] outputClasses;
-    private float[] outputNumDetections;
-    private String[] outputNames;
+    private BitmapToTensorConverter bitmapConverter;
+    private BufferSetPool bufferSets;
 
     private boolean logStats = false;
 
-    private Interpreter inferenceInterface;
+    private InferenceEngine inferenceInterface;
 
     /**
      * Initializes a native TensorFlow session for classifying images.
@@ -75,6 +84,19 @@ public class TensorFlowObjectDetectionAPIModel implements Classifier {
             final String modelFilename,
             final String labelFilename,
             final int inputSize) throws IOException {
+        return create(assetManager, modelFilename, labelFilename, inputSize, InterpreterConfig.getDefault());
+    }
+
+    /**
+     * @param config The interpreter options of the model. With a max batch above 1 the detector
+     *               runs frames in batches, see {@link BatchingEngine}.
+     */
+    public static Classifier create(
+            final AssetManager assetManager,
+            final String modelFilename,
+            final String labelFilename,
+            final int inputSize,
+            final InterpreterConfig config) throws IOException {
         final TensorFlowObjectDetectionAPIModel d = new TensorFlowObjectDetectionAPIModel();
 
         InputStream labelsInput = null;
@@ -90,20 +112,66 @@ public class TensorFlowObjectDetectionAPIModel implements Classifier {
         br.close();
 
 
-        d.inferenceInterface = new Interpreter(assetManager.openFd(modelFilename));
+        final Interpreter interpreter;
+        if (config.getMaxBatch() > 1) {
+            final BatchingEngine engine = BatchingEngine.open(config, assetManager, modelFilename, INPUT_NAME, OUTPUT_NAMES);
+            d.inferenceInterface = engine;
+            interpreter = engine.getInterpreter();
+        } else {
+            final InterpreterPool pool = InterpreterPool.open(config, assetManager, modelFilename, INPUT_NAME, OUTPUT_NAMES);
+            d.inferenceInterface = pool;
+            interpreter = pool.getInterpreter();
+        }
+        d.init(inputSize, inputFormat(interpreter.getInputTensor(0), inputSize));
+        return d;
+    }
+
+    /**
+     * A detector that runs on {@code engine}, e.g. a {@link FakeInterpreter} with
+     * {@link FakeInterpreter#ssdOutputs} to benchmark the pipeline without a device.
+     *
+     * @param labels The labels, indexed by the output classes.
+     */
+    public static Classifier create(final List<String> labels, final int inputSize, final InferenceEngine engine) {
+        final TensorFlowObjectDetectionAPIModel d = new TensorFlowObjectDetectionAPIModel();
+        d.labels.addAll(labels);
+        d.inferenceInterface = engine;
+        d.init(inputSize, TensorFormat.uint8(inputSize, inputSize, TensorFormat.ChannelOrder.RGB));
+        return d;
+    }
+
+    /**
+     * 量化模型直接喂 8 位像素，不经过 float 转换
+     * <p>
+     * A uint8 or int8 input gets the pixels quantized with the tensor's own scale and zero point,
+     * which for the usual [-1, 1] input quantization is the plain pixel (uint8) or the pixel minus
+     * 128 (int8). An 8 bit input without quantization params, like the {@code image_tensor} of
+     * the Object Detection API exports, takes the raw pixels.
+     */
+    private static TensorFormat inputFormat(final Tensor input, final int inputSize) {
+        switch (input.dataType()) {
+            case FLOAT32:
+                return TensorFormat.float32(inputSize, inputSize, TensorFormat.ChannelOrder.RGB, IMAGE_MEAN, IMAGE_STD);
+            case INT8:
+            case UINT8:
+                final Tensor.QuantizationParams params = input.quantizationParams();
+                return TensorFormat.quantized(inputSize, inputSize, TensorFormat.ChannelOrder.RGB,
+                        input.dataType() == DataType.INT8 ? TensorFormat.DataType.INT8 : TensorFormat.DataType.UINT8,
+                        IMAGE_MEAN, IMAGE_STD, params.getScale(), params.getZeroPoint());
+            default:
+                throw new IllegalArgumentException("Unsupported detector input " + input.dataType());
+        }
+    }
 
-        d.inputName = "image_tensor";
-        d.inputSize = inputSize;
+    private void init(final int inputSize, final TensorFormat inputFormat) {
+        this.inputName = INPUT_NAME;
+        this.inputSize = inputSize;
+        this.inputFormat = inputFormat;
         // Pre-allocate buffers.
-        d.outputNames = new String[] {"detection_boxes", "detection_scores",
-                "detection_classes", "num_detections"};
-        d.intValues = new int[d.inputSize * d.inputSize];
-        d.byteValues = new byte[d.inputSize * d.inputSize * 3];
-        d.outputScores = new float[MAX_RESULTS];
-        d.outputLocations = new float[MAX_RESULTS * 4];
-        d.outputClasses = new float[MAX_RESULTS];
-        d.outputNumDetections = new float[1];
-        return d;
+        this.bitmapConverter = new BitmapToTensorConverter(inputFormat);
+        this.bufferSets = new BufferSetPool(inputFormat, inferenceInterface);
+        // One set up front, more only when calls overlap.
+        bufferSets.release(bufferSets.checkout());
     }
 
     private TensorFlowObjectDetectionAPIModel() {}
@@ -112,33 +180,67 @@ public class TensorFlowObjectDetectionAPIModel implements Classifier {
     @Override
     public List<Recognition> recognizeImage(final Bitmap bitmap) {
         // Log this method so that it can be analyzed with systrace.
-        Trace.beginSection("recognizeImage");
+        Diagnostics.beginSection("recognizeImage");
+        final BufferSetPool.BufferSet buffers = bufferSets.checkout();
+        try {
+            Diagnostics.beginSection("preprocessBitmap");
+            bitmapConverter.convert(bitmap, buffers.input);
+            buffers.input.rewind();
+            Diagnostics.endSection(); // preprocessBitmap
 
-        Trace.beginSection("preprocessBitmap");
-        // Preprocess the image data from 0-255 int to normalized float based
-        // on the provided parameters.
-        bitmap.getPixels(intValues, 0, bitmap.getWidth(), 0, 0, bitmap.getWidth(), bitmap.getHeight());
+            invoke(buffers.input, buffers.outputs);
+            return decodeOutputs(buffers.outputs);
+        } finally {
+            bufferSets.release(buffers);
+            Diagnostics.endSection(); // "recognizeImage"
+        }
+    }
 
-        for (int i = 0; i < intValues.length; ++i) {
-            byteValues[i * 3 + 2] = (byte) intValues[i] ;
-            byteValues[i * 3 + 1] = (byte) (intValues[i] >> 8);
-            byteValues[i * 3 + 0] = (byte) (intValues[i] >> 16) ;
+    @Override
+    public TensorFormat getInputFormat() {
+        return inputFormat;
+    }
+
+    @Override
+    public List<Recognition> recognizeImage(final ByteBuffer input) {
+        Diagnostics.beginSection("recognizeImage");
+        final BufferSetPool.BufferSet buffers = bufferSets.checkout();
+        try {
+            invoke(input, buffers.outputs);
+            return decodeOutputs(buffers.outputs);
+        } finally {
+            bufferSets.release(buffers);
+            Diagnostics.endSection(); // "recognizeImage"
         }
-        Trace.endSection(); // preprocessBitmap
-
-        // Copy the input data into TensorFlow.
-        Trace.beginSection("feed");
-        inferenceInterface.runForMultipleInputsOutputs(new Object[]{byteValues}, new int[][]{new int[]{1, inputSize, inputSize, 3}});
-        Trace.endSection();
-
-        // Copy the output Tensor back into the output array.
-        Trace.beginSection("fetch");
-        outputLocations = new float[MAX_RESULTS * 4];
-        outputScores = new float[MAX_RESULTS];
-        outputClasses = new float[MAX_RESULTS];
-        outputNumDetections = new float[1];
-        inferenceInterface.runForMultipleInputsOutputs(new Object[]{outputLocations, outputScores, outputClasses, outputNumDetections}, new int[][]{new int[]{MAX_RESULTS, 4}, new int[]{MAX_RESULTS}, new int[]{MAX_RESULTS}, new int[]{1}});
-        Trace.endSection();
+    }
+
+    /**
+     * Boxes, scores, classes and the number of detections, as float buffers.
+     */
+    @Override
+    public Object[] createOutputs() {
+        return inferenceInterface.createOutputs();
+    }
+
+    @Override
+    public void runInference(final ByteBuffer input, final Object[] outputs) {
+        invoke(input, outputs);
+    }
+
+    /**
+     * Runs the detector on a buffer in {@link #inputFormat}.
+     */
+    private void invoke(final ByteBuffer input, final Object[] outputs) {
+        Diagnostics.beginSection("runInference");
+        inferenceInterface.run(input, outputs);
+        Diagnostics.endSection();
+    }
+
+    @Override
+    public List<Recognition> decodeOutputs(final Object[] outputs) {
+        final FloatBuffer outputLocations = InferenceSession.floats(outputs[0]);
+        final FloatBuffer outputScores = InferenceSession.floats(outputs[1]);
+        final FloatBuffer outputClasses = InferenceSession.floats(outputs[2]);
 
         // Find the best detections.
         final PriorityQueue<Recognition> pq =
@@ -153,22 +255,21 @@ public class TensorFlowObjectDetectionAPIModel implements Classifier {
                         });
 
         // Scale them back to the input size.
-        for (int i = 0; i < outputScores.length; ++i) {
-            final RectF detection =
-                    new RectF(
-                            outputLocations[4 * i + 1] * inputSize,
-                            outputLocations[4 * i] * inputSize,
-                            outputLocations[4 * i + 3] * inputSize,
-                            outputLocations[4 * i + 2] * inputSize);
+        for (int i = 0; i < outputScores.capacity(); ++i) {
+            final Box detection =
+                    new Box(
+                            outputLocations.get(4 * i + 1) * inputSize,
+                            outputLocations.get(4 * i) * inputSize,
+                            outputLocations.get(4 * i + 3) * inputSize,
+                            outputLocations.get(4 * i + 2) * inputSize);
             pq.add(
-                    new Recognition("" + i, labels.get((int) outputClasses[i]), outputScores[i], detection));
+                    new Recognition("" + i, labels.get((int) outputClasses.get(i)), outputScores.get(i), detection));
         }
 
         final ArrayList<Recognition> recognitions = new ArrayList<Recognition>();
         for (int i = 0; i < Math.min(pq.size(), MAX_RESULTS); ++i) {
             recognitions.add(pq.poll());
         }
-        Trace.endSection(); // "recognizeImage"
         return recognitions;
     }
 
@@ -177,11 +278,20 @@ public class TensorFlowObjectDetectionAPIModel implements Classifier {
         this.logStats = logStats;
     }
 
+    @Override
+    public int getParallelism() {
+        return inferenceInterface.getParallelism();
+    }
+
     @Override
     public String getStatString() {
-        return inferenceInterface.getStatString();
+        return inferenceInterface.getStatString() + " input=" + inputFormat;
     }
 
+    /**
+     * Closes the interpreters once the calls in progress have returned; this does not wait for
+     * them. Calls started afterwards fail with an {@link IllegalStateException}.
+     */
     @Override
     public void close() {
         inferenceInterface.close();
@@ -0,0 +1,147 @@
+package com.tfcamerademo.monitor;
+
+import android.content.res.AssetManager;
+
+import com.tfcamerademo.Classifier;
+import com.tfcamerademo.model.InterpreterConfig;
+import com.tfcamerademo.model.TensorFlowObjectDetectionAPIModel;
+import com.tfcamerademo.pipeline.FramePipeline;
+import com.tfcamerademo.pipeline.InferenceResult;
+import com.tfcamerademo.pipeline.InferenceScheduler;
+import com.tfcamerademo.pipeline.ModelChannel;
+import com.tfcamerademo.preprocess.RegionOfInterest;
+import com.tfcamerademo.source.FrameSource;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * 车内驾驶员行为监测：抽烟、打电话、闭眼
+ * <p>
+ * Runs the driver model of {@link com.tfcamerademo.Camera2BasicFragment} on a cabin
+ * {@link FrameSource} without drawing anything, e.g. next to the road model that owns the preview.
+ * The listener receives the alert of every frame, {@code null} when the driver behaves.
+ */
+public class CabinMonitor {
+
+    public interface Listener {
+        /**
+         * Called on the monitor's postprocess thread.
+         *
+         * @param alert The behaviours seen in the frame, {@code null} if none.
+         */
+        void onCabinAlert(String alert);
+    }
+
+    private static final String MODEL_FILE = "file:///android_asset/frozen_inference_graph_v6.pb";
+    private static final String LABELS_FILE = "file:///android_asset/coco_labels_list.txt";
+    private static final int INPUT_SIZE = 300;
+    private static final float MINIMUM_CONFIDENCE = 0.6f;
+    private static final long MAX_FRAME_AGE_MS = 150;
+
+    /**
+     * 驾驶员检测只看车厢上部以下的区域，去掉车顶
+     */
+    public static final RegionOfInterest DETECTION_REGION = new RegionOfInterest(0f, 0.2f, 1f, 1f);
+
+    private final Classifier classifier;
+    private final ModelChannel channel;
+    private final Listener listener;
+
+    private CabinMonitor(Classifier classifier, FrameSource source, InferenceScheduler scheduler,
+                         int weight, Listener listener) {
+        this.classifier = classifier;
+        this.listener = listener;
+        channel = new ModelChannel(source, classifier, DETECTION_REGION, MAX_FRAME_AGE_MS,
+                scheduler, weight, resultListener);
+    }
+
+    /**
+     * Loads the driver model.
+     *
+     * @param weight The share of inference time relative to the other models of the scheduler.
+     */
+    public static CabinMonitor create(AssetManager assets, FrameSource source, InferenceScheduler scheduler,
+                                      int weight, Listener listener) throws IOException {
+        return create(createClassifier(assets), source, scheduler, weight, listener);
+    }
+
+    /**
+     * Runs a driver model that is already loaded, e.g. by a
+     * {@link com.tfcamerademo.model.ModelFuture}. The caller keeps owning it, {@link #close()} is
+     * not needed.
+     *
+     * @see #create(AssetManager, FrameSource, InferenceScheduler, int, Listener)
+     */
+    public static CabinMonitor create(Classifier classifier, FrameSource source, InferenceScheduler scheduler,
+                                      int weight, Listener listener) {
+        return new CabinMonitor(classifier, source, scheduler, weight, listener);
+    }
+
+    /**
+     * Loads another instance of the driver model, e.g. one per thread of an offline analysis.
+     */
+    public static Classifier createClassifier(AssetManager assets) throws IOException {
+        return createClassifier(assets, InterpreterConfig.getDefault());
+    }
+
+    public static Classifier createClassifier(AssetManager assets, InterpreterConfig config) throws IOException {
+        return TensorFlowObjectDetectionAPIModel.create(assets, MODEL_FILE, LABELS_FILE, INPUT_SIZE, config);
+    }
+
+    public FramePipeline getPipeline() {
+        return channel.getPipeline();
+    }
+
+    public void start() {
+        channel.start();
+    }
+
+    public void stop() {
+        channel.stop();
+    }
+
+    /**
+     * Releases the model, after {@link #stop()}.
+     */
+    public void close() {
+        classifier.close();
+    }
+
+    /**
+     * The alert for the recognitions of one frame, {@code null} if none.
+     */
+    public static String getAlert(List<Classifier.Recognition> recognitions) {
+        StringBuilder alert = new StringBuilder();
+        for (Classifier.Recognition recognition : recognitions) {
+            if (recognition.getConfidence() < MINIMUM_CONFIDENCE) {
+                continue;
+            }
+            String text;
+            if (recognition.getTitle().equals("closeeyes")) {
+                text = "闭眼";
+            } else if (recognition.getTitle().equals("phone")) {
+                text = "打电话";
+            } else if (recognition.getTitle().equals("smoke")) {
+                text = "抽烟";
+            } else {
+                continue;
+            }
+            if (alert.indexOf(text) < 0) {
+                if (alert.length() > 0) {
+                    alert.append(' ');
+                }
+                alert.append(text);
+            }
+        }
+        return alert.length() > 0 ? alert.toString() : null;
+    }
+
+    private final FramePipeline.ResultListener resultListener =
+            new FramePipeline.ResultListener() {
+                @Override
+                public void onResults(InferenceResult result, List<Classifier.Recognition> recognitions) {
+                    listener.onCabinAlert(recognitions != null ? getAlert(recognitions) : null);
+                }
+            };
+}
@@ -0,0 +1,217 @@
+package com.tfcamerademo.monitor;
+
+import android.content.res.AssetManager;
+
+import com.tfcamerademo.Classifier;
+import com.tfcamerademo.model.InterpreterConfig;
+import com.tfcamerademo.model.TensorFlowObjectDetectionAPIModel;
+import com.tfcamerademo.pipeline.FramePipeline;
+import com.tfcamerademo.pipeline.InferenceResult;
+import com.tfcamerademo.pipeline.InferenceScheduler;
+import com.tfcamerademo.pipeline.ModelChannel;
+import com.tfcamerademo.preprocess.RegionOfInterest;
+import com.tfcamerademo.source.FrameSource;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * 道路监测：车道偏离和前车过近
+ * <p>
+ * Runs the car and lane model of {@link com.tfcamerademo.Camera2BasicFragment4} on a road
+ * {@link FrameSource} without drawing anything. The alert rules are shared with the fragment, they
+ * work on locations scaled to a square of {@link #ALERT_SCALE} over the whole frame.
+ */
+public class RoadMonitor {
+
+    public interface Listener {
+        /**
+         * Called on the monitor's postprocess thread.
+         *
+         * @param alert The alerts of the frame, {@code null} if none.
+         */
+        void onRoadAlert(String alert);
+    }
+
+    /**
+     * The square the alert rules measure locations in.
+     */
+    public static final int ALERT_SCALE = 300;
+
+    /**
+     * 车道线用的是 openeyes 标签
+     */
+    public static final String LABEL_LANE = "openeyes";
+
+    /**
+     * 车辆用的是 closeeyes 标签
+     */
+    public static final String LABEL_CAR = "closeeyes";
+
+    public static final String ALERT_LANE_DEPARTURE = "车道偏离";
+
+    public static final String ALERT_CAR_TOO_CLOSE = "前车过近";
+
+    private static final String MODEL_FILE = "file:///android_asset/car_and_line.pb";
+    private static final String LABELS_FILE = "file:///android_asset/coco_labels_list.txt";
+    private static final int INPUT_SIZE = 300;
+    private static final float MINIMUM_CONFIDENCE = 0.3f;
+    private static final long MAX_FRAME_AGE_MS = 150;
+
+    /**
+     * 车辆和车道检测只看地平线以下的区域
+     */
+    public static final RegionOfInterest DETECTION_REGION = new RegionOfInterest(0f, 0.4f, 1f, 1f);
+
+    private final Classifier classifier;
+    private final ModelChannel channel;
+    private final Listener listener;
+
+    private RoadMonitor(Classifier classifier, FrameSource source, InferenceScheduler scheduler,
+                        int weight, Listener listener) {
+        this.classifier = classifier;
+        this.listener = listener;
+        channel = new ModelChannel(source, classifier, DETECTION_REGION, MAX_FRAME_AGE_MS,
+                scheduler, weight, resultListener);
+    }
+
+    /**
+     * Loads the car and lane model.
+     *
+     * @param weight The share of inference time relative to the other models of the scheduler.
+     */
+    public static RoadMonitor create(AssetManager assets, FrameSource source, InferenceScheduler scheduler,
+                                     int weight, Listener listener) throws IOException {
+        return create(createClassifier(assets), source, scheduler, weight, listener);
+    }
+
+    /**
+     * Runs a car and lane model that is already loaded, e.g. by a
+     * {@link com.tfcamerademo.model.ModelFuture}. The caller keeps owning it, {@link #close()} is
+     * not needed.
+     *
+     * @see #create(AssetManager, FrameSource, InferenceScheduler, int, Listener)
+     */
+    public static RoadMonitor create(Classifier classifier, FrameSource source, InferenceScheduler scheduler,
+                                     int weight, Listener listener) {
+        return new RoadMonitor(classifier, source, scheduler, weight, listener);
+    }
+
+    /**
+     * Loads another instance of the car and lane model, e.g. one per thread of an offline analysis.
+     */
+    public static Classifier createClassifier(AssetManager assets) throws IOException {
+        return createClassifier(assets, InterpreterConfig.getDefault());
+    }
+
+    public static Classifier createClassifier(AssetManager assets, InterpreterConfig config) throws IOException {
+        return TensorFlowObjectDetectionAPIModel.create(assets, MODEL_FILE, LABELS_FILE, INPUT_SIZE, config);
+    }
+
+    public FramePipeline getPipeline() {
+        return channel.getPipeline();
+    }
+
+    public void start() {
+        channel.start();
+    }
+
+    public void stop() {
+        channel.stop();
+    }
+
+    /**
+     * Releases the model, after {@link #stop()}.
+     */
+    public void close() {
+        classifier.close();
+    }
+
+    /**
+     * 车道线太竖说明车压在线上：斜率 k = (y2-y1)/(x2-x1) 小于 -2 算车道偏离
+     *
+     * @param location A lane scaled to {@link #ALERT_SCALE}.
+     */
+    public static boolean isLaneDeparture(Classifier.Box location) {
+        return (location.top - location.bottom) / (location.right - location.left) < -2.0f;
+    }
+
+    /**
+     * 车辆中心点在横向 8 分之 2 到 8 分之 6 之间，并且中心点位置靠下或车身够高，算前车过近
+     *
+     * @param location A car scaled to {@link #ALERT_SCALE}.
+     */
+    public static boolean isCarAhead(Classifier.Box location) {
+        float centerX = (location.right - location.left) / 2f + location.left;
+        return centerX > ALERT_SCALE * 2 / 8 && centerX < ALERT_SCALE * 6 / 8;
+    }
+
+    /**
+     * @param location A car ahead, see {@link #isCarAhead(Classifier.Box)}.
+     */
+    public static boolean isCarTooClose(Classifier.Box location) {
+        //175距离算前车过近距离
+        return ((location.top - location.bottom) / 2 + location.bottom) > 175f
+                || (location.bottom - location.top) > 60f;
+    }
+
+    /**
+     * Scales a location mapped to the upright frame to {@link #ALERT_SCALE}.
+     */
+    public static void scaleToAlertScale(Classifier.Box location, InferenceResult frame) {
+        scaleToAlertScale(location, frame.getFrameWidth(), frame.getFrameHeight());
+    }
+
+    /**
+     * @param frameWidth  Width of the upright frame the location is mapped to.
+     * @param frameHeight Height of the upright frame the location is mapped to.
+     */
+    public static void scaleToAlertScale(Classifier.Box location, int frameWidth, int frameHeight) {
+        location.set(location.left * ALERT_SCALE / frameWidth,
+                location.top * ALERT_SCALE / frameHeight,
+                location.right * ALERT_SCALE / frameWidth,
+                location.bottom * ALERT_SCALE / frameHeight);
+    }
+
+    static String getAlert(InferenceResult frame, List<Classifier.Recognition> recognitions) {
+        return getAlert(frame.getFrameWidth(), frame.getFrameHeight(), recognitions);
+    }
+
+    /**
+     * The alerts for the recognitions of one frame, {@code null} if none.
+     *
+     * @param recognitions Locations mapped to an upright frame of the given size.
+     */
+    public static String getAlert(int frameWidth, int frameHeight, List<Classifier.Recognition> recognitions) {
+        boolean laneDeparture = false;
+        boolean carTooClose = false;
+        for (Classifier.Recognition recognition : recognitions) {
+            Classifier.Box location = recognition.getLocation();
+            if (location == null || recognition.getConfidence() < MINIMUM_CONFIDENCE) {
+                continue;
+            }
+            scaleToAlertScale(location, frameWidth, frameHeight);
+            if (recognition.getTitle().equals(LABEL_LANE)) {
+                laneDeparture |= isLaneDeparture(location);
+            } else if (recognition.getTitle().equals(LABEL_CAR)) {
+                carTooClose |= isCarAhead(location) && isCarTooClose(location);
+            }
+        }
+        if (laneDeparture && carTooClose) {
+            return ALERT_LANE_DEPARTURE + " " + ALERT_CAR_TOO_CLOSE;
+        } else if (laneDeparture) {
+            return ALERT_LANE_DEPARTURE;
+        } else if (carTooClose) {
+            return ALERT_CAR_TOO_CLOSE;
+        }
+        return null;
+    }
+
+    private final FramePipeline.ResultListener resultListener =
+            new FramePipeline.ResultListener() {
+                @Override
+                public void onResults(InferenceResult result, List<Classifier.Recognition> recognitions) {
+                    listener.onRoadAlert(recognitions != null ? getAlert(result, recognitions) : null);
+                }
+            };
+}
@@ -0,0 +1,120 @@
+package com.tfcamerademo.pipeline;
+
+import java.nio.ByteBuffer;
+
+/**
+ * 一帧已经预处理好的模型输入
+ * <p>
+ * Frames are pooled by a {@link LatestFrameQueue} and reused, so a consumer must release a frame
+ * back to its queue instead of keeping a reference to it.
+ */
+public class Frame {
+
+    private final ByteBuffer input;
+    private long sequence;
+    private long timestampNanos;
+    private long captureNanos;
+    private long preprocessStartNanos;
+    private int frameWidth;
+    private int frameHeight;
+    private int regionLeft;
+    private int regionTop;
+    private int regionWidth;
+    private int regionHeight;
+
+    public Frame(ByteBuffer input) {
+        this.input = input;
+    }
+
+    /**
+     * The model input, rewound and ready to be fed to the interpreter.
+     */
+    public ByteBuffer getInput() {
+        input.rewind();
+        return input;
+    }
+
+    /**
+     * Number of the frame in the order it was captured.
+     */
+    public long getSequence() {
+        return sequence;
+    }
+
+    public void setSequence(long sequence) {
+        this.sequence = sequence;
+    }
+
+    /**
+     * When the frame was published to the queue, in the {@link System#nanoTime()} time base.
+     */
+    public long getTimestampNanos() {
+        return timestampNanos;
+    }
+
+    public void setTimestampNanos(long timestampNanos) {
+        this.timestampNanos = timestampNanos;
+    }
+
+    /**
+     * The sensor timestamp of the frame, converted to the {@link System#nanoTime()} time base.
+     */
+    public long getCaptureNanos() {
+        return captureNanos;
+    }
+
+    public void setCaptureNanos(long captureNanos) {
+        this.captureNanos = captureNanos;
+    }
+
+    /**
+     * When conversion into the input started, in the {@link System#nanoTime()} time base.
+     */
+    public long getPreprocessStartNanos() {
+        return preprocessStartNanos;
+    }
+
+    public void setPreprocessStartNanos(long preprocessStartNanos) {
+        this.preprocessStartNanos = preprocessStartNanos;
+    }
+
+    /**
+     * Records which part of the upright camera frame was scaled into the input.
+     *
+     * @param frameWidth  Width of the upright camera frame.
+     * @param frameHeight Height of the upright camera frame.
+     */
+    public void setRegion(int frameWidth, int frameHeight,
+                          int regionLeft, int regionTop, int regionWidth, int regionHeight) {
+        this.frameWidth = frameWidth;
+        this.frameHeight = frameHeight;
+        this.regionLeft = regionLeft;
+        this.regionTop = regionTop;
+        this.regionWidth = regionWidth;
+        this.regionHeight = regionHeight;
+    }
+
+    public int getFrameWidth() {
+        return frameWidth;
+    }
+
+    public int getFrameHeight() {
+        return frameHeight;
+    }
+
+    public int getRegionLeft() {
+        return regionLeft;
+    }
+
+    public int getRegionTop() {
+        return regionTop;
+    }
+
+    public int getRegionWidth() {
+        return regionWidth;
+    }
+
+    public int getRegionHeight() {
+        return regionHeight;
+    }
+}
@@ -0,0 +1,317 @@
+package com.tfcamerademo.pipeline;
+
+import com.tfcamerademo.Classifier;
+import com.tfcamerademo.preprocess.TensorFormat;
+import com.tfcamerademo.utils.Diagnostics;
+
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 分阶段流水线：预处理、推理、后处理/绘制分别在不同线程上同时进行
+ * <p>
+ * Frames are preprocessed on the camera thread into a {@link LatestFrameQueue}. The inference
+ * thread runs the interpreter into one of the output sets and hands it to the postprocess thread,
+ * which decodes it, maps the recognition locations from model input pixels to the upright camera
+ * frame and passes the recognitions to the listener. While frame N is in the interpreter, frame
+ * N+1 is being converted and frame N-1 decoded and drawn.
+ * <p>
+ * Both hand-offs are bounded: the frame queue keeps only the newest frame, and the inference
+ * thread waits for a free output set when the postprocess thread falls behind.
+ * <p>
+ * A model with a {@link Classifier#getParallelism()} above 1 gets that many inference threads,
+ * and one output set more, so several frames are in the interpreters at once. Frames can then
+ * finish out of order: a result older than the last one delivered is dropped, the listener always
+ * sees the frames in order.
+ * <p>
+ * A pipeline created with an {@link InferenceScheduler} has no inference thread of its own: the
+ * scheduler's workers run its inference stage, shared with the other pipelines of the scheduler.
+ */
+public class FramePipeline {
+
+    /**
+     * Receives the decoded results on the postprocess thread.
+     */
+    public interface ResultListener {
+        /**
+         * @param result       The frame information and raw outputs, valid until this returns.
+         * @param recognitions The decoded outputs, may be {@code null} for models that draw themselves.
+         */
+        void onResults(InferenceResult result, List<Classifier.Recognition> recognitions);
+    }
+
+    private static final String TAG = "FramePipeline";
+
+    private final String name;
+    private final Classifier classifier;
+    private final TensorFormat inputFormat;
+    private final LatestFrameQueue frameQueue;
+    private final ResultListener listener;
+    private final LatencyTracker latencyTracker;
+    private final BlockingQueue<InferenceResult> freeResults;
+    private final BlockingQueue<InferenceResult> readyResults;
+    private final InferenceScheduler scheduler;
+    private final int weight;
+    private final int parallelism;
+    private final Thread[] inferenceThreads;
+    private final Thread postprocessThread;
+    private volatile boolean modelClosed;
+
+    // Statistics, the inference ones written by every inference thread.
+    private final AtomicLong inferredCount = new AtomicLong();
+    private final AtomicLong inferenceNanos = new AtomicLong();
+    private final AtomicLong failedCount = new AtomicLong();
+    private volatile long decodedCount;
+    private volatile long decodeNanos;
+    private volatile long outOfOrderCount;
+    // Written by the postprocess thread only.
+    private long lastSequence = -1;
+
+    /**
+     * @param name           Prefix of the stage thread names.
+     * @param classifier     The model, its output sets are allocated here.
+     * @param frameQueue     Where the camera thread publishes preprocessed frames.
+     * @param listener       Receives the decoded results.
+     * @param latencyTracker Records the stage latencies of every frame.
+     */
+    public FramePipeline(String name, Classifier classifier, LatestFrameQueue frameQueue,
+                         ResultListener listener, LatencyTracker latencyTracker) {
+        this(name, classifier, frameQueue, listener, latencyTracker, null, 1);
+    }
+
+    /**
+     * A pipeline whose inference stage runs on the workers of {@code scheduler}.
+     *
+     * @param scheduler The shared scheduler, or {@code null} for an inference thread of its own.
+     * @param weight    The share of inference time this pipeline gets relative to the others of
+     *                  the scheduler, at least 1.
+     */
+    public FramePipeline(String name, Classifier classifier, LatestFrameQueue frameQueue,
+                         ResultListener listener, LatencyTracker latencyTracker,
+                         InferenceScheduler scheduler, int weight) {
+        this.name = name;
+        this.classifier = classifier;
+        inputFormat = classifier.getInputFormat();
+        this.frameQueue = frameQueue;
+        this.listener = listener;
+        this.latencyTracker = latencyTracker;
+        parallelism = Math.max(1, classifier.getParallelism());
+        // One set in each interpreter, one being decoded.
+        int outputSets = parallelism + 1;
+        freeResults = new ArrayBlockingQueue<>(outputSets);
+        readyResults = new ArrayBlockingQueue<>(outputSets);
+        for (int i = 0; i < outputSets; i++) {
+            freeResults.add(new InferenceResult(classifier.createOutputs()));
+        }
+        this.scheduler = scheduler;
+        this.weight = Math.max(1, weight);
+        if (scheduler != null) {
+            inferenceThreads = null;
+        } else {
+            inferenceThreads = new Thread[parallelism];
+            for (int i = 0; i < parallelism; i++) {
+                inferenceThreads[i] = new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        runInferenceStage();
+                    }
+                }, name + "Inference" + (parallelism == 1 ? "" : String.valueOf(i)));
+            }
+        }
+        postprocessThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                runPostprocessStage();
+            }
+        }, name + "Postprocess");
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public LatencyTracker getLatencyTracker() {
+        return latencyTracker;
+    }
+
+    /**
+     * How many frames the inference stage works on at the same time: the model's parallelism on
+     * threads of its own, its share of the workers on a scheduler, which is less than one while
+     * other pipelines are busy.
+     */
+    public double getInferenceWorkers() {
+        return scheduler == null ? parallelism : scheduler.getWorkerShare(this, weight, parallelism);
+    }
+
+    public void start() {
+        postprocessThread.start();
+        if (scheduler != null) {
+            scheduler.register(this, weight, parallelism);
+            frameQueue.setPublishListener(new Runnable() {
+                @Override
+                public void run() {
+                    scheduler.signal();
+                }
+            });
+        } else {
+            for (Thread inferenceThread : inferenceThreads) {
+                inferenceThread.start();
+            }
+        }
+    }
+
+    /**
+     * Stops all stages and waits for the frames in progress to finish.
+     */
+    public void quit() throws InterruptedException {
+        if (scheduler != null) {
+            frameQueue.setPublishListener(null);
+            scheduler.unregister(this);
+        } else {
+            for (Thread inferenceThread : inferenceThreads) {
+                inferenceThread.interrupt();
+            }
+            for (Thread inferenceThread : inferenceThreads) {
+                inferenceThread.join();
+            }
+        }
+        postprocessThread.interrupt();
+        postprocessThread.join();
+        frameQueue.clear();
+    }
+
+    /**
+     * Whether {@link #runOnce()} would find a frame and a free output set.
+     */
+    boolean isReady() {
+        return !modelClosed && !freeResults.isEmpty() && frameQueue.hasPending();
+    }
+
+    /**
+     * Runs the inference stage for one frame on the calling scheduler worker, without waiting. Up
+     * to the model's parallelism workers may call this at the same time.
+     *
+     * @return The inference time in nanoseconds, also of an inference that failed, or -1 if there
+     * was no frame or no free output set.
+     */
+    long runOnce() {
+        InferenceResult result = freeResults.poll();
+        if (result == null) {
+            return -1;
+        }
+        Frame frame = frameQueue.poll();
+        if (frame == null) {
+            freeResults.add(result);
+            return -1;
+        }
+        return infer(result, frame);
+    }
+
+    private void runInferenceStage() {
+        while (!Thread.currentThread().isInterrupted() && !modelClosed) {
+            InferenceResult result;
+            Frame frame;
+            try {
+                // Wait for an output set first so the frame taken next is as new as possible.
+                result = freeResults.take();
+                try {
+                    frame = frameQueue.take();
+                } catch (InterruptedException e) {
+                    freeResults.add(result);
+                    throw e;
+                }
+            } catch (InterruptedException e) {
+                break;
+            }
+            infer(result, frame);
+        }
+    }
+
+    private long infer(InferenceResult result, Frame frame) {
+        boolean inferred = false;
+        long start = System.nanoTime();
+        Diagnostics.beginSection("runInference");
+        try {
+            classifier.runInference(frame.getInput(), result.getOutputs());
+            long end = System.nanoTime();
+            result.setFrame(frame);
+            result.setInferenceTimes(start, end);
+            inferenceNanos.addAndGet(end - start);
+            inferredCount.incrementAndGet();
+            inferred = true;
+            return end - start;
+        } catch (IllegalStateException e) {
+            // The model was closed under a pipeline that is still running, stop asking it.
+            modelClosed = true;
+            Diagnostics.w(TAG, name + " model closed, inference stopped", e);
+            return -1;
+        } catch (RuntimeException e) {
+            // E.g. a delegate failing on one input. Drop the frame, the next one may work.
+            failedCount.incrementAndGet();
+            Diagnostics.w(TAG, name + " inference failed, frame dropped", e);
+            // The scheduler charges the time, a model that keeps failing cannot crowd out others.
+            return System.nanoTime() - start;
+        } finally {
+            Diagnostics.endSection();
+            frameQueue.release(frame);
+            // The output set is never lost, both queues hold every set between them.
+            (inferred ? readyResults : freeResults).add(result);
+        }
+    }
+
+    private void runPostprocessStage() {
+        while (!Thread.currentThread().isInterrupted()) {
+            InferenceResult result;
+            try {
+                result = readyResults.take();
+            } catch (InterruptedException e) {
+                break;
+            }
+            if (result.getSequence() < lastSequence) {
+                // Overtaken by a newer frame from another interpreter.
+                outOfOrderCount++;
+                freeResults.add(result);
+                continue;
+            }
+            lastSequence = result.getSequence();
+            Diagnostics.beginSection("decodeOutputs");
+            try {
+                long start = System.nanoTime();
+                List<Classifier.Recognition> recognitions = classifier.decodeOutputs(result.getOutputs());
+                if (recognitions != null) {
+                    result.mapToFrame(recognitions, inputFormat.getWidth(), inputFormat.getHeight());
+                }
+                listener.onResults(result, recognitions);
+                long end = System.nanoTime();
+                latencyTracker.recordPipeline(result, end);
+                decodeNanos += end - start;
+                decodedCount++;
+            } finally {
+                Diagnostics.endSection();
+                freeResults.add(result);
+                if (scheduler != null) {
+                    scheduler.signal();
+                }
+            }
+        }
+    }
+
+    public String getStatString() {
+        long inferred = inferredCount.get();
+        long decoded = decodedCount;
+        return "inferred=" + inferred
+                + " avgInferenceMs=" + averageMs(inferenceNanos.get(), inferred)
+                + (parallelism == 1 ? "" : " inFlight=" + parallelism + " outOfOrder=" + outOfOrderCount)
+                + " failed=" + failedCount.get()
+                + " decoded=" + decoded
+                + " avgPostprocessMs=" + averageMs(decodeNanos, decoded)
+                + " frames: " + frameQueue.getStatString();
+    }
+
+    private static long averageMs(long totalNanos, long count) {
+        return count == 0 ? 0 : TimeUnit.NANOSECONDS.toMillis(totalNanos / count);
+    }
+}
@@ -0,0 +1,121 @@
+package com.tfcamerademo.pipeline;
+
+import com.tfcamerademo.Classifier;
+
+import java.util.List;
+
+/**
+ * 一帧的原始输出张量
+ * <p>
+ * Output sets are pooled by a {@link FramePipeline} and reused, so they are only valid until the
+ * result listener returns.
+ */
+public class InferenceResult {
+
+    private final Object[] outputs;
+    private long sequence;
+    private long timestampNanos;
+    private long captureNanos;
+    private long preprocessStartNanos;
+    private long inferenceStartNanos;
+    private long inferenceEndNanos;
+    private int frameWidth;
+    private int frameHeight;
+    private int regionLeft;
+    private int regionTop;
+    private int regionWidth;
+    private int regionHeight;
+
+    public InferenceResult(Object[] outputs) {
+        this.outputs = outputs;
+    }
+
+    /**
+     * The output tensors, laid out as {@link com.tfcamerademo.Classifier#createOutputs()}.
+     */
+    public Object[] getOutputs() {
+        return outputs;
+    }
+
+    /**
+     * {@link Frame#getSequence()} of the frame the outputs were computed from.
+     */
+    public long getSequence() {
+        return sequence;
+    }
+
+    /**
+     * {@link Frame#getTimestampNanos()} of the frame the outputs were computed from.
+     */
+    public long getTimestampNanos() {
+        return timestampNanos;
+    }
+
+    /**
+     * {@link Frame#getCaptureNanos()} of the frame the outputs were computed from.
+     */
+    public long getCaptureNanos() {
+        return captureNanos;
+    }
+
+    public long getPreprocessStartNanos() {
+        return preprocessStartNanos;
+    }
+
+    public long getInferenceStartNanos() {
+        return inferenceStartNanos;
+    }
+
+    public long getInferenceEndNanos() {
+        return inferenceEndNanos;
+    }
+
+    /**
+     * Width of the upright camera frame, the unit of the mapped recognition locations.
+     */
+    public int getFrameWidth() {
+        return frameWidth;
+    }
+
+    public int getFrameHeight() {
+        return frameHeight;
+    }
+
+    void setFrame(Frame frame) {
+        sequence = frame.getSequence();
+        timestampNanos = frame.getTimestampNanos();
+        captureNanos = frame.getCaptureNanos();
+        preprocessStartNanos = frame.getPreprocessStartNanos();
+        frameWidth = frame.getFrameWidth();
+        frameHeight = frame.getFrameHeight();
+        regionLeft = frame.getRegionLeft();
+        regionTop = frame.getRegionTop();
+        regionWidth = frame.getRegionWidth();
+        regionHeight = frame.getRegionHeight();
+    }
+
+    void setInferenceTimes(long startNanos, long endNanos) {
+        inferenceStartNanos = startNanos;
+        inferenceEndNanos = endNanos;
+    }
+
+    /**
+     * Maps locations from model input pixels to pixels of the upright camera frame, undoing the
+     * region of interest crop and the scaling into the input.
+     */
+    void mapToFrame(List<Classifier.Recognition> recognitions, int inputWidth, int inputHeight) {
+        final float scaleX = (float) regionWidth / inputWidth;
+        final float scaleY = (float) regionHeight / inputHeight;
+        for (Classifier.Recognition recognition : recognitions) {
+            Classifier.Box location = recognition.getLocation();
+            if (location == null) {
+                continue;
+            }
+            location.set(regionLeft + location.left * scaleX,
+                    regionTop + location.top * scaleY,
+                    regionLeft + location.right * scaleX,
+                    regionTop + location.bottom * scaleY);
+            recognition.setLocation(location);
+        }
+    }
+}
@@ -0,0 +1,251 @@
+package com.tfcamerademo.pipeline;
+
+import com.tfcamerademo.utils.Diagnostics;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 多路流水线共享的推理调度器，按权重分配 CPU 时间
+ * <p>
+ * Several {@link FramePipeline}s, e.g. the cabin camera and the road camera each with their own
+ * model, share a fixed number of inference workers instead of each running an interpreter thread
+ * of its own, so the models do not fight over the cores. Whenever a worker is free it runs the
+ * ready pipeline that has received the least inference time per unit of weight (weighted fair
+ * queueing by virtual time), so with equal weights a slow model and a fast one get the same CPU
+ * time, not the same frame rate. A pipeline runs on at most as many workers at once as its model
+ * has interpreters, one for most models.
+ * <p>
+ * A pipeline that had nothing to do does not bank its unused time: when it becomes ready again its
+ * virtual time is raised to the smallest of the others, so it cannot starve them afterwards.
+ */
+public class InferenceScheduler {
+
+    private static final String TAG = "InferenceScheduler";
+
+    private final String name;
+    private final Object lock = new Object();
+    private final List<Entry> entries = new ArrayList<>();
+    private final Thread[] workers;
+
+    /**
+     * @param name        Prefix of the worker thread names.
+     * @param workerCount How many inferences may run at the same time, usually 1: the interpreters
+     *                    use several threads themselves.
+     */
+    public InferenceScheduler(String name, int workerCount) {
+        this.name = name;
+        workers = new Thread[Math.max(1, workerCount)];
+    }
+
+    public void start() {
+        for (int i = 0; i < workers.length; i++) {
+            workers[i] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    runWorker();
+                }
+            }, name + "Worker" + i);
+            workers[i].start();
+        }
+    }
+
+    /**
+     * Stops the workers after their current inference. Pipelines still registered stop receiving
+     * inference time, they should be quit first.
+     */
+    public void quit() throws InterruptedException {
+        for (Thread worker : workers) {
+            if (worker != null) {
+                worker.interrupt();
+            }
+        }
+        for (int i = 0; i < workers.length; i++) {
+            if (workers[i] != null) {
+                workers[i].join();
+                workers[i] = null;
+            }
+        }
+    }
+
+    /**
+     * @param parallelism How many workers may run {@code pipeline} at the same time.
+     */
+    void register(FramePipeline pipeline, int weight, int parallelism) {
+        synchronized (lock) {
+            Entry entry = new Entry(pipeline, weight, Math.max(1, parallelism));
+            entry.virtualNanos = minVirtualNanosLocked(null);
+            entries.add(entry);
+            lock.notifyAll();
+        }
+    }
+
+    /**
+     * Removes {@code pipeline}, waiting for the inferences of it that are in progress.
+     */
+    void unregister(FramePipeline pipeline) throws InterruptedException {
+        synchronized (lock) {
+            Entry entry = findLocked(pipeline);
+            if (entry == null) {
+                return;
+            }
+            entry.removed = true;
+            while (entry.running > 0) {
+                lock.wait();
+            }
+            Diagnostics.i(TAG, pipeline.getName() + " share " + getShareString(entry));
+            entries.remove(entry);
+        }
+    }
+
+    /**
+     * How many workers {@code pipeline} gets on average while every registered pipeline has frames
+     * to infer: the workers split by weight, at most {@code parallelism}. A pipeline that is not
+     * registered yet is counted as if it were.
+     */
+    double getWorkerShare(FramePipeline pipeline, int weight, int parallelism) {
+        long totalWeight = weight;
+        synchronized (lock) {
+            for (Entry entry : entries) {
+                if (entry.pipeline != pipeline && !entry.removed) {
+                    totalWeight += entry.weight;
+                }
+            }
+        }
+        return Math.min(parallelism, (double) workers.length * weight / totalWeight);
+    }
+
+    /**
+     * A frame was published or an output set freed, a pipeline may have become ready.
+     */
+    void signal() {
+        synchronized (lock) {
+            lock.notifyAll();
+        }
+    }
+
+    private void runWorker() {
+        while (!Thread.currentThread().isInterrupted()) {
+            Entry entry;
+            synchronized (lock) {
+                try {
+                    while ((entry = pickLocked()) == null) {
+                        lock.wait();
+                    }
+                } catch (InterruptedException e) {
+                    break;
+                }
+                entry.running++;
+            }
+            long nanos = -1;
+            boolean failed = false;
+            try {
+                nanos = entry.pipeline.runOnce();
+            } catch (RuntimeException e) {
+                // The pipeline handles failures of its model, this is a bug of the pipeline. Stop
+                // running it rather than losing the worker the other pipelines share.
+                failed = true;
+                Diagnostics.e(TAG, entry.pipeline.getName() + " failed, no longer scheduled", e);
+            } finally {
+                synchronized (lock) {
+                    entry.running--;
+                    entry.removed |= failed;
+                    if (nanos > 0) {
+                        entry.virtualNanos += nanos / entry.weight;
+                        entry.inferenceNanos += nanos;
+                        entry.runCount++;
+                    }
+                    lock.notifyAll();
+                }
+            }
+        }
+    }
+
+    /**
+     * The ready pipeline with the smallest virtual time, or {@code null}.
+     */
+    private Entry pickLocked() {
+        Entry best = null;
+        for (Entry entry : entries) {
+            if (entry.running >= entry.parallelism || entry.removed) {
+                continue;
+            }
+            if (!entry.pipeline.isReady()) {
+                entry.idle = true;
+                continue;
+            }
+            if (entry.idle) {
+                entry.idle = false;
+                entry.virtualNanos = Math.max(entry.virtualNanos, minVirtualNanosLocked(entry));
+            }
+            if (best == null || entry.virtualNanos < best.virtualNanos) {
+                best = entry;
+            }
+        }
+        return best;
+    }
+
+    private long minVirtualNanosLocked(Entry except) {
+        long min = Long.MAX_VALUE;
+        for (Entry entry : entries) {
+            if (entry != except && !entry.idle && !entry.removed) {
+                min = Math.min(min, entry.virtualNanos);
+            }
+        }
+        return min == Long.MAX_VALUE ? 0 : min;
+    }
+
+    private Entry findLocked(FramePipeline pipeline) {
+        for (Entry entry : entries) {
+            if (entry.pipeline == pipeline) {
+                return entry;
+            }
+        }
+        return null;
+    }
+
+    private String getShareString(Entry entry) {
+        long total = 0;
+        for (Entry other : entries) {
+            total += other.inferenceNanos;
+        }
+        return "runs=" + entry.runCount
+                + " inferenceMs=" + TimeUnit.NANOSECONDS.toMillis(entry.inferenceNanos)
+                + " cpuShare=" + (total == 0 ? 0 : entry.inferenceNanos * 100 / total) + "%"
+                + " weight=" + entry.weight;
+    }
+
+    public String getStatString() {
+        StringBuilder stats = new StringBuilder();
+        synchronized (lock) {
+            for (Entry entry : entries) {
+                if (stats.length() > 0) {
+                    stats.append(", ");
+                }
+                stats.append(entry.pipeline.getName()).append(": ").append(getShareString(entry));
+            }
+        }
+        return stats.toString();
+    }
+
+    private static class Entry {
+        final FramePipeline pipeline;
+        final int weight;
+        final int parallelism;
+        // Inference nanoseconds divided by the weight, the pipeline with the least runs next.
+        long virtualNanos;
+        long inferenceNanos;
+        long runCount;
+        // Workers running the pipeline now.
+        int running;
+        boolean idle;
+        boolean removed;
+
+        Entry(FramePipeline pipeline, int weight, int parallelism) {
+            this.pipeline = pipeline;
+            this.weight = weight;
+            this.parallelism = parallelism;
+        }
+    }
+}
@@ -0,0 +1,79 @@
+package com.tfcamerademo.pipeline;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 延迟直方图，按毫秒分桶，用于统计百分位数
+ * <p>
+ * Values are counted in 1 ms buckets up to {@link #MAX_MS}; longer values share an overflow
+ * bucket and are reported as the largest value seen.
+ */
+public class LatencyHistogram {
+
+    public static final int MAX_MS = 2000;
+
+    private final long[] buckets = new long[MAX_MS + 1];
+    private long count;
+    private long maxNanos;
+    private long totalNanos;
+
+    public synchronized void record(long nanos) {
+        if (nanos < 0) {
+            nanos = 0;
+        }
+        int ms = (int) Math.min(MAX_MS, TimeUnit.NANOSECONDS.toMillis(nanos));
+        buckets[ms]++;
+        count++;
+        totalNanos += nanos;
+        maxNanos = Math.max(maxNanos, nanos);
+    }
+
+    public synchronized long getCount() {
+        return count;
+    }
+
+    /**
+     * @param percentile Between 0 and 100.
+     * @return The smallest value in ms that {@code percentile} percent of the samples do not exceed.
+     */
+    public synchronized long getPercentileMs(double percentile) {
+        if (count == 0) {
+            return 0;
+        }
+        long rank = (long) Math.ceil(percentile / 100.0 * count);
+        long seen = 0;
+        for (int ms = 0; ms < MAX_MS; ms++) {
+            seen += buckets[ms];
+            if (seen >= Math.max(rank, 1)) {
+                return ms;
+            }
+        }
+        return TimeUnit.NANOSECONDS.toMillis(maxNanos);
+    }
+
+    public synchronized long getMaxMs() {
+        return TimeUnit.NANOSECONDS.toMillis(maxNanos);
+    }
+
+    public synchronized long getAverageMs() {
+        return count == 0 ? 0 : TimeUnit.NANOSECONDS.toMillis(totalNanos / count);
+    }
+
+    public synchronized void clear() {
+        Arrays.fill(buckets, 0);
+        count = 0;
+        maxNanos = 0;
+        totalNanos = 0;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "n=" + count
+                + " avg=" + getAverageMs()
+                + " p50=" + getPercentileMs(50)
+                + " p90=" + getPercentileMs(90)
+                + " p99=" + getPercentileMs(99)
+                + " max=" + getMaxMs();
+    }
+}
@@ -0,0 +1,94 @@
+package com.tfcamerademo.pipeline;
+
+/**
+ * 从传感器曝光到结果显示的每帧延迟，按阶段统计
+ * <p>
+ * All times are in the {@link System#nanoTime()} time base; the camera's sensor timestamp is
+ * converted when the frame arrives. The total is measured from the sensor timestamp to the
+ * moment the overlay is set on the view, i.e. how old the box the driver sees is.
+ */
+public class LatencyTracker {
+
+    public enum Stage {
+        /**
+         * Sensor exposure until the frame reaches the reader.
+         */
+        DELIVERY,
+        /**
+         * Conversion into the model input.
+         */
+        PREPROCESS,
+        /**
+         * Waiting in the frame queue for the interpreter.
+         */
+        QUEUE,
+        /**
+         * The interpreter.
+         */
+        INFERENCE,
+        /**
+         * Waiting for and running the decoding and drawing.
+         */
+        POSTPROCESS,
+        /**
+         * Waiting for the UI thread to show the overlay.
+         */
+        DISPLAY,
+        /**
+         * Sensor exposure until the overlay is shown.
+         */
+        TOTAL
+    }
+
+    private final LatencyHistogram[] histograms = new LatencyHistogram[Stage.values().length];
+
+    public LatencyTracker() {
+        for (int i = 0; i < histograms.length; i++) {
+            histograms[i] = new LatencyHistogram();
+        }
+    }
+
+    public void record(Stage stage, long nanos) {
+        histograms[stage.ordinal()].record(nanos);
+    }
+
+    /**
+     * Records the frame stages up to the end of postprocessing.
+     *
+     * @param postprocessEndNanos When decoding and drawing of {@code result} finished.
+     */
+    void recordPipeline(InferenceResult result, long postprocessEndNanos) {
+        record(Stage.DELIVERY, result.getPreprocessStartNanos() - result.getCaptureNanos());
+        record(Stage.PREPROCESS, result.getTimestampNanos() - result.getPreprocessStartNanos());
+        record(Stage.QUEUE, result.getInferenceStartNanos() - result.getTimestampNanos());
+        record(Stage.INFERENCE, result.getInferenceEndNanos() - result.getInferenceStartNanos());
+        record(Stage.POSTPROCESS, postprocessEndNanos - result.getInferenceEndNanos());
+    }
+
+    /**
+     * Call on the UI thread right after the overlay has been set on the view.
+     *
+     * @param captureNanos {@link InferenceResult#getCaptureNanos()} of the frame shown.
+     * @param postedNanos  When the overlay was posted to the UI thread.
+     */
+    public void recordDisplay(long captureNanos, long postedNanos) {
+        long now = System.nanoTime();
+        record(Stage.DISPLAY, now - postedNanos);
+        record(Stage.TOTAL, now - captureNanos);
+    }
+
+    public LatencyHistogram getHistogram(Stage stage) {
+        return histograms[stage.ordinal()];
+    }
+
+    public String getStatString() {
+        StringBuilder builder = new StringBuilder();
+        for (Stage stage : Stage.values()) {
+            if (builder.length() > 0) {
+                builder.append('\n');
+            }
+            builder.append(stage).append(": ").append(histograms[stage.ordinal()]);
+        }
+        return builder.toString();
+    }
+}
@@ -0,0 +1,234 @@
+package com.tfcamerademo.pipeline;
+
+import com.tfcamerademo.preprocess.TensorFormat;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 相机线程和推理线程之间的单帧槽：新帧覆盖未处理的旧帧，过期的帧直接丢弃
+ * <p>
+ * A single producer hand-off with a pool of frames: one being written by the camera thread, one
+ * waiting in the slot and one held by each reader, by default a single inference thread. Publishing
+ * while a frame is still waiting overwrites it, and {@link #take()} drops frames that were captured
+ * longer ago than the maximum age, so inference always runs on a recent frame. The age counts from
+ * the sensor timestamp, {@link Frame#getCaptureNanos()}, so it bounds the staleness of the whole
+ * path: camera buffering, conversion and the wait in the slot. With more than one
+ * reader every reader takes the newest frame when it gets free, so frames overlap in inference.
+ */
+public class LatestFrameQueue {
+
+    private final Object lock = new Object();
+    private final ArrayDeque<Frame> freeFrames;
+    private final long maxAgeNanos;
+    private Frame pending;
+    private long nextSequence;
+    private Runnable publishListener;
+
+    // Statistics.
+    private long publishedCount;
+    private long overwrittenCount;
+    private long staleCount;
+    private long unavailableCount;
+    private long consumedCount;
+
+    /**
+     * @param format   The format of the frames, used to allocate the pool.
+     * @param maxAgeMs Frames captured longer ago than this when the consumer takes them are
+     *                 dropped, 0 keeps all.
+     */
+    public LatestFrameQueue(TensorFormat format, long maxAgeMs) {
+        this(format, maxAgeMs, 1);
+    }
+
+    /**
+     * @param readers The consumer threads that may hold a frame at the same time.
+     */
+    public LatestFrameQueue(TensorFormat format, long maxAgeMs, int readers) {
+        maxAgeNanos = TimeUnit.MILLISECONDS.toNanos(maxAgeMs);
+        // Writer and slot hold at most one frame, each reader another.
+        int poolSize = 2 + Math.max(1, readers);
+        freeFrames = new ArrayDeque<>(poolSize);
+        for (int i = 0; i < poolSize; i++) {
+            freeFrames.add(new Frame(format.allocate()));
+        }
+    }
+
+    /**
+     * Producer side: a free frame to write the next camera frame into, or {@code null} if none is
+     * free, in which case the camera frame has to be skipped.
+     */
+    public Frame obtain() {
+        synchronized (lock) {
+            Frame frame = freeFrames.poll();
+            if (frame == null) {
+                unavailableCount++;
+            }
+            return frame;
+        }
+    }
+
+    /**
+     * Producer side: makes {@code frame} the next frame for the consumer, stamped with the current
+     * time. Its capture time must already be set. A frame that was still waiting is recycled.
+     */
+    public void publish(Frame frame) {
+        Runnable listener;
+        synchronized (lock) {
+            frame.setSequence(nextSequence++);
+            frame.setTimestampNanos(System.nanoTime());
+            publishedCount++;
+            if (pending != null) {
+                overwrittenCount++;
+                freeFrames.add(pending);
+            }
+            pending = frame;
+            lock.notifyAll();
+            listener = publishListener;
+        }
+        if (listener != null) {
+            listener.run();
+        }
+    }
+
+    /**
+     * Runs {@code listener} on the producer thread after every publish, e.g. to wake a consumer
+     * that waits on more than one queue.
+     */
+    public void setPublishListener(Runnable listener) {
+        synchronized (lock) {
+            publishListener = listener;
+        }
+    }
+
+    /**
+     * Consumer side: waits for the newest frame that is not older than the maximum age. The frame
+     * must be handed back with {@link #release(Frame)}.
+     */
+    public Frame take() throws InterruptedException {
+        synchronized (lock) {
+            while (true) {
+                while (pending == null) {
+                    lock.wait();
+                }
+                Frame frame = pending;
+                pending = null;
+                lock.notifyAll();
+                if (isStale(frame)) {
+                    staleCount++;
+                    freeFrames.add(frame);
+                    continue;
+                }
+                consumedCount++;
+                return frame;
+            }
+        }
+    }
+
+    /**
+     * Consumer side: like {@link #take()}, but returns {@code null} instead of waiting.
+     */
+    public Frame poll() {
+        synchronized (lock) {
+            while (pending != null) {
+                Frame frame = pending;
+                pending = null;
+                lock.notifyAll();
+                if (isStale(frame)) {
+                    staleCount++;
+                    freeFrames.add(frame);
+                    continue;
+                }
+                consumedCount++;
+                return frame;
+            }
+            return null;
+        }
+    }
+
+    private boolean isStale(Frame frame) {
+        return maxAgeNanos > 0 && System.nanoTime() - frame.getCaptureNanos() > maxAgeNanos;
+    }
+
+    /**
+     * Whether a frame is waiting, it may still turn out too old when taken.
+     */
+    public boolean hasPending() {
+        synchronized (lock) {
+            return pending != null;
+        }
+    }
+
+    /**
+     * Producer side: waits until the consumer has taken the waiting frame, so a producer that is
+     * faster than the consumer can pace itself instead of overwriting frames.
+     *
+     * @return {@code false} if a frame is still waiting after {@code timeoutMs}.
+     */
+    public boolean awaitConsumed(long timeoutMs) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMs);
+        synchronized (lock) {
+            while (pending != null) {
+                long remainingMs = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+                if (remainingMs <= 0) {
+                    return false;
+                }
+                lock.wait(remainingMs);
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Consumer side: returns a frame obtained from {@link #take()} or {@link #poll()} to the pool.
+     */
+    public void release(Frame frame) {
+        synchronized (lock) {
+            freeFrames.add(frame);
+        }
+    }
+
+    /**
+     * Drops the waiting frame, e.g. when the camera stops.
+     */
+    public void clear() {
+        synchronized (lock) {
+            if (pending != null) {
+                freeFrames.add(pending);
+                pending = null;
+                lock.notifyAll();
+            }
+        }
+    }
+
+    public long getPublishedCount() {
+        synchronized (lock) {
+            return publishedCount;
+        }
+    }
+
+    /**
+     * Frames that were never looked at, either overwritten, too old or without a free buffer.
+     */
+    public long getDroppedCount() {
+        synchronized (lock) {
+            return overwrittenCount + staleCount + unavailableCount;
+        }
+    }
+
+    public long getConsumedCount() {
+        synchronized (lock) {
+            return consumedCount;
+        }
+    }
+
+    public String getStatString() {
+        synchronized (lock) {
+            return "published=" + publishedCount
+                    + " consumed=" + consumedCount
+                    + " overwritten=" + overwrittenCount
+                    + " stale=" + staleCount
+                    + " noBuffer=" + unavailableCount;
+        }
+    }
+}
@@ -0,0 +1,85 @@
+package com.tfcamerademo.pipeline;
+
+import com.tfcamerademo.Classifier;
+import com.tfcamerademo.preprocess.RegionOfInterest;
+import com.tfcamerademo.source.FrameSource;
+import com.tfcamerademo.utils.Diagnostics;
+
+/**
+ * 一路帧来源绑定一个模型
+ * <p>
+ * Binds a {@link FrameSource} to a model: the source converts the {@code region} of every frame
+ * into the model input and publishes it to the channel's {@link LatestFrameQueue}, and a
+ * {@link FramePipeline} on the shared {@link InferenceScheduler} runs the model on it. Several
+ * channels, e.g. the cabin camera and the road camera, run side by side on one scheduler.
+ */
+public class ModelChannel {
+
+    private static final String TAG = "ModelChannel";
+
+    private final FrameSource source;
+    private final Classifier classifier;
+    private final RegionOfInterest region;
+    private final LatestFrameQueue frameQueue;
+    private final LatencyTracker latencyTracker = new LatencyTracker();
+    private final FramePipeline pipeline;
+    private boolean started;
+
+    /**
+     * @param maxFrameAgeMs Frames captured longer ago than this when the model gets free are dropped.
+     * @param weight        The share of inference time relative to the other channels of the scheduler.
+     * @param listener      Receives the decoded results on the channel's postprocess thread.
+     */
+    public ModelChannel(FrameSource source, Classifier classifier, RegionOfInterest region,
+                        long maxFrameAgeMs, InferenceScheduler scheduler, int weight,
+                        FramePipeline.ResultListener listener) {
+        this.source = source;
+        this.classifier = classifier;
+        this.region = region;
+        frameQueue = new LatestFrameQueue(classifier.getInputFormat(), maxFrameAgeMs,
+                classifier.getParallelism());
+        pipeline = new FramePipeline(source.getName(), classifier, frameQueue, listener, latencyTracker,
+                scheduler, weight);
+    }
+
+    public String getName() {
+        return source.getName();
+    }
+
+    public LatencyTracker getLatencyTracker() {
+        return latencyTracker;
+    }
+
+    public FramePipeline getPipeline() {
+        return pipeline;
+    }
+
+    public void start() {
+        if (started) {
+            return;
+        }
+        started = true;
+        pipeline.start();
+        source.clearTargets();
+        source.addTarget(classifier.getInputFormat(), frameQueue, region);
+        source.start();
+    }
+
+    /**
+     * Stops the source first, so no frame is published to a pipeline that has quit.
+     */
+    public void stop() {
+        if (!started) {
+            return;
+        }
+        started = false;
+        source.stop();
+        try {
+            pipeline.quit();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        Diagnostics.i(TAG, getName() + " pipeline: " + pipeline.getStatString());
+        Diagnostics.i(TAG, getName() + " latency (ms):\n" + latencyTracker.getStatString());
+    }
+}
@@ -0,0 +1,77 @@
+package com.tfcamerademo.preprocess;
+
+import java.nio.ByteBuffer;
+
+/**
+ * ARGB 像素转换为模型输入张量：通道顺序和 mean/std 归一化由 {@link TensorFormat} 决定
+ * <p>
+ * The RGB counterpart of {@link YuvToTensorConverter}, writing through the same
+ * {@link TensorWriter}. The pixels must already have the input size, e.g. read from a bitmap by
+ * {@code model.BitmapToTensorConverter}. The output is meant to be a buffer from
+ * {@link TensorFormat#allocate()} that is kept for every frame, so the interpreter reads it
+ * directly instead of copying a Java array.
+ */
+public class ArgbToTensorConverter {
+
+    private final TensorFormat format;
+    private final TensorWriter writer;
+    private TilePool tilePool;
+
+    // The pixels and the buffer the tile pool is working on, only set during convert().
+    private int[] tilePixels;
+    private ByteBuffer tileOut;
+    private final TilePool.RowTask rowTask = new TilePool.RowTask() {
+        @Override
+        public void run(int rowStart, int rowEnd) {
+            convertRows(tilePixels, tileOut, rowStart, rowEnd);
+        }
+    };
+
+    public ArgbToTensorConverter(TensorFormat format) {
+        this.format = format;
+        writer = new TensorWriter(format);
+    }
+
+    public TensorFormat getFormat() {
+        return format;
+    }
+
+    /**
+     * @see YuvToTensorConverter#setTilePool(TilePool)
+     */
+    public void setTilePool(TilePool tilePool) {
+        this.tilePool = tilePool;
+    }
+
+    /**
+     * Converts {@code argb}, one int per pixel in rows of the input width, into {@code out},
+     * starting at index 0 of the buffer. The buffer must hold at least
+     * {@link TensorFormat#getByteSize()} bytes.
+     */
+    public void convert(int[] argb, ByteBuffer out) {
+        final int width = format.getWidth();
+        final int height = format.getHeight();
+        if (argb.length < width * height) {
+            throw new IllegalArgumentException(argb.length + " pixels, the input is " + width + "x" + height);
+        }
+        if (tilePool == null) {
+            convertRows(argb, out, 0, height);
+            return;
+        }
+        tilePixels = argb;
+        tileOut = out;
+        try {
+            tilePool.run(height, width, rowTask);
+        } finally {
+            tilePixels = null;
+            tileOut = null;
+        }
+    }
+
+    private void convertRows(int[] argb, ByteBuffer out, int rowStart, int rowEnd) {
+        final int end = rowEnd * format.getWidth();
+        for (int i = rowStart * format.getWidth(); i < end; i++) {
+            writer.write(out, i, argb[i]);
+        }
+    }
+}
@@ -0,0 +1,176 @@
+package com.tfcamerademo.preprocess;
+
+import java.nio.ByteBuffer;
+
+/**
+ * 每帧只构建一次的图像金字塔，多个模型共享同一组缩小后的图像
+ * <p>
+ * Level 0 is half the sensor resolution and every further level halves the previous one, each
+ * pixel being the average of the 2x2 pixels it covers. Levels stay in sensor orientation and are
+ * packed as 0x00RRGGBB. A model input is sampled from the smallest level that is still at least
+ * as large as the input, see {@link #levelFor(int, int, int, int)}.
+ * <p>
+ * Sampled in {@link YuvToTensorConverter.ScaleMode#AREA} mode a level matches the direct
+ * conversion of a natural scene within 2 grey levels, plus the shift of a crop edge by up to half
+ * a level pixel; in bilinear mode the pyramid averages what the direct conversion skips. No path of
+ * the app builds a pyramid today: every source feeds a single model, and
+ * {@link com.tfcamerademo.source.FrameTargets} only uses one for several.
+ */
+public class ImagePyramid {
+
+    private YuvFrame frame;
+    private Level[] levels = new Level[0];
+    private int levelCount;
+
+    /**
+     * Builds the first {@code levelCount} levels from {@code frame}. Level buffers are reused as
+     * long as the frame size does not change.
+     */
+    public void build(YuvFrame frame, int levelCount) {
+        this.frame = frame;
+        if (levels.length < levelCount) {
+            Level[] grown = new Level[levelCount];
+            System.arraycopy(levels, 0, grown, 0, levels.length);
+            levels = grown;
+        }
+        int width = frame.getWidth() / 2;
+        int height = frame.getHeight() / 2;
+        int built = 0;
+        for (int i = 0; i < levelCount && width > 0 && height > 0; i++) {
+            if (levels[i] == null || levels[i].width != width || levels[i].height != height) {
+                levels[i] = new Level(width, height, 2 << i);
+            }
+            if (i == 0) {
+                downsampleYuv(frame, levels[0]);
+            } else {
+                downsample(levels[i - 1], levels[i]);
+            }
+            built++;
+            width /= 2;
+            height /= 2;
+        }
+        this.levelCount = built;
+    }
+
+    /**
+     * The full resolution frame the pyramid was built from.
+     */
+    public YuvFrame getFrame() {
+        return frame;
+    }
+
+    public int getLevelCount() {
+        return levelCount;
+    }
+
+    public Level getLevel(int index) {
+        if (index < 0 || index >= levelCount) {
+            throw new IndexOutOfBoundsException("Level " + index + " of " + levelCount);
+        }
+        return levels[index];
+    }
+
+    /**
+     * The smallest level a region of the sensor image can be sampled from without upscaling.
+     *
+     * @param regionWidth  Width of the region in sensor pixels, in the same orientation as outWidth.
+     * @param regionHeight Height of the region in sensor pixels.
+     * @param outWidth     Width of the model input.
+     * @param outHeight    Height of the model input.
+     * @return The level index, or -1 if only the full resolution frame is large enough.
+     */
+    public static int levelFor(int regionWidth, int regionHeight, int outWidth, int outHeight) {
+        int level = -1;
+        int scale = 2;
+        while (regionWidth / scale >= outWidth && regionHeight / scale >= outHeight) {
+            level++;
+            scale *= 2;
+        }
+        return level;
+    }
+
+    private static void downsampleYuv(YuvFrame frame, Level level) {
+        final ByteBuffer yBuffer = frame.getYBuffer();
+        final ByteBuffer uBuffer = frame.getUBuffer();
+        final ByteBuffer vBuffer = frame.getVBuffer();
+        final int yRowStride = frame.getYRowStride();
+        final int uvRowStride = frame.getUvRowStride();
+        final int uvPixelStride = frame.getUvPixelStride();
+        final int[] pixels = level.pixels;
+        // One chroma sample per 2x2 luma block, so only the luma needs averaging.
+        for (int y = 0; y < level.height; y++) {
+            final int row0 = 2 * y * yRowStride;
+            final int row1 = row0 + yRowStride;
+            final int uvRow = y * uvRowStride;
+            final int out = y * level.width;
+            for (int x = 0; x < level.width; x++) {
+                final int x0 = 2 * x;
+                final int luma = (yBuffer.get(row0 + x0) & 0xff) + (yBuffer.get(row0 + x0 + 1) & 0xff)
+                        + (yBuffer.get(row1 + x0) & 0xff) + (yBuffer.get(row1 + x0 + 1) & 0xff);
+                final int uvOffset = uvRow + x * uvPixelStride;
+                pixels[out + x] = YuvToTensorConverter.yuvToRgb((luma + 2) >> 2,
+                        uBuffer.get(uvOffset) & 0xff, vBuffer.get(uvOffset) & 0xff);
+            }
+        }
+    }
+
+    private static void downsample(Level source, Level target) {
+        final int[] in = source.pixels;
+        final int[] out = target.pixels;
+        for (int y = 0; y < target.height; y++) {
+            final int row0 = 2 * y * source.width;
+            final int row1 = row0 + source.width;
+            for (int x = 0; x < target.width; x++) {
+                final int p0 = in[row0 + 2 * x];
+                final int p1 = in[row0 + 2 * x + 1];
+                final int p2 = in[row1 + 2 * x];
+                final int p3 = in[row1 + 2 * x + 1];
+                final int r = (((p0 >> 16) & 0xff) + ((p1 >> 16) & 0xff)
+                        + ((p2 >> 16) & 0xff) + ((p3 >> 16) & 0xff) + 2) >> 2;
+                final int g = (((p0 >> 8) & 0xff) + ((p1 >> 8) & 0xff)
+                        + ((p2 >> 8) & 0xff) + ((p3 >> 8) & 0xff) + 2) >> 2;
+                final int b = ((p0 & 0xff) + (p1 & 0xff) + (p2 & 0xff) + (p3 & 0xff) + 2) >> 2;
+                out[y * target.width + x] = (r << 16) | (g << 8) | b;
+            }
+        }
+    }
+
+    /**
+     * One level of the pyramid, in sensor orientation.
+     */
+    public static class Level {
+        private final int width;
+        private final int height;
+        private final int scale;
+        private final int[] pixels;
+
+        Level(int width, int height, int scale) {
+            this.width = width;
+            this.height = height;
+            this.scale = scale;
+            pixels = new int[width * height];
+        }
+
+        public int getWidth() {
+            return width;
+        }
+
+        public int getHeight() {
+            return height;
+        }
+
+        /**
+         * Sensor pixels per level pixel along each axis.
+         */
+        public int getScale() {
+            return scale;
+        }
+
+        /**
+         * Row-major pixels packed as 0x00RRGGBB.
+         */
+        public int[] getPixels() {
+            return pixels;
+        }
+    }
+}
@@ -0,0 +1,211 @@
+package com.tfcamerademo.preprocess;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 画面静止时跳过识别：比较缩小后的亮度图的块差值（SAD）
+ * <p>
+ * Each frame is reduced to a small luma grid, which is split into blocks. A frame is processed
+ * when the mean absolute difference of any block against the last processed frame exceeds the
+ * threshold, or when the refresh interval has passed. Comparing against the last processed frame
+ * rather than the previous one means slow changes still trigger once they add up.
+ * <p>
+ * Only blocks that overlap a region some model looks at count, see
+ * {@link #setRegions(int, List)}, so motion outside every model's region of interest, e.g. the
+ * dashboard below a road model's crop, does not wake the models.
+ */
+public class MotionGate {
+
+    private static final int GRID_WIDTH = 64;
+    private static final int GRID_HEIGHT = 48;
+    private static final int BLOCK_SIZE = 8;
+    private static final int BLOCKS_X = GRID_WIDTH / BLOCK_SIZE;
+    private static final int BLOCKS_Y = GRID_HEIGHT / BLOCK_SIZE;
+
+    private final int blockThreshold;
+    private final long refreshIntervalNanos;
+
+    // Pre-allocated buffers.
+    private final int[] current = new int[GRID_WIDTH * GRID_HEIGHT];
+    private final int[] reference = new int[GRID_WIDTH * GRID_HEIGHT];
+    private int referenceWidth = -1;
+    private int referenceHeight = -1;
+    private long referenceTimestampNanos;
+    // Blocks of the sensor grid that overlap a region, all by default.
+    private final boolean[] activeBlocks = new boolean[BLOCKS_X * BLOCKS_Y];
+
+    // Statistics.
+    private long processedCount;
+    private long skippedCount;
+    private long refreshCount;
+
+    /**
+     * @param blockThreshold    Mean absolute luma difference (0-255) above which a block counts as changed.
+     * @param refreshIntervalMs A frame is processed at least this often, even without motion.
+     */
+    public MotionGate(int blockThreshold, long refreshIntervalMs) {
+        this.blockThreshold = blockThreshold;
+        refreshIntervalNanos = TimeUnit.MILLISECONDS.toNanos(refreshIntervalMs);
+        Arrays.fill(activeBlocks, true);
+    }
+
+    /**
+     * Restricts the comparison to blocks that overlap one of {@code regions}, or compares the
+     * whole frame if there are none. The regions are in upright coordinates, the frames passed to
+     * {@link #shouldProcess(YuvFrame, long)} as the sensor delivers them.
+     *
+     * @param rotationDegrees Clockwise rotation (0, 90, 180 or 270) that makes a frame upright.
+     */
+    public void setRegions(int rotationDegrees, List<RegionOfInterest> regions) {
+        for (int by = 0; by < BLOCKS_Y; by++) {
+            for (int bx = 0; bx < BLOCKS_X; bx++) {
+                boolean active = regions.isEmpty();
+                for (int i = 0; i < regions.size() && !active; i++) {
+                    active = overlaps(regions.get(i), rotationDegrees, bx, by);
+                }
+                activeBlocks[by * BLOCKS_X + bx] = active;
+            }
+        }
+    }
+
+    /**
+     * Whether block {@code (bx, by)} of the sensor grid overlaps {@code region} once rotated upright.
+     */
+    private static boolean overlaps(RegionOfInterest region, int rotationDegrees, int bx, int by) {
+        final float sx0 = (float) bx / BLOCKS_X;
+        final float sx1 = (float) (bx + 1) / BLOCKS_X;
+        final float sy0 = (float) by / BLOCKS_Y;
+        final float sy1 = (float) (by + 1) / BLOCKS_Y;
+        final float left;
+        final float top;
+        final float right;
+        final float bottom;
+        switch (rotationDegrees) {
+            case 90:
+                left = 1f - sy1;
+                right = 1f - sy0;
+                top = sx0;
+                bottom = sx1;
+                break;
+            case 180:
+                left = 1f - sx1;
+                right = 1f - sx0;
+                top = 1f - sy1;
+                bottom = 1f - sy0;
+                break;
+            case 270:
+                left = sy0;
+                right = sy1;
+                top = 1f - sx1;
+                bottom = 1f - sx0;
+                break;
+            default:
+                left = sx0;
+                right = sx1;
+                top = sy0;
+                bottom = sy1;
+        }
+        return left < region.getRight() && right > region.getLeft()
+                && top < region.getBottom() && bottom > region.getTop();
+    }
+
+    /**
+     * Decides whether {@code frame} should go to the model. A processed frame becomes the new
+     * reference.
+     *
+     * @param timestampNanos Capture time of the frame, in any monotonic time base.
+     */
+    public boolean shouldProcess(YuvFrame frame, long timestampNanos) {
+        sample(frame);
+        boolean process;
+        if (frame.getWidth() != referenceWidth || frame.getHeight() != referenceHeight) {
+            process = true;
+        } else if (timestampNanos - referenceTimestampNanos >= refreshIntervalNanos) {
+            process = true;
+            if (!hasMotion()) {
+                refreshCount++;
+            }
+        } else {
+            process = hasMotion();
+        }
+        if (!process) {
+            skippedCount++;
+            return false;
+        }
+        processedCount++;
+        System.arraycopy(current, 0, reference, 0, current.length);
+        referenceWidth = frame.getWidth();
+        referenceHeight = frame.getHeight();
+        referenceTimestampNanos = timestampNanos;
+        return true;
+    }
+
+    /**
+     * Forgets the reference frame, so the next frame is processed.
+     */
+    public void reset() {
+        referenceWidth = -1;
+        referenceHeight = -1;
+    }
+
+    /**
+     * Averages a 2x2 group of luma samples around the centre of every grid cell.
+     */
+    private void sample(YuvFrame frame) {
+        final ByteBuffer yBuffer = frame.getYBuffer();
+        final int rowStride = frame.getYRowStride();
+        final int width = frame.getWidth();
+        final int height = frame.getHeight();
+        for (int gy = 0; gy < GRID_HEIGHT; gy++) {
+            final int y0 = (int) ((gy + 0.25f) * height / GRID_HEIGHT);
+            final int y1 = Math.min(height - 1, (int) ((gy + 0.75f) * height / GRID_HEIGHT));
+            for (int gx = 0; gx < GRID_WIDTH; gx++) {
+                final int x0 = (int) ((gx + 0.25f) * width / GRID_WIDTH);
+                final int x1 = Math.min(width - 1, (int) ((gx + 0.75f) * width / GRID_WIDTH));
+                current[gy * GRID_WIDTH + gx] = ((yBuffer.get(y0 * rowStride + x0) & 0xff)
+                        + (yBuffer.get(y0 * rowStride + x1) & 0xff)
+                        + (yBuffer.get(y1 * rowStride + x0) & 0xff)
+                        + (yBuffer.get(y1 * rowStride + x1) & 0xff) + 2) >> 2;
+            }
+        }
+    }
+
+    private boolean hasMotion() {
+        final int blockLimit = blockThreshold * BLOCK_SIZE * BLOCK_SIZE;
+        for (int by = 0; by < BLOCKS_Y; by++) {
+            for (int bx = 0; bx < BLOCKS_X; bx++) {
+                if (!activeBlocks[by * BLOCKS_X + bx]) {
+                    continue;
+                }
+                int sad = 0;
+                for (int y = by * BLOCK_SIZE; y < (by + 1) * BLOCK_SIZE; y++) {
+                    final int row = y * GRID_WIDTH;
+                    for (int x = bx * BLOCK_SIZE; x < (bx + 1) * BLOCK_SIZE; x++) {
+                        sad += Math.abs(current[row + x] - reference[row + x]);
+                    }
+                }
+                if (sad > blockLimit) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    public long getProcessedCount() {
+        return processedCount;
+    }
+
+    public long getSkippedCount() {
+        return skippedCount;
+    }
+
+    public String getStatString() {
+        return "processed=" + processedCount
+                + " skipped=" + skippedCount
+                + " refreshed=" + refreshCount;
+    }
+}
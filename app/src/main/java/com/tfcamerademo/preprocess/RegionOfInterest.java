@@ -0,0 +1,80 @@
+package com.tfcamerademo.preprocess;
+
+/**
+ * 模型关注的画面区域，用相对于正向画面的比例表示
+ * <p>
+ * The region is given as fractions of the upright frame so it does not depend on the preview
+ * size. Only this part of the frame is scaled into the model input, which gives the model more
+ * effective resolution for the same inference cost.
+ */
+public class RegionOfInterest {
+
+    public static final RegionOfInterest FULL_FRAME = new RegionOfInterest(0f, 0f, 1f, 1f);
+
+    private final float left;
+    private final float top;
+    private final float right;
+    private final float bottom;
+
+    public RegionOfInterest(float left, float top, float right, float bottom) {
+        if (left < 0f || top < 0f || right > 1f || bottom > 1f || left >= right || top >= bottom) {
+            throw new IllegalArgumentException(
+                    "Invalid region " + left + ", " + top + " - " + right + ", " + bottom);
+        }
+        this.left = left;
+        this.top = top;
+        this.right = right;
+        this.bottom = bottom;
+    }
+
+    public float getLeft() {
+        return left;
+    }
+
+    public float getTop() {
+        return top;
+    }
+
+    public float getRight() {
+        return right;
+    }
+
+    public float getBottom() {
+        return bottom;
+    }
+
+    public boolean isFullFrame() {
+        return left == 0f && top == 0f && right == 1f && bottom == 1f;
+    }
+
+    /**
+     * The upright frame width at which the region is {@code inputWidth} pixels wide, i.e. the
+     * smallest frame that does not need upscaling into the input.
+     */
+    public int getMinimumFrameWidth(int inputWidth) {
+        return (int) Math.ceil(inputWidth / (right - left));
+    }
+
+    /**
+     * @see #getMinimumFrameWidth(int)
+     */
+    public int getMinimumFrameHeight(int inputHeight) {
+        return (int) Math.ceil(inputHeight / (bottom - top));
+    }
+
+    /**
+     * The region in pixels of an upright frame, as {@code {left, top, width, height}}.
+     */
+    public int[] toPixels(int frameWidth, int frameHeight) {
+        int l = Math.round(left * frameWidth);
+        int t = Math.round(top * frameHeight);
+        int r = Math.max(l + 1, Math.round(right * frameWidth));
+        int b = Math.max(t + 1, Math.round(bottom * frameHeight));
+        return new int[]{l, t, r - l, b - t};
+    }
+
+    @Override
+    public String toString() {
+        return "RegionOfInterest[" + left + ", " + top + " - " + right + ", " + bottom + "]";
+    }
+}
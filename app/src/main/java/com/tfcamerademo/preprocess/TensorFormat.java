@@ -0,0 +1,155 @@
+package com.tfcamerademo.preprocess;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * 模型输入张量的格式描述（NHWC，batch 为 1）
+ * <p>
+ * Describes how an image has to be laid out in a model's input buffer: size, channel order and
+ * element type. Float inputs are normalized as {@code (value - mean) / std}, quantized inputs are
+ * normalized the same way and then quantized, see {@link #quantized}.
+ */
+public class TensorFormat {
+
+    public enum ChannelOrder {
+        RGB,
+        BGR
+    }
+
+    public enum DataType {
+        UINT8(1),
+        INT8(1),
+        FLOAT32(4);
+
+        private final int byteSize;
+
+        DataType(int byteSize) {
+            this.byteSize = byteSize;
+        }
+
+        public int getByteSize() {
+            return byteSize;
+        }
+    }
+
+    private static final int CHANNELS = 3;
+
+    private final int width;
+    private final int height;
+    private final ChannelOrder channelOrder;
+    private final DataType dataType;
+    private final float mean;
+    private final float std;
+    private final float quantScale;
+    private final int quantZeroPoint;
+
+    private TensorFormat(int width, int height, ChannelOrder channelOrder, DataType dataType,
+                         float mean, float std, float quantScale, int quantZeroPoint) {
+        if (width <= 0 || height <= 0) {
+            throw new IllegalArgumentException("Invalid tensor size " + width + "x" + height);
+        }
+        if (std == 0) {
+            throw new IllegalArgumentException("std must not be 0");
+        }
+        this.width = width;
+        this.height = height;
+        this.channelOrder = channelOrder;
+        this.dataType = dataType;
+        this.mean = mean;
+        this.std = std;
+        this.quantScale = quantScale;
+        this.quantZeroPoint = quantZeroPoint;
+    }
+
+    /**
+     * Packed 8 bit pixels, fed as they are.
+     */
+    public static TensorFormat uint8(int width, int height, ChannelOrder channelOrder) {
+        return new TensorFormat(width, height, channelOrder, DataType.UINT8, 0f, 1f, 0f, 0);
+    }
+
+    /**
+     * 8 bit pixels of a quantized model input: the pixel is normalized with mean and std, then
+     * quantized with the input tensor's params as {@code round(normalized / scale) + zeroPoint}.
+     * Without quantization params, a scale of 0, the model takes the raw pixels, shifted by -128
+     * for int8.
+     *
+     * @param dataType {@link DataType#UINT8} or {@link DataType#INT8}.
+     */
+    public static TensorFormat quantized(int width, int height, ChannelOrder channelOrder, DataType dataType,
+                                         float mean, float std, float scale, int zeroPoint) {
+        if (dataType == DataType.FLOAT32) {
+            throw new IllegalArgumentException("Quantized inputs are 8 bit");
+        }
+        return new TensorFormat(width, height, channelOrder, dataType, mean, std, scale, zeroPoint);
+    }
+
+    /**
+     * 32 bit float pixels normalized with the given mean and std.
+     */
+    public static TensorFormat float32(int width, int height, ChannelOrder channelOrder,
+                                       float mean, float std) {
+        return new TensorFormat(width, height, channelOrder, DataType.FLOAT32, mean, std, 0f, 0);
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public int getChannels() {
+        return CHANNELS;
+    }
+
+    public ChannelOrder getChannelOrder() {
+        return channelOrder;
+    }
+
+    public DataType getDataType() {
+        return dataType;
+    }
+
+    public float getMean() {
+        return mean;
+    }
+
+    public float getStd() {
+        return std;
+    }
+
+    /**
+     * The scale of a quantized input, 0 if the 8 bit pixels are fed as they are.
+     */
+    public float getQuantScale() {
+        return quantScale;
+    }
+
+    public int getQuantZeroPoint() {
+        return quantZeroPoint;
+    }
+
+    /**
+     * Number of bytes a single image takes in this format.
+     */
+    public int getByteSize() {
+        return width * height * CHANNELS * dataType.getByteSize();
+    }
+
+    /**
+     * Allocates a direct, native ordered buffer that the interpreter can read without copying.
+     */
+    public ByteBuffer allocate() {
+        return ByteBuffer.allocateDirect(getByteSize()).order(ByteOrder.nativeOrder());
+    }
+
+    @Override
+    public String toString() {
+        return width + "x" + height + "x" + CHANNELS + " " + channelOrder + " " + dataType
+                + (dataType == DataType.FLOAT32 || quantScale != 0 ? " mean=" + mean + " std=" + std : "")
+                + (quantScale != 0 ? " scale=" + quantScale + " zeroPoint=" + quantZeroPoint : "");
+    }
+}
@@ -0,0 +1,59 @@
+package com.tfcamerademo.preprocess;
+
+import java.nio.ByteBuffer;
+
+/**
+ * 按 {@link TensorFormat} 把 RGB 像素写进模型输入：通道顺序、归一化、元素类型
+ * <p>
+ * Shared by the converters, so a camera frame and a bitmap end up as the same tensor. The
+ * normalization {@code (value - mean) / std}, and for quantized inputs the quantization, is looked
+ * up in a table of the 256 channel values, and channels are read as unsigned bytes.
+ */
+class TensorWriter {
+
+    private final boolean bytes;
+    private final int firstShift;
+    private final int lastShift;
+    private final float[] normTable = new float[256];
+    private final byte[] byteTable = new byte[256];
+
+    TensorWriter(TensorFormat format) {
+        bytes = format.getDataType() != TensorFormat.DataType.FLOAT32;
+        boolean rgb = format.getChannelOrder() == TensorFormat.ChannelOrder.RGB;
+        firstShift = rgb ? 16 : 0;
+        lastShift = rgb ? 0 : 16;
+        boolean int8 = format.getDataType() == TensorFormat.DataType.INT8;
+        int min = int8 ? Byte.MIN_VALUE : 0;
+        int max = int8 ? Byte.MAX_VALUE : 255;
+        for (int i = 0; i < 256; i++) {
+            normTable[i] = (i - format.getMean()) / format.getStd();
+            int quantized;
+            if (format.getQuantScale() == 0) {
+                quantized = int8 ? i - 128 : i;
+            } else {
+                quantized = Math.round(normTable[i] / format.getQuantScale()) + format.getQuantZeroPoint();
+            }
+            byteTable[i] = (byte) Math.max(min, Math.min(max, quantized));
+        }
+    }
+
+    /**
+     * @param pixelIndex Index of the pixel in the NHWC tensor.
+     * @param rgb        The pixel packed as 0xAARRGGBB, alpha is ignored.
+     */
+    void write(ByteBuffer out, int pixelIndex, int rgb) {
+        final int c0 = (rgb >> firstShift) & 0xff;
+        final int g = (rgb >> 8) & 0xff;
+        final int c2 = (rgb >> lastShift) & 0xff;
+        final int index = pixelIndex * 3;
+        if (bytes) {
+            out.put(index, byteTable[c0]);
+            out.put(index + 1, byteTable[g]);
+            out.put(index + 2, byteTable[c2]);
+        } else {
+            out.putFloat(index * 4, normTable[c0]);
+            out.putFloat((index + 1) * 4, normTable[g]);
+            out.putFloat((index + 2) * 4, normTable[c2]);
+        }
+    }
+}
@@ -0,0 +1,189 @@
+package com.tfcamerademo.preprocess;
+
+/**
+ * 把一帧的预处理按行分块，交给几个固定线程并行完成
+ * <p>
+ * The caller works on the tiles itself next to the workers and returns once every tile is done.
+ * Every row is converted by the same code whichever thread takes it, so the result is identical to
+ * a single threaded conversion. Running a frame allocates nothing.
+ * <p>
+ * Small inputs, where handing out tiles costs more than it saves, are converted on the caller's
+ * thread, and so is a frame that arrives while another caller has the pool: a second pipeline is
+ * never blocked behind the first.
+ */
+public class TilePool {
+
+    public interface RowTask {
+        /**
+         * Converts output rows {@code [rowStart, rowEnd)}, possibly on a worker.
+         */
+        void run(int rowStart, int rowEnd);
+    }
+
+    /**
+     * Below this many output pixels a frame is converted on one thread.
+     */
+    public static final int DEFAULT_MIN_PIXELS = 160 * 160;
+
+    private static final int MAX_DEFAULT_WORKERS = 3;
+
+    /**
+     * Tiles per thread, more than one evens out threads that get descheduled.
+     */
+    private static final int TILES_PER_THREAD = 2;
+
+    private static TilePool defaultPool;
+
+    private final int workerCount;
+    private final int minPixels;
+    private final Object lock = new Object();
+    private boolean busy;
+
+    // The current job, guarded by lock.
+    private long generation;
+    private RowTask task;
+    private int rowCount;
+    private int tileCount;
+    private int nextTile;
+    private int doneTiles;
+    private RuntimeException failure;
+
+    /**
+     * @param workerCount The threads besides the caller's.
+     * @param minPixels   Frames with fewer output pixels are not split.
+     */
+    public TilePool(String name, int workerCount, int minPixels) {
+        this.workerCount = workerCount;
+        this.minPixels = minPixels;
+        for (int i = 0; i < workerCount; i++) {
+            Thread worker = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    work();
+                }
+            }, name + i);
+            worker.setDaemon(true);
+            worker.start();
+        }
+    }
+
+    /**
+     * The pool the converters share, one worker per spare core up to {@value #MAX_DEFAULT_WORKERS}.
+     */
+    public static synchronized TilePool getDefault() {
+        if (defaultPool == null) {
+            int workers = Math.min(MAX_DEFAULT_WORKERS, Runtime.getRuntime().availableProcessors() - 1);
+            defaultPool = new TilePool("Preprocess", Math.max(0, workers), DEFAULT_MIN_PIXELS);
+        }
+        return defaultPool;
+    }
+
+    public int getWorkerCount() {
+        return workerCount;
+    }
+
+    /**
+     * Runs {@code task} over {@code rowCount} rows of {@code rowWidth} pixels and waits for it.
+     */
+    public void run(int rowCount, int rowWidth, RowTask task) {
+        if (workerCount == 0 || rowCount < 2 || (long) rowCount * rowWidth < minPixels || !acquire()) {
+            task.run(0, rowCount);
+            return;
+        }
+        RuntimeException error;
+        synchronized (lock) {
+            this.task = task;
+            this.rowCount = rowCount;
+            tileCount = Math.min(rowCount, (workerCount + 1) * TILES_PER_THREAD);
+            nextTile = 0;
+            doneTiles = 0;
+            failure = null;
+            generation++;
+            lock.notifyAll();
+        }
+        runTiles();
+        synchronized (lock) {
+            boolean interrupted = false;
+            while (doneTiles < tileCount) {
+                try {
+                    lock.wait();
+                } catch (InterruptedException e) {
+                    // The workers are still writing into the caller's buffer.
+                    interrupted = true;
+                }
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+            this.task = null;
+            error = failure;
+            failure = null;
+            busy = false;
+        }
+        if (error != null) {
+            throw error;
+        }
+    }
+
+    private boolean acquire() {
+        synchronized (lock) {
+            if (busy) {
+                return false;
+            }
+            busy = true;
+            return true;
+        }
+    }
+
+    /**
+     * Takes tiles of the current job until none is left.
+     */
+    private void runTiles() {
+        while (true) {
+            RowTask current;
+            int rowStart;
+            int rowEnd;
+            synchronized (lock) {
+                if (task == null || nextTile >= tileCount) {
+                    return;
+                }
+                current = task;
+                rowStart = (int) ((long) nextTile * rowCount / tileCount);
+                rowEnd = (int) ((long) (nextTile + 1) * rowCount / tileCount);
+                nextTile++;
+            }
+            RuntimeException error = null;
+            try {
+                current.run(rowStart, rowEnd);
+            } catch (RuntimeException e) {
+                error = e;
+            }
+            synchronized (lock) {
+                if (error != null && failure == null) {
+                    failure = error;
+                }
+                doneTiles++;
+                if (doneTiles == tileCount) {
+                    lock.notifyAll();
+                }
+            }
+        }
+    }
+
+    private void work() {
+        long seen = 0;
+        while (true) {
+            synchronized (lock) {
+                while (generation == seen) {
+                    try {
+                        lock.wait();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+                seen = generation;
+            }
+            runTiles();
+        }
+    }
+}
@@ -0,0 +1,71 @@
+package com.tfcamerademo.preprocess;
+
+import java.nio.ByteBuffer;
+
+/**
+ * 一帧 YUV_420 图像的三个平面
+ * <p>
+ * A plain Java view of the Y, U and V planes of a camera frame, so the preprocessing code does
+ * not depend on {@code android.media.Image}. The buffers are only valid while the image they were
+ * taken from is open.
+ */
+public class YuvFrame {
+
+    private ByteBuffer yBuffer;
+    private ByteBuffer uBuffer;
+    private ByteBuffer vBuffer;
+    private int width;
+    private int height;
+    private int yRowStride;
+    private int uvRowStride;
+    private int uvPixelStride;
+
+    /**
+     * Points this frame at new plane data. The Y plane is assumed to have a pixel stride of 1,
+     * which YUV_420_888 guarantees.
+     */
+    public void set(int width, int height,
+                    ByteBuffer yBuffer, int yRowStride,
+                    ByteBuffer uBuffer, ByteBuffer vBuffer, int uvRowStride, int uvPixelStride) {
+        this.width = width;
+        this.height = height;
+        this.yBuffer = yBuffer;
+        this.yRowStride = yRowStride;
+        this.uBuffer = uBuffer;
+        this.vBuffer = vBuffer;
+        this.uvRowStride = uvRowStride;
+        this.uvPixelStride = uvPixelStride;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public ByteBuffer getYBuffer() {
+        return yBuffer;
+    }
+
+    public ByteBuffer getUBuffer() {
+        return uBuffer;
+    }
+
+    public ByteBuffer getVBuffer() {
+        return vBuffer;
+    }
+
+    public int getYRowStride() {
+        return yRowStride;
+    }
+
+    public int getUvRowStride() {
+        return uvRowStride;
+    }
+
+    public int getUvPixelStride() {
+        return uvPixelStride;
+    }
+}
@@ -0,0 +1,470 @@
+package com.tfcamerademo.preprocess;
+
+import java.nio.ByteBuffer;
+
+/**
+ * YUV 帧直接转换为模型输入张量：裁剪、缩放、旋转、通道顺序一次完成
+ * <p>
+ * The crop is given in upright coordinates, i.e. after the sensor rotation has been applied.
+ * Source coordinates and colour conversion terms come from tables that are built once per
+ * frame size and configuration, so converting a frame does not allocate.
+ * <p>
+ * When several models share a frame, {@link #convert(ImagePyramid, ByteBuffer)} samples the
+ * nearest level of an {@link ImagePyramid} instead of the full resolution frame.
+ */
+public class YuvToTensorConverter {
+
+    public enum ScaleMode {
+        /**
+         * Interpolates the four nearest luma samples. Cheap, fine for mild downscaling.
+         */
+        BILINEAR,
+        /**
+         * Averages every source pixel covered by an output pixel. Avoids aliasing on large
+         * downscales such as a 1080p stream into a 64x64 input.
+         */
+        AREA
+    }
+
+    private static final int FRACTION_BITS = 8;
+    private static final int FRACTION_ONE = 1 << FRACTION_BITS;
+
+    // BT.601 limited range coefficients, 10 bit fixed point.
+    private static final int[] Y_TABLE = new int[256];
+    private static final int[] RV_TABLE = new int[256];
+    private static final int[] GV_TABLE = new int[256];
+    private static final int[] GU_TABLE = new int[256];
+    private static final int[] BU_TABLE = new int[256];
+
+    static {
+        for (int i = 0; i < 256; i++) {
+            Y_TABLE[i] = 1192 * Math.max(0, i - 16);
+            RV_TABLE[i] = 1634 * (i - 128);
+            GV_TABLE[i] = -833 * (i - 128);
+            GU_TABLE[i] = -400 * (i - 128);
+            BU_TABLE[i] = 2066 * (i - 128);
+        }
+    }
+
+    private final TensorFormat format;
+    private final TensorWriter writer;
+    private TilePool tilePool;
+
+    // The conversion the tile pool is running, only set during convert().
+    private YuvFrame tileFrame;
+    private ImagePyramid.Level tileLevel;
+    private ByteBuffer tileOut;
+    private final TilePool.RowTask rowTask = new TilePool.RowTask() {
+        @Override
+        public void run(int rowStart, int rowEnd) {
+            convertRows(tileFrame, tileLevel, tileOut, rowStart, rowEnd);
+        }
+    };
+
+    private ScaleMode scaleMode = ScaleMode.BILINEAR;
+    private int rotationDegrees;
+    private int cropLeft;
+    private int cropTop;
+    private int cropWidth;
+    private int cropHeight;
+    private boolean hasCrop;
+
+    // Per output column / row source coordinates, rebuilt when the frame size or config changes.
+    private AxisTable columns;
+    private AxisTable rows;
+    private int tableFrameWidth = -1;
+    private int tableFrameHeight = -1;
+    private int tableScale = -1;
+    private boolean tablesDirty = true;
+
+    public YuvToTensorConverter(TensorFormat format) {
+        this.format = format;
+        writer = new TensorWriter(format);
+    }
+
+    public TensorFormat getFormat() {
+        return format;
+    }
+
+    /**
+     * Splits large conversions into row tiles on {@code tilePool}, or converts on the calling
+     * thread if {@code null}, the default.
+     */
+    public void setTilePool(TilePool tilePool) {
+        this.tilePool = tilePool;
+    }
+
+    public void setScaleMode(ScaleMode scaleMode) {
+        if (this.scaleMode != scaleMode) {
+            this.scaleMode = scaleMode;
+            tablesDirty = true;
+        }
+    }
+
+    /**
+     * @param rotationDegrees Clockwise rotation (0, 90, 180 or 270) that makes the frame upright.
+     */
+    public void setRotation(int rotationDegrees) {
+        if (rotationDegrees % 90 != 0) {
+            throw new IllegalArgumentException("Rotation must be a multiple of 90: " + rotationDegrees);
+        }
+        rotationDegrees = (rotationDegrees % 360 + 360) % 360;
+        if (this.rotationDegrees != rotationDegrees) {
+            this.rotationDegrees = rotationDegrees;
+            tablesDirty = true;
+        }
+    }
+
+    public int getRotation() {
+        return rotationDegrees;
+    }
+
+    /**
+     * Restricts conversion to a rectangle of the upright frame. It is clipped to the frame when
+     * the tables are built.
+     */
+    public void setCrop(int left, int top, int width, int height) {
+        if (width <= 0 || height <= 0) {
+            throw new IllegalArgumentException("Invalid crop size " + width + "x" + height);
+        }
+        cropLeft = left;
+        cropTop = top;
+        cropWidth = width;
+        cropHeight = height;
+        hasCrop = true;
+        tablesDirty = true;
+    }
+
+    public void clearCrop() {
+        hasCrop = false;
+        tablesDirty = true;
+    }
+
+    /**
+     * Converts {@code frame} into {@code out}, starting at index 0 of the buffer. The buffer must
+     * hold at least {@link TensorFormat#getByteSize()} bytes.
+     */
+    public void convert(YuvFrame frame, ByteBuffer out) {
+        prepare(frame);
+        convertTiled(frame, null, out);
+    }
+
+    /**
+     * Converts from the smallest level of {@code pyramid} that is not smaller than the model input,
+     * or from the full resolution frame if the pyramid has no such level.
+     */
+    public void convert(ImagePyramid pyramid, ByteBuffer out) {
+        final YuvFrame frame = pyramid.getFrame();
+        final int level = Math.min(getPyramidLevel(frame.getWidth(), frame.getHeight()),
+                pyramid.getLevelCount() - 1);
+        if (level < 0) {
+            convert(frame, out);
+            return;
+        }
+        final ImagePyramid.Level source = pyramid.getLevel(level);
+        prepare(source);
+        convertTiled(null, source, out);
+    }
+
+    private void convertTiled(YuvFrame frame, ImagePyramid.Level level, ByteBuffer out) {
+        if (tilePool == null) {
+            convertRows(frame, level, out, 0, format.getHeight());
+            return;
+        }
+        tileFrame = frame;
+        tileLevel = level;
+        tileOut = out;
+        try {
+            tilePool.run(format.getHeight(), format.getWidth(), rowTask);
+        } finally {
+            tileFrame = null;
+            tileLevel = null;
+            tileOut = null;
+        }
+    }
+
+    /**
+     * The pyramid level this converter samples for a frame of the given sensor size, see
+     * {@link ImagePyramid#levelFor(int, int, int, int)}.
+     */
+    public int getPyramidLevel(int frameWidth, int frameHeight) {
+        final boolean swapped = rotationDegrees == 90 || rotationDegrees == 270;
+        int regionWidth = swapped ? frameHeight : frameWidth;
+        int regionHeight = swapped ? frameWidth : frameHeight;
+        if (hasCrop) {
+            regionWidth = Math.min(cropWidth, regionWidth);
+            regionHeight = Math.min(cropHeight, regionHeight);
+        }
+        return ImagePyramid.levelFor(regionWidth, regionHeight, format.getWidth(), format.getHeight());
+    }
+
+    /**
+     * Builds the coordinate tables for the size of {@code frame} if needed.
+     */
+    void prepare(YuvFrame frame) {
+        prepare(frame.getWidth(), frame.getHeight(), 1);
+    }
+
+    /**
+     * Builds the coordinate tables for the size of a pyramid level if needed.
+     */
+    void prepare(ImagePyramid.Level level) {
+        prepare(level.getWidth(), level.getHeight(), level.getScale());
+    }
+
+    private void prepare(int width, int height, int scale) {
+        if (tablesDirty || width != tableFrameWidth || height != tableFrameHeight || scale != tableScale) {
+            buildTables(width, height, scale);
+        }
+    }
+
+    /**
+     * Converts output rows {@code [rowStart, rowEnd)}. {@link #prepare} must have been called for
+     * this frame.
+     */
+    void convertRows(YuvFrame frame, ByteBuffer out, int rowStart, int rowEnd) {
+        convertRows(frame, null, out, rowStart, rowEnd);
+    }
+
+    /**
+     * Converts output rows {@code [rowStart, rowEnd)} from a pyramid level. {@link #prepare} must
+     * have been called for this level.
+     */
+    void convertRows(ImagePyramid.Level level, ByteBuffer out, int rowStart, int rowEnd) {
+        convertRows(null, level, out, rowStart, rowEnd);
+    }
+
+    /**
+     * Samples {@code level} if it is not {@code null}, otherwise {@code frame}.
+     */
+    private void convertRows(YuvFrame frame, ImagePyramid.Level level, ByteBuffer out,
+                             int rowStart, int rowEnd) {
+        final boolean swapped = rotationDegrees == 90 || rotationDegrees == 270;
+        // Unrotated frames walk the sensor along x for each output row, rotated ones along y.
+        final AxisTable xTable = swapped ? rows : columns;
+        final AxisTable yTable = swapped ? columns : rows;
+        final int outWidth = format.getWidth();
+        final boolean area = scaleMode == ScaleMode.AREA;
+
+        for (int oy = rowStart; oy < rowEnd; oy++) {
+            for (int ox = 0; ox < outWidth; ox++) {
+                final int xi = swapped ? oy : ox;
+                final int yi = swapped ? ox : oy;
+                final int pixel;
+                if (level != null) {
+                    pixel = area
+                            ? areaSample(level, xTable.lo[xi], xTable.hi[xi], yTable.lo[yi], yTable.hi[yi])
+                            : bilinearSample(level,
+                                    xTable.lo[xi], xTable.hi[xi], xTable.fraction[xi],
+                                    yTable.lo[yi], yTable.hi[yi], yTable.fraction[yi]);
+                } else if (area) {
+                    pixel = areaSample(frame, xTable.lo[xi], xTable.hi[xi], yTable.lo[yi], yTable.hi[yi]);
+                } else {
+                    pixel = bilinearSample(frame,
+                            xTable.lo[xi], xTable.hi[xi], xTable.fraction[xi],
+                            yTable.lo[yi], yTable.hi[yi], yTable.fraction[yi]);
+                }
+                writer.write(out, oy * outWidth + ox, pixel);
+            }
+        }
+    }
+
+    private int bilinearSample(YuvFrame frame, int x0, int x1, int fx, int y0, int y1, int fy) {
+        final ByteBuffer yBuffer = frame.getYBuffer();
+        final int rowStride = frame.getYRowStride();
+        final int row0 = y0 * rowStride;
+        final int row1 = y1 * rowStride;
+        final int top = (yBuffer.get(row0 + x0) & 0xff) * (FRACTION_ONE - fx)
+                + (yBuffer.get(row0 + x1) & 0xff) * fx;
+        final int bottom = (yBuffer.get(row1 + x0) & 0xff) * (FRACTION_ONE - fx)
+                + (yBuffer.get(row1 + x1) & 0xff) * fx;
+        final int y = (top * (FRACTION_ONE - fy) + bottom * fy + (1 << (2 * FRACTION_BITS - 1)))
+                >> (2 * FRACTION_BITS);
+
+        // Chroma is subsampled by two, the nearest sample is accurate enough.
+        final int cx = (fx < FRACTION_ONE / 2 ? x0 : x1) >> 1;
+        final int cy = (fy < FRACTION_ONE / 2 ? y0 : y1) >> 1;
+        final int uvOffset = cy * frame.getUvRowStride() + cx * frame.getUvPixelStride();
+        return yuvToRgb(y, frame.getUBuffer().get(uvOffset) & 0xff, frame.getVBuffer().get(uvOffset) & 0xff);
+    }
+
+    private int areaSample(YuvFrame frame, int x0, int x1, int y0, int y1) {
+        final ByteBuffer yBuffer = frame.getYBuffer();
+        final int rowStride = frame.getYRowStride();
+        int ySum = 0;
+        for (int y = y0; y <= y1; y++) {
+            final int row = y * rowStride;
+            for (int x = x0; x <= x1; x++) {
+                ySum += yBuffer.get(row + x) & 0xff;
+            }
+        }
+        final int yCount = (x1 - x0 + 1) * (y1 - y0 + 1);
+
+        final ByteBuffer uBuffer = frame.getUBuffer();
+        final ByteBuffer vBuffer = frame.getVBuffer();
+        final int uvRowStride = frame.getUvRowStride();
+        final int uvPixelStride = frame.getUvPixelStride();
+        int uSum = 0;
+        int vSum = 0;
+        for (int cy = y0 >> 1; cy <= y1 >> 1; cy++) {
+            final int row = cy * uvRowStride;
+            for (int cx = x0 >> 1; cx <= x1 >> 1; cx++) {
+                final int offset = row + cx * uvPixelStride;
+                uSum += uBuffer.get(offset) & 0xff;
+                vSum += vBuffer.get(offset) & 0xff;
+            }
+        }
+        final int uvCount = ((x1 >> 1) - (x0 >> 1) + 1) * ((y1 >> 1) - (y0 >> 1) + 1);
+
+        return yuvToRgb((ySum + yCount / 2) / yCount, (uSum + uvCount / 2) / uvCount,
+                (vSum + uvCount / 2) / uvCount);
+    }
+
+    private static int bilinearSample(ImagePyramid.Level level, int x0, int x1, int fx,
+                                      int y0, int y1, int fy) {
+        final int[] pixels = level.getPixels();
+        final int width = level.getWidth();
+        final int p00 = pixels[y0 * width + x0];
+        final int p01 = pixels[y0 * width + x1];
+        final int p10 = pixels[y1 * width + x0];
+        final int p11 = pixels[y1 * width + x1];
+        int rgb = 0;
+        for (int shift = 16; shift >= 0; shift -= 8) {
+            final int top = ((p00 >> shift) & 0xff) * (FRACTION_ONE - fx) + ((p01 >> shift) & 0xff) * fx;
+            final int bottom = ((p10 >> shift) & 0xff) * (FRACTION_ONE - fx) + ((p11 >> shift) & 0xff) * fx;
+            final int c = (top * (FRACTION_ONE - fy) + bottom * fy + (1 << (2 * FRACTION_BITS - 1)))
+                    >> (2 * FRACTION_BITS);
+            rgb |= c << shift;
+        }
+        return rgb;
+    }
+
+    private static int areaSample(ImagePyramid.Level level, int x0, int x1, int y0, int y1) {
+        final int[] pixels = level.getPixels();
+        final int width = level.getWidth();
+        int r = 0;
+        int g = 0;
+        int b = 0;
+        for (int y = y0; y <= y1; y++) {
+            final int row = y * width;
+            for (int x = x0; x <= x1; x++) {
+                final int p = pixels[row + x];
+                r += (p >> 16) & 0xff;
+                g += (p >> 8) & 0xff;
+                b += p & 0xff;
+            }
+        }
+        final int count = (x1 - x0 + 1) * (y1 - y0 + 1);
+        return (((r + count / 2) / count) << 16) | (((g + count / 2) / count) << 8)
+                | ((b + count / 2) / count);
+    }
+
+    /**
+     * @return The pixel packed as 0x00RRGGBB.
+     */
+    static int yuvToRgb(int y, int u, int v) {
+        final int luma = Y_TABLE[y];
+        int r = (luma + RV_TABLE[v]) >> 10;
+        int g = (luma + GV_TABLE[v] + GU_TABLE[u]) >> 10;
+        int b = (luma + BU_TABLE[u]) >> 10;
+        r = r > 255 ? 255 : (r < 0 ? 0 : r);
+        g = g > 255 ? 255 : (g < 0 ? 0 : g);
+        b = b > 255 ? 255 : (b < 0 ? 0 : b);
+        return (r << 16) | (g << 8) | b;
+    }
+
+    /**
+     * @param scale Sensor pixels per source pixel, the crop is divided by it.
+     */
+    private void buildTables(int frameWidth, int frameHeight, int scale) {
+        final boolean swapped = rotationDegrees == 90 || rotationDegrees == 270;
+        final int uprightWidth = swapped ? frameHeight : frameWidth;
+        final int uprightHeight = swapped ? frameWidth : frameHeight;
+
+        int left = 0;
+        int top = 0;
+        int right = uprightWidth;
+        int bottom = uprightHeight;
+        if (hasCrop) {
+            // Edges between level pixels go to the nearer one, so the crop moves by at most half a
+            // level pixel.
+            left = Math.max(0, Math.min((cropLeft + scale / 2) / scale, uprightWidth - 1));
+            top = Math.max(0, Math.min((cropTop + scale / 2) / scale, uprightHeight - 1));
+            right = Math.max(left + 1, Math.min((cropLeft + cropWidth + scale / 2) / scale, uprightWidth));
+            bottom = Math.max(top + 1, Math.min((cropTop + cropHeight + scale / 2) / scale, uprightHeight));
+        }
+
+        // Which upright axes run against the sensor axes they map to.
+        final boolean columnsReversed = rotationDegrees == 90 || rotationDegrees == 180;
+        final boolean rowsReversed = rotationDegrees == 180 || rotationDegrees == 270;
+
+        columns = buildAxis(format.getWidth(), left, right - left,
+                swapped ? frameHeight : frameWidth, columnsReversed);
+        rows = buildAxis(format.getHeight(), top, bottom - top,
+                swapped ? frameWidth : frameHeight, rowsReversed);
+
+        tableFrameWidth = frameWidth;
+        tableFrameHeight = frameHeight;
+        tableScale = scale;
+        tablesDirty = false;
+    }
+
+    /**
+     * Maps {@code outputLength} samples onto {@code [start, start + length)} of an upright axis and
+     * then onto the sensor axis of {@code sensorLength} pixels.
+     */
+    private AxisTable buildAxis(int outputLength, int start, int length, int sensorLength,
+                                boolean reversed) {
+        AxisTable table = new AxisTable(outputLength);
+        final int last = start + length - 1;
+        for (int o = 0; o < outputLength; o++) {
+            int lo;
+            int hi;
+            int fraction = 0;
+            if (scaleMode == ScaleMode.AREA) {
+                lo = start + (int) ((long) o * length / outputLength);
+                hi = start + (int) (((long) (o + 1) * length + outputLength - 1) / outputLength) - 1;
+                hi = Math.max(lo, Math.min(hi, last));
+            } else {
+                float u = start + (o + 0.5f) * length / outputLength - 0.5f;
+                u = Math.max(start, Math.min(u, last));
+                lo = (int) u;
+                hi = Math.min(lo + 1, last);
+                fraction = (int) ((u - lo) * FRACTION_ONE);
+            }
+            if (reversed) {
+                int reversedLo = sensorLength - 1 - lo;
+                int reversedHi = sensorLength - 1 - hi;
+                if (scaleMode == ScaleMode.AREA) {
+                    // Keep lo <= hi so the area loops stay ascending.
+                    lo = reversedHi;
+                    hi = reversedLo;
+                } else {
+                    lo = reversedLo;
+                    hi = reversedHi;
+                }
+            }
+            table.lo[o] = lo;
+            table.hi[o] = hi;
+            table.fraction[o] = fraction;
+        }
+        return table;
+    }
+
+    /**
+     * Source coordinates along one sensor axis. For bilinear sampling {@code lo} and {@code hi} are
+     * the two neighbours and {@code fraction} the weight of {@code hi}; for area sampling they are
+     * the inclusive bounds of the averaged span.
+     */
+    private static class AxisTable {
+        final int[] lo;
+        final int[] hi;
+        final int[] fraction;
+
+        AxisTable(int length) {
+            lo = new int[length];
+            hi = new int[length];
+            fraction = new int[length];
+        }
+    }
+}
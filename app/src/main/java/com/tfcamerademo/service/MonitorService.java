@@ -0,0 +1,329 @@
+package com.tfcamerademo.service;
+
+import android.app.Notification;
+import android.app.NotificationChannel;
+import android.app.NotificationManager;
+import android.app.PendingIntent;
+import android.app.Service;
+import android.content.Context;
+import android.content.Intent;
+import android.content.pm.ServiceInfo;
+import android.hardware.camera2.CameraCharacteristics;
+import android.os.Build;
+import android.os.Handler;
+import android.os.IBinder;
+import android.os.Looper;
+import android.util.Log;
+import android.view.Surface;
+
+import androidx.annotation.RequiresApi;
+import androidx.core.app.NotificationCompat;
+import androidx.core.content.ContextCompat;
+
+import com.example.android.tflitecamerademo.utils.ServiceUtils;
+import com.tfcamerademo.Classifier;
+import com.tfcamerademo.R;
+import com.tfcamerademo.activity.MainActivity;
+import com.tfcamerademo.camera.CaptureConfigurator;
+import com.tfcamerademo.model.ModelFuture;
+import com.tfcamerademo.model.ModelStore;
+import com.tfcamerademo.monitor.CabinMonitor;
+import com.tfcamerademo.monitor.RoadMonitor;
+import com.tfcamerademo.pipeline.InferenceScheduler;
+import com.tfcamerademo.source.CameraFrameSource;
+
+import java.io.IOException;
+
+/**
+ * 无界面的监测模式：前台服务里同时运行驾驶员和道路监测，不渲染预览也不绘制识别框
+ * <p>
+ * Both models read headless {@link CameraFrameSource}s and share one {@link InferenceScheduler},
+ * nothing is drawn: no preview surface, no overlay bitmap. Alerts only update the notification.
+ * The CPU and GPU time a visible UI costs goes to inference instead. The models load and warm up
+ * on loader threads, the monitors start once both are ready.
+ * <p>
+ * The cameras can only have one client, so the camera UI pauses a running service while it is
+ * visible and resumes it afterwards, see {@link #pauseIfRunning()}.
+ */
+@RequiresApi(api = Build.VERSION_CODES.LOLLIPOP)
+public class MonitorService extends Service {
+
+    private static final String TAG = "MonitorService";
+
+    private static final String CHANNEL_ID = "monitor";
+
+    private static final int NOTIFICATION_ID = 1;
+
+    private static final String SCHEDULER_NAME = "MonitorInference";
+
+    /**
+     * 没有预览和叠加层占用的 CPU，两个模型可以同时推理
+     */
+    private static final int SCHEDULER_WORKERS = 2;
+
+    /**
+     * 前车和车道检测比驾驶员监测更要紧，分到两倍的推理时间
+     */
+    private static final int ROAD_WEIGHT = 2;
+
+    private static final int CABIN_WEIGHT = 1;
+
+    /**
+     * The running service, only used on the main thread.
+     */
+    private static MonitorService instance;
+
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+
+    private InferenceScheduler inferenceScheduler;
+    private ModelFuture cabinModel;
+    private ModelFuture roadModel;
+    private CameraFrameSource cabinSource;
+    private CameraFrameSource roadSource;
+    private CabinMonitor cabinMonitor;
+    private RoadMonitor roadMonitor;
+    private boolean running;
+    private boolean paused;
+
+    // The alerts last shown, written by the monitors' postprocess threads.
+    private String cabinAlert;
+    private String roadAlert;
+
+    /**
+     * Starts monitoring without a UI. Call while the app is in the foreground, the cameras can
+     * only be opened by a foreground service started from there.
+     */
+    public static void start(Context context) {
+        ContextCompat.startForegroundService(context, new Intent(context, MonitorService.class));
+    }
+
+    public static void stop(Context context) {
+        context.stopService(new Intent(context, MonitorService.class));
+    }
+
+    public static boolean isRunning(Context context) {
+        return ServiceUtils.isServiceWork(context, MonitorService.class.getName());
+    }
+
+    /**
+     * Releases the cameras for the camera UI if the service runs, call on the main thread. The
+     * monitors are stopped and the cameras are closing when this returns; a camera opened
+     * afterwards waits on its camera thread until they are closed, see
+     * {@link com.tfcamerademo.camera.CameraEngine}.
+     *
+     * @return Whether the service runs and has to be resumed with {@link #resume()}.
+     */
+    public static boolean pauseIfRunning() {
+        MonitorService service = instance;
+        if (service == null) {
+            return false;
+        }
+        service.paused = true;
+        service.stopMonitors();
+        service.updateNotification(service.getString(R.string.monitor_paused));
+        return true;
+    }
+
+    /**
+     * Restarts the monitors after {@link #pauseIfRunning()}, call on the main thread.
+     */
+    public static void resume() {
+        MonitorService service = instance;
+        if (service == null) {
+            return;
+        }
+        service.paused = false;
+        service.startMonitors();
+    }
+
+    @Override
+    public void onCreate() {
+        super.onCreate();
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) {
+            startForeground(NOTIFICATION_ID, buildNotification(getString(R.string.monitor_running)),
+                    ServiceInfo.FOREGROUND_SERVICE_TYPE_CAMERA);
+        } else {
+            startForeground(NOTIFICATION_ID, buildNotification(getString(R.string.monitor_running)));
+        }
+        instance = this;
+        ModelStore.attach(this);
+        inferenceScheduler = new InferenceScheduler(SCHEDULER_NAME, SCHEDULER_WORKERS);
+        inferenceScheduler.start();
+        // Without a display the frames are turned upright for the natural orientation.
+        cabinSource = new CameraFrameSource(this, "Cabin",
+                CameraCharacteristics.LENS_FACING_FRONT, Surface.ROTATION_0, null);
+        roadSource = new CameraFrameSource(this, "Road",
+                CameraCharacteristics.LENS_FACING_BACK, Surface.ROTATION_0, null);
+        cabinModel = ModelFuture.load("Cabin", new ModelFuture.Factory() {
+            @Override
+            public Classifier create() throws IOException {
+                return CabinMonitor.createClassifier(getAssets());
+            }
+        }, ModelFuture.DEFAULT_WARM_UP_RUNS);
+        roadModel = ModelFuture.load("Road", new ModelFuture.Factory() {
+            @Override
+            public Classifier create() throws IOException {
+                return RoadMonitor.createClassifier(getAssets());
+            }
+        }, ModelFuture.DEFAULT_WARM_UP_RUNS);
+        cabinModel.setListener(modelListener);
+        roadModel.setListener(modelListener);
+    }
+
+    @Override
+    public int onStartCommand(Intent intent, int flags, int startId) {
+        startMonitors();
+        return START_STICKY;
+    }
+
+    @Override
+    public void onDestroy() {
+        instance = null;
+        stopMonitors();
+        // The futures own the models, also one that is still loading.
+        cabinModel.close();
+        roadModel.close();
+        try {
+            inferenceScheduler.quit();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        super.onDestroy();
+    }
+
+    @Override
+    public IBinder onBind(Intent intent) {
+        return null;
+    }
+
+    private final ModelFuture.Listener modelListener =
+            new ModelFuture.Listener() {
+                @Override
+                public void onModelReady(ModelFuture model) {
+                    mainHandler.post(new Runnable() {
+                        @Override
+                        public void run() {
+                            onModelReady();
+                        }
+                    });
+                }
+            };
+
+    /**
+     * Creates the monitors once both models are ready, on the main thread.
+     */
+    private void onModelReady() {
+        if (instance != this || cabinMonitor != null) {
+            return;
+        }
+        if (cabinModel.getFailure() != null || roadModel.getFailure() != null) {
+            stopSelf();
+            return;
+        }
+        Classifier cabin = cabinModel.getNow();
+        Classifier road = roadModel.getNow();
+        if (cabin == null || road == null) {
+            return;
+        }
+        cabinMonitor = CabinMonitor.create(cabin, cabinSource, inferenceScheduler, CABIN_WEIGHT, cabinListener);
+        roadMonitor = RoadMonitor.create(road, roadSource, inferenceScheduler, ROAD_WEIGHT, roadListener);
+        startMonitors();
+    }
+
+    private void startMonitors() {
+        if (running || paused || cabinMonitor == null || roadMonitor == null) {
+            return;
+        }
+        running = true;
+        // After a pause the cameras run as fast as the last measured inference allows.
+        roadSource.setTargetFps(CaptureConfigurator.getConsumableFps(roadMonitor.getPipeline()));
+        cabinSource.setTargetFps(CaptureConfigurator.getConsumableFps(cabinMonitor.getPipeline()));
+        roadMonitor.start();
+        cabinMonitor.start();
+        updateNotification(getString(R.string.monitor_running));
+    }
+
+    private void stopMonitors() {
+        if (!running) {
+            return;
+        }
+        running = false;
+        cabinMonitor.stop();
+        roadMonitor.stop();
+        Log.i(TAG, "Inference: " + inferenceScheduler.getStatString());
+        synchronized (this) {
+            cabinAlert = null;
+            roadAlert = null;
+        }
+    }
+
+    private final CabinMonitor.Listener cabinListener =
+            new CabinMonitor.Listener() {
+                @Override
+                public void onCabinAlert(String alert) {
+                    cabinSource.setTargetFps(CaptureConfigurator.getConsumableFps(cabinMonitor.getPipeline()));
+                    onAlert(alert, true);
+                }
+            };
+
+    private final RoadMonitor.Listener roadListener =
+            new RoadMonitor.Listener() {
+                @Override
+                public void onRoadAlert(String alert) {
+                    roadSource.setTargetFps(CaptureConfigurator.getConsumableFps(roadMonitor.getPipeline()));
+                    onAlert(alert, false);
+                }
+            };
+
+    /**
+     * Only touches the notification when the alerts change, not for every frame.
+     */
+    private synchronized void onAlert(String alert, boolean cabinSide) {
+        String cabin = cabinSide ? alert : cabinAlert;
+        String road = cabinSide ? roadAlert : alert;
+        if (equal(cabin, cabinAlert) && equal(road, roadAlert)) {
+            return;
+        }
+        cabinAlert = cabin;
+        roadAlert = road;
+        if (cabin == null && road == null) {
+            updateNotification(getString(R.string.monitor_running));
+            return;
+        }
+        String text = road != null ? road : "";
+        if (cabin != null) {
+            text += (text.isEmpty() ? "" : " ") + getString(R.string.monitor_driver) + cabin;
+        }
+        Log.i(TAG, "Alert: " + text);
+        updateNotification(text);
+    }
+
+    private static boolean equal(String a, String b) {
+        return a == null ? b == null : a.equals(b);
+    }
+
+    private void updateNotification(String text) {
+        NotificationManager manager = (NotificationManager) getSystemService(Context.NOTIFICATION_SERVICE);
+        manager.notify(NOTIFICATION_ID, buildNotification(text));
+    }
+
+    private Notification buildNotification(String text) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
+            NotificationManager manager = (NotificationManager) getSystemService(Context.NOTIFICATION_SERVICE);
+            if (manager.getNotificationChannel(CHANNEL_ID) == null) {
+                manager.createNotificationChannel(new NotificationChannel(CHANNEL_ID,
+                        getString(R.string.monitor_channel), NotificationManager.IMPORTANCE_DEFAULT));
+            }
+        }
+        PendingIntent contentIntent = PendingIntent.getActivity(this, 0,
+                new Intent(this, MainActivity.class), PendingIntent.FLAG_IMMUTABLE);
+        return new NotificationCompat.Builder(this, CHANNEL_ID)
+                .setSmallIcon(R.drawable.tile)
+                .setContentTitle(getString(R.string.monitor_title))
+                .setContentText(text)
+                .setContentIntent(contentIntent)
+                .setOngoing(true)
+                .setOnlyAlertOnce(true)
+                .build();
+    }
+}
@@ -0,0 +1,154 @@
+package com.tfcamerademo.source;
+
+import android.content.Context;
+import android.hardware.camera2.TotalCaptureResult;
+import android.os.Build;
+import android.util.Log;
+
+import androidx.annotation.RequiresApi;
+
+import com.tfcamerademo.camera.CameraConfig;
+import com.tfcamerademo.camera.CameraEngine;
+import com.tfcamerademo.camera.FrameQualityGate;
+import com.tfcamerademo.camera.YuvFrameReader;
+import com.tfcamerademo.pipeline.LatestFrameQueue;
+import com.tfcamerademo.preprocess.RegionOfInterest;
+import com.tfcamerademo.preprocess.TensorFormat;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 不带预览的相机帧来源，例如同时运行的第二个摄像头
+ * <p>
+ * Owns a {@link CameraEngine} opened with {@link CameraEngine#openHeadless(int)}, so only the
+ * analysis stream is configured. The targets are added to every new {@link YuvFrameReader} of the
+ * engine, together with a {@link FrameQualityGate}.
+ */
+@RequiresApi(api = Build.VERSION_CODES.LOLLIPOP)
+public class CameraFrameSource implements FrameSource {
+
+    private static final String TAG = "CameraFrameSource";
+
+    private static final long MAX_EXPOSURE_NS = 33333333L;
+
+    private static final int MAX_SENSITIVITY = 3200;
+
+    private final String name;
+    private final int displayRotation;
+    private final CameraEngine.Listener listener;
+    private final CameraEngine cameraEngine;
+    private final List<Target> targets = new ArrayList<>();
+    private final FrameQualityGate qualityGate = new FrameQualityGate(MAX_EXPOSURE_NS, MAX_SENSITIVITY);
+
+    /**
+     * @param lensFacing      One of the {@link android.hardware.camera2.CameraCharacteristics}
+     *                        LENS_FACING_ constants.
+     * @param displayRotation One of the {@link android.view.Surface} ROTATION_ constants, frames
+     *                        are turned upright for it.
+     * @param listener        Receives the camera errors, may be {@code null} to only log them.
+     */
+    public CameraFrameSource(Context context, String name, int lensFacing, int displayRotation,
+                             CameraEngine.Listener listener) {
+        this.name = name;
+        this.displayRotation = displayRotation;
+        this.listener = listener;
+        cameraEngine = new CameraEngine(context, lensFacing, engineListener);
+    }
+
+    @Override
+    public String getName() {
+        return name;
+    }
+
+    @Override
+    public void addTarget(TensorFormat inputFormat, LatestFrameQueue frameQueue, RegionOfInterest region) {
+        targets.add(new Target(inputFormat, frameQueue, region));
+        // The stream must cover every target.
+        int width = 0;
+        int height = 0;
+        for (Target target : targets) {
+            width = Math.max(width, target.region.getMinimumFrameWidth(target.inputFormat.getWidth()));
+            height = Math.max(height, target.region.getMinimumFrameHeight(target.inputFormat.getHeight()));
+        }
+        cameraEngine.setAnalysisSize(width, height);
+    }
+
+    @Override
+    public void clearTargets() {
+        targets.clear();
+    }
+
+    /**
+     * Sets the frame rate the auto exposure should reach, also while the camera runs, see
+     * {@link CameraEngine#setTargetFps(int)}.
+     */
+    public void setTargetFps(int targetFps) {
+        cameraEngine.setTargetFps(targetFps);
+    }
+
+    @Override
+    public void start() {
+        cameraEngine.start();
+        cameraEngine.setFrameConsumer(frameConsumer);
+        cameraEngine.openHeadless(displayRotation);
+    }
+
+    @Override
+    public void stop() {
+        cameraEngine.setFrameConsumer(null);
+        cameraEngine.stop();
+        Log.i(TAG, name + " quality gate: " + qualityGate.getStatString());
+    }
+
+    public boolean isOpened() {
+        return cameraEngine.isOpened();
+    }
+
+    private final CameraEngine.FrameConsumer frameConsumer =
+            new CameraEngine.FrameConsumer() {
+                @Override
+                public void onFrameReaderReady(YuvFrameReader frameReader) {
+                    for (Target target : targets) {
+                        frameReader.addTarget(target.inputFormat, target.frameQueue, target.region);
+                    }
+                    frameReader.setQualityGate(qualityGate);
+                }
+
+                @Override
+                public void onCaptureCompleted(TotalCaptureResult result) {
+                    qualityGate.onCaptureCompleted(result);
+                }
+            };
+
+    private final CameraEngine.Listener engineListener =
+            new CameraEngine.Listener() {
+                @Override
+                public void onConfigChosen(CameraConfig config) {
+                    Log.i(TAG, name + " uses " + config);
+                    if (listener != null) {
+                        listener.onConfigChosen(config);
+                    }
+                }
+
+                @Override
+                public void onError(String message) {
+                    Log.e(TAG, name + ": " + message);
+                    if (listener != null) {
+                        listener.onError(message);
+                    }
+                }
+            };
+
+    private static class Target {
+        final TensorFormat inputFormat;
+        final LatestFrameQueue frameQueue;
+        final RegionOfInterest region;
+
+        Target(TensorFormat inputFormat, LatestFrameQueue frameQueue, RegionOfInterest region) {
+            this.inputFormat = inputFormat;
+            this.frameQueue = frameQueue;
+            this.region = region;
+        }
+    }
+}
@@ -0,0 +1,42 @@
+package com.tfcamerademo.source;
+
+import com.tfcamerademo.pipeline.LatestFrameQueue;
+import com.tfcamerademo.preprocess.RegionOfInterest;
+import com.tfcamerademo.preprocess.TensorFormat;
+
+/**
+ * 帧来源：相机，或测试时代替相机的录制文件
+ * <p>
+ * A source converts every frame it produces into the input of each target model and publishes it
+ * to the target's {@link LatestFrameQueue}, where a {@link com.tfcamerademo.pipeline.FramePipeline}
+ * picks it up. The pipelines do not know where the frames come from, so a recording can stand in
+ * for a camera.
+ */
+public interface FrameSource {
+
+    /**
+     * For logs and thread names.
+     */
+    String getName();
+
+    /**
+     * Converts the {@code region} of every frame into {@code inputFormat} and publishes it to
+     * {@code frameQueue}. Targets are added before {@link #start()}.
+     */
+    void addTarget(TensorFormat inputFormat, LatestFrameQueue frameQueue, RegionOfInterest region);
+
+    /**
+     * Removes every target, only while the source is stopped.
+     */
+    void clearTargets();
+
+    /**
+     * Starts producing frames, returns without waiting for the first one.
+     */
+    void start();
+
+    /**
+     * Stops producing frames and waits until no more are published.
+     */
+    void stop();
+}
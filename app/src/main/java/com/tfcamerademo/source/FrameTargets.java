@@ -0,0 +1,144 @@
+package com.tfcamerademo.source;
+
+import com.tfcamerademo.pipeline.Frame;
+import com.tfcamerademo.pipeline.LatestFrameQueue;
+import com.tfcamerademo.preprocess.ImagePyramid;
+import com.tfcamerademo.preprocess.RegionOfInterest;
+import com.tfcamerademo.preprocess.TensorFormat;
+import com.tfcamerademo.preprocess.TilePool;
+import com.tfcamerademo.preprocess.YuvFrame;
+import com.tfcamerademo.preprocess.YuvToTensorConverter;
+import com.tfcamerademo.utils.Diagnostics;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 把一帧 YUV 图像转换成每个模型的输入并发布到它们的帧队列
+ * <p>
+ * The part every {@link FrameSource} shares: each target has a {@link YuvToTensorConverter} for
+ * its region and a {@link LatestFrameQueue} whose pooled buffers are reused for every frame. With
+ * more than one target the frame is first reduced to an {@link ImagePyramid} once, and every model
+ * samples its nearest level; no source of the app has more than one target today, so that path is
+ * unused. Large inputs are converted in row tiles on the shared
+ * {@link TilePool}. Only used on the source's thread.
+ */
+public class FrameTargets {
+
+    private final int rotationDegrees;
+    private final int uprightWidth;
+    private final int uprightHeight;
+    private final List<Target> targets = new ArrayList<>();
+
+    // Pre-allocated buffers.
+    private final ImagePyramid pyramid = new ImagePyramid();
+
+    /**
+     * @param frameWidth      The width of the frames as they are stored.
+     * @param frameHeight     The height of the frames as they are stored.
+     * @param rotationDegrees Clockwise rotation (0, 90, 180 or 270) that makes a frame upright.
+     */
+    public FrameTargets(int frameWidth, int frameHeight, int rotationDegrees) {
+        this.rotationDegrees = rotationDegrees;
+        boolean swapped = rotationDegrees == 90 || rotationDegrees == 270;
+        uprightWidth = swapped ? frameHeight : frameWidth;
+        uprightHeight = swapped ? frameWidth : frameHeight;
+    }
+
+    /**
+     * @return The converter for this target, e.g. to change the scale mode.
+     * @see FrameSource#addTarget(TensorFormat, LatestFrameQueue, RegionOfInterest)
+     */
+    public YuvToTensorConverter add(TensorFormat inputFormat, LatestFrameQueue frameQueue, RegionOfInterest region) {
+        YuvToTensorConverter converter = new YuvToTensorConverter(inputFormat);
+        converter.setRotation(rotationDegrees);
+        converter.setTilePool(TilePool.getDefault());
+        int[] pixels = region.toPixels(uprightWidth, uprightHeight);
+        if (!region.isFullFrame()) {
+            converter.setCrop(pixels[0], pixels[1], pixels[2], pixels[3]);
+        }
+        targets.add(new Target(converter, frameQueue, region, pixels));
+        return converter;
+    }
+
+    public int getRotationDegrees() {
+        return rotationDegrees;
+    }
+
+    /**
+     * The region of every target, in the order they were added.
+     */
+    public List<RegionOfInterest> getRegions() {
+        List<RegionOfInterest> regions = new ArrayList<>(targets.size());
+        for (Target target : targets) {
+            regions.add(target.roi);
+        }
+        return regions;
+    }
+
+    public void clear() {
+        targets.clear();
+    }
+
+    public boolean isEmpty() {
+        return targets.isEmpty();
+    }
+
+    /**
+     * Converts {@code yuvFrame} for every target that has a free buffer and publishes it.
+     *
+     * @param captureNanos         When the frame was captured, in the {@link System#nanoTime()} time base.
+     * @param preprocessStartNanos When the frame became available for conversion.
+     */
+    public void publish(YuvFrame yuvFrame, long captureNanos, long preprocessStartNanos) {
+        if (targets.size() > 1) {
+            buildPyramid(yuvFrame);
+        }
+        for (Target target : targets) {
+            // The inference thread still holds every buffer, skip this frame.
+            Frame frame = target.frameQueue.obtain();
+            if (frame == null) {
+                continue;
+            }
+            if (targets.size() > 1) {
+                target.converter.convert(pyramid, frame.getInput());
+            } else {
+                target.converter.convert(yuvFrame, frame.getInput());
+            }
+            frame.setRegion(uprightWidth, uprightHeight,
+                    target.region[0], target.region[1], target.region[2], target.region[3]);
+            frame.setCaptureNanos(captureNanos);
+            frame.setPreprocessStartNanos(preprocessStartNanos);
+            target.frameQueue.publish(frame);
+        }
+    }
+
+    /**
+     * Builds just as many levels as the smallest model input needs.
+     */
+    private void buildPyramid(YuvFrame yuvFrame) {
+        int levelCount = 0;
+        for (Target target : targets) {
+            int level = target.converter.getPyramidLevel(yuvFrame.getWidth(), yuvFrame.getHeight());
+            levelCount = Math.max(levelCount, level + 1);
+        }
+        Diagnostics.beginSection("buildPyramid");
+        pyramid.build(yuvFrame, levelCount);
+        Diagnostics.endSection();
+    }
+
+    private static class Target {
+        final YuvToTensorConverter converter;
+        final LatestFrameQueue frameQueue;
+        final RegionOfInterest roi;
+        // Left, top, width and height in upright frame pixels.
+        final int[] region;
+
+        Target(YuvToTensorConverter converter, LatestFrameQueue frameQueue, RegionOfInterest roi, int[] region) {
+            this.converter = converter;
+            this.frameQueue = frameQueue;
+            this.roi = roi;
+            this.region = region;
+        }
+    }
+}
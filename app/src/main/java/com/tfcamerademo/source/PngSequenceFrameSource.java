@@ -0,0 +1,172 @@
+package com.tfcamerademo.source;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+
+import com.tfcamerademo.preprocess.YuvFrame;
+
+import java.io.File;
+import java.io.FileFilter;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * 回放一个目录里按文件名排序的 PNG 图片序列
+ * <p>
+ * Every image is decoded and converted to I420 before it goes through the same preprocessing as
+ * a camera frame, so the models see the chroma subsampling a camera would deliver. All images must
+ * have the size of the first one. Decoding goes through a {@link Decoder}, {@link BitmapFactory} by
+ * default; on a JVM without Android pass one that uses {@code javax.imageio}.
+ */
+public class PngSequenceFrameSource extends ReplayFrameSource {
+
+    /**
+     * 把 PNG 解码成 ARGB 像素
+     */
+    public interface Decoder {
+        /**
+         * @return Width and height of the image, {@code null} if it cannot be decoded.
+         */
+        int[] decodeSize(File file) throws IOException;
+
+        /**
+         * Decodes the top left {@code width} x {@code height} pixels of the image into {@code argb}.
+         *
+         * @return {@code false} if the image cannot be decoded or is smaller.
+         */
+        boolean decodePixels(File file, int[] argb, int width, int height) throws IOException;
+    }
+
+    private final File directory;
+    private final Decoder decoder;
+    private File[] files;
+    private int next;
+    private int width;
+    private int height;
+    private int[] pixels;
+    private ByteBuffer yPlane;
+    private ByteBuffer uPlane;
+    private ByteBuffer vPlane;
+
+    public PngSequenceFrameSource(String name, File directory) {
+        this(name, directory, new BitmapDecoder());
+    }
+
+    public PngSequenceFrameSource(String name, File directory, Decoder decoder) {
+        super(name);
+        this.directory = directory;
+        this.decoder = decoder;
+    }
+
+    @Override
+    protected void open() throws IOException {
+        files = directory.listFiles(new FileFilter() {
+            @Override
+            public boolean accept(File file) {
+                return file.isFile() && file.getName().toLowerCase().endsWith(".png");
+            }
+        });
+        if (files == null || files.length == 0) {
+            throw new IOException("No PNG files in " + directory);
+        }
+        Arrays.sort(files);
+        int[] size = decoder.decodeSize(files[0]);
+        // Chroma is subsampled by two, an odd last row or column is cut off.
+        width = size == null ? 0 : size[0] & ~1;
+        height = size == null ? 0 : size[1] & ~1;
+        if (width <= 0 || height <= 0) {
+            throw new IOException("Cannot decode " + files[0]);
+        }
+        pixels = new int[width * height];
+        yPlane = ByteBuffer.allocateDirect(width * height);
+        uPlane = ByteBuffer.allocateDirect(width * height / 4);
+        vPlane = ByteBuffer.allocateDirect(width * height / 4);
+        next = 0;
+    }
+
+    @Override
+    protected int getFrameWidth() {
+        return width;
+    }
+
+    @Override
+    protected int getFrameHeight() {
+        return height;
+    }
+
+    @Override
+    protected boolean readFrame(YuvFrame frame) throws IOException {
+        if (next >= files.length) {
+            return false;
+        }
+        File file = files[next++];
+        if (!decoder.decodePixels(file, pixels, width, height)) {
+            throw new IOException("Cannot decode " + file + " at " + width + "x" + height);
+        }
+        rgbToI420(pixels, width, height, yPlane, uPlane, vPlane);
+        frame.set(width, height, yPlane, width, uPlane, vPlane, width / 2, 1);
+        return true;
+    }
+
+    @Override
+    protected void rewind() {
+        next = 0;
+    }
+
+    @Override
+    protected void close() {
+        files = null;
+    }
+
+    /**
+     * BT.601 video range, the inverse of what {@link com.tfcamerademo.preprocess.YuvToTensorConverter}
+     * applies. Chroma is taken from the top left pixel of every 2x2 block, as a camera would.
+     */
+    static void rgbToI420(int[] argb, int width, int height, ByteBuffer y, ByteBuffer u, ByteBuffer v) {
+        for (int row = 0; row < height; row++) {
+            for (int col = 0; col < width; col++) {
+                final int pixel = argb[row * width + col];
+                final int r = (pixel >> 16) & 0xff;
+                final int g = (pixel >> 8) & 0xff;
+                final int b = pixel & 0xff;
+                y.put(row * width + col, (byte) (((66 * r + 129 * g + 25 * b + 128) >> 8) + 16));
+                if ((row & 1) == 0 && (col & 1) == 0) {
+                    final int uvIndex = (row / 2) * (width / 2) + col / 2;
+                    u.put(uvIndex, (byte) (((-38 * r - 74 * g + 112 * b + 128) >> 8) + 128));
+                    v.put(uvIndex, (byte) (((112 * r - 94 * g - 18 * b + 128) >> 8) + 128));
+                }
+            }
+        }
+    }
+
+    /**
+     * Decodes with {@link BitmapFactory}, only on Android.
+     */
+    public static class BitmapDecoder implements Decoder {
+        @Override
+        public int[] decodeSize(File file) {
+            BitmapFactory.Options options = new BitmapFactory.Options();
+            options.inJustDecodeBounds = true;
+            BitmapFactory.decodeFile(file.getPath(), options);
+            return options.outWidth <= 0 ? null : new int[]{options.outWidth, options.outHeight};
+        }
+
+        @Override
+        public boolean decodePixels(File file, int[] argb, int width, int height) {
+            Bitmap bitmap = BitmapFactory.decodeFile(file.getPath());
+            if (bitmap == null) {
+                return false;
+            }
+            try {
+                if (bitmap.getWidth() < width || bitmap.getHeight() < height) {
+                    return false;
+                }
+                bitmap.getPixels(argb, 0, width, 0, 0, width, height);
+                return true;
+            } finally {
+                bitmap.recycle();
+            }
+        }
+    }
+}
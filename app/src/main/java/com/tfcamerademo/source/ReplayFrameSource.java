@@ -0,0 +1,278 @@
+package com.tfcamerademo.source;
+
+import com.tfcamerademo.pipeline.LatestFrameQueue;
+import com.tfcamerademo.preprocess.RegionOfInterest;
+import com.tfcamerademo.preprocess.TensorFormat;
+import com.tfcamerademo.preprocess.YuvFrame;
+import com.tfcamerademo.utils.Diagnostics;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 回放录制好的帧，在没有相机的机器上代替相机
+ * <p>
+ * Reads YUV frames on a thread of its own and publishes them through {@link FrameTargets}
+ * exactly like the camera does, so the preprocessing, the models and the decoding run the same
+ * code as on a device. Without a frame rate the source is paced by its consumers: the next frame
+ * is only read once every target has taken the previous one, so no frame is dropped and the replay
+ * runs as fast as the pipeline. With a frame rate it behaves like a camera and frames the
+ * pipeline cannot keep up with are dropped.
+ */
+public abstract class ReplayFrameSource implements FrameSource {
+
+    /**
+     * Receives every frame of {@link #read(FrameCallback)} on the calling thread.
+     */
+    public interface FrameCallback {
+        /**
+         * @param frame       Only valid until the callback returns, the planes are reused.
+         * @param index       Number of the frame in the recording, from 0.
+         * @param timestampUs The presentation time of the frame, or -1 if the recording has none.
+         */
+        void onFrame(YuvFrame frame, long index, long timestampUs) throws InterruptedException;
+    }
+
+    private static final String TAG = "ReplayFrameSource";
+
+    /**
+     * How long a paced replay waits for a consumer before it publishes anyway.
+     */
+    private static final long CONSUMER_TIMEOUT_MS = 5000;
+
+    private final String name;
+    private final List<TargetSpec> targetSpecs = new ArrayList<>();
+    private long frameIntervalNanos;
+    private int loopCount = 1;
+    private Thread thread;
+
+    // Statistics, written by the replay thread.
+    private volatile long replayedCount;
+    private volatile long readNanos;
+    private volatile long publishNanos;
+
+    protected ReplayFrameSource(String name) {
+        this.name = name;
+    }
+
+    @Override
+    public String getName() {
+        return name;
+    }
+
+    @Override
+    public void addTarget(TensorFormat inputFormat, LatestFrameQueue frameQueue, RegionOfInterest region) {
+        targetSpecs.add(new TargetSpec(inputFormat, frameQueue, region));
+    }
+
+    @Override
+    public void clearTargets() {
+        targetSpecs.clear();
+    }
+
+    /**
+     * Replays at {@code fps} like a camera, or paced by the consumers if 0, the default.
+     */
+    public void setFrameRate(int fps) {
+        frameIntervalNanos = fps > 0 ? TimeUnit.SECONDS.toNanos(1) / fps : 0;
+    }
+
+    /**
+     * How often the recording is replayed, 0 repeats it until {@link #stop()}. Once by default.
+     */
+    public void setLoopCount(int loopCount) {
+        this.loopCount = loopCount;
+    }
+
+    @Override
+    public void start() {
+        replayedCount = 0;
+        readNanos = 0;
+        publishNanos = 0;
+        thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                replay();
+            }
+        }, name + "Replay");
+        thread.start();
+    }
+
+    @Override
+    public void stop() {
+        if (thread == null) {
+            return;
+        }
+        thread.interrupt();
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        thread = null;
+    }
+
+    /**
+     * Waits until every loop has been replayed.
+     *
+     * @return {@code false} if the replay is still running after {@code timeoutMs}.
+     */
+    public boolean awaitFinished(long timeoutMs) throws InterruptedException {
+        Thread replayThread = thread;
+        if (replayThread == null) {
+            return true;
+        }
+        replayThread.join(timeoutMs);
+        return !replayThread.isAlive();
+    }
+
+    public long getReplayedCount() {
+        return replayedCount;
+    }
+
+    /**
+     * Reads the recording once, frame by frame on the calling thread, for consumers that need
+     * every frame and pace themselves, such as an offline analysis. Not while the source is
+     * started.
+     *
+     * @return The number of frames read.
+     */
+    public long read(FrameCallback callback) throws IOException, InterruptedException {
+        open();
+        try {
+            YuvFrame yuvFrame = new YuvFrame();
+            long index = 0;
+            while (readFrame(yuvFrame)) {
+                if (Thread.currentThread().isInterrupted()) {
+                    throw new InterruptedException();
+                }
+                callback.onFrame(yuvFrame, index++, getFrameTimestampUs());
+            }
+            return index;
+        } finally {
+            close();
+        }
+    }
+
+    public String getStatString() {
+        long replayed = replayedCount;
+        return "replayed=" + replayed
+                + " avgReadUs=" + (replayed == 0 ? 0 : TimeUnit.NANOSECONDS.toMicros(readNanos / replayed))
+                + " avgPreprocessUs=" + (replayed == 0 ? 0 : TimeUnit.NANOSECONDS.toMicros(publishNanos / replayed));
+    }
+
+    /**
+     * Opens the recording, after which the frame size is known.
+     */
+    protected abstract void open() throws IOException;
+
+    protected abstract int getFrameWidth();
+
+    protected abstract int getFrameHeight();
+
+    /**
+     * Points {@code frame} at the next frame of the recording.
+     *
+     * @return {@code false} at the end of the recording.
+     */
+    protected abstract boolean readFrame(YuvFrame frame) throws IOException;
+
+    /**
+     * Clockwise rotation (0, 90, 180 or 270) that makes the frames upright, known once the
+     * recording is open. Recordings are stored upright unless they say otherwise.
+     */
+    public int getRotationDegrees() {
+        return 0;
+    }
+
+    /**
+     * The presentation time of the frame last read, -1 for recordings without timestamps.
+     */
+    protected long getFrameTimestampUs() {
+        return -1;
+    }
+
+    /**
+     * Goes back to the first frame for the next loop.
+     */
+    protected abstract void rewind() throws IOException;
+
+    protected abstract void close();
+
+    private void replay() {
+        try {
+            open();
+        } catch (IOException e) {
+            Diagnostics.e(TAG, name + ": failed to open the recording", e);
+            return;
+        }
+        try {
+            FrameTargets targets = new FrameTargets(getFrameWidth(), getFrameHeight(), getRotationDegrees());
+            for (TargetSpec spec : targetSpecs) {
+                targets.add(spec.inputFormat, spec.frameQueue, spec.region);
+            }
+            YuvFrame yuvFrame = new YuvFrame();
+            long nextFrameNanos = System.nanoTime();
+            for (int loop = 0; loopCount == 0 || loop < loopCount; loop++) {
+                if (loop > 0) {
+                    rewind();
+                }
+                while (!Thread.currentThread().isInterrupted()) {
+                    if (frameIntervalNanos > 0) {
+                        long waitNanos = nextFrameNanos - System.nanoTime();
+                        if (waitNanos > 0) {
+                            TimeUnit.NANOSECONDS.sleep(waitNanos);
+                        }
+                        nextFrameNanos += frameIntervalNanos;
+                    } else {
+                        awaitConsumers();
+                    }
+                    long readStart = System.nanoTime();
+                    if (!readFrame(yuvFrame)) {
+                        break;
+                    }
+                    long publishStart = System.nanoTime();
+                    Diagnostics.beginSection("convertReplayFrame");
+                    targets.publish(yuvFrame, publishStart, publishStart);
+                    Diagnostics.endSection();
+                    long end = System.nanoTime();
+                    readNanos += publishStart - readStart;
+                    publishNanos += end - publishStart;
+                    replayedCount++;
+                }
+                if (Thread.currentThread().isInterrupted()) {
+                    break;
+                }
+            }
+        } catch (InterruptedException e) {
+            // Stopped.
+        } catch (IOException e) {
+            Diagnostics.e(TAG, name + ": failed to read the recording", e);
+        } finally {
+            close();
+            Diagnostics.i(TAG, name + ": " + getStatString());
+        }
+    }
+
+    private void awaitConsumers() throws InterruptedException {
+        for (TargetSpec spec : targetSpecs) {
+            if (!spec.frameQueue.awaitConsumed(CONSUMER_TIMEOUT_MS)) {
+                Diagnostics.w(TAG, name + ": no consumer took the frame in " + CONSUMER_TIMEOUT_MS + " ms");
+            }
+        }
+    }
+
+    private static class TargetSpec {
+        final TensorFormat inputFormat;
+        final LatestFrameQueue frameQueue;
+        final RegionOfInterest region;
+
+        TargetSpec(TensorFormat inputFormat, LatestFrameQueue frameQueue, RegionOfInterest region) {
+            this.inputFormat = inputFormat;
+            this.frameQueue = frameQueue;
+            this.region = region;
+        }
+    }
+}
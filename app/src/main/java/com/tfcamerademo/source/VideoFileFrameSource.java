@@ -0,0 +1,177 @@
+package com.tfcamerademo.source;
+
+import android.media.Image;
+import android.media.MediaCodec;
+import android.media.MediaCodecInfo;
+import android.media.MediaExtractor;
+import android.media.MediaFormat;
+import android.os.Build;
+
+import androidx.annotation.RequiresApi;
+
+import com.tfcamerademo.preprocess.YuvFrame;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * 解码行车记录仪录像（MP4 等）的回放来源
+ * <p>
+ * Decodes the first video track with {@link MediaCodec} into flexible YUV_420 images, usually in
+ * hardware, and hands their planes out without copying. A frame's planes stay valid until the
+ * next frame is read. The rotation the recorder stored in the container is applied by the
+ * consumers, see {@link #getRotationDegrees()}.
+ */
+@RequiresApi(api = Build.VERSION_CODES.LOLLIPOP)
+public class VideoFileFrameSource extends ReplayFrameSource {
+
+    private static final long DEQUEUE_TIMEOUT_US = 10000;
+
+    /**
+     * MediaFormat.KEY_ROTATION, only defined from API 23 on.
+     */
+    private static final String KEY_ROTATION = "rotation-degrees";
+
+    private final File file;
+    private MediaExtractor extractor;
+    private MediaCodec codec;
+    private final MediaCodec.BufferInfo bufferInfo = new MediaCodec.BufferInfo();
+    private int width;
+    private int height;
+    private int rotationDegrees;
+    private boolean inputDone;
+    private int heldOutputIndex = -1;
+    private long timestampUs = -1;
+
+    public VideoFileFrameSource(String name, File file) {
+        super(name);
+        this.file = file;
+    }
+
+    @Override
+    protected void open() throws IOException {
+        extractor = new MediaExtractor();
+        extractor.setDataSource(file.getPath());
+        MediaFormat format = null;
+        for (int i = 0; i < extractor.getTrackCount(); i++) {
+            MediaFormat trackFormat = extractor.getTrackFormat(i);
+            String mime = trackFormat.getString(MediaFormat.KEY_MIME);
+            if (mime != null && mime.startsWith("video/")) {
+                extractor.selectTrack(i);
+                format = trackFormat;
+                break;
+            }
+        }
+        if (format == null) {
+            close();
+            throw new IOException("No video track in " + file);
+        }
+        width = format.getInteger(MediaFormat.KEY_WIDTH);
+        height = format.getInteger(MediaFormat.KEY_HEIGHT);
+        rotationDegrees = format.containsKey(KEY_ROTATION) ? format.getInteger(KEY_ROTATION) : 0;
+        format.setInteger(MediaFormat.KEY_COLOR_FORMAT, MediaCodecInfo.CodecCapabilities.COLOR_FormatYUV420Flexible);
+        codec = MediaCodec.createDecoderByType(format.getString(MediaFormat.KEY_MIME));
+        codec.configure(format, null, null, 0);
+        codec.start();
+        inputDone = false;
+    }
+
+    @Override
+    protected int getFrameWidth() {
+        return width;
+    }
+
+    @Override
+    protected int getFrameHeight() {
+        return height;
+    }
+
+    @Override
+    public int getRotationDegrees() {
+        return rotationDegrees;
+    }
+
+    @Override
+    protected boolean readFrame(YuvFrame frame) throws IOException {
+        releaseHeldOutput();
+        while (true) {
+            if (!inputDone) {
+                queueInput();
+            }
+            int index = codec.dequeueOutputBuffer(bufferInfo, DEQUEUE_TIMEOUT_US);
+            if (index < 0) {
+                // Timed out, or the format or buffers changed: flexible images need neither.
+                continue;
+            }
+            if ((bufferInfo.flags & MediaCodec.BUFFER_FLAG_END_OF_STREAM) != 0) {
+                codec.releaseOutputBuffer(index, false);
+                return false;
+            }
+            Image image = codec.getOutputImage(index);
+            if (image == null) {
+                codec.releaseOutputBuffer(index, false);
+                continue;
+            }
+            heldOutputIndex = index;
+            timestampUs = bufferInfo.presentationTimeUs;
+            Image.Plane[] planes = image.getPlanes();
+            // The crop of decoded video starts at the origin, padding is only on the right and bottom.
+            frame.set(width, height,
+                    planes[0].getBuffer(), planes[0].getRowStride(),
+                    planes[1].getBuffer(), planes[2].getBuffer(),
+                    planes[1].getRowStride(), planes[1].getPixelStride());
+            return true;
+        }
+    }
+
+    private void queueInput() {
+        int index = codec.dequeueInputBuffer(DEQUEUE_TIMEOUT_US);
+        if (index < 0) {
+            return;
+        }
+        ByteBuffer input = codec.getInputBuffer(index);
+        int size = extractor.readSampleData(input, 0);
+        if (size < 0) {
+            codec.queueInputBuffer(index, 0, 0, 0, MediaCodec.BUFFER_FLAG_END_OF_STREAM);
+            inputDone = true;
+        } else {
+            codec.queueInputBuffer(index, 0, size, extractor.getSampleTime(), 0);
+            extractor.advance();
+        }
+    }
+
+    private void releaseHeldOutput() {
+        if (heldOutputIndex >= 0) {
+            codec.releaseOutputBuffer(heldOutputIndex, false);
+            heldOutputIndex = -1;
+        }
+    }
+
+    @Override
+    protected long getFrameTimestampUs() {
+        return timestampUs;
+    }
+
+    @Override
+    protected void rewind() throws IOException {
+        releaseHeldOutput();
+        extractor.seekTo(0, MediaExtractor.SEEK_TO_PREVIOUS_SYNC);
+        codec.flush();
+        inputDone = false;
+    }
+
+    @Override
+    protected void close() {
+        if (codec != null) {
+            releaseHeldOutput();
+            codec.stop();
+            codec.release();
+            codec = null;
+        }
+        if (extractor != null) {
+            extractor.release();
+            extractor = null;
+        }
+    }
+}
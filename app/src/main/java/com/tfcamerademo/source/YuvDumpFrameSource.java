@@ -0,0 +1,121 @@
+package com.tfcamerademo.source;
+
+import com.tfcamerademo.preprocess.YuvFrame;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * 回放原始 YUV 录像：一个文件里首尾相接的等大小帧
+ * <p>
+ * The frames are stored back to back without headers, each {@code width * height * 3 / 2} bytes,
+ * e.g. as written by {@code ffmpeg -pix_fmt yuv420p} or dumped from the camera's YUV stream. Only
+ * plain Java is used, so the replay also runs on a JVM without Android.
+ */
+public class YuvDumpFrameSource extends ReplayFrameSource {
+
+    /**
+     * How the chroma planes follow the luma plane.
+     */
+    public enum Layout {
+        /**
+         * A U plane, then a V plane, each a quarter of the luma size (yuv420p).
+         */
+        I420,
+        /**
+         * One plane of interleaved V and U samples (the camera's NV21).
+         */
+        NV21
+    }
+
+    private final File file;
+    private final int width;
+    private final int height;
+    private final Layout layout;
+    private final ByteBuffer buffer;
+    private final ByteBuffer yPlane;
+    private final ByteBuffer uPlane;
+    private final ByteBuffer vPlane;
+    private FileChannel channel;
+
+    /**
+     * @param width  The frame width, even.
+     * @param height The frame height, even.
+     */
+    public YuvDumpFrameSource(String name, File file, int width, int height, Layout layout) {
+        super(name);
+        this.file = file;
+        this.width = width;
+        this.height = height;
+        this.layout = layout;
+        int lumaSize = width * height;
+        buffer = ByteBuffer.allocateDirect(lumaSize * 3 / 2);
+        yPlane = slice(0, lumaSize);
+        if (layout == Layout.I420) {
+            uPlane = slice(lumaSize, lumaSize / 4);
+            vPlane = slice(lumaSize + lumaSize / 4, lumaSize / 4);
+        } else {
+            vPlane = slice(lumaSize, lumaSize / 2);
+            uPlane = slice(lumaSize + 1, lumaSize / 2 - 1);
+        }
+    }
+
+    private ByteBuffer slice(int offset, int length) {
+        ByteBuffer plane = buffer.duplicate();
+        plane.position(offset);
+        plane.limit(offset + length);
+        return plane.slice();
+    }
+
+    @Override
+    protected void open() throws IOException {
+        channel = new FileInputStream(file).getChannel();
+    }
+
+    @Override
+    protected int getFrameWidth() {
+        return width;
+    }
+
+    @Override
+    protected int getFrameHeight() {
+        return height;
+    }
+
+    @Override
+    protected boolean readFrame(YuvFrame frame) throws IOException {
+        buffer.clear();
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer) < 0) {
+                // A truncated last frame is dropped.
+                return false;
+            }
+        }
+        if (layout == Layout.I420) {
+            frame.set(width, height, yPlane, width, uPlane, vPlane, width / 2, 1);
+        } else {
+            frame.set(width, height, yPlane, width, uPlane, vPlane, width, 2);
+        }
+        return true;
+    }
+
+    @Override
+    protected void rewind() throws IOException {
+        channel.position(0);
+    }
+
+    @Override
+    protected void close() {
+        if (channel != null) {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                // Only read from.
+            }
+            channel = null;
+        }
+    }
+}
@@ -0,0 +1,120 @@
+package com.tfcamerademo.utils;
+
+import android.os.Trace;
+import android.util.Log;
+
+/**
+ * 日志和 systrace 区段的统一入口，桌面 JVM 上不依赖 Android
+ * <p>
+ * The pipeline, the models and the offline analysis log and trace through this class instead of
+ * {@code android.util.Log} and {@code android.os.Trace}, so they also run on a workstation JVM and
+ * under {@code ./gradlew test}, where the Android classes are stubs that throw. On a device the
+ * calls go to Log and Trace; anywhere else messages go to standard error and sections are dropped.
+ * Tests may install a {@link Backend} of their own with {@link #setBackend(Backend)}.
+ */
+public final class Diagnostics {
+
+    public interface Backend {
+        void beginSection(String sectionName);
+
+        void endSection();
+
+        /**
+         * @param priority  One of the {@code android.util.Log} priorities, e.g. {@link #INFO}.
+         * @param throwable {@code null} if there is none.
+         */
+        void log(int priority, String tag, String msg, Throwable throwable);
+    }
+
+    /**
+     * Same values as {@code android.util.Log.INFO}, {@code WARN} and {@code ERROR}.
+     */
+    public static final int INFO = 4;
+    public static final int WARN = 5;
+    public static final int ERROR = 6;
+
+    private static volatile Backend backend = createDefault();
+
+    private Diagnostics() {
+        throw new UnsupportedOperationException("UnsupportedOperationException");
+    }
+
+    public static void setBackend(Backend backend) {
+        Diagnostics.backend = backend == null ? createDefault() : backend;
+    }
+
+    public static void beginSection(String sectionName) {
+        backend.beginSection(sectionName);
+    }
+
+    public static void endSection() {
+        backend.endSection();
+    }
+
+    public static void i(String tag, String msg) {
+        backend.log(INFO, tag, msg, null);
+    }
+
+    public static void w(String tag, String msg) {
+        backend.log(WARN, tag, msg, null);
+    }
+
+    public static void w(String tag, String msg, Throwable throwable) {
+        backend.log(WARN, tag, msg, throwable);
+    }
+
+    public static void e(String tag, String msg) {
+        backend.log(ERROR, tag, msg, null);
+    }
+
+    public static void e(String tag, String msg, Throwable throwable) {
+        backend.log(ERROR, tag, msg, throwable);
+    }
+
+    private static Backend createDefault() {
+        // ART still reports "Dalvik"; the Android classes are only loaded when this is true.
+        String vm = System.getProperty("java.vm.name");
+        return vm != null && vm.contains("Dalvik") ? new AndroidBackend() : new JvmBackend();
+    }
+
+    private static final class AndroidBackend implements Backend {
+        @Override
+        public void beginSection(String sectionName) {
+            Trace.beginSection(sectionName);
+        }
+
+        @Override
+        public void endSection() {
+            Trace.endSection();
+        }
+
+        @Override
+        public void log(int priority, String tag, String msg, Throwable throwable) {
+            if (throwable != null) {
+                msg = msg + '\n' + Log.getStackTraceString(throwable);
+            }
+            Log.println(priority, tag, msg);
+        }
+    }
+
+    private static final class JvmBackend implements Backend {
+        @Override
+        public void beginSection(String sectionName) {
+        }
+
+        @Override
+        public void endSection() {
+        }
+
+        @Override
+        public void log(int priority, String tag, String msg, Throwable throwable) {
+            String level = priority >= ERROR ? "E" : priority == WARN ? "W" : "I";
+            synchronized (System.err) {
+                System.err.println(level + "/" + tag + ": " + msg);
+                if (throwable != null) {
+                    throwable.printStackTrace(System.err);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,105 @@
+package com.tfcamerademo.batch;
+
+import com.tfcamerademo.Classifier;
+import com.tfcamerademo.model.FakeInterpreter;
+import com.tfcamerademo.preprocess.RegionOfInterest;
+import com.tfcamerademo.source.TestClips;
+import com.tfcamerademo.source.YuvDumpFrameSource;
+import com.tfcamerademo.utils.DiagnosticsRecorder;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.PrintStream;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Runs the offline analysis on the JVM with fake detectors of a fixed latency. Only the counts of
+ * the stats are checked, the timings depend on the machine running the test.
+ */
+public class OfflineAnalyzerTest {
+
+    private static final int WIDTH = 320;
+    private static final int HEIGHT = 240;
+    private static final int FRAMES = 40;
+    private static final long LATENCY_MS = 5;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Rule
+    public DiagnosticsRecorder diagnostics = new DiagnosticsRecorder();
+
+    @Test
+    public void writesEveryFrameInOrderWithOneWorker() throws Exception {
+        analyze(1);
+    }
+
+    @Test
+    public void writesEveryFrameInOrderWithFourWorkers() throws Exception {
+        analyze(4);
+    }
+
+    private void analyze(int workers) throws Exception {
+        File clip = TestClips.writeI420(folder.newFile("clip.yuv"), WIDTH, HEIGHT, FRAMES);
+        File detections = new File(folder.getRoot(), "detections.bin");
+        File events = new File(folder.getRoot(), "events.csv");
+
+        OfflineAnalyzer.ClassifierFactory fakeDetector = new OfflineAnalyzer.ClassifierFactory() {
+            @Override
+            public Classifier create() {
+                return FakeInterpreter.createSsdDetector(LATENCY_MS);
+            }
+        };
+        OfflineAnalyzer.EventRule topLabel = new OfflineAnalyzer.EventRule() {
+            @Override
+            public String getEvent(int frameWidth, int frameHeight, List<Classifier.Recognition> recognitions) {
+                return recognitions.isEmpty() ? null : recognitions.get(0).getTitle();
+            }
+        };
+        OfflineAnalyzer analyzer = new OfflineAnalyzer(workers);
+        OfflineAnalyzer.Model road = analyzer.addModel("road", fakeDetector,
+                new RegionOfInterest(0f, 0.4f, 1f, 1f), 0.3f, topLabel);
+        OfflineAnalyzer.Model cabin = analyzer.addModel("cabin", fakeDetector,
+                RegionOfInterest.FULL_FRAME, 0.3f, topLabel);
+        analyzer.addRecording(new YuvDumpFrameSource("Replay", clip, WIDTH, HEIGHT, YuvDumpFrameSource.Layout.I420),
+                detections, road, cabin);
+        String stats = analyzer.run(events);
+        assertTrue(stats, stats.startsWith("workers=" + workers + " "));
+        assertTrue(stats, stats.contains("\nReplay: frames=" + FRAMES + " "));
+        assertTrue(stats, stats.contains("\nroad: runs=" + FRAMES + " "));
+        assertTrue(stats, stats.contains("\ncabin: runs=" + FRAMES + " "));
+        assertEquals(Collections.<String>emptyList(), diagnostics.getErrors());
+
+        ByteArrayOutputStream dump = new ByteArrayOutputStream();
+        DetectionFileWriter.dump(detections, new PrintStream(dump, true, "UTF-8"));
+        String[] lines = dump.toString("UTF-8").split("\n");
+        assertEquals("Replay " + WIDTH + "x" + HEIGHT, lines[0]);
+        assertEquals(FRAMES + 1, lines.length);
+        for (int i = 0; i < FRAMES; i++) {
+            String line = lines[i + 1];
+            assertTrue(line, line.startsWith(i + " "));
+            // The middle quarter of each region, mapped to the frame.
+            assertTrue(line, line.contains("road: object 0.90 [80,132,240,204]"));
+            assertTrue(line, line.contains("cabin: object 0.90 [80,60,240,180]"));
+        }
+
+        List<String> csv = Files.readAllLines(events.toPath(), Charset.forName("UTF-8"));
+        assertEquals("timestamp_ms,recording,model,state,event", csv.get(0));
+        // Each model's event starts with the first frame and ends with the recording.
+        assertEquals(5, csv.size());
+        assertTrue(csv.get(1), csv.get(1).endsWith("start,object"));
+        assertTrue(csv.get(2), csv.get(2).endsWith("start,object"));
+        assertTrue(csv.get(3), csv.get(3).endsWith("end,object"));
+        assertTrue(csv.get(4), csv.get(4).endsWith("end,object"));
+    }
+}
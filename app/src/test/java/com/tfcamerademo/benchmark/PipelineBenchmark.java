@@ -0,0 +1,144 @@
+package com.tfcamerademo.benchmark;
+
+import com.tfcamerademo.Classifier;
+import com.tfcamerademo.model.FakeInterpreter;
+import com.tfcamerademo.pipeline.FramePipeline;
+import com.tfcamerademo.pipeline.InferenceResult;
+import com.tfcamerademo.pipeline.InferenceScheduler;
+import com.tfcamerademo.pipeline.LatencyHistogram;
+import com.tfcamerademo.pipeline.LatencyTracker;
+import com.tfcamerademo.pipeline.ModelChannel;
+import com.tfcamerademo.preprocess.RegionOfInterest;
+import com.tfcamerademo.source.ReplayFrameSource;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 不需要设备的流水线吞吐测试：回放录制的帧，用假推理代替模型
+ * <p>
+ * Replays recordings through the same preprocessing, {@link InferenceScheduler},
+ * {@link FramePipeline} and decoding as the app, so the frame rate and the time spent outside the
+ * interpreter can be tracked on a build machine. With a {@link FakeInterpreter} of known latency
+ * the difference between the frame time and that latency is the pipeline's own overhead, as long as
+ * every channel has a worker of its own.
+ * <p>
+ * Runs as a plain JVM unit test, see {@link PipelineBenchmarkTest}.
+ */
+public class PipelineBenchmark {
+
+    private static final long MAX_FRAME_AGE_MS = 0;
+
+    /**
+     * How long to wait for the last replayed frames to be decoded.
+     */
+    private static final long DRAIN_TIMEOUT_MS = 2000;
+
+    private final InferenceScheduler scheduler;
+    private final List<Run> runs = new ArrayList<>();
+
+    /**
+     * @param workers The inference workers the channels share.
+     */
+    public PipelineBenchmark(int workers) {
+        scheduler = new InferenceScheduler("Benchmark", workers);
+    }
+
+    /**
+     * Replays {@code source} through {@code classifier}. The source should be paced by its
+     * consumer, i.e. have no frame rate, so every frame is measured.
+     */
+    public void addChannel(ReplayFrameSource source, Classifier classifier, RegionOfInterest region, int weight) {
+        Run run = new Run(source);
+        run.channel = new ModelChannel(source, classifier, region, MAX_FRAME_AGE_MS, scheduler, weight, run);
+        runs.add(run);
+    }
+
+    /**
+     * Replays every channel to its end and returns one line of statistics per channel.
+     */
+    public String run(long timeoutMs) throws InterruptedException {
+        scheduler.start();
+        long startNanos = System.nanoTime();
+        for (Run run : runs) {
+            run.startNanos = startNanos;
+            run.channel.start();
+        }
+        long deadline = startNanos + TimeUnit.MILLISECONDS.toNanos(timeoutMs);
+        for (Run run : runs) {
+            run.source.awaitFinished(Math.max(1, TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime())));
+        }
+        for (Run run : runs) {
+            run.awaitDrained(DRAIN_TIMEOUT_MS);
+        }
+        String schedulerStats = scheduler.getStatString();
+        StringBuilder report = new StringBuilder();
+        for (Run run : runs) {
+            run.channel.stop();
+            report.append(run.getStatString()).append('\n');
+        }
+        report.append("scheduler: ").append(schedulerStats);
+        scheduler.quit();
+        return report.toString();
+    }
+
+    public long getDecodedCount(int channel) {
+        return runs.get(channel).decodedCount.get();
+    }
+
+    public long getReplayedCount(int channel) {
+        return runs.get(channel).source.getReplayedCount();
+    }
+
+    /**
+     * The first location of the last decoded frame of a channel, mapped to the frame.
+     */
+    public Classifier.Box getLastLocation(int channel) {
+        return runs.get(channel).lastLocation;
+    }
+
+    private static class Run implements FramePipeline.ResultListener {
+        final ReplayFrameSource source;
+        ModelChannel channel;
+        long startNanos;
+        final AtomicLong decodedCount = new AtomicLong();
+        volatile long lastResultNanos;
+        volatile Classifier.Box lastLocation;
+
+        Run(ReplayFrameSource source) {
+            this.source = source;
+        }
+
+        @Override
+        public void onResults(InferenceResult result, List<Classifier.Recognition> recognitions) {
+            if (!recognitions.isEmpty()) {
+                lastLocation = recognitions.get(0).getLocation();
+            }
+            decodedCount.incrementAndGet();
+            lastResultNanos = System.nanoTime();
+        }
+
+        void awaitDrained(long timeoutMs) throws InterruptedException {
+            long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMs);
+            while (decodedCount.get() < source.getReplayedCount() && System.nanoTime() < deadline) {
+                Thread.sleep(1);
+            }
+        }
+
+        String getStatString() {
+            long decoded = decodedCount.get();
+            long elapsedNanos = Math.max(1, lastResultNanos - startNanos);
+            double frameMs = decoded == 0 ? 0 : elapsedNanos / 1e6 / decoded;
+            LatencyHistogram inference = channel.getLatencyTracker().getHistogram(LatencyTracker.Stage.INFERENCE);
+            return source.getName()
+                    + ": decoded=" + decoded + "/" + source.getReplayedCount()
+                    + " fps=" + String.format("%.1f", decoded * 1e9 / elapsedNanos)
+                    + " frameMs=" + String.format("%.2f", frameMs)
+                    + " inferenceP50Ms=" + inference.getPercentileMs(50)
+                    + " overheadMs=" + String.format("%.2f", Math.max(0, frameMs - inference.getAverageMs()))
+                    + " " + source.getStatString();
+        }
+    }
+}
@@ -0,0 +1,65 @@
+package com.tfcamerademo.benchmark;
+
+import com.tfcamerademo.Classifier;
+import com.tfcamerademo.model.FakeInterpreter;
+import com.tfcamerademo.preprocess.RegionOfInterest;
+import com.tfcamerademo.source.TestClips;
+import com.tfcamerademo.source.YuvDumpFrameSource;
+import com.tfcamerademo.utils.DiagnosticsRecorder;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+public class PipelineBenchmarkTest {
+
+    private static final int WIDTH = 320;
+    private static final int HEIGHT = 240;
+    private static final int FRAMES = 30;
+    private static final long LATENCY_MS = 5;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Rule
+    public DiagnosticsRecorder diagnostics = new DiagnosticsRecorder();
+
+    @Test
+    public void replaysEveryFrameAndMapsBoxesToTheFrame() throws Exception {
+        File clip = TestClips.writeI420(folder.newFile("clip.yuv"), WIDTH, HEIGHT, FRAMES);
+        PipelineBenchmark benchmark = new PipelineBenchmark(2);
+        benchmark.addChannel(new YuvDumpFrameSource("Replay0", clip, WIDTH, HEIGHT, YuvDumpFrameSource.Layout.I420),
+                FakeInterpreter.createSsdDetector(LATENCY_MS), RegionOfInterest.FULL_FRAME, 1);
+        benchmark.addChannel(new YuvDumpFrameSource("Replay1", clip, WIDTH, HEIGHT, YuvDumpFrameSource.Layout.I420),
+                FakeInterpreter.createSsdDetector(LATENCY_MS), new RegionOfInterest(0f, 0.5f, 1f, 1f), 1);
+        String report = benchmark.run(TimeUnit.MINUTES.toMillis(1));
+        assertTrue(report, report.contains("Replay0: decoded=" + FRAMES + "/" + FRAMES + " "));
+        assertTrue(report, report.contains("Replay1: decoded=" + FRAMES + "/" + FRAMES + " "));
+        assertTrue(report, report.contains("\nscheduler: Replay0: runs="));
+        assertEquals(Collections.<String>emptyList(), diagnostics.getErrors());
+
+        for (int channel = 0; channel < 2; channel++) {
+            assertEquals(FRAMES, benchmark.getReplayedCount(channel));
+            assertEquals(FRAMES, benchmark.getDecodedCount(channel));
+        }
+        // The canned detection is the middle quarter of the model input.
+        Classifier.Box full = benchmark.getLastLocation(0);
+        assertNotNull(full);
+        assertEquals(WIDTH * 0.25f, full.left, 1f);
+        assertEquals(HEIGHT * 0.25f, full.top, 1f);
+        assertEquals(WIDTH * 0.75f, full.right, 1f);
+        assertEquals(HEIGHT * 0.75f, full.bottom, 1f);
+        Classifier.Box bottomHalf = benchmark.getLastLocation(1);
+        assertNotNull(bottomHalf);
+        assertEquals(HEIGHT * 0.625f, bottomHalf.top, 1f);
+        assertEquals(HEIGHT * 0.875f, bottomHalf.bottom, 1f);
+    }
+}
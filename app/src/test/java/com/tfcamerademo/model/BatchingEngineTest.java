@@ -0,0 +1,120 @@
+package com.tfcamerademo.model;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class BatchingEngineTest {
+
+    private static final int MAX_BATCH = 4;
+
+    /**
+     * A model whose input per frame is one int and whose two outputs per frame are that int times
+     * 2 and times 3, and 10 more than it.
+     */
+    private static class ScalingRunner implements BatchingEngine.BatchRunner {
+        final AtomicInteger batches = new AtomicInteger();
+
+        @Override
+        public void run(ByteBuffer batchInput, ByteBuffer[] batchOutputs) {
+            batches.incrementAndGet();
+            for (int frame = 0; frame < MAX_BATCH; frame++) {
+                int value = batchInput.getInt(frame * 4);
+                batchOutputs[0].putInt(frame * 8, value * 2);
+                batchOutputs[0].putInt(frame * 8 + 4, value * 3);
+                batchOutputs[1].putInt(frame * 4, value + 10);
+            }
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    private static ByteBuffer input(int value) {
+        ByteBuffer input = ByteBuffer.allocateDirect(4).order(ByteOrder.nativeOrder());
+        input.putInt(0, value);
+        return input;
+    }
+
+    @Test
+    public void everyFrameOfABatchGetsItsOwnOutputs() throws InterruptedException {
+        ScalingRunner runner = new ScalingRunner();
+        // The window is long enough that only a full batch starts a run.
+        final BatchingEngine engine = new BatchingEngine(runner, MAX_BATCH, 10000, 4, new int[]{8, 4});
+        final Object[][] outputs = new Object[MAX_BATCH][];
+        Thread[] callers = new Thread[MAX_BATCH];
+        for (int i = 0; i < MAX_BATCH; i++) {
+            final int frame = i;
+            outputs[frame] = engine.createOutputs();
+            callers[frame] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    engine.run(input(100 + frame), outputs[frame]);
+                }
+            });
+            callers[frame].start();
+        }
+        for (Thread caller : callers) {
+            caller.join();
+        }
+        engine.close();
+
+        assertEquals(1, runner.batches.get());
+        for (int frame = 0; frame < MAX_BATCH; frame++) {
+            ByteBuffer scaled = (ByteBuffer) outputs[frame][0];
+            ByteBuffer offset = (ByteBuffer) outputs[frame][1];
+            assertEquals(8, scaled.capacity());
+            assertEquals((100 + frame) * 2, scaled.getInt(0));
+            assertEquals((100 + frame) * 3, scaled.getInt(4));
+            assertEquals(100 + frame + 10, offset.getInt(0));
+        }
+    }
+
+    @Test
+    public void aPartialBatchRunsAfterTheWindow() {
+        ScalingRunner runner = new ScalingRunner();
+        BatchingEngine engine = new BatchingEngine(runner, MAX_BATCH, 1, 4, new int[]{8, 4});
+        Object[] first = engine.createOutputs();
+        Object[] second = engine.createOutputs();
+        engine.run(input(7), first);
+        engine.run(input(8), second);
+        engine.close();
+
+        // Each frame is alone in its batch, the padded slots are ignored.
+        assertEquals(2, runner.batches.get());
+        assertEquals(14, ((ByteBuffer) first[0]).getInt(0));
+        assertEquals(18, ((ByteBuffer) second[1]).getInt(0));
+    }
+
+    @Test
+    public void batchesOnlyIfEveryOutputGrowsWithTheBatch() {
+        // Boxes and scores per frame.
+        assertTrue(BatchingEngine.probeOutputs(new int[]{1600, 400}, new int[]{6400, 1600}, 4));
+        // A count for the whole batch belongs to no single frame.
+        assertFalse(BatchingEngine.probeOutputs(new int[]{1600, 400, 4}, new int[]{6400, 1600, 4}, 4));
+        assertFalse(BatchingEngine.probeOutputs(new int[]{1600, 4}, new int[]{3200, 8}, 4));
+    }
+
+    @Test
+    public void copiesTheSliceOfTheFrame() {
+        ByteBuffer batchOutput = ByteBuffer.allocate(12);
+        for (int i = 0; i < 12; i++) {
+            batchOutput.put(i, (byte) i);
+        }
+        ByteBuffer output = ByteBuffer.allocate(4);
+        BatchingEngine.copyFrameOutput(batchOutput, 4, 2, output);
+        assertEquals(0, output.position());
+        assertArrayEquals(new byte[]{8, 9, 10, 11}, output.array());
+        // The batch output is only read.
+        assertEquals(0, batchOutput.position());
+        assertEquals(12, batchOutput.limit());
+    }
+}
@@ -0,0 +1,75 @@
+package com.tfcamerademo.model;
+
+import com.tfcamerademo.preprocess.TensorFormat;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+public class BufferSetPoolTest {
+
+    /**
+     * An engine that only counts the output sets it creates.
+     */
+    private static class CountingEngine implements InferenceEngine {
+        int outputSets;
+
+        @Override
+        public Object[] createOutputs() {
+            outputSets++;
+            return new Object[]{ByteBuffer.allocateDirect(4)};
+        }
+
+        @Override
+        public void run(Object input, Object[] outputs) {
+        }
+
+        @Override
+        public int getParallelism() {
+            return 2;
+        }
+
+        @Override
+        public String getStatString() {
+            return "";
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    @Test
+    public void overlappingCallsGetTheirOwnSet() {
+        CountingEngine engine = new CountingEngine();
+        BufferSetPool pool = new BufferSetPool(TensorFormat.uint8(4, 4, TensorFormat.ChannelOrder.RGB), engine);
+        BufferSetPool.BufferSet first = pool.checkout();
+        BufferSetPool.BufferSet second = pool.checkout();
+        assertNotSame(first, second);
+        assertNotSame(first.input, second.input);
+        assertNotSame(first.outputs, second.outputs);
+        assertEquals(4 * 4 * 3, first.input.capacity());
+        assertEquals(2, engine.outputSets);
+
+        // Returned sets are reused, no new output set is bound.
+        pool.release(second);
+        assertSame(second, pool.checkout());
+        pool.release(first);
+        assertSame(first, pool.checkout());
+        assertEquals(2, engine.outputSets);
+    }
+
+    @Test
+    public void releaseRewindsTheInput() {
+        BufferSetPool pool = new BufferSetPool(TensorFormat.uint8(2, 2, TensorFormat.ChannelOrder.RGB),
+                new CountingEngine());
+        BufferSetPool.BufferSet set = pool.checkout();
+        set.input.put((byte) 1);
+        pool.release(set);
+        assertEquals(0, pool.checkout().input.position());
+    }
+}
@@ -0,0 +1,169 @@
+package com.tfcamerademo.pipeline;
+
+import com.tfcamerademo.Classifier;
+import com.tfcamerademo.model.FakeInterpreter;
+import com.tfcamerademo.model.InferenceEngine;
+import com.tfcamerademo.model.TensorFlowObjectDetectionAPIModel;
+import com.tfcamerademo.utils.DiagnosticsRecorder;
+
+import org.junit.Rule;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class FramePipelineTest {
+
+    private static final int INPUT_SIZE = 300;
+    private static final long TIMEOUT_MS = 5000;
+
+    /**
+     * An engine that throws for its first {@code failures} runs, like a delegate rejecting an
+     * input, and then returns one detection.
+     */
+    private static class FailingEngine implements InferenceEngine {
+        final AtomicInteger runs = new AtomicInteger();
+        private final int failures;
+        private final FakeInterpreter interpreter = new FakeInterpreter(FakeInterpreter.ssdOutputs(100,
+                new float[][]{{0.25f, 0.25f, 0.75f, 0.75f}}, new float[]{0.9f}, new int[]{1}), 0);
+
+        FailingEngine(int failures) {
+            this.failures = failures;
+        }
+
+        @Override
+        public Object[] createOutputs() {
+            return interpreter.createOutputs();
+        }
+
+        @Override
+        public void run(Object input, Object[] outputs) {
+            if (runs.incrementAndGet() <= failures) {
+                throw new IllegalArgumentException("Rejected input");
+            }
+            interpreter.run(input, outputs);
+        }
+
+        @Override
+        public int getParallelism() {
+            return 1;
+        }
+
+        @Override
+        public String getStatString() {
+            return "";
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    @Rule
+    public DiagnosticsRecorder diagnostics = new DiagnosticsRecorder();
+
+    private static Classifier createDetector(InferenceEngine engine) {
+        return TensorFlowObjectDetectionAPIModel.create(Arrays.asList("background", "object"), INPUT_SIZE, engine);
+    }
+
+    /**
+     * Publishes frames to every queue until {@code results} is counted down, one at a time so none
+     * is overwritten before its pipeline takes it.
+     */
+    private static void feed(CountDownLatch results, LatestFrameQueue... frameQueues) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(TIMEOUT_MS);
+        while (results.getCount() > 0 && System.nanoTime() < deadline) {
+            for (LatestFrameQueue frameQueue : frameQueues) {
+                Frame frame = frameQueue.obtain();
+                if (frame != null) {
+                    frame.setCaptureNanos(System.nanoTime());
+                    frameQueue.publish(frame);
+                }
+            }
+            for (LatestFrameQueue frameQueue : frameQueues) {
+                frameQueue.awaitConsumed(TIMEOUT_MS);
+            }
+            results.await(10, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private static FramePipeline.ResultListener countDown(final CountDownLatch results) {
+        return new FramePipeline.ResultListener() {
+            @Override
+            public void onResults(InferenceResult result, List<Classifier.Recognition> recognitions) {
+                results.countDown();
+            }
+        };
+    }
+
+    @Test
+    public void keepsRunningAfterTheModelThrows() throws InterruptedException {
+        FailingEngine engine = new FailingEngine(2);
+        Classifier classifier = createDetector(engine);
+        LatestFrameQueue frameQueue = new LatestFrameQueue(classifier.getInputFormat(), 0);
+        final CountDownLatch results = new CountDownLatch(1);
+        final List<Float> confidences = Collections.synchronizedList(new ArrayList<Float>());
+        FramePipeline pipeline = new FramePipeline("Test", classifier, frameQueue,
+                new FramePipeline.ResultListener() {
+                    @Override
+                    public void onResults(InferenceResult result, List<Classifier.Recognition> recognitions) {
+                        confidences.add(recognitions.get(0).getConfidence());
+                        results.countDown();
+                    }
+                }, new LatencyTracker());
+        pipeline.start();
+        try {
+            feed(results, frameQueue);
+        } finally {
+            pipeline.quit();
+        }
+
+        assertEquals(0, results.getCount());
+        // Only frames the model did not reject reach the listener.
+        assertEquals(0.9f, confidences.get(0), 1e-6f);
+        assertTrue(engine.runs.get() >= 3);
+        assertEquals(2, diagnostics.getWarnings().size());
+        assertTrue(pipeline.getStatString(), pipeline.getStatString().contains("failed=2"));
+    }
+
+    @Test
+    public void aFailingModelDoesNotStopTheOthersOnTheScheduler() throws InterruptedException {
+        // One worker, so the healthy model only runs if the worker survives the failing one.
+        InferenceScheduler scheduler = new InferenceScheduler("Test", 1);
+        scheduler.start();
+        FailingEngine failingEngine = new FailingEngine(Integer.MAX_VALUE);
+        Classifier failing = createDetector(failingEngine);
+        Classifier healthy = createDetector(new FailingEngine(0));
+        LatestFrameQueue failingQueue = new LatestFrameQueue(failing.getInputFormat(), 0);
+        LatestFrameQueue healthyQueue = new LatestFrameQueue(healthy.getInputFormat(), 0);
+        CountDownLatch failingResults = new CountDownLatch(1);
+        CountDownLatch healthyResults = new CountDownLatch(5);
+        FramePipeline failingPipeline = new FramePipeline("Failing", failing, failingQueue,
+                countDown(failingResults), new LatencyTracker(), scheduler, 1);
+        FramePipeline healthyPipeline = new FramePipeline("Healthy", healthy, healthyQueue,
+                countDown(healthyResults), new LatencyTracker(), scheduler, 1);
+        failingPipeline.start();
+        healthyPipeline.start();
+        try {
+            feed(healthyResults, failingQueue, healthyQueue);
+        } finally {
+            failingPipeline.quit();
+            healthyPipeline.quit();
+            scheduler.quit();
+        }
+
+        assertEquals(0, healthyResults.getCount());
+        assertEquals(1, failingResults.getCount());
+        // The failing model was retried for every frame, not dropped after its first failure.
+        assertTrue(failingEngine.runs.get() > 1);
+        assertEquals(failingEngine.runs.get(), diagnostics.getWarnings().size());
+    }
+}
@@ -0,0 +1,45 @@
+package com.tfcamerademo.pipeline;
+
+import com.tfcamerademo.preprocess.TensorFormat;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+public class LatestFrameQueueTest {
+
+    private static final long MAX_AGE_MS = 100;
+
+    private final LatestFrameQueue queue =
+            new LatestFrameQueue(TensorFormat.uint8(2, 2, TensorFormat.ChannelOrder.RGB), MAX_AGE_MS);
+
+    private Frame publish(long capturedMsAgo) {
+        Frame frame = queue.obtain();
+        frame.setCaptureNanos(System.nanoTime() - TimeUnit.MILLISECONDS.toNanos(capturedMsAgo));
+        queue.publish(frame);
+        return frame;
+    }
+
+    @Test
+    public void dropsFramesCapturedTooLongAgoEvenIfJustPublished() {
+        publish(MAX_AGE_MS * 2);
+        assertNull(queue.poll());
+        assertEquals(1, queue.getDroppedCount());
+
+        Frame fresh = publish(0);
+        assertSame(fresh, queue.poll());
+        assertEquals(1, queue.getConsumedCount());
+    }
+
+    @Test
+    public void overwritesTheWaitingFrame() throws InterruptedException {
+        publish(0);
+        Frame newest = publish(0);
+        assertSame(newest, queue.take());
+        assertEquals("published=2 consumed=1 overwritten=1 stale=0 noBuffer=0", queue.getStatString());
+    }
+}
@@ -0,0 +1,124 @@
+package com.tfcamerademo.preprocess;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ImagePyramidTest {
+
+    private static final int WIDTH = 64;
+    private static final int HEIGHT = 48;
+
+    /**
+     * Grey levels the pyramid output may differ from the direct conversion by: rounding of the two
+     * averages, and averaging RGB after the colour conversion instead of YUV before it.
+     */
+    private static final int TOLERANCE = 2;
+
+    /**
+     * A crop edge between level pixels moves by up to half a level pixel, 2 sensor pixels at level
+     * 1; the scene changes by about 1.5 levels per sensor pixel.
+     */
+    private static final int UNALIGNED_TOLERANCE = 6;
+
+    /**
+     * A smooth scene like a camera sees: a luma ramp with ripples and moderately coloured chroma.
+     */
+    private static YuvFrame createScene() {
+        ByteBuffer y = ByteBuffer.allocateDirect(WIDTH * HEIGHT);
+        ByteBuffer u = ByteBuffer.allocateDirect(WIDTH * HEIGHT / 4);
+        ByteBuffer v = ByteBuffer.allocateDirect(WIDTH * HEIGHT / 4);
+        for (int row = 0; row < HEIGHT; row++) {
+            for (int column = 0; column < WIDTH; column++) {
+                double luma = 60 + 100.0 * (column + row) / (WIDTH + HEIGHT)
+                        + 20 * Math.sin(column / 5.0) * Math.cos(row / 7.0);
+                y.put(row * WIDTH + column, (byte) Math.round(luma));
+            }
+        }
+        for (int row = 0; row < HEIGHT / 2; row++) {
+            for (int column = 0; column < WIDTH / 2; column++) {
+                u.put(row * WIDTH / 2 + column, (byte) Math.round(128 + 16 * Math.sin(column / 5.5)));
+                v.put(row * WIDTH / 2 + column, (byte) Math.round(128 + 16 * Math.cos(row / 4.5)));
+            }
+        }
+        YuvFrame frame = new YuvFrame();
+        frame.set(WIDTH, HEIGHT, y, WIDTH, u, v, WIDTH / 2, 1);
+        return frame;
+    }
+
+    private static int maxDifference(YuvToTensorConverter converter, YuvFrame frame, ImagePyramid pyramid) {
+        ByteBuffer direct = converter.getFormat().allocate();
+        ByteBuffer sampled = converter.getFormat().allocate();
+        converter.convert(frame, direct);
+        converter.convert(pyramid, sampled);
+        int max = 0;
+        for (int i = 0; i < converter.getFormat().getByteSize(); i++) {
+            max = Math.max(max, Math.abs((direct.get(i) & 0xff) - (sampled.get(i) & 0xff)));
+        }
+        return max;
+    }
+
+    @Test
+    public void levelsMatchTheDirectAreaConversion() {
+        YuvFrame frame = createScene();
+        ImagePyramid pyramid = new ImagePyramid();
+        pyramid.build(frame, 3);
+        // Upright left, top, width and height; null for the full frame.
+        int[][] crops = {null, {8, 4, 40, 32}, {3, 5, 37, 29}};
+        for (int rotation = 0; rotation < 360; rotation += 90) {
+            boolean swapped = rotation == 90 || rotation == 270;
+            for (int[] crop : crops) {
+                // A quarter of the region per axis, which samples level 1.
+                int regionWidth = crop != null ? crop[2] : swapped ? HEIGHT : WIDTH;
+                int regionHeight = crop != null ? crop[3] : swapped ? WIDTH : HEIGHT;
+                TensorFormat format = TensorFormat.uint8(regionWidth / 4, regionHeight / 4,
+                        TensorFormat.ChannelOrder.RGB);
+                YuvToTensorConverter converter = new YuvToTensorConverter(format);
+                converter.setScaleMode(YuvToTensorConverter.ScaleMode.AREA);
+                converter.setRotation(rotation);
+                boolean aligned = true;
+                if (crop != null) {
+                    converter.setCrop(crop[0], crop[1], crop[2], crop[3]);
+                    aligned = crop[0] % 4 == 0 && crop[1] % 4 == 0 && crop[2] % 4 == 0 && crop[3] % 4 == 0;
+                }
+                assertEquals(1, converter.getPyramidLevel(WIDTH, HEIGHT));
+
+                int difference = maxDifference(converter, frame, pyramid);
+                String message = "rotation " + rotation + " crop " + (crop == null ? "none" : crop[0] + "," + crop[1])
+                        + " differs by " + difference;
+                assertTrue(message, difference <= (aligned ? TOLERANCE : UNALIGNED_TOLERANCE));
+            }
+        }
+    }
+
+    @Test
+    public void averagesEachLevelFromThePreviousOne() {
+        YuvFrame frame = createScene();
+        ImagePyramid pyramid = new ImagePyramid();
+        pyramid.build(frame, 10);
+        // Level 0 of 64x48 is 32x24, halving down to 2x1.
+        assertEquals(5, pyramid.getLevelCount());
+        ImagePyramid.Level level0 = pyramid.getLevel(0);
+        ImagePyramid.Level level1 = pyramid.getLevel(1);
+        assertEquals(2, level0.getScale());
+        assertEquals(4, level1.getScale());
+        int[] in = level0.getPixels();
+        int p0 = in[0];
+        int p1 = in[1];
+        int p2 = in[level0.getWidth()];
+        int p3 = in[level0.getWidth() + 1];
+        int green = (((p0 >> 8) & 0xff) + ((p1 >> 8) & 0xff) + ((p2 >> 8) & 0xff) + ((p3 >> 8) & 0xff) + 2) >> 2;
+        assertEquals(green, (level1.getPixels()[0] >> 8) & 0xff);
+    }
+
+    @Test
+    public void levelForPicksTheSmallestLevelWithoutUpscaling() {
+        assertEquals(-1, ImagePyramid.levelFor(640, 480, 640, 480));
+        assertEquals(0, ImagePyramid.levelFor(640, 480, 320, 240));
+        assertEquals(1, ImagePyramid.levelFor(640, 480, 150, 100));
+        assertEquals(2, ImagePyramid.levelFor(640, 480, 80, 60));
+    }
+}
@@ -0,0 +1,81 @@
+package com.tfcamerademo.preprocess;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class MotionGateTest {
+
+    private static final int WIDTH = 128;
+    private static final int HEIGHT = 96;
+    private static final long FRAME_NANOS = 33000000L;
+
+    /**
+     * A grey frame with a bright patch over the given fraction of the sensor image.
+     */
+    private static YuvFrame frameWithPatch(float left, float top, float right, float bottom) {
+        int[] luma = new int[WIDTH * HEIGHT];
+        for (int y = 0; y < HEIGHT; y++) {
+            for (int x = 0; x < WIDTH; x++) {
+                boolean inPatch = x >= left * WIDTH && x < right * WIDTH && y >= top * HEIGHT && y < bottom * HEIGHT;
+                luma[y * WIDTH + x] = inPatch ? 220 : 60;
+            }
+        }
+        return YuvToTensorConverterTest.createFrame(WIDTH, HEIGHT, luma);
+    }
+
+    private static YuvFrame greyFrame() {
+        return frameWithPatch(0f, 0f, 0f, 0f);
+    }
+
+    private static MotionGate createGate() {
+        MotionGate gate = new MotionGate(10, 60000);
+        assertTrue(gate.shouldProcess(greyFrame(), 0));
+        return gate;
+    }
+
+    @Test
+    public void comparesTheWholeFrameWithoutRegions() {
+        MotionGate gate = createGate();
+        assertFalse(gate.shouldProcess(greyFrame(), FRAME_NANOS));
+        assertTrue(gate.shouldProcess(frameWithPatch(0f, 0f, 0.5f, 0.3f), 2 * FRAME_NANOS));
+    }
+
+    @Test
+    public void ignoresMotionOutsideEveryRegion() {
+        MotionGate gate = createGate();
+        gate.setRegions(0, Collections.singletonList(new RegionOfInterest(0f, 0.5f, 1f, 1f)));
+        assertFalse(gate.shouldProcess(frameWithPatch(0f, 0f, 1f, 0.4f), FRAME_NANOS));
+        assertTrue(gate.shouldProcess(frameWithPatch(0f, 0.6f, 0.5f, 1f), 2 * FRAME_NANOS));
+    }
+
+    @Test
+    public void rotatesTheRegionsOntoTheSensorImage() {
+        // Rotated 90 degrees clockwise, the top of the upright frame is the left of the sensor image.
+        MotionGate gate = createGate();
+        gate.setRegions(90, Collections.singletonList(new RegionOfInterest(0f, 0f, 1f, 0.5f)));
+        assertFalse(gate.shouldProcess(frameWithPatch(0.6f, 0f, 1f, 1f), FRAME_NANOS));
+        assertTrue(gate.shouldProcess(frameWithPatch(0f, 0f, 0.4f, 1f), 2 * FRAME_NANOS));
+
+        gate = createGate();
+        gate.setRegions(270, Collections.singletonList(new RegionOfInterest(0f, 0f, 1f, 0.5f)));
+        assertFalse(gate.shouldProcess(frameWithPatch(0f, 0f, 0.4f, 1f), FRAME_NANOS));
+        assertTrue(gate.shouldProcess(frameWithPatch(0.6f, 0f, 1f, 1f), 2 * FRAME_NANOS));
+    }
+
+    @Test
+    public void watchesTheUnionOfRegions() {
+        MotionGate gate = createGate();
+        gate.setRegions(180, Arrays.asList(new RegionOfInterest(0f, 0f, 0.25f, 0.25f),
+                new RegionOfInterest(0.75f, 0.75f, 1f, 1f)));
+        // Rotated by 180 degrees, both corners swap.
+        assertFalse(gate.shouldProcess(frameWithPatch(0.4f, 0.4f, 0.6f, 0.6f), FRAME_NANOS));
+        assertTrue(gate.shouldProcess(frameWithPatch(0.8f, 0.8f, 1f, 1f), 2 * FRAME_NANOS));
+        assertTrue(gate.shouldProcess(greyFrame(), 3 * FRAME_NANOS));
+        assertTrue(gate.shouldProcess(frameWithPatch(0f, 0f, 0.2f, 0.2f), 4 * FRAME_NANOS));
+    }
+}
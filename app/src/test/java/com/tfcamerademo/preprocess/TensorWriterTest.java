@@ -0,0 +1,100 @@
+package com.tfcamerademo.preprocess;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.assertEquals;
+
+public class TensorWriterTest {
+
+    private static final int PIXEL = 0xff102030;
+
+    private static ByteBuffer write(TensorFormat format, int rgb) {
+        ByteBuffer out = format.allocate();
+        new TensorWriter(format).write(out, 1, rgb);
+        return out;
+    }
+
+    /**
+     * The channel written for the value {@code value} at pixel 1 of a 2x1 input.
+     */
+    private static int writeByte(TensorFormat format, int value) {
+        return write(format, (value << 16) | (value << 8) | value).get(3);
+    }
+
+    @Test
+    public void writesUint8InChannelOrder() {
+        ByteBuffer rgb = write(TensorFormat.uint8(2, 1, TensorFormat.ChannelOrder.RGB), PIXEL);
+        assertEquals(0x10, rgb.get(3));
+        assertEquals(0x20, rgb.get(4));
+        assertEquals(0x30, rgb.get(5));
+        // Pixel 0 is untouched.
+        assertEquals(0, rgb.get(0));
+
+        ByteBuffer bgr = write(TensorFormat.uint8(2, 1, TensorFormat.ChannelOrder.BGR), PIXEL);
+        assertEquals(0x30, bgr.get(3));
+        assertEquals(0x20, bgr.get(4));
+        assertEquals(0x10, bgr.get(5));
+    }
+
+    @Test
+    public void normalizesFloat32() {
+        TensorFormat format = TensorFormat.float32(2, 1, TensorFormat.ChannelOrder.RGB, 127.5f, 127.5f);
+        ByteBuffer out = write(format, 0xff00ff80);
+        assertEquals(-1f, out.getFloat(12), 1e-6f);
+        assertEquals(1f, out.getFloat(16), 1e-6f);
+        assertEquals(0.5f / 127.5f, out.getFloat(20), 1e-6f);
+    }
+
+    @Test
+    public void quantizesWithTheInputParams() {
+        // Normalized to [-1, 1) and quantized with scale 1/128: the signed pixel value.
+        TensorFormat int8 = TensorFormat.quantized(2, 1, TensorFormat.ChannelOrder.RGB,
+                TensorFormat.DataType.INT8, 128f, 128f, 1f / 128, 0);
+        assertEquals(-128, writeByte(int8, 0));
+        assertEquals(0, writeByte(int8, 128));
+        assertEquals(127, writeByte(int8, 255));
+
+        // Normalized to [0, 1] and quantized with scale 1/255 around 10.
+        TensorFormat uint8 = TensorFormat.quantized(2, 1, TensorFormat.ChannelOrder.RGB,
+                TensorFormat.DataType.UINT8, 0f, 255f, 1f / 255, 10);
+        assertEquals(10, writeByte(uint8, 0) & 0xff);
+        assertEquals(110, writeByte(uint8, 100) & 0xff);
+    }
+
+    @Test
+    public void clampsQuantizedValues() {
+        // Twice the pixel value, clamped to the uint8 range.
+        TensorFormat uint8 = TensorFormat.quantized(2, 1, TensorFormat.ChannelOrder.RGB,
+                TensorFormat.DataType.UINT8, 0f, 1f, 0.5f, 0);
+        assertEquals(200, writeByte(uint8, 100) & 0xff);
+        assertEquals(255, writeByte(uint8, 200) & 0xff);
+
+        TensorFormat int8 = TensorFormat.quantized(2, 1, TensorFormat.ChannelOrder.RGB,
+                TensorFormat.DataType.INT8, 0f, 1f, 1f, -200);
+        assertEquals(-128, writeByte(int8, 10));
+    }
+
+    @Test
+    public void shiftsRawInt8WithoutQuantParams() {
+        TensorFormat int8 = TensorFormat.quantized(2, 1, TensorFormat.ChannelOrder.RGB,
+                TensorFormat.DataType.INT8, 0f, 1f, 0f, 0);
+        assertEquals(-128, writeByte(int8, 0));
+        assertEquals(127, writeByte(int8, 255));
+        TensorFormat uint8 = TensorFormat.quantized(2, 1, TensorFormat.ChannelOrder.RGB,
+                TensorFormat.DataType.UINT8, 0f, 1f, 0f, 0);
+        assertEquals(200, writeByte(uint8, 200) & 0xff);
+    }
+
+    @Test
+    public void argbConverterWritesThroughTheSameTables() {
+        TensorFormat format = TensorFormat.float32(2, 1, TensorFormat.ChannelOrder.BGR, 0f, 255f);
+        ByteBuffer out = format.allocate();
+        new ArgbToTensorConverter(format).convert(new int[]{0xffff0000, 0xff0000ff}, out);
+        assertEquals(0f, out.getFloat(0), 1e-6f);
+        assertEquals(1f, out.getFloat(8), 1e-6f);
+        assertEquals(1f, out.getFloat(12), 1e-6f);
+        assertEquals(0f, out.getFloat(20), 1e-6f);
+    }
+}
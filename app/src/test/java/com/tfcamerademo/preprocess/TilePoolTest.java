@@ -0,0 +1,113 @@
+package com.tfcamerademo.preprocess;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class TilePoolTest {
+
+    private static final int WIDTH = 320;
+    private static final int HEIGHT = 240;
+
+    private static TilePool pool;
+
+    @BeforeClass
+    public static void createPool() {
+        pool = new TilePool("TilePoolTest", 3, 1);
+    }
+
+    @AfterClass
+    public static void releasePool() {
+        // The workers are daemons, nothing to stop.
+        pool = null;
+    }
+
+    private static YuvFrame createFrame() {
+        int[] luma = new int[WIDTH * HEIGHT];
+        for (int y = 0; y < HEIGHT; y++) {
+            for (int x = 0; x < WIDTH; x++) {
+                luma[y * WIDTH + x] = (x * 7 + y * 13) & 0xff;
+            }
+        }
+        YuvFrame frame = YuvToTensorConverterTest.createFrame(WIDTH, HEIGHT, luma);
+        // Colour, so the chroma lookups are covered too.
+        for (int i = 0; i < WIDTH * HEIGHT / 4; i++) {
+            frame.getUBuffer().put(i, (byte) (i * 3));
+            frame.getVBuffer().put(i, (byte) (i * 5));
+        }
+        return frame;
+    }
+
+    private static void assertTiledEqualsSingleThread(TensorFormat format, YuvToTensorConverter.ScaleMode mode,
+                                                      int rotation) {
+        YuvFrame frame = createFrame();
+        YuvToTensorConverter single = new YuvToTensorConverter(format);
+        YuvToTensorConverter tiled = new YuvToTensorConverter(format);
+        for (YuvToTensorConverter converter : new YuvToTensorConverter[]{single, tiled}) {
+            converter.setScaleMode(mode);
+            converter.setRotation(rotation);
+            converter.setCrop(10, 20, 200, 150);
+        }
+        tiled.setTilePool(pool);
+        ByteBuffer expected = format.allocate();
+        ByteBuffer actual = format.allocate();
+        single.convert(frame, expected);
+        tiled.convert(frame, actual);
+        assertEquals(mode + " rotation " + rotation, expected, actual);
+    }
+
+    @Test
+    public void tiledConversionEqualsSingleThread() {
+        TensorFormat uint8 = TensorFormat.uint8(96, 64, TensorFormat.ChannelOrder.RGB);
+        TensorFormat float32 = TensorFormat.float32(64, 96, TensorFormat.ChannelOrder.BGR, 127.5f, 127.5f);
+        for (YuvToTensorConverter.ScaleMode mode : YuvToTensorConverter.ScaleMode.values()) {
+            for (int rotation = 0; rotation < 360; rotation += 90) {
+                assertTiledEqualsSingleThread(uint8, mode, rotation);
+                assertTiledEqualsSingleThread(float32, mode, rotation);
+            }
+        }
+    }
+
+    @Test
+    public void runsEveryRowOnce() {
+        final int rows = 101;
+        final AtomicIntegerArray counts = new AtomicIntegerArray(rows);
+        pool.run(rows, 1000, new TilePool.RowTask() {
+            @Override
+            public void run(int rowStart, int rowEnd) {
+                for (int row = rowStart; row < rowEnd; row++) {
+                    counts.incrementAndGet(row);
+                }
+            }
+        });
+        for (int row = 0; row < rows; row++) {
+            assertEquals("row " + row, 1, counts.get(row));
+        }
+    }
+
+    @Test
+    public void rethrowsATileFailureOnTheCaller() {
+        try {
+            pool.run(64, 1000, new TilePool.RowTask() {
+                @Override
+                public void run(int rowStart, int rowEnd) {
+                    if (rowStart > 0) {
+                        throw new IllegalStateException("tile " + rowStart);
+                    }
+                }
+            });
+            fail();
+        } catch (IllegalStateException e) {
+            assertTrue(e.getMessage().startsWith("tile "));
+        }
+        // The pool is usable again.
+        runsEveryRowOnce();
+    }
+}
@@ -0,0 +1,181 @@
+package com.tfcamerademo.preprocess;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.assertEquals;
+
+public class YuvToTensorConverterTest {
+
+    private static final int WIDTH = 6;
+    private static final int HEIGHT = 4;
+
+    /**
+     * A frame with neutral chroma and a different luma per pixel, so every output pixel is grey
+     * and tells which sensor pixel it was sampled from.
+     */
+    static YuvFrame createFrame(int width, int height, int[] luma) {
+        ByteBuffer y = ByteBuffer.allocateDirect(width * height);
+        ByteBuffer u = ByteBuffer.allocateDirect(width * height / 4);
+        ByteBuffer v = ByteBuffer.allocateDirect(width * height / 4);
+        for (int i = 0; i < width * height; i++) {
+            y.put(i, (byte) luma[i]);
+        }
+        for (int i = 0; i < width * height / 4; i++) {
+            u.put(i, (byte) 128);
+            v.put(i, (byte) 128);
+        }
+        YuvFrame frame = new YuvFrame();
+        frame.set(width, height, y, width, u, v, width / 2, 1);
+        return frame;
+    }
+
+    private static int[] distinctLuma(int width, int height) {
+        int[] luma = new int[width * height];
+        for (int i = 0; i < luma.length; i++) {
+            luma[i] = 16 + i * 8;
+        }
+        return luma;
+    }
+
+    /**
+     * The grey level the converter writes for a luma sample.
+     */
+    private static int grey(int luma) {
+        return (YuvToTensorConverter.yuvToRgb(luma, 128, 128) >> 16) & 0xff;
+    }
+
+    private static ByteBuffer convert(YuvToTensorConverter converter, YuvFrame frame) {
+        ByteBuffer out = converter.getFormat().allocate();
+        converter.convert(frame, out);
+        return out;
+    }
+
+    private static int red(ByteBuffer out, TensorFormat format, int x, int y) {
+        return out.get((y * format.getWidth() + x) * 3) & 0xff;
+    }
+
+    @Test
+    public void rotatesClockwiseToUpright() {
+        int[] luma = distinctLuma(WIDTH, HEIGHT);
+        YuvFrame frame = createFrame(WIDTH, HEIGHT, luma);
+        for (int rotation = 0; rotation < 360; rotation += 90) {
+            boolean swapped = rotation == 90 || rotation == 270;
+            TensorFormat format = TensorFormat.uint8(swapped ? HEIGHT : WIDTH, swapped ? WIDTH : HEIGHT,
+                    TensorFormat.ChannelOrder.RGB);
+            YuvToTensorConverter converter = new YuvToTensorConverter(format);
+            converter.setRotation(rotation);
+            ByteBuffer out = convert(converter, frame);
+            for (int oy = 0; oy < format.getHeight(); oy++) {
+                for (int ox = 0; ox < format.getWidth(); ox++) {
+                    int sx;
+                    int sy;
+                    if (rotation == 0) {
+                        sx = ox;
+                        sy = oy;
+                    } else if (rotation == 90) {
+                        sx = oy;
+                        sy = HEIGHT - 1 - ox;
+                    } else if (rotation == 180) {
+                        sx = WIDTH - 1 - ox;
+                        sy = HEIGHT - 1 - oy;
+                    } else {
+                        sx = WIDTH - 1 - oy;
+                        sy = ox;
+                    }
+                    assertEquals("rotation " + rotation + " at " + ox + "," + oy,
+                            grey(luma[sy * WIDTH + sx]), red(out, format, ox, oy));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void mapsTheCropInUprightCoordinates() {
+        int[] luma = distinctLuma(WIDTH, HEIGHT);
+        YuvFrame frame = createFrame(WIDTH, HEIGHT, luma);
+
+        TensorFormat format = TensorFormat.uint8(3, 2, TensorFormat.ChannelOrder.RGB);
+        YuvToTensorConverter converter = new YuvToTensorConverter(format);
+        converter.setCrop(2, 1, 3, 2);
+        ByteBuffer out = convert(converter, frame);
+        for (int oy = 0; oy < 2; oy++) {
+            for (int ox = 0; ox < 3; ox++) {
+                assertEquals(grey(luma[(1 + oy) * WIDTH + 2 + ox]), red(out, format, ox, oy));
+            }
+        }
+
+        // Upright the frame is 4x6; the crop is the 2x3 block at (1, 2) of that.
+        format = TensorFormat.uint8(2, 3, TensorFormat.ChannelOrder.RGB);
+        converter = new YuvToTensorConverter(format);
+        converter.setRotation(90);
+        converter.setCrop(1, 2, 2, 3);
+        out = convert(converter, frame);
+        for (int oy = 0; oy < 3; oy++) {
+            for (int ox = 0; ox < 2; ox++) {
+                int ux = 1 + ox;
+                int uy = 2 + oy;
+                assertEquals(grey(luma[(HEIGHT - 1 - ux) * WIDTH + uy]), red(out, format, ox, oy));
+            }
+        }
+    }
+
+    @Test
+    public void clipsTheCropToTheFrame() {
+        int[] luma = distinctLuma(WIDTH, HEIGHT);
+        YuvFrame frame = createFrame(WIDTH, HEIGHT, luma);
+        TensorFormat format = TensorFormat.uint8(2, 2, TensorFormat.ChannelOrder.RGB);
+        YuvToTensorConverter converter = new YuvToTensorConverter(format);
+        converter.setCrop(WIDTH - 2, HEIGHT - 2, 10, 10);
+        ByteBuffer out = convert(converter, frame);
+        assertEquals(grey(luma[(HEIGHT - 2) * WIDTH + WIDTH - 2]), red(out, format, 0, 0));
+        assertEquals(grey(luma[HEIGHT * WIDTH - 1]), red(out, format, 1, 1));
+    }
+
+    @Test
+    public void areaAveragesWhatBilinearSkips() {
+        // Every row the same, a 4:1 downscale per axis.
+        int[] columns = {16, 40, 60, 200, 20, 90, 90, 30};
+        int width = columns.length;
+        int height = 8;
+        int[] luma = new int[width * height];
+        for (int i = 0; i < luma.length; i++) {
+            luma[i] = columns[i % width];
+        }
+        YuvFrame frame = createFrame(width, height, luma);
+        TensorFormat format = TensorFormat.uint8(2, 2, TensorFormat.ChannelOrder.RGB);
+        YuvToTensorConverter converter = new YuvToTensorConverter(format);
+
+        // Bilinear samples at 1.5 and 5.5, between the two middle pixels of each span.
+        ByteBuffer bilinear = convert(converter, frame);
+        assertEquals(grey((columns[1] + columns[2] + 1) / 2), red(bilinear, format, 0, 0));
+        assertEquals(grey((columns[5] + columns[6] + 1) / 2), red(bilinear, format, 1, 1));
+
+        // Area averages all four pixels of each span.
+        converter.setScaleMode(YuvToTensorConverter.ScaleMode.AREA);
+        ByteBuffer area = convert(converter, frame);
+        assertEquals(grey((columns[0] + columns[1] + columns[2] + columns[3] + 2) / 4), red(area, format, 0, 0));
+        assertEquals(grey((columns[4] + columns[5] + columns[6] + columns[7] + 2) / 4), red(area, format, 1, 1));
+    }
+
+    @Test
+    public void convertsBt601VideoRange() {
+        assertEquals(0x000000, YuvToTensorConverter.yuvToRgb(16, 128, 128));
+        // 10 bit fixed point truncates white by one level.
+        int white = YuvToTensorConverter.yuvToRgb(235, 128, 128);
+        assertEquals(255, (white >> 16) & 0xff, 1);
+        assertEquals(255, (white >> 8) & 0xff, 1);
+        assertEquals(255, white & 0xff, 1);
+        // Pure red in BT.601 video range.
+        int red = YuvToTensorConverter.yuvToRgb(81, 90, 240);
+        assertEquals(255, (red >> 16) & 0xff, 2);
+        assertEquals(0, (red >> 8) & 0xff, 2);
+        assertEquals(0, red & 0xff, 2);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsRotationsThatAreNotRightAngles() {
+        new YuvToTensorConverter(TensorFormat.uint8(2, 2, TensorFormat.ChannelOrder.RGB)).setRotation(45);
+    }
+}
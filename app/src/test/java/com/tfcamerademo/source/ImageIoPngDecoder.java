@@ -0,0 +1,32 @@
+package com.tfcamerademo.source;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+
+import javax.imageio.ImageIO;
+
+/**
+ * 在桌面 JVM 上用 javax.imageio 解码 PNG
+ * <p>
+ * The {@link PngSequenceFrameSource.Decoder} for unit tests and workstation runs, where
+ * {@code BitmapFactory} is not available.
+ */
+public class ImageIoPngDecoder implements PngSequenceFrameSource.Decoder {
+
+    @Override
+    public int[] decodeSize(File file) throws IOException {
+        BufferedImage image = ImageIO.read(file);
+        return image == null ? null : new int[]{image.getWidth(), image.getHeight()};
+    }
+
+    @Override
+    public boolean decodePixels(File file, int[] argb, int width, int height) throws IOException {
+        BufferedImage image = ImageIO.read(file);
+        if (image == null || image.getWidth() < width || image.getHeight() < height) {
+            return false;
+        }
+        image.getRGB(0, 0, width, height, argb, 0, width);
+        return true;
+    }
+}
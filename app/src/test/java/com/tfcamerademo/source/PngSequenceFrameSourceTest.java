@@ -0,0 +1,69 @@
+package com.tfcamerademo.source;
+
+import com.tfcamerademo.preprocess.YuvFrame;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.imageio.ImageIO;
+
+import static org.junit.Assert.assertEquals;
+
+public class PngSequenceFrameSourceTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void decodesInFileNameOrderAndCutsOddEdges() throws Exception {
+        File directory = folder.newFolder("png");
+        // Written out of order, read back sorted by name.
+        writePng(new File(directory, "frame1.png"), 0xffffffff);
+        writePng(new File(directory, "frame0.png"), 0xff000000);
+        final List<Integer> lumas = new ArrayList<>();
+        final int[] size = new int[2];
+        PngSequenceFrameSource source = new PngSequenceFrameSource("Png", directory, new ImageIoPngDecoder());
+        long count = source.read(new ReplayFrameSource.FrameCallback() {
+            @Override
+            public void onFrame(YuvFrame frame, long index, long timestampUs) {
+                size[0] = frame.getWidth();
+                size[1] = frame.getHeight();
+                lumas.add(frame.getYBuffer().get(0) & 0xff);
+            }
+        });
+
+        assertEquals(2, count);
+        assertEquals(4, size[0]);
+        assertEquals(2, size[1]);
+        // BT.601 video range.
+        assertEquals(16, (int) lumas.get(0));
+        assertEquals(235, (int) lumas.get(1));
+    }
+
+    @Test(expected = IOException.class)
+    public void failsOnAnEmptyDirectory() throws Exception {
+        new PngSequenceFrameSource("Png", folder.newFolder("empty"), new ImageIoPngDecoder()).read(
+                new ReplayFrameSource.FrameCallback() {
+                    @Override
+                    public void onFrame(YuvFrame frame, long index, long timestampUs) {
+                    }
+                });
+    }
+
+    private static void writePng(File file, int argb) throws IOException {
+        BufferedImage image = new BufferedImage(5, 3, BufferedImage.TYPE_INT_ARGB);
+        for (int y = 0; y < image.getHeight(); y++) {
+            for (int x = 0; x < image.getWidth(); x++) {
+                image.setRGB(x, y, argb);
+            }
+        }
+        ImageIO.write(image, "png", file);
+    }
+}
@@ -0,0 +1,41 @@
+package com.tfcamerademo.source;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * 测试用的合成 YUV 录像
+ */
+public class TestClips {
+
+    private TestClips() {
+        throw new UnsupportedOperationException("UnsupportedOperationException");
+    }
+
+    /**
+     * Writes {@code frames} I420 frames of a gradient that moves by 4 levels per frame, with
+     * neutral chroma, as read by {@link YuvDumpFrameSource}.
+     */
+    public static File writeI420(File file, int width, int height, int frames) throws IOException {
+        byte[] frame = new byte[width * height * 3 / 2];
+        OutputStream out = new FileOutputStream(file);
+        try {
+            for (int i = 0; i < frames; i++) {
+                for (int y = 0; y < height; y++) {
+                    for (int x = 0; x < width; x++) {
+                        frame[y * width + x] = (byte) (x + y + i * 4);
+                    }
+                }
+                for (int j = width * height; j < frame.length; j++) {
+                    frame[j] = (byte) 128;
+                }
+                out.write(frame);
+            }
+        } finally {
+            out.close();
+        }
+        return file;
+    }
+}
@@ -0,0 +1,56 @@
+package com.tfcamerademo.utils;
+
+import org.junit.rules.ExternalResource;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Keeps what a test logs through {@link Diagnostics} instead of printing it, so the test can
+ * check it and the test output stays clean.
+ */
+public class DiagnosticsRecorder extends ExternalResource implements Diagnostics.Backend {
+
+    private final List<String> warnings = Collections.synchronizedList(new ArrayList<String>());
+    private final List<String> errors = Collections.synchronizedList(new ArrayList<String>());
+
+    @Override
+    protected void before() {
+        Diagnostics.setBackend(this);
+    }
+
+    @Override
+    protected void after() {
+        Diagnostics.setBackend(null);
+    }
+
+    @Override
+    public void beginSection(String sectionName) {
+    }
+
+    @Override
+    public void endSection() {
+    }
+
+    @Override
+    public void log(int priority, String tag, String msg, Throwable throwable) {
+        if (priority == Diagnostics.WARN) {
+            warnings.add(tag + ": " + msg);
+        } else if (priority == Diagnostics.ERROR) {
+            errors.add(tag + ": " + msg);
+        }
+    }
+
+    public List<String> getWarnings() {
+        synchronized (warnings) {
+            return new ArrayList<String>(warnings);
+        }
+    }
+
+    public List<String> getErrors() {
+        synchronized (errors) {
+            return new ArrayList<String>(errors);
+        }
+    }
+}